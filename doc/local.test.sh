@@ -27,6 +27,9 @@ export HADOOP_CLASSPATH=/data/workspace_oss/Fingraph_Hadoop/target/classes:$HADO
 
 export CLASSPATH=/data/workspace_oss/Fingraph_Hadoop/target/classes:.
 
+# or run whole chain of one mode in one JVM, independent jobs concurrently
+#hadoop ph.fingra.hadoop.mapred.PipelineDriver -Drunmode=day -Dtargetdate=2014-08-20 -Dnumreduce=4 -Dparallel=4
+
 # run daily map/reduce job #############################################
 
 mode="day"
@@ -36,6 +39,17 @@ hadoop ph.fingra.hadoop.mapred.PreroleDriver logcount -Drunmode=$mode -Dtargetda
 hadoop ph.fingra.hadoop.mapred.PreroleDriver pretransform -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PreroleDriver appnewusermerge -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PreroleDriver componentnewusermerge -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+# or merge both newuser db above with one scan of transform log
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver newusermerge -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+# merge above appends partitions of new users only, compact newuser db periodically
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver appnewusermerge -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4 -Ddbmode=compact
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver componentnewusermerge -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4 -Ddbmode=compact
+# join merge keeps key index of compaction, delta merge (default) deletes it
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver appnewusermerge -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4 -Ddbmode=join
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver componentnewusermerge -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4 -Ddbmode=join
+# roll back newuser db to the previous snapshot
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver appnewusermerge -Drunmode=$mode -Dtargetdate=$target -Ddbmode=rollback
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver componentnewusermerge -Drunmode=$mode -Dtargetdate=$target -Ddbmode=rollback
 hadoop ph.fingra.hadoop.mapred.PreroleDriver basekeys -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver newuser -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
@@ -44,6 +58,12 @@ hadoop ph.fingra.hadoop.mapred.PerformanceDriver frequency -Drunmode=$mode -Dtar
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver hoursession -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver sessionlength -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver pageview -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+# or all of above PerformanceDriver jobs in one scan of transform log
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver fused -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+# usersession/hoursession of hot apps (from logcount) spread over reducers, then merged
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver usersession -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4 -Dsalted=true
+# usersession/country/device users and sessions by hyperloglog sketches (about 1% error)
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver usersession -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4 -Dapproximate=true
 
 hadoop ph.fingra.hadoop.mapred.DistributionDriver device -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.DistributionDriver country -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
@@ -53,6 +73,18 @@ hadoop ph.fingra.hadoop.mapred.ComponentDriver componentusersession -Drunmode=$m
 hadoop ph.fingra.hadoop.mapred.ComponentDriver componentfrequency -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.ComponentDriver componenthoursession -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 
+# run hourly map/reduce job ############################################
+
+# pretransform in hour mode writes partition of the hour, read by hour mode jobs
+# (hour mode jobs fail without it, day run of pretransform deletes partitions of the day)
+#mode="hour"
+#target="2014-08-20-13"
+
+#hadoop ph.fingra.hadoop.mapred.PreroleDriver pretransform -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver usersession -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver pageview -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+#hadoop ph.fingra.hadoop.mapred.DistributionDriver country -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+
 # run weekly map/reduce job ############################################
 
 mode="week"
@@ -64,6 +96,12 @@ hadoop ph.fingra.hadoop.mapred.PerformanceDriver frequency -Drunmode=$mode -Dtar
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver hoursession -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver sessionlength -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver pageview -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+# or all of above PerformanceDriver jobs in one scan of transform log
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver fused -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+# pageview/hoursession/sessionlength (and usersession/device/country with -Dapproximate=true)
+# merged from daily partials of the week instead of transform logs,
+# day runs keep partials when hfs_database_rollup_keep_month > 0
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver pageview -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4 -Drollup=true
 
 hadoop ph.fingra.hadoop.mapred.DistributionDriver device -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.DistributionDriver country -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
@@ -84,6 +122,8 @@ hadoop ph.fingra.hadoop.mapred.PerformanceDriver frequency -Drunmode=$mode -Dtar
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver hoursession -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver sessionlength -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.PerformanceDriver pageview -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
+# or all of above PerformanceDriver jobs in one scan of transform log
+#hadoop ph.fingra.hadoop.mapred.PerformanceDriver fused -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 
 hadoop ph.fingra.hadoop.mapred.DistributionDriver device -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
 hadoop ph.fingra.hadoop.mapred.DistributionDriver country -Drunmode=$mode -Dtargetdate=$target -Dnumreduce=4
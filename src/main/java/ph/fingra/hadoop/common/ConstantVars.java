@@ -86,6 +86,13 @@ public class ConstantVars {
     public static final String DOPTION_RUNMODE          = "runmode";
     public static final String DOPTION_TARGETDATE       = "targetdate";
     public static final String DOPTION_NUMREDUCE        = "numreduce";
+    public static final String DOPTION_PARALLEL         = "parallel";
+    public static final String DOPTION_FUSED            = "fused";
+    public static final String DOPTION_COMBINEDMERGE    = "combinedmerge";
+    public static final String DOPTION_DBMODE           = "dbmode";
+    public static final String DOPTION_SALTED           = "salted";
+    public static final String DOPTION_APPROXIMATE      = "approximate";
+    public static final String DOPTION_ROLLUP           = "rollup";
     
     public static final String RUNMODE_HOUR             = "hour";
     public static final String RUNMODE_DAY              = "day";
@@ -113,6 +120,14 @@ public class ConstantVars {
     // database
     public static final String APP_NEWUSER_DB_FNAME     = "app_newuser_db";
     public static final String COMPONENT_NEWUSER_DB_FNAME   = "component_newuser_db";
+    public static final String ROLLUP_DB_FNAME          = "rollup_db";
+    
+    // newuser db merge mode
+    public static final String DBMODE_DELTA             = "delta";      // rewrite partitions of log days only
+    public static final String DBMODE_FULL              = "full";       // rewrite whole db with log
+    public static final String DBMODE_COMPACT           = "compact";    // rewrite whole db without log
+    public static final String DBMODE_JOIN              = "join";       // map-side join of log with sorted key index (of compact/full, deleted by delta)
+    public static final String DBMODE_ROLLBACK          = "rollback";   // switch db to previous snapshot
     
     public static final String TARGETDATE_PATTERN       = "([0-9]{4})\\-";
     public static final String NUMOFREDUCER_PREFIX      = "-reducecount";
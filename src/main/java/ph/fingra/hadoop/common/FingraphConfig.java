@@ -28,6 +28,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import ph.fingra.hadoop.common.domain.CompressEntity;
 import ph.fingra.hadoop.common.domain.DebugEntity;
 import ph.fingra.hadoop.common.domain.SettingEntity;
 import ph.fingra.hadoop.common.logger.ErrorLogger;
@@ -36,6 +37,7 @@ public class FingraphConfig {
     
     private SettingEntity setting;
     private DebugEntity debug;
+    private CompressEntity compress;
     
     public SettingEntity getSetting() {
         return setting;
@@ -43,6 +45,9 @@ public class FingraphConfig {
     public DebugEntity getDebug() {
         return debug;
     }
+    public CompressEntity getCompress() {
+        return compress;
+    }
     
     private boolean has_error;
     private String error;
@@ -169,6 +174,20 @@ public class FingraphConfig {
             return false;
         }
         
+        // get compress info (optional, no compression if not exist)
+        Node compress_node = getNode(doc_elem, "compress");
+        if (compress_node != null) {
+            
+            CompressEntity cmp = getCompressInfo((Element)compress_node);
+            if (this.has_error) {
+                return false;
+            }
+            this.compress = cmp;
+        }
+        else {
+            this.compress = new CompressEntity();
+        }
+        
         return true;
     }
     
@@ -182,9 +201,21 @@ public class FingraphConfig {
         entity.setOrigin_input_file(getNodeValueString(elem, "origin_input_file"));
         if (this.has_error) return null;
         
+        // optional, default split size used if not exist
+        if (getNode(elem, "origin_input_split_mb") != null) {
+            entity.setOrigin_input_split_mb(getNodeValueInt(elem, "origin_input_split_mb"));
+            if (this.has_error) return null;
+        }
+        
         entity.setTransform_input_file(getNodeValueString(elem, "transform_input_file"));
         if (this.has_error) return null;
         
+        // optional, text transform log only if not exist
+        if (getNode(elem, "transform_columnar") != null) {
+            entity.setTransform_columnar(getNodeValueBool(elem, "transform_columnar"));
+            if (this.has_error) return null;
+        }
+        
         entity.setDelete_origin_file(getNodeValueBool(elem, "delete_origin_file"));
         if (this.has_error) return null;
         
@@ -210,6 +241,13 @@ public class FingraphConfig {
                 getNodeValueInt(elem, "hfs_database_componentnewuser_keep_month"));
         if (this.has_error) return null;
         
+        // optional, no daily partials for roll-up if not exist
+        if (getNode(elem, "hfs_database_rollup_keep_month") != null) {
+            entity.setHfs_database_rollup_keep_month(
+                    getNodeValueInt(elem, "hfs_database_rollup_keep_month"));
+            if (this.has_error) return null;
+        }
+        
         entity.setLfs_result_path(getNodeValueString(elem, "lfs_result_path"));
         if (this.has_error) return null;
         
@@ -238,6 +276,29 @@ public class FingraphConfig {
         return entity;
     }
     
+    private CompressEntity getCompressInfo(Element elem) {
+        
+        CompressEntity entity = new CompressEntity();
+        
+        entity.setCompress_map_output_codec(
+                getNodeValueString(elem, "compress_map_output_codec"));
+        if (this.has_error) return null;
+        
+        entity.setCompress_intermediate_codec(
+                getNodeValueString(elem, "compress_intermediate_codec"));
+        if (this.has_error) return null;
+        
+        entity.setCompress_transform_codec(
+                getNodeValueString(elem, "compress_transform_codec"));
+        if (this.has_error) return null;
+        
+        entity.setCompress_database_codec(
+                getNodeValueString(elem, "compress_database_codec"));
+        if (this.has_error) return null;
+        
+        return entity;
+    }
+    
     private int getNodeValueInt(Element parent, String nodename) {
         
         int returnval = 0;
@@ -322,6 +383,7 @@ public class FingraphConfig {
         System.out.println(config.getHadoop_user_path());
         System.out.println(config.setting.toString());
         System.out.println(config.debug.toString());
+        System.out.println(config.compress.toString());
     }
     
 }
@@ -44,6 +44,8 @@ public class HfsPathInfo {
     private String OUTPUT_merge_appnewusermerge;
     private String OUTPUT_merge_componentnewusermerge;
     private String OUTPUT_merge_appnewuserhourlymerge;
+    private String OUTPUT_merge_appnewusercount;
+    private String OUTPUT_merge_newusermerge;
     
     private String OUTPUT_perform;
     private String OUTPUT_perform_newuser;
@@ -54,6 +56,7 @@ public class HfsPathInfo {
     private String OUTPUT_perform_sesstime;
     private String OUTPUT_perform_sessionlength;
     private String OUTPUT_perform_pageview;
+    private String OUTPUT_perform_fused;
     
     private String OUTPUT_distribute;
     private String OUTPUT_distribute_device;
@@ -85,6 +88,7 @@ public class HfsPathInfo {
     private String DATABASE_root;
     private String DATABASE_app_newuser_db;
     private String DATABASE_component_newuser_db;
+    private String DATABASE_rollup_db;
     
 	public String getLogcount() {
         return OUTPUT_prerole_logcount;
@@ -107,6 +111,12 @@ public class HfsPathInfo {
     public String getAppnewuserhourlymerge() {
         return OUTPUT_merge_appnewuserhourlymerge;
     }
+    public String getAppnewusercount() {
+        return OUTPUT_merge_appnewusercount;
+    }
+    public String getNewusermerge() {
+        return OUTPUT_merge_newusermerge;
+    }
     public String getNewuser() {
         return OUTPUT_perform_newuser;
     }
@@ -131,6 +141,9 @@ public class HfsPathInfo {
     public String getPageview() {
         return OUTPUT_perform_pageview;
     }
+    public String getFused() {
+        return OUTPUT_perform_fused;
+    }
     public String getDevice() {
         return OUTPUT_distribute_device;
     }
@@ -206,6 +219,9 @@ public class HfsPathInfo {
     public String getComponent_newuser_db() {
         return DATABASE_component_newuser_db;
     }
+    public String getRollup_db() {
+        return DATABASE_rollup_db;
+    }
     
     public HfsPathInfo(FingraphConfig config, String runmode) {
         
@@ -251,6 +267,11 @@ public class HfsPathInfo {
                 = this.DATABASE + (this.DATABASE.endsWith("/") ? "" : "/")
                     + ConstantVars.COMPONENT_NEWUSER_DB_FNAME;
         
+        // database/rollup_db
+        this.DATABASE_rollup_db
+                = this.DATABASE + (this.DATABASE.endsWith("/") ? "" : "/")
+                    + ConstantVars.ROLLUP_DB_FNAME;
+        
         ///////////////////////////////////////////////////////////////////////
         // output
         ///////////////////////////////////////////////////////////////////////
@@ -295,6 +316,12 @@ public class HfsPathInfo {
         // output/mode-dir/merge/appnewuserhourlymerge
         this.OUTPUT_merge_appnewuserhourlymerge
                 = this.OUTPUT_merge + "/appnewuserhourlymerge";
+        // output/mode-dir/merge/appnewusercount
+        this.OUTPUT_merge_appnewusercount
+                = this.OUTPUT_merge + "/appnewusercount";
+        // output/mode-dir/merge/newusermerge
+        this.OUTPUT_merge_newusermerge
+                = this.OUTPUT_merge + "/newusermerge";
         
         // output/mode-dir/perform
         this.OUTPUT_perform
@@ -324,6 +351,9 @@ public class HfsPathInfo {
         // output/mode-dir/perform/pageview
         this.OUTPUT_perform_pageview
                 = this.OUTPUT_perform + "/pageview";
+        // output/mode-dir/perform/fused
+        this.OUTPUT_perform_fused
+                = this.OUTPUT_perform + "/fused";
         
         // output/mode-dir/distribute
         this.OUTPUT_distribute
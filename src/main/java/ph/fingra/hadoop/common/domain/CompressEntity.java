@@ -0,0 +1,52 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.common.domain;
+
+import ph.fingra.hadoop.common.BaseObject;
+
+public class CompressEntity extends BaseObject {
+    
+    private String compress_map_output_codec = "none";
+    private String compress_intermediate_codec = "none";
+    private String compress_transform_codec = "none";
+    private String compress_database_codec = "none";
+    
+    public String getCompress_map_output_codec() {
+        return compress_map_output_codec;
+    }
+    public void setCompress_map_output_codec(String compress_map_output_codec) {
+        this.compress_map_output_codec = compress_map_output_codec;
+    }
+    public String getCompress_intermediate_codec() {
+        return compress_intermediate_codec;
+    }
+    public void setCompress_intermediate_codec(String compress_intermediate_codec) {
+        this.compress_intermediate_codec = compress_intermediate_codec;
+    }
+    public String getCompress_transform_codec() {
+        return compress_transform_codec;
+    }
+    public void setCompress_transform_codec(String compress_transform_codec) {
+        this.compress_transform_codec = compress_transform_codec;
+    }
+    public String getCompress_database_codec() {
+        return compress_database_codec;
+    }
+    public void setCompress_database_codec(String compress_database_codec) {
+        this.compress_database_codec = compress_database_codec;
+    }
+}
@@ -22,7 +22,9 @@ public class SettingEntity extends BaseObject {
     
     private String hfs_input_path;
     private String origin_input_file;
+    private int origin_input_split_mb = 128;
     private String transform_input_file;
+    private boolean transform_columnar = false;
     private boolean delete_origin_file;
     private String hfs_output_path;
     private String hfs_database_path;
@@ -30,6 +32,7 @@ public class SettingEntity extends BaseObject {
     private int hfs_database_appnewuser_keep_month;
     private int hfs_database_componentnewuser_backup_count;
     private int hfs_database_componentnewuser_keep_month;
+    private int hfs_database_rollup_keep_month = 0;
     private String lfs_result_path;
     private String program_log_path;
     private String program_errorlog_file;
@@ -46,12 +49,24 @@ public class SettingEntity extends BaseObject {
     public void setOrigin_input_file(String origin_input_file) {
         this.origin_input_file = origin_input_file;
     }
+    public int getOrigin_input_split_mb() {
+        return origin_input_split_mb;
+    }
+    public void setOrigin_input_split_mb(int origin_input_split_mb) {
+        this.origin_input_split_mb = origin_input_split_mb;
+    }
     public String getTransform_input_file() {
         return transform_input_file;
     }
     public void setTransform_input_file(String transform_input_file) {
         this.transform_input_file = transform_input_file;
     }
+    public boolean isTransform_columnar() {
+        return transform_columnar;
+    }
+    public void setTransform_columnar(boolean transform_columnar) {
+        this.transform_columnar = transform_columnar;
+    }
     public boolean isDelete_origin_file() {
         return delete_origin_file;
     }
@@ -98,6 +113,12 @@ public class SettingEntity extends BaseObject {
             int hfs_database_componentnewuser_keep_month) {
         this.hfs_database_componentnewuser_keep_month = hfs_database_componentnewuser_keep_month;
     }
+    public int getHfs_database_rollup_keep_month() {
+        return hfs_database_rollup_keep_month;
+    }
+    public void setHfs_database_rollup_keep_month(int hfs_database_rollup_keep_month) {
+        this.hfs_database_rollup_keep_month = hfs_database_rollup_keep_month;
+    }
     public String getLfs_result_path() {
         return lfs_result_path;
     }
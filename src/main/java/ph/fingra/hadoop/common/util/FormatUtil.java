@@ -16,6 +16,7 @@
 
 package ph.fingra.hadoop.common.util;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -151,6 +152,49 @@ public class FormatUtil {
         return type;
     }
     
+    private static final byte[] CMD_STARTSESS_BYTES = ConstantVars.CMD_STARTSESS.getBytes(Charset.forName("UTF-8"));
+    private static final byte[] CMD_PAGEVIEW_BYTES = ConstantVars.CMD_PAGEVIEW.getBytes(Charset.forName("UTF-8"));
+    private static final byte[] CMD_ENDSESS_BYTES = ConstantVars.CMD_ENDSESS.getBytes(Charset.forName("UTF-8"));
+    private static final byte[] CMD_COMPONENT_BYTES = ConstantVars.CMD_COMPONENT.getBytes(Charset.forName("UTF-8"));
+    
+    /**
+     * same as getLogParserType(String) on raw utf-8 bytes (ex. Text.getBytes())
+     * without decoding the record
+     */
+    public static LogParserType getLogParserType(byte[] src, int length) {
+        
+        LogParserType type = LogParserType.CommonLog;
+        
+        if (src == null || length == 0)
+            return type;
+        
+        if (startsWith(src, length, CMD_STARTSESS_BYTES)
+                || startsWith(src, length, CMD_PAGEVIEW_BYTES)
+                || startsWith(src, length, CMD_ENDSESS_BYTES)) {
+            type = LogParserType.CommonLog;
+        }
+        else if (startsWith(src, length, CMD_COMPONENT_BYTES)) {
+            type = LogParserType.ComponentLog;
+        }
+        else {
+            type = LogParserType.InvalidLog;
+        }
+        
+        return type;
+    }
+    
+    private static boolean startsWith(byte[] src, int length, byte[] prefix) {
+        
+        if (length < prefix.length)
+            return false;
+        
+        for (int i = 0; i < prefix.length; i++) {
+            if (src[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+    
     public static String getStartLogString(StringBuilder buf,
             String appkey, String session, String utctime, String localtime,
             String token, String country, String language, String device,
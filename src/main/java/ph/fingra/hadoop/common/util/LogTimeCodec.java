@@ -0,0 +1,259 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.common.util;
+
+import ph.fingra.hadoop.common.ConstantVars;
+
+public class LogTimeCodec {
+    
+    /**
+     * *** Fingra.ph LogTimeCodec Information ***
+     * 
+     * Arithmetic codec for log time strings (ConstantVars.LOG_DATE_FORMAT,
+     * yyyyMMddHHmmss) used on the map/reduce hot path instead of
+     * SimpleDateFormat/Calendar.
+     * 
+     * - valid time is exactly 14 ascii digits
+     * - out of range fields are normalized like a lenient SimpleDateFormat
+     *   (month 13 => january of next year, day 32 => next month ...)
+     * - epoch seconds are counted as if the time were UTC, no TimeZone/DST
+     *   is applied (differences between two log times are exact)
+     * 
+     */
+    
+    public static final int LENGTH = ConstantVars.LOG_DATE_FORMAT.length();
+    
+    public static final long INVALID = Long.MIN_VALUE;
+    
+    private static final int HOUR_INDEX = 8;
+    
+    public static boolean isValid(String src) {
+        
+        if (src == null || src.length() != LENGTH)
+            return false;
+        
+        for (int i = 0; i < LENGTH; i++) {
+            char c = src.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+    
+    public static boolean isValid(byte[] src, int start, int length) {
+        
+        if (src == null || length != LENGTH)
+            return false;
+        
+        for (int i = start; i < start + LENGTH; i++) {
+            byte c = src[i];
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * epoch seconds of log time string, INVALID if not valid
+     */
+    public static long toEpochSeconds(String src) {
+        
+        if (!isValid(src))
+            return INVALID;
+        
+        int year = digits(src, 0, 4);
+        int month = digits(src, 4, 2);
+        int day = digits(src, 6, 2);
+        int hour = digits(src, 8, 2);
+        int minute = digits(src, 10, 2);
+        int second = digits(src, 12, 2);
+        
+        return toEpochSeconds(year, month, day, hour, minute, second);
+    }
+    
+    /**
+     * epoch seconds of log time bytes (utf-8/ascii), INVALID if not valid
+     */
+    public static long toEpochSeconds(byte[] src, int start, int length) {
+        
+        if (!isValid(src, start, length))
+            return INVALID;
+        
+        int year = digits(src, start, 4);
+        int month = digits(src, start + 4, 2);
+        int day = digits(src, start + 6, 2);
+        int hour = digits(src, start + 8, 2);
+        int minute = digits(src, start + 10, 2);
+        int second = digits(src, start + 12, 2);
+        
+        return toEpochSeconds(year, month, day, hour, minute, second);
+    }
+    
+    public static long toEpochSeconds(int year, int month, int day,
+            int hour, int minute, int second) {
+        
+        // normalize month (lenient), month is 1-based
+        int m0 = month - 1;
+        year += floorDiv(m0, 12);
+        month = floorMod(m0, 12) + 1;
+        
+        // day overflow/underflow is carried by plain addition
+        long days = daysFromCivil(year, month, 1) + (day - 1);
+        
+        return days * 86400L + hour * 3600L + minute * 60L + second;
+    }
+    
+    /**
+     * seconds from 'from' to 'to', INVALID if one of them is not valid
+     */
+    public static long secondsBetween(String from, String to) {
+        
+        long t1 = toEpochSeconds(from);
+        long t2 = toEpochSeconds(to);
+        
+        if (t1 == INVALID || t2 == INVALID)
+            return INVALID;
+        
+        return t2 - t1;
+    }
+    
+    /**
+     * hour digits (HH) as written in log time string, -1 if not valid
+     */
+    public static int getHour(String src) {
+        
+        if (!isValid(src))
+            return -1;
+        
+        return digits(src, HOUR_INDEX, 2);
+    }
+    
+    /**
+     * true if valid and every field is in range (toEpochSeconds/format
+     * round-trip gives the same string)
+     */
+    public static boolean isCanonical(String src) {
+        
+        if (!isValid(src))
+            return false;
+        
+        int year = digits(src, 0, 4);
+        int month = digits(src, 4, 2);
+        int day = digits(src, 6, 2);
+        
+        return month >= 1 && month <= 12
+                && day >= 1 && day <= daysOfMonth(year, month)
+                && digits(src, 8, 2) < 24
+                && digits(src, 10, 2) < 60
+                && digits(src, 12, 2) < 60;
+    }
+    
+    /**
+     * log time string of epoch seconds (0 ~ 9999-12-31 23:59:59)
+     */
+    public static String format(long epochSeconds) {
+        
+        long days = floorDiv(epochSeconds, 86400L);
+        int secs = (int) (epochSeconds - days * 86400L);
+        
+        // civil from days
+        long z = days + 719468L;
+        long era = floorDiv(z, 146097L);
+        int doe = (int) (z - era * 146097L);                                // [0, 146096]
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;    // [0, 399]
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);                  // [0, 365]
+        int mp = (5 * doy + 2) / 153;                                       // [0, 11]
+        int day = doy - (153 * mp + 2) / 5 + 1;                             // [1, 31]
+        int month = (mp < 10) ? mp + 3 : mp - 9;                            // [1, 12]
+        int year = (int) (yoe + era * 400) + ((month <= 2) ? 1 : 0);
+        
+        char[] buf = new char[LENGTH];
+        putDigits(buf, 0, year, 4);
+        putDigits(buf, 4, month, 2);
+        putDigits(buf, 6, day, 2);
+        putDigits(buf, 8, secs / 3600, 2);
+        putDigits(buf, 10, (secs / 60) % 60, 2);
+        putDigits(buf, 12, secs % 60, 2);
+        
+        return new String(buf);
+    }
+    
+    private static int daysOfMonth(int year, int month) {
+        
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+    
+    private static void putDigits(char[] buf, int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+    
+    private static int digits(String src, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + (src.charAt(i) - '0');
+        }
+        return value;
+    }
+    
+    private static int digits(byte[] src, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + (src[i] - '0');
+        }
+        return value;
+    }
+    
+    /*
+     * days since 1970-01-01 of proleptic gregorian date (month 1..12)
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        
+        int y = (month <= 2) ? year - 1 : year;
+        int era = floorDiv(y, 400);
+        int yoe = y - era * 400;                                    // [0, 399]
+        int mp = (month + 9) % 12;                                  // march based month [0, 11]
+        int doy = (153 * mp + 2) / 5 + day - 1;                     // [0, 365]
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;            // [0, 146096]
+        
+        return era * 146097L + doe - 719468L;
+    }
+    
+    private static int floorDiv(int x, int y) {
+        int q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            q--;
+        return q;
+    }
+    
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            q--;
+        return q;
+    }
+    
+    private static int floorMod(int x, int y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -23,6 +23,7 @@ import ph.fingra.hadoop.mapred.parts.performance.FrequencyStatistic;
 import ph.fingra.hadoop.mapred.parts.performance.HourSessionStatistic;
 import ph.fingra.hadoop.mapred.parts.performance.NewuserStatistic;
 import ph.fingra.hadoop.mapred.parts.performance.PageviewStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.PerformanceStatistic;
 import ph.fingra.hadoop.mapred.parts.performance.SessionLengthStatistic;
 import ph.fingra.hadoop.mapred.parts.performance.UserSessionStatistic;
 
@@ -47,6 +48,8 @@ public class PerformanceDriver {
                     "Fingraph OSS map/reduce program for perform/sessionlength");
             pgd.addClass("pageview", PageviewStatistic.class,
                     "Fingraph OSS map/reduce program for perform/pageview");
+            pgd.addClass("fused", PerformanceStatistic.class,
+                    "Fingraph OSS map/reduce program for all perform/* results in one scan");
             
             pgd.driver(argv);
             
@@ -0,0 +1,343 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.logger.ErrorLogger;
+import ph.fingra.hadoop.common.logger.WorkLogger;
+import ph.fingra.hadoop.common.util.ArgsOptionUtil;
+import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.parts.component.ComponentFrequencyStatistic;
+import ph.fingra.hadoop.mapred.parts.component.ComponentHourSessionStatistic;
+import ph.fingra.hadoop.mapred.parts.component.ComponentNewuserStatistic;
+import ph.fingra.hadoop.mapred.parts.component.ComponentUserSessionStatistic;
+import ph.fingra.hadoop.mapred.parts.distribution.CountryStatistic;
+import ph.fingra.hadoop.mapred.parts.distribution.DeviceStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.FrequencyStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.HourSessionStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.NewuserStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.PageviewStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.PerformanceStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.SessionLengthStatistic;
+import ph.fingra.hadoop.mapred.parts.performance.UserSessionStatistic;
+import ph.fingra.hadoop.mapred.parts.prerole.AppNewuserMerge;
+import ph.fingra.hadoop.mapred.parts.prerole.BasekeysMaker;
+import ph.fingra.hadoop.mapred.parts.prerole.ComponentNewuserMerge;
+import ph.fingra.hadoop.mapred.parts.prerole.LogCountStatistic;
+import ph.fingra.hadoop.mapred.parts.prerole.NewuserMerge;
+import ph.fingra.hadoop.mapred.parts.prerole.PreTransform;
+
+/**
+ * Runs the whole daily/weekly/monthly chain of PreroleDriver,
+ * PerformanceDriver, DistributionDriver and ComponentDriver programs in
+ * one JVM.
+ * 
+ * Every program runs after the programs it depends on, and programs with
+ * no dependency between them run concurrently (-Dparallel, default 4).
+ * A failed program fails every program depending on it, the others go on.
+ * 
+ * usage :
+ *   hadoop ph.fingra.hadoop.mapred.PipelineDriver -Drunmode=day
+ *       -Dtargetdate=2014-08-20 -Dnumreduce=4 [-Dparallel=4] [-Dfused=true]
+ *       [-Dcombinedmerge=true]
+ * 
+ * -Dfused=true runs PerformanceDriver fused program instead of the six
+ * single perform/* programs.
+ * -Dcombinedmerge=true runs PreroleDriver newusermerge program instead of
+ * appnewusermerge and componentnewusermerge.
+ */
+public class PipelineDriver extends Configured implements Tool {
+    
+    private static final int DEFAULT_PARALLEL = 4;
+    
+    private enum StepState {
+        WAITING, RUNNING, SUCCESS, FAILED, DEPENDENT_FAILED
+    }
+    
+    private static class Step {
+        
+        String name;
+        Class<? extends Tool> toolClass;
+        List<Step> dependencies = new ArrayList<Step>();
+        
+        StepState state = StepState.WAITING;
+        long start_time = 0;
+        long end_time = 0;
+        
+        Step(String name, Class<? extends Tool> toolClass) {
+            this.name = name;
+            this.toolClass = toolClass;
+        }
+    }
+    
+    private Map<String, Step> steps = new LinkedHashMap<String, Step>();
+    
+    private Step addStep(String name, Class<? extends Tool> toolClass,
+            String... dependencies) {
+        
+        Step step = new Step(name, toolClass);
+        for (String dependency : dependencies) {
+            Step depend = steps.get(dependency);
+            // prerole steps exist only in day mode
+            if (depend != null) {
+                step.dependencies.add(depend);
+            }
+        }
+        steps.put(name, step);
+        
+        return step;
+    }
+    
+    private void buildSteps(String runmode, boolean fused, boolean combinedmerge) {
+        
+        // step merging each newuser db, one step for both in combined merge
+        String appmerge = combinedmerge ? "newusermerge" : "appnewusermerge";
+        String componentmerge = combinedmerge ? "newusermerge" : "componentnewusermerge";
+        
+        if (runmode.equals(ConstantVars.RUNMODE_DAY)) {
+            // pretransform can delete origin log files, logcount reads them
+            addStep("logcount", LogCountStatistic.class);
+            addStep("pretransform", PreTransform.class, "logcount");
+            if (combinedmerge) {
+                addStep("newusermerge", NewuserMerge.class, "pretransform");
+            }
+            else {
+                addStep("appnewusermerge", AppNewuserMerge.class, "pretransform");
+                addStep("componentnewusermerge", ComponentNewuserMerge.class, "pretransform");
+            }
+            addStep("basekeys", BasekeysMaker.class, "pretransform");
+        }
+        
+        if (fused) {
+            addStep("fused", PerformanceStatistic.class,
+                    "pretransform", appmerge);
+        }
+        else {
+            addStep("newuser", NewuserStatistic.class, appmerge);
+            addStep("usersession", UserSessionStatistic.class, "pretransform");
+            addStep("frequency", FrequencyStatistic.class, "pretransform");
+            addStep("hoursession", HourSessionStatistic.class, "pretransform");
+            addStep("sessionlength", SessionLengthStatistic.class, "pretransform");
+            addStep("pageview", PageviewStatistic.class, "pretransform");
+        }
+        
+        addStep("device", DeviceStatistic.class, "pretransform");
+        addStep("country", CountryStatistic.class, "pretransform");
+        
+        addStep("componentnewuser", ComponentNewuserStatistic.class, componentmerge);
+        addStep("componentusersession", ComponentUserSessionStatistic.class, "pretransform");
+        addStep("componentfrequency", ComponentFrequencyStatistic.class, "pretransform");
+        addStep("componenthoursession", ComponentHourSessionStatistic.class, "pretransform");
+    }
+    
+    @Override
+    public int run(String[] args) throws Exception {
+        
+        Configuration conf = getConf();
+        
+        // get -D optional value
+        String opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
+        String opt_target = conf.get(ConstantVars.DOPTION_TARGETDATE, "");
+        int opt_parallel = conf.getInt(ConstantVars.DOPTION_PARALLEL, DEFAULT_PARALLEL);
+        boolean opt_fused = conf.getBoolean(ConstantVars.DOPTION_FUSED, false);
+        boolean opt_combinedmerge = conf.getBoolean(ConstantVars.DOPTION_COMBINEDMERGE, false);
+        
+        // runmode & targetdate check
+        if (ArgsOptionUtil.checkRunmode(opt_mode)==false
+                || opt_mode.equals(ConstantVars.RUNMODE_HOUR)) {
+            throw new Exception("option value of -Drunmode is not correct");
+        }
+        if (opt_target.isEmpty()==false) {
+            if (ArgsOptionUtil.checkTargetDateByMode(opt_mode, opt_target)==false) {
+                throw new Exception("option value of -Dtargetdate is not correct");
+            }
+        }
+        else {
+            // every program of this run uses the same target date
+            opt_target = ArgsOptionUtil.getDefaultTargetDateByMode(opt_mode);
+            conf.set(ConstantVars.DOPTION_TARGETDATE, opt_target);
+        }
+        if (opt_parallel < 1) {
+            throw new Exception("option value of -Dparallel is not correct");
+        }
+        
+        buildSteps(opt_mode, opt_fused, opt_combinedmerge);
+        
+        WorkLogger.log(PipelineDriver.class.getSimpleName()
+                + " : [run mode] " + opt_mode
+                + " , [target date] " + opt_target
+                + " , [parallel] " + opt_parallel
+                + " , [steps] " + steps.size());
+        
+        ExecutorService executor = Executors.newFixedThreadPool(opt_parallel);
+        CompletionService<Step> completion = new ExecutorCompletionService<Step>(executor);
+        
+        int running = 0;
+        try {
+            while (true) {
+                
+                // start every waiting step whose dependencies are finished
+                for (Step step : steps.values()) {
+                    if (step.state != StepState.WAITING) {
+                        continue;
+                    }
+                    
+                    boolean ready = true;
+                    for (Step depend : step.dependencies) {
+                        if (depend.state == StepState.FAILED
+                                || depend.state == StepState.DEPENDENT_FAILED) {
+                            step.state = StepState.DEPENDENT_FAILED;
+                            WorkLogger.warn(PipelineDriver.class.getSimpleName()
+                                    + " : [" + step.name + "] skipped, "
+                                    + depend.name + " is failed");
+                            break;
+                        }
+                        if (depend.state != StepState.SUCCESS) {
+                            ready = false;
+                        }
+                    }
+                    
+                    if (ready && step.state == StepState.WAITING) {
+                        step.state = StepState.RUNNING;
+                        completion.submit(new StepRunner(step, new Configuration(conf)));
+                        running++;
+                    }
+                }
+                
+                if (running == 0) {
+                    break;
+                }
+                
+                completion.take();
+                running--;
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        // report wall time of every step
+        int status = 0;
+        for (Step step : steps.values()) {
+            if (step.state != StepState.SUCCESS) {
+                status = 1;
+            }
+            WorkLogger.log(PipelineDriver.class.getSimpleName()
+                    + " : [" + step.name + "] " + step.state
+                    + ((step.end_time > 0)
+                            ? " , [run time] " + FormatUtil.getDurationFromMillitimes(
+                                    step.end_time - step.start_time)
+                            : ""));
+        }
+        
+        return status;
+    }
+    
+    private static class StepRunner implements Callable<Step> {
+        
+        private Step step;
+        private Configuration conf;
+        
+        StepRunner(Step step, Configuration conf) {
+            this.step = step;
+            this.conf = conf;
+        }
+        
+        @Override
+        public Step call() {
+            
+            step.start_time = System.currentTimeMillis();
+            
+            WorkLogger.log(PipelineDriver.class.getSimpleName()
+                    + " : [" + step.name + "] start");
+            
+            StepState state = StepState.FAILED;
+            try {
+                Tool tool = step.toolClass.newInstance();
+                if (ToolRunner.run(conf, tool, new String[0]) == 0) {
+                    state = StepState.SUCCESS;
+                }
+            }
+            catch (Exception e) {
+                ErrorLogger.log(PipelineDriver.class.getSimpleName()
+                        + " : [" + step.name + "] Error : " + e.getMessage());
+            }
+            
+            step.end_time = System.currentTimeMillis();
+            step.state = state;
+            
+            WorkLogger.log(PipelineDriver.class.getSimpleName()
+                    + " : [" + step.name + "] " + state
+                    + " , [run time] " + FormatUtil.getDurationFromMillitimes(
+                            step.end_time - step.start_time));
+            
+            return step;
+        }
+    }
+    
+    /**
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        
+        long start_time=0, end_time=0;
+        int exitCode = 0;
+        
+        start_time = System.currentTimeMillis();
+        
+        WorkLogger.log(PipelineDriver.class.getSimpleName()
+                + " : Start pipeline");
+        
+        try {
+            exitCode = ToolRunner.run(new PipelineDriver(), args);
+            
+            WorkLogger.log(PipelineDriver.class.getSimpleName()
+                    + " : End pipeline");
+        }
+        catch (Exception e) {
+            exitCode = -1;
+            ErrorLogger.log(PipelineDriver.class.getSimpleName()
+                    + " : Error : " + e.getMessage());
+            WorkLogger.log(PipelineDriver.class.getSimpleName()
+                    + " : Failed pipeline");
+        }
+        
+        end_time = System.currentTimeMillis();
+        
+        WorkLogger.log(PipelineDriver.class.getSimpleName()
+                + " : total run times : "
+                + FormatUtil.getDurationFromMillitimes(end_time - start_time));
+        
+        System.exit(exitCode);
+    }
+}
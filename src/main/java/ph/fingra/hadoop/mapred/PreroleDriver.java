@@ -23,6 +23,7 @@ import ph.fingra.hadoop.mapred.parts.prerole.AppNewuserMerge;
 import ph.fingra.hadoop.mapred.parts.prerole.BasekeysMaker;
 import ph.fingra.hadoop.mapred.parts.prerole.ComponentNewuserMerge;
 import ph.fingra.hadoop.mapred.parts.prerole.LogCountStatistic;
+import ph.fingra.hadoop.mapred.parts.prerole.NewuserMerge;
 import ph.fingra.hadoop.mapred.parts.prerole.PreTransform;
 
 public class PreroleDriver {
@@ -42,6 +43,8 @@ public class PreroleDriver {
                     "Fingraph OSS map/reduce program for merge/appnewusermerge");
             pgd.addClass("componentnewusermerge", ComponentNewuserMerge.class,
                     "Fingraph OSS map/reduce program for merge/componentnewusermerge");
+            pgd.addClass("newusermerge", NewuserMerge.class,
+                    "Fingraph OSS map/reduce program for merge/newusermerge");
             pgd.addClass("basekeys", BasekeysMaker.class,
                     "Fingraph OSS map/reduce program for prerole/basekeys");
             
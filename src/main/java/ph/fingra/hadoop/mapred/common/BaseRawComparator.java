@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Base of raw comparators for composite keys serialized by writeUTF.
+ * 
+ * A writeUTF field is a 2 byte unsigned length followed by modified utf-8
+ * bytes. Unsigned byte order of modified utf-8 is the same as
+ * String.compareTo order (utf-16 code unit order) for every character
+ * except '\u0000', so keys are compared without deserialization.
+ */
+public abstract class BaseRawComparator extends WritableComparator {
+    
+    protected BaseRawComparator(Class<? extends WritableComparable<?>> keyClass) {
+        super(keyClass, true);
+    }
+    
+    @Override
+    public abstract int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2);
+    
+    /**
+     * compare leading writeUTF fields of two serialized keys
+     */
+    public static int compareUTFFields(byte[] b1, int s1, byte[] b2, int s2, int count) {
+        
+        int ret = 0;
+        for (int i = 0; i < count; i++) {
+            ret = compareUTF(b1, s1, b2, s2);
+            if (ret != 0) return ret;
+            s1 = skipUTF(b1, s1);
+            s2 = skipUTF(b2, s2);
+        }
+        return ret;
+    }
+    
+    /**
+     * compare one writeUTF field starting at s1/s2
+     */
+    public static int compareUTF(byte[] b1, int s1, byte[] b2, int s2) {
+        
+        int n1 = readUnsignedShort(b1, s1);
+        int n2 = readUnsignedShort(b2, s2);
+        
+        return compareBytes(b1, s1 + 2, n1, b2, s2 + 2, n2);
+    }
+    
+    /**
+     * start offset of the field next to writeUTF field at s
+     */
+    public static int skipUTF(byte[] b, int s) {
+        return s + 2 + readUnsignedShort(b, s);
+    }
+    
+}
@@ -24,6 +24,13 @@ import org.apache.hadoop.io.WritableComparable;
 
 import ph.fingra.hadoop.common.BaseObject;
 
+/**
+ * Base of map output keys.
+ * 
+ * hashCode/equals/toString are abstract so that keys access their fields
+ * directly (see FieldHash) instead of the reflection default of BaseObject,
+ * they are called per record by partitioners and combiners.
+ */
 public abstract class BaseWritableComparable<T> extends BaseObject implements WritableComparable<T> {
     
     public abstract void readFields(DataInput in) throws IOException;
@@ -34,4 +41,8 @@ public abstract class BaseWritableComparable<T> extends BaseObject implements Wr
     
     public abstract int hashCode();
     
+    public abstract boolean equals(Object o);
+    
+    public abstract String toString();
+    
 }
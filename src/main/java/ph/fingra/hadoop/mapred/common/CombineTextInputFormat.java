@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+
+/**
+ * Text input format packing many small files into one split.
+ * 
+ * One sdk log file is made per logger node per day, so TextInputFormat
+ * makes one map task per small file. This format packs files (and blocks
+ * of large files) of the same node/rack into splits up to the max split
+ * size, and reads each of them line by line same as TextInputFormat.
+ */
+public class CombineTextInputFormat extends CombineFileInputFormat<LongWritable, Text> {
+    
+    public static final long MEGABYTES = 1024L * 1024L;
+    
+    private static final String MAX_SPLIT_SIZE = "mapred.max.split.size";
+    
+    /**
+     * use CombineTextInputFormat as input format of job with max split size
+     */
+    public static void setInputFormat(Job job, long maxsplitsize) {
+        
+        job.setInputFormatClass(CombineTextInputFormat.class);
+        job.getConfiguration().setLong(MAX_SPLIT_SIZE, maxsplitsize);
+    }
+    
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+            TaskAttemptContext context) throws IOException {
+        
+        return new CombineFileRecordReader<LongWritable, Text>(
+                (CombineFileSplit)split, context, CombineTextRecordReader.class);
+    }
+    
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        
+        CompressionCodec codec =
+                new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        if (codec == null) {
+            return true;
+        }
+        return codec instanceof SplittableCompressionCodec;
+    }
+    
+    /**
+     * reads one file chunk of CombineFileSplit with LineRecordReader
+     */
+    public static class CombineTextRecordReader extends RecordReader<LongWritable, Text> {
+        
+        private LineRecordReader reader = new LineRecordReader();
+        private FileSplit filesplit;
+        
+        public CombineTextRecordReader(CombineFileSplit split, TaskAttemptContext context,
+                Integer index) throws IOException {
+            
+            filesplit = new FileSplit(split.getPath(index), split.getOffset(index),
+                    split.getLength(index), split.getLocations());
+        }
+        
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context)
+                throws IOException, InterruptedException {
+            reader.initialize(filesplit, context);
+        }
+        
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            return reader.nextKeyValue();
+        }
+        
+        @Override
+        public LongWritable getCurrentKey() throws IOException, InterruptedException {
+            return reader.getCurrentKey();
+        }
+        
+        @Override
+        public Text getCurrentValue() throws IOException, InterruptedException {
+            return reader.getCurrentValue();
+        }
+        
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return reader.getProgress();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
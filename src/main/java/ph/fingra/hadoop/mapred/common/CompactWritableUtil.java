@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.ConstantVars.CommandType;
+import ph.fingra.hadoop.common.util.LogTimeCodec;
+
+public class CompactWritableUtil {
+    
+    /**
+     * *** Fingra.ph compact wire format Information ***
+     * 
+     * log time (yyyyMMddHHmmss) - vlong epoch seconds,
+     *                             or vlong -1 + writeUTF when not canonical
+     * cmd                       - 1 byte CommandType ordinal,
+     *                             or -1 + writeUTF when unknown
+     * date part (yyyy/MM/dd/ww) - vint value when digits of exact width,
+     *                             or vint -1 + writeUTF
+     * other string              - writeUTF (2 byte length + modified utf-8)
+     * 
+     * Every encoding restores exactly the same String, and raw compare
+     * gives the same order as String.compareTo of the fields.
+     */
+    
+    private static final long NOT_ENCODED = -1;
+    
+    private static final String[] CMDS = new String[CommandType.values().length];
+    static {
+        CMDS[CommandType.getOrdinalByCmd(ConstantVars.CMD_STARTSESS)] = ConstantVars.CMD_STARTSESS;
+        CMDS[CommandType.getOrdinalByCmd(ConstantVars.CMD_PAGEVIEW)] = ConstantVars.CMD_PAGEVIEW;
+        CMDS[CommandType.getOrdinalByCmd(ConstantVars.CMD_COMPONENT)] = ConstantVars.CMD_COMPONENT;
+        CMDS[CommandType.getOrdinalByCmd(ConstantVars.CMD_ENDSESS)] = ConstantVars.CMD_ENDSESS;
+    }
+    
+    // log time
+    
+    public static void writeLogTime(DataOutput out, String src) throws IOException {
+        
+        if (LogTimeCodec.isCanonical(src)) {
+            long seconds = LogTimeCodec.toEpochSeconds(src);
+            if (seconds >= 0) {
+                WritableUtils.writeVLong(out, seconds);
+                return;
+            }
+        }
+        WritableUtils.writeVLong(out, NOT_ENCODED);
+        out.writeUTF(src);
+    }
+    
+    public static String readLogTime(DataInput in) throws IOException {
+        
+        long seconds = WritableUtils.readVLong(in);
+        if (seconds == NOT_ENCODED)
+            return in.readUTF();
+        return LogTimeCodec.format(seconds);
+    }
+    
+    public static int skipLogTime(byte[] b, int s) {
+        
+        int size = WritableUtils.decodeVIntSize(b[s]);
+        if (readVLong(b, s) == NOT_ENCODED)
+            return BaseRawComparator.skipUTF(b, s + size);
+        return s + size;
+    }
+    
+    public static int compareLogTime(byte[] b1, int s1, byte[] b2, int s2) {
+        
+        long t1 = readVLong(b1, s1);
+        long t2 = readVLong(b2, s2);
+        
+        if (t1 != NOT_ENCODED && t2 != NOT_ENCODED) {
+            // canonical log time : epoch order is string order
+            return (t1 == t2) ? 0 : ((t1 < t2) ? -1 : 1);
+        }
+        
+        // rare case, compare restored strings
+        String str1 = (t1 == NOT_ENCODED)
+                ? readUTF(b1, s1 + WritableUtils.decodeVIntSize(b1[s1])) : LogTimeCodec.format(t1);
+        String str2 = (t2 == NOT_ENCODED)
+                ? readUTF(b2, s2 + WritableUtils.decodeVIntSize(b2[s2])) : LogTimeCodec.format(t2);
+        
+        return str1.compareTo(str2);
+    }
+    
+    // cmd
+    
+    public static void writeCmd(DataOutput out, String cmd) throws IOException {
+        
+        for (int i = 0; i < CMDS.length; i++) {
+            if (CMDS[i].equals(cmd)) {
+                out.writeByte(i);
+                return;
+            }
+        }
+        out.writeByte((int) NOT_ENCODED);
+        out.writeUTF(cmd);
+    }
+    
+    public static String readCmd(DataInput in) throws IOException {
+        
+        byte ordinal = in.readByte();
+        if (ordinal == NOT_ENCODED)
+            return in.readUTF();
+        return CMDS[ordinal];
+    }
+    
+    public static int skipCmd(byte[] b, int s) {
+        
+        if (b[s] == NOT_ENCODED)
+            return BaseRawComparator.skipUTF(b, s + 1);
+        return s + 1;
+    }
+    
+    /**
+     * CommandType ordinal of serialized cmd,
+     * IllegalArgumentException for unknown cmd like CommandType.getOrdinalByCmd
+     */
+    public static int getCmdOrdinal(byte[] b, int s) {
+        
+        if (b[s] == NOT_ENCODED)
+            throw new IllegalArgumentException("Illegal name: " + readUTF(b, s + 1));
+        return b[s];
+    }
+    
+    // date part
+    
+    public static void writeDatePart(DataOutput out, String src, int width) throws IOException {
+        
+        if (src.length() == width) {
+            int value = 0;
+            int i = 0;
+            for (; i < width; i++) {
+                char c = src.charAt(i);
+                if (c < '0' || c > '9')
+                    break;
+                value = value * 10 + (c - '0');
+            }
+            if (i == width) {
+                WritableUtils.writeVInt(out, value);
+                return;
+            }
+        }
+        WritableUtils.writeVInt(out, (int) NOT_ENCODED);
+        out.writeUTF(src);
+    }
+    
+    public static String readDatePart(DataInput in, int width) throws IOException {
+        
+        int value = WritableUtils.readVInt(in);
+        if (value == NOT_ENCODED)
+            return in.readUTF();
+        
+        char[] buf = new char[width];
+        for (int i = width - 1; i >= 0; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(buf);
+    }
+    
+    private static long readVLong(byte[] b, int s) {
+        try {
+            return WritableComparator.readVLong(b, s);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+    
+    private static String readUTF(byte[] b, int s) {
+        
+        int length = 2 + WritableComparator.readUnsignedShort(b, s);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(b, s, length)).readUTF();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
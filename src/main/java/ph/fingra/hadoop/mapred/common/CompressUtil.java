@@ -0,0 +1,221 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import ph.fingra.hadoop.common.FingraphConfig;
+import ph.fingra.hadoop.common.logger.WorkLogger;
+
+public class CompressUtil {
+    
+    /**
+     * *** codec names of <compress> in fingraphoss-config.xml ***
+     * 
+     * none    - no compression
+     * default - zlib deflate (.deflate)
+     * gzip    - gzip (.gz)
+     * bzip2   - bzip2 (.bz2), splittable
+     * snappy  - snappy (.snappy), needs hadoop native library
+     * lz4     - lz4 (.lz4), needs hadoop native library
+     * or full class name of any CompressionCodec implementation
+     * 
+     * Only splittable codecs keep one map task per block for large files
+     * (transform log, newuser db). The others make one map task per file.
+     */
+    public static final String CODEC_NONE = "none";
+    
+    private static final String[][] CODEC_NAMES = {
+        { "default", "org.apache.hadoop.io.compress.DefaultCodec" },
+        { "gzip", "org.apache.hadoop.io.compress.GzipCodec" },
+        { "bzip2", "org.apache.hadoop.io.compress.BZip2Codec" },
+        { "snappy", "org.apache.hadoop.io.compress.SnappyCodec" },
+        { "lz4", "org.apache.hadoop.io.compress.Lz4Codec" }
+    };
+    
+    private static final String MAP_OUTPUT_COMPRESS = "mapred.compress.map.output";
+    private static final String MAP_OUTPUT_CODEC = "mapred.map.output.compression.codec";
+    
+    public static boolean isNone(String codecname) {
+        return (codecname == null || codecname.isEmpty()
+                || codecname.equalsIgnoreCase(CODEC_NONE));
+    }
+    
+    /**
+     * codec class of codec name, null if "none"
+     */
+    public static Class<? extends CompressionCodec> getCodecClass(String codecname) {
+        
+        if (isNone(codecname)) {
+            return null;
+        }
+        
+        String classname = codecname;
+        for (String[] names : CODEC_NAMES) {
+            if (names[0].equalsIgnoreCase(codecname)) {
+                classname = names[1];
+                break;
+            }
+        }
+        
+        try {
+            return Class.forName(classname).asSubclass(CompressionCodec.class);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("unknown compression codec : " + codecname);
+        }
+        catch (ClassCastException e) {
+            throw new IllegalArgumentException("not a compression codec : " + codecname);
+        }
+    }
+    
+    /**
+     * codec instance of codec name, null if "none"
+     */
+    public static CompressionCodec getCodec(String codecname, Configuration conf) {
+        
+        Class<? extends CompressionCodec> codecClass = getCodecClass(codecname);
+        if (codecClass == null) {
+            return null;
+        }
+        
+        return ReflectionUtils.newInstance(codecClass, conf);
+    }
+    
+    /**
+     * file extension of codec name (ex. ".bz2"), "" if "none"
+     */
+    public static String getExtension(String codecname) {
+        
+        CompressionCodec codec = getCodec(codecname, new Configuration());
+        
+        return (codec == null) ? "" : codec.getDefaultExtension();
+    }
+    
+    /**
+     * file extensions of known codec names, for finding files written
+     * before codec setting was changed
+     */
+    public static String[] getKnownExtensions() {
+        
+        String[] extensions = new String[CODEC_NAMES.length + 1];
+        extensions[0] = "";
+        for (int i = 0; i < CODEC_NAMES.length; i++) {
+            try {
+                extensions[i + 1] = getExtension(CODEC_NAMES[i][0]);
+            }
+            catch (IllegalArgumentException ignore) {
+                // codec not in this hadoop version
+                extensions[i + 1] = "";
+            }
+        }
+        
+        return extensions;
+    }
+    
+    public static boolean isSplittable(String codecname) {
+        
+        Class<? extends CompressionCodec> codecClass = getCodecClass(codecname);
+        
+        return (codecClass == null
+                || SplittableCompressionCodec.class.isAssignableFrom(codecClass));
+    }
+    
+    /**
+     * warn when a large input file is written with not splittable codec
+     */
+    public static void checkSplittable(String codecname, String filedesc) {
+        
+        if (isSplittable(codecname) == false) {
+            WorkLogger.warn(filedesc + " is compressed by not splittable codec '"
+                    + codecname + "', one map task reads a whole file");
+        }
+    }
+    
+    /**
+     * compression of intermediate map output (shuffle)
+     */
+    public static void setMapOutputCompress(Configuration conf, FingraphConfig finconfig) {
+        
+        String codecname = finconfig.getCompress().getCompress_map_output_codec();
+        Class<? extends CompressionCodec> codecClass = getCodecClass(codecname);
+        
+        if (codecClass != null) {
+            conf.setBoolean(MAP_OUTPUT_COMPRESS, true);
+            conf.setClass(MAP_OUTPUT_CODEC, codecClass, CompressionCodec.class);
+        }
+        else {
+            conf.setBoolean(MAP_OUTPUT_COMPRESS, false);
+        }
+    }
+    
+    /**
+     * compression of job output files
+     */
+    public static void setOutputCompress(Job job, String codecname) {
+        
+        Class<? extends CompressionCodec> codecClass = getCodecClass(codecname);
+        
+        if (codecClass != null) {
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, codecClass);
+        }
+        else {
+            FileOutputFormat.setCompressOutput(job, false);
+        }
+    }
+    
+    /**
+     * open file, decompressed by codec of file extension if compressed
+     */
+    public static InputStream openInputStream(FileSystem fs, Path path,
+            Configuration conf) throws IOException {
+        
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+        if (codec == null) {
+            return fs.open(path);
+        }
+        
+        return codec.createInputStream(fs.open(path));
+    }
+    
+    /**
+     * create file, compressed by codec name if not "none"
+     */
+    public static OutputStream createOutputStream(FileSystem fs, Path path,
+            String codecname, Configuration conf) throws IOException {
+        
+        CompressionCodec codec = getCodec(codecname, conf);
+        if (codec == null) {
+            return fs.create(path);
+        }
+        
+        return codec.createOutputStream(fs.create(path));
+    }
+}
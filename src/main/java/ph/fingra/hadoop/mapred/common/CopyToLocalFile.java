@@ -17,10 +17,10 @@
 package ph.fingra.hadoop.mapred.common;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -70,9 +70,9 @@ public class CopyToLocalFile {
             // create local output stream
             FSDataOutputStream out = local.create(dstPath);
             for (int i=0; i<listedPaths.length; i++) {
-                // create hdfs input stream
-                FSDataInputStream in = fs.open(listedPaths[i]);
-                byte buffer[] = new byte[256];
+                // create hdfs input stream, decompressed if compressed part
+                InputStream in = CompressUtil.openInputStream(fs, listedPaths[i], getConf());
+                byte buffer[] = new byte[64 * 1024];
                 int bytesRead = 0;
                 while ( (bytesRead = in.read(buffer)) > 0) {
                     out.write(buffer, 0, bytesRead);
@@ -17,11 +17,11 @@
 package ph.fingra.hadoop.mapred.common;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
@@ -44,6 +44,16 @@ public class CopyWithinHdfsFile {
     
     public void dirToFile(String srcdir, String dstfile) throws IOException {
         
+        dirToFile(srcdir, dstfile, CompressUtil.CODEC_NONE);
+    }
+    
+    /**
+     * concatenate result parts of srcdir to dstfile compressed by codec
+     * (parts are decompressed first when compressed)
+     */
+    public void dirToFile(String srcdir, String dstfile, String codecname)
+            throws IOException {
+        
         FileSystem shfs = FileSystem.get(URI.create(srcdir), getConf());
         FileSystem thfs = FileSystem.get(URI.create(dstfile), getConf());
         
@@ -69,11 +79,12 @@ public class CopyWithinHdfsFile {
         
         if (listedPaths.length > 0 ) {
             // create hdfs output stream
-            FSDataOutputStream out = thfs.create(dstPath);
+            OutputStream out = CompressUtil.createOutputStream(thfs, dstPath,
+                    codecname, getConf());
             for (int i=0; i<listedPaths.length; i++) {
-                // create hdfs input stream
-                FSDataInputStream in = shfs.open(listedPaths[i]);
-                byte buffer[] = new byte[256];
+                // create hdfs input stream, decompressed if compressed part
+                InputStream in = CompressUtil.openInputStream(shfs, listedPaths[i], getConf());
+                byte buffer[] = new byte[64 * 1024];
                 int bytesRead = 0;
                 while ( (bytesRead = in.read(buffer)) > 0) {
                     out.write(buffer, 0, bytesRead);
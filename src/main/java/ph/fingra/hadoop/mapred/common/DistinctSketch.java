@@ -0,0 +1,246 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.FingraphConfig;
+
+/**
+ * HyperLogLog sketches of distinct users (tokens) and sessions of one
+ * result key, for the approximate mode of distinct-count jobs.
+ * 
+ * Mappers build a sketch per result key (appkey[\tdimension]) with a
+ * Collector and write them in cleanup(), so map output is one record per
+ * key and map task instead of one per log. Combiner and reducer merge the
+ * sketches; the reducer writes "key\tusers\tsessions" like the exact job,
+ * and the merged sketches to the SequenceFile named output "sketch"
+ * (sketch-r-nnnnn) next to it, kept by RollupUtil for week/month roll-ups.
+ */
+public class DistinctSketch extends BaseWritable<DistinctSketch> {
+    
+    public static final String NAMED_OUTPUT = "sketch";
+    
+    /*
+     * max result keys of a Collector before its sketches are written out
+     */
+    public static final String CONF_MAX_KEYS = "sketch.maxkeys";
+    public static final int DEFAULT_MAX_KEYS = 1000;
+    
+    public HyperLogLog users = new HyperLogLog();
+    public HyperLogLog sessions = new HyperLogLog();
+    
+    public void add(String token, String session) {
+        this.users.add(token);
+        this.sessions.add(session);
+    }
+    
+    public void merge(DistinctSketch other) {
+        this.users.merge(other.users);
+        this.sessions.merge(other.sessions);
+    }
+    
+    public void clear() {
+        this.users.clear();
+        this.sessions.clear();
+    }
+    
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        this.users.readFields(in);
+        this.sessions.readFields(in);
+    }
+    
+    @Override
+    public void write(DataOutput out) throws IOException {
+        this.users.write(out);
+        this.sessions.write(out);
+    }
+    
+    /**
+     * set combiner, reducer, partitioner and output classes of a sketch job
+     * whose mapper writes (Text, DistinctSketch)
+     */
+    public static void setupJob(Job job) {
+        
+        job.setCombinerClass(SketchCombiner.class);
+        job.setReducerClass(SketchReducer.class);
+        
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(DistinctSketch.class);
+        
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        
+        job.setPartitionerClass(SketchPartitioner.class);
+        
+        MultipleOutputs.addNamedOutput(job, NAMED_OUTPUT,
+                SequenceFileOutputFormat.class, Text.class, DistinctSketch.class);
+    }
+    
+    /**
+     * roll-up job : merge sketch files (Text, DistinctSketch) of days
+     */
+    public static Job createRollupJob(Configuration conf, Path[] inputpaths,
+            Path outputpath, int numreduce, FingraphConfig finconfig,
+            String jobname, Class<?> jarclass) throws IOException {
+        
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        
+        Job job = new Job(conf);
+        job.setJobName(jobname);
+        
+        job.setJarByClass(jarclass);
+        
+        for (int i=0; i<inputpaths.length; i++) {
+            FileInputFormat.addInputPath(job, inputpaths[i]);
+        }
+        FileOutputFormat.setOutputPath(job, outputpath);
+        
+        // sketch files are read as written, by identity mapper
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setMapperClass(Mapper.class);
+        setupJob(job);
+        
+        job.setNumReduceTasks(numreduce);
+        
+        return job;
+    }
+    
+    /**
+     * in-mapper sketches by result key
+     */
+    public static class Collector {
+        
+        private int maxkeys = DEFAULT_MAX_KEYS;
+        private Map<String, DistinctSketch> sketches = new HashMap<String, DistinctSketch>();
+        
+        private Text out_key = new Text();
+        
+        public Collector(Configuration conf) {
+            this.maxkeys = conf.getInt(CONF_MAX_KEYS, DEFAULT_MAX_KEYS);
+        }
+        
+        public void add(String key, String token, String session,
+                TaskInputOutputContext<?, ?, Text, DistinctSketch> context)
+                throws IOException, InterruptedException {
+            
+            DistinctSketch sketch = sketches.get(key);
+            if (sketch == null) {
+                if (sketches.size() >= maxkeys) {
+                    flush(context);
+                }
+                sketch = new DistinctSketch();
+                sketches.put(key, sketch);
+            }
+            
+            sketch.add(token, session);
+        }
+        
+        public void flush(TaskInputOutputContext<?, ?, Text, DistinctSketch> context)
+                throws IOException, InterruptedException {
+            
+            Iterator<Map.Entry<String, DistinctSketch>> iter = sketches.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, DistinctSketch> entry = iter.next();
+                out_key.set(entry.getKey());
+                context.write(out_key, entry.getValue());
+            }
+            
+            sketches.clear();
+        }
+    }
+    
+    public static class SketchCombiner
+        extends Reducer<Text, DistinctSketch, Text, DistinctSketch> {
+        
+        @Override
+        protected void reduce(Text key, Iterable<DistinctSketch> values,
+                Context context) throws IOException, InterruptedException {
+            
+            DistinctSketch sum = new DistinctSketch();
+            for (DistinctSketch cur_val : values) {
+                sum.merge(cur_val);
+            }
+            
+            context.write(key, sum);
+        }
+    }
+    
+    public static class SketchReducer
+        extends Reducer<Text, DistinctSketch, Text, Text> {
+        
+        private Text out_val = new Text();
+        private MultipleOutputs<Text, Text> mos;
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            mos = new MultipleOutputs<Text, Text>(context);
+        }
+        
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            mos.close();
+        }
+        
+        @Override
+        protected void reduce(Text key, Iterable<DistinctSketch> values,
+                Context context) throws IOException, InterruptedException {
+            
+            DistinctSketch sum = new DistinctSketch();
+            for (DistinctSketch cur_val : values) {
+                sum.merge(cur_val);
+            }
+            
+            out_val.set(String.valueOf(sum.users.cardinality())
+                    + ConstantVars.RESULT_FIELD_SEPERATER
+                    + String.valueOf(sum.sessions.cardinality()));
+            
+            context.write(key, out_val);
+            mos.write(NAMED_OUTPUT, key, sum);
+        }
+    }
+    
+    private static class SketchPartitioner
+        extends Partitioner<Text, DistinctSketch> {
+        @Override
+        public int getPartition(Text key, DistinctSketch value,
+                int numPartitions) {
+            return PartitionUtil.getPartition(key, numPartitions);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+/**
+ * Murmur3 (x86_32) style hash of String fields for keys and partitioners.
+ * 
+ * Only char values and integer arithmetic are used, so the hash is the same
+ * on every JVM and every run (unlike identity or reflection based hashes).
+ * 
+ * usage :
+ *   int h = FieldHash.SEED;
+ *   h = FieldHash.add(h, appkey);
+ *   h = FieldHash.add(h, token);
+ *   return FieldHash.finish(h, 2);
+ */
+public class FieldHash {
+    
+    public static final int SEED = 0x9747b28c;
+    
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+    
+    /**
+     * murmur3 hash of String chars (2 chars per 32 bit block)
+     */
+    public static int hash(String src, int seed) {
+        
+        int h = seed;
+        int length = src.length();
+        
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            int k = src.charAt(i) | (src.charAt(i + 1) << 16);
+            h = mixH(h, mixK(k));
+        }
+        if (i < length) {
+            h ^= mixK(src.charAt(i));
+        }
+        
+        return fmix(h ^ (length << 1));
+    }
+    
+    /**
+     * murmur3 hash of bytes (ex. utf-8 bytes of Text)
+     */
+    public static int hash(byte[] src, int start, int length, int seed) {
+        
+        int h = seed;
+        int end = start + (length & ~3);
+        
+        int i = start;
+        for (; i < end; i += 4) {
+            int k = (src[i] & 0xff) | ((src[i+1] & 0xff) << 8)
+                    | ((src[i+2] & 0xff) << 16) | (src[i+3] << 24);
+            h = mixH(h, mixK(k));
+        }
+        
+        int k = 0;
+        switch (length & 3) {
+            case 3: k ^= (src[i+2] & 0xff) << 16;
+            case 2: k ^= (src[i+1] & 0xff) << 8;
+            case 1: k ^= (src[i] & 0xff);
+                h ^= mixK(k);
+        }
+        
+        return fmix(h ^ length);
+    }
+    
+    /**
+     * add hash of one field to running hash h
+     */
+    public static int add(int h, String field) {
+        return mixH(h, mixK(hash(field, SEED)));
+    }
+    
+    /**
+     * add int value to running hash h
+     */
+    public static int add(int h, int value) {
+        return mixH(h, mixK(value));
+    }
+    
+    /**
+     * finalize running hash of count fields
+     */
+    public static int finish(int h, int count) {
+        return fmix(h ^ count);
+    }
+    
+    private static int mixK(int k) {
+        k *= C1;
+        k = Integer.rotateLeft(k, 15);
+        k *= C2;
+        return k;
+    }
+    
+    private static int mixH(int h, int k) {
+        h ^= k;
+        h = Integer.rotateLeft(h, 13);
+        return h * 5 + 0xe6546b64;
+    }
+    
+    private static int fmix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
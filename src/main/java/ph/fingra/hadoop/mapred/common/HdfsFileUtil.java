@@ -131,9 +131,16 @@ public class HdfsFileUtil {
             return true;
         }
         
-        // make backup file name as yesterday date
+        // make backup file name as yesterday date (before codec extension)
         target_day = DateTimeUtil.addDays(runday, -1, "yyyyMMdd");
-        target_file = srcfile + "-" + target_day;
+        String ext = "";
+        for (String known : CompressUtil.getKnownExtensions()) {
+            if (known.length() > ext.length() && srcfile.endsWith(known)) {
+                ext = known;
+            }
+        }
+        target_file = srcfile.substring(0, srcfile.length() - ext.length())
+                + "-" + target_day + ext;
         //System.out.println("target_file - " + target_file);
         targetPath = new Path(target_file);
         
@@ -326,20 +333,38 @@ public class HdfsFileUtil {
             String year, String month, String day, String hour, int week)
             throws IOException {
         
+        return getTransformInputPaths(config, mode, year, month, day, hour, week, false);
+    }
+    
+    /**
+     * transform log of target days for TransformInputFormat : columnar
+     * transform log directory of the day, or text file of the day written
+     * without columnar output
+     */
+    public static Path[] getColumnarTransformInputPaths(FingraphConfig config, String mode,
+            String year, String month, String day, String hour, int week)
+            throws IOException {
+        
+        return getTransformInputPaths(config, mode, year, month, day, hour, week, true);
+    }
+    
+    private static Path[] getTransformInputPaths(FingraphConfig config, String mode,
+            String year, String month, String day, String hour, int week,
+            boolean columnar) throws IOException {
+        
         Path[] inputpaths = null;
         
         if (mode.equals(ConstantVars.RUNMODE_HOUR)) {
             
             inputpaths = new Path[1];
             
-            String uri = config.getHadoop_user_path()
-                    + (config.getHadoop_user_path().endsWith("/") ? "" : "/")
-                    + config.getSetting().getHfs_input_path()
-                    + (config.getSetting().getHfs_input_path().endsWith("/") ? "" : "/")
-                    + config.getSetting().getTransform_input_file();
-            uri = uri.replaceAll("\\{yyyy\\}", year);
-            uri = uri.replaceAll("\\{MM\\}", month);
-            uri = uri.replaceAll("\\{dd\\}", day);
+            // partition of the hour only, results of hour mode never hold other hours
+            // (written by PreTransform in hour mode, deleted by its day run)
+            String uri = getTransformHourFileUri(config, year, month, day, hour, columnar);
+            if (uri == null) {
+                throw new IOException("there is no transform log of target hour, "
+                        + "run PreTransform in hour mode first");
+            }
             
             inputpaths[0] = new Path(uri);
         }
@@ -347,14 +372,7 @@ public class HdfsFileUtil {
             
             inputpaths = new Path[1];
             
-            String uri = config.getHadoop_user_path()
-                    + (config.getHadoop_user_path().endsWith("/") ? "" : "/")
-                    + config.getSetting().getHfs_input_path()
-                    + (config.getSetting().getHfs_input_path().endsWith("/") ? "" : "/")
-                    + config.getSetting().getTransform_input_file();
-            uri = uri.replaceAll("\\{yyyy\\}", year);
-            uri = uri.replaceAll("\\{MM\\}", month);
-            uri = uri.replaceAll("\\{dd\\}", day);
+            String uri = getTransformFileUri(config, year, month, day, columnar);
             
             inputpaths[0] = new Path(uri);
         }
@@ -383,14 +401,7 @@ public class HdfsFileUtil {
                 String tmonth = nextday.substring(4, 6);
                 String tday = nextday.substring(6);
                 
-                String uri = config.getHadoop_user_path()
-                        + (config.getHadoop_user_path().endsWith("/") ? "" : "/")
-                        + config.getSetting().getHfs_input_path()
-                        + (config.getSetting().getHfs_input_path().endsWith("/") ? "" : "/")
-                        + config.getSetting().getTransform_input_file();
-                uri = uri.replaceAll("\\{yyyy\\}", tyear);
-                uri = uri.replaceAll("\\{MM\\}", tmonth);
-                uri = uri.replaceAll("\\{dd\\}", tday);
+                String uri = getTransformFileUri(config, tyear, tmonth, tday, columnar);
                 
                 if (getDateMatchedFileCount(new Path(uri)) > 0) {
                     inputlist.add(uri);
@@ -435,14 +446,7 @@ public class HdfsFileUtil {
                 String tmonth = nextday.substring(4, 6);
                 String tday = nextday.substring(6);
                 
-                String uri = config.getHadoop_user_path()
-                        + (config.getHadoop_user_path().endsWith("/") ? "" : "/")
-                        + config.getSetting().getHfs_input_path()
-                        + (config.getSetting().getHfs_input_path().endsWith("/") ? "" : "/")
-                        + config.getSetting().getTransform_input_file();
-                uri = uri.replaceAll("\\{yyyy\\}", tyear);
-                uri = uri.replaceAll("\\{MM\\}", tmonth);
-                uri = uri.replaceAll("\\{dd\\}", tday);
+                String uri = getTransformFileUri(config, tyear, tmonth, tday, columnar);
                 
                 if (getDateMatchedFileCount(new Path(uri)) > 0) {
                     inputlist.add(uri);
@@ -467,6 +471,42 @@ public class HdfsFileUtil {
     public static String getSaveTransformFilePath(FingraphConfig config,
             String year, String month, String day) throws IOException {
         
+        return getTransformBasePath(config, year, month, day)
+                + CompressUtil.getExtension(config.getCompress().getCompress_transform_codec());
+    }
+    
+    /**
+     * directory of columnar transform log of the day (columnar-r-nnnnn files),
+     * beside the text transform log file
+     */
+    public static String getSaveColumnarTransformPath(FingraphConfig config,
+            String year, String month, String day) throws IOException {
+        
+        return getTransformBasePath(config, year, month, day)
+                + TransformColumnarFile.EXTENSION;
+    }
+    
+    /**
+     * transform log of one hour of the day, written by PreTransform in hour mode
+     * (hour partitions of a day hold the rows of the day by hour of utctime)
+     */
+    public static String getSaveTransformHourFilePath(FingraphConfig config,
+            String year, String month, String day, String hour) throws IOException {
+        
+        return getTransformBasePath(config, year, month, day) + "." + hour
+                + CompressUtil.getExtension(config.getCompress().getCompress_transform_codec());
+    }
+    
+    public static String getSaveColumnarTransformHourPath(FingraphConfig config,
+            String year, String month, String day, String hour) throws IOException {
+        
+        return getTransformBasePath(config, year, month, day) + "." + hour
+                + TransformColumnarFile.EXTENSION;
+    }
+    
+    private static String getTransformBasePath(FingraphConfig config,
+            String year, String month, String day) throws IOException {
+        
         String savepath = null;
         
         String uri = config.getHadoop_user_path()
@@ -483,6 +523,247 @@ public class HdfsFileUtil {
         return savepath;
     }
     
+    /*
+     * transform log file of the day to read : columnar transform log if asked
+     * and written, file compressed by transform codec, or file written before
+     * transform codec was changed
+     */
+    private static String getTransformFileUri(FingraphConfig config,
+            String year, String month, String day, boolean columnar) throws IOException {
+        
+        if (columnar) {
+            String coluri = getSaveColumnarTransformPath(config, year, month, day);
+            if (isExistFile(coluri)) {
+                return coluri;
+            }
+        }
+        
+        String uri = getSaveTransformFilePath(config, year, month, day);
+        String ext = CompressUtil.getExtension(
+                config.getCompress().getCompress_transform_codec());
+        
+        String found = findFileOfKnownExtension(
+                uri.substring(0, uri.length() - ext.length()), ext);
+        
+        return (found != null) ? found : uri;
+    }
+    
+    /**
+     * true if transform log of the day was written (text file of any codec,
+     * or columnar transform log)
+     */
+    public static boolean isExistTransformFile(FingraphConfig config,
+            String year, String month, String day) throws IOException {
+        
+        String uri = getTransformFileUri(config, year, month, day, true);
+        
+        return getDateMatchedFileCount(new Path(uri)) > 0;
+    }
+    
+    /*
+     * transform log partition of the hour to read like getTransformFileUri,
+     * null if there is no partition of the hour
+     */
+    private static String getTransformHourFileUri(FingraphConfig config,
+            String year, String month, String day, String hour, boolean columnar)
+            throws IOException {
+        
+        if (columnar) {
+            String coluri = getSaveColumnarTransformHourPath(config, year, month, day, hour);
+            if (isExistFile(coluri)) {
+                return coluri;
+            }
+        }
+        
+        String uri = getSaveTransformHourFilePath(config, year, month, day, hour);
+        String ext = CompressUtil.getExtension(
+                config.getCompress().getCompress_transform_codec());
+        
+        return findFileOfKnownExtension(uri.substring(0, uri.length() - ext.length()), ext);
+    }
+    
+    /*
+     * existing file of basefile + extension of any known codec,
+     * prefer extension of current codec setting
+     */
+    private static String findFileOfKnownExtension(String basefile,
+            String preferext) throws IOException {
+        
+        if (isExistFile(basefile + preferext)) {
+            return basefile + preferext;
+        }
+        for (String ext : CompressUtil.getKnownExtensions()) {
+            if (ext.equals(preferext) == false && isExistFile(basefile + ext)) {
+                return basefile + ext;
+            }
+        }
+        
+        return null;
+    }
+    
+    /*
+     * newuser db is a directory partitioned by first-seen date of users,
+     * as {db}/{yyyy}/{MM}/{dd}/{version}/part-r-nnnnn (see NewuserDbSnapshot)
+     */
+    public static final String DATABASE_PARTITION_GLOB
+        = "[0-9][0-9][0-9][0-9]/[0-9][0-9]/[0-9][0-9]";
+    
+    public static String getDatabasePartitionPath(String dbdir,
+            String year, String month, String day) {
+        
+        return dbdir + (dbdir.endsWith("/") ? "" : "/")
+                + getDatabasePartitionName(year, month, day);
+    }
+    
+    /*
+     * partition of first-seen date, relative to newuser db directory
+     */
+    public static String getDatabasePartitionName(String year, String month,
+            String day) {
+        
+        return year + "/" + month + "/" + day;
+    }
+    
+    public static boolean isPartitionedDatabase(String dbdir) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path dbPath = new Path(dbdir);
+        
+        return hdfs.exists(dbPath) && hdfs.getFileStatus(dbPath).isDir();
+    }
+    
+    /*
+     * existing single newuser db file written before the db was partitioned
+     * (null if not exist) : file compressed by database codec, or file
+     * written before database codec was changed
+     */
+    public static String findDatabaseFile(FingraphConfig config, String dbfile)
+            throws IOException {
+        
+        if (isPartitionedDatabase(dbfile)) {
+            return null;
+        }
+        
+        return findFileOfKnownExtension(dbfile, CompressUtil.getExtension(
+                config.getCompress().getCompress_database_codec()));
+    }
+    
+    /*
+     * current newuser db : partitioned db directory, or single db file
+     * written before the db was partitioned (null if not exist)
+     */
+    public static String findDatabase(FingraphConfig config, String dbdir)
+            throws IOException {
+        
+        if (isPartitionedDatabase(dbdir)) {
+            return dbdir;
+        }
+        
+        return findDatabaseFile(config, dbdir);
+    }
+    
+    /*
+     * whole newuser db to read : all partitions of db directory, or single
+     * db file written before the db was partitioned (empty if not exist)
+     */
+    public static Path[] getDatabaseInputPaths(FingraphConfig config, String dbdir)
+            throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        if (isPartitionedDatabase(dbdir)) {
+            
+            // segments of current version
+            if (NewuserDbSnapshot.hasManifest(dbdir)) {
+                return NewuserDbSnapshot.getSegmentPaths(dbdir, null);
+            }
+            
+            Path globPath = new Path(dbdir + (dbdir.endsWith("/") ? "" : "/")
+                    + DATABASE_PARTITION_GLOB);
+            FileStatus[] status = hdfs.globStatus(globPath);
+            if (status != null && status.length > 0) {
+                return new Path[] { globPath };
+            }
+            return new Path[0];
+        }
+        
+        String dbfile = findDatabaseFile(config, dbdir);
+        if (dbfile != null) {
+            return new Path[] { new Path(dbfile) };
+        }
+        
+        return new Path[0];
+    }
+    
+    /*
+     * newuser db partitions of first-seen date in the period of run mode
+     * (hour/day : the day, week : days of the week, month : days of the month),
+     * or single db file written before the db was partitioned
+     */
+    public static Path[] getDatabasePartitionPaths(FingraphConfig config,
+            String dbdir, String mode, String year, String month, String day,
+            int week) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        if (isPartitionedDatabase(dbdir) == false) {
+            
+            String dbfile = findDatabaseFile(config, dbdir);
+            if (dbfile != null) {
+                return new Path[] { new Path(dbfile) };
+            }
+            return new Path[0];
+        }
+        
+        List<String> days = new ArrayList<String>();
+        
+        if (mode.equals(ConstantVars.RUNMODE_HOUR)
+                || mode.equals(ConstantVars.RUNMODE_DAY)) {
+            
+            days.add(year + month + day);
+        }
+        else if (mode.equals(ConstantVars.RUNMODE_WEEK)) {
+            
+            String firstday = DateTimeUtil.startDayOfWeek(year, week, "yyyyMMdd");
+            for (int i=0; i < 7; i++) {
+                days.add(DateTimeUtil.addDays(firstday, i, "yyyyMMdd"));
+            }
+        }
+        else {
+            
+            String firstday = DateTimeUtil.startDayOfMonth(year, month, "yyyyMMdd");
+            String lastday = DateTimeUtil.lastDayOfMonth(year, month, "yyyyMMdd");
+            int daycount_in_month = Integer.parseInt(lastday.substring(6));
+            for (int i=0; i < daycount_in_month; i++) {
+                days.add(DateTimeUtil.addDays(firstday, i, "yyyyMMdd"));
+            }
+        }
+        
+        // segments of current version
+        if (NewuserDbSnapshot.hasManifest(dbdir)) {
+            return NewuserDbSnapshot.getSegmentPaths(dbdir, days);
+        }
+        
+        List<Path> inputlist = new ArrayList<Path>();
+        
+        for (String tday : days) {
+            Path partPath = new Path(getDatabasePartitionPath(dbdir,
+                    tday.substring(0, 4), tday.substring(4, 6), tday.substring(6)));
+            if (hdfs.exists(partPath)) {
+                inputlist.add(partPath);
+            }
+        }
+        
+        return inputlist.toArray(new Path[inputlist.size()]);
+    }
+    
     public static boolean deleteOriginFiles(FingraphConfig config,
             String year, String month, String day) throws IOException {
         
@@ -534,23 +815,94 @@ public class HdfsFileUtil {
         return success;
     }
     
-    public static Path[] getAppNewuserInputPaths(FingraphConfig config, String mode,
+    /**
+     * delete hour partitions of transform log of the day (text file of any
+     * codec and columnar directory of each hour), once the transform log of
+     * the whole day is written
+     */
+    public static boolean deleteTransformHourFiles(FingraphConfig config,
             String year, String month, String day) throws IOException {
         
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path basePath = new Path(getTransformBasePath(config, year, month, day));
+        final String patt = "^" + Pattern.quote(basePath.getName()) + "\\.[0-9]{2}(\\.\\w+)?$";
+        
+        boolean success = false;
+        
+        // get matched file list
+        PathFilter hourFileFilter = new PathFilter() {
+            @Override
+            public boolean accept(Path path) {
+                return path.getName().matches(patt);
+            }
+        };
+        
+        try {
+            FileStatus[] status = hdfs.listStatus(basePath.getParent(), hourFileFilter);
+            
+            if (status != null) {
+                for (Path path : FileUtil.stat2Paths(status)) {
+                    success = hdfs.delete(path, true);
+                }
+            }
+        }
+        catch (FileNotFoundException ignore) {}
+        
+        return success;
+    }
+    
+    /**
+     * move columnar transform log files (columnar-r-nnnnn) of srcdir into
+     * dstdir, replacing columnar transform log written before,
+     * only delete dstdir if srcdir has no columnar file
+     */
+    public static void replaceColumnarTransform(String srcdir, String dstdir)
+            throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path dstPath = new Path(dstdir);
+        if (hdfs.exists(dstPath)) {
+            hdfs.delete(dstPath, true);
+        }
+        
+        PathFilter columnarFileFilter = new PathFilter() {
+            @Override
+            public boolean accept(Path path) {
+                return TransformColumnarFile.isColumnarFile(path.getName());
+            }
+        };
+        
+        FileStatus[] status = hdfs.listStatus(new Path(srcdir), columnarFileFilter);
+        if (status == null || status.length == 0) {
+            return;
+        }
+        
+        hdfs.mkdirs(dstPath);
+        for (Path path : FileUtil.stat2Paths(status)) {
+            if (hdfs.rename(path, new Path(dstPath, path.getName())) == false) {
+                throw new IOException("failed to move columnar transform log " + path);
+            }
+        }
+    }
+    
+    public static Path[] getAppNewuserInputPaths(FingraphConfig config, String mode,
+            String year, String month, String day, int week) throws IOException {
+        
         Path[] inputpaths = null;
-        boolean exist_dbfile = false;
         
         HfsPathInfo hfsPath = new HfsPathInfo(config, mode);
-        if (HdfsFileUtil.isExistFile(hfsPath.getApp_newuser_db()) == true) {
-            exist_dbfile = true;
-        }
+        Path[] dbpaths = getDatabasePartitionPaths(config, hfsPath.getApp_newuser_db(),
+                mode, year, month, day, week);
         
         if (mode.equals(ConstantVars.RUNMODE_HOUR)) {
             
-            if (exist_dbfile)
-                inputpaths = new Path[2];
-            else
-                inputpaths = new Path[1];
+            inputpaths = new Path[1 + dbpaths.length];
             
             String uri = config.getHadoop_user_path()
                     + (config.getHadoop_user_path().endsWith("/") ? "" : "/")
@@ -563,37 +915,31 @@ public class HdfsFileUtil {
             
             inputpaths[0] = new Path(uri);
             
-            if (exist_dbfile)
-                inputpaths[1] = new Path(hfsPath.getApp_newuser_db());
+            for (int i=0; i < dbpaths.length; i++) {
+                inputpaths[1+i] = dbpaths[i];
+            }
         }
         else {
             
-            if (exist_dbfile) {
-                inputpaths = new Path[1];
-                inputpaths[0] = new Path(hfsPath.getApp_newuser_db());
-            }
+            // empty if no partition in target period, job gives empty output
+            inputpaths = dbpaths;
         }
         
         return inputpaths;
     }
     
     public static Path[] getComponentNewuserInputPaths(FingraphConfig config, String mode,
-            String year, String month, String day) throws IOException {
+            String year, String month, String day, int week) throws IOException {
         
         Path[] inputpaths = null;
-        boolean exist_dbfile = false;
         
         HfsPathInfo hfsPath = new HfsPathInfo(config, mode);
-        if (HdfsFileUtil.isExistFile(hfsPath.getComponent_newuser_db()) == true) {
-            exist_dbfile = true;
-        }
+        Path[] dbpaths = getDatabasePartitionPaths(config, hfsPath.getComponent_newuser_db(),
+                mode, year, month, day, week);
         
         if (mode.equals(ConstantVars.RUNMODE_HOUR)) {
             
-            if (exist_dbfile)
-                inputpaths = new Path[2];
-            else
-                inputpaths = new Path[1];
+            inputpaths = new Path[1 + dbpaths.length];
             
             String uri = config.getHadoop_user_path()
                     + (config.getHadoop_user_path().endsWith("/") ? "" : "/")
@@ -606,15 +952,14 @@ public class HdfsFileUtil {
             
             inputpaths[0] = new Path(uri);
             
-            if (exist_dbfile)
-                inputpaths[1] = new Path(hfsPath.getComponent_newuser_db());
+            for (int i=0; i < dbpaths.length; i++) {
+                inputpaths[1+i] = dbpaths[i];
+            }
         }
         else {
             
-            if (exist_dbfile) {
-                inputpaths = new Path[1];
-                inputpaths[0] = new Path(hfsPath.getComponent_newuser_db());
-            }
+            // empty if no partition in target period, job gives empty output
+            inputpaths = dbpaths;
         }
         
         return inputpaths;
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Mergeable HyperLogLog sketch of distinct String values.
+ * 
+ * 2^14 registers of a 64 bit hash (two FieldHash seeds) give a standard
+ * error of 1.04 / sqrt(2^14) = 0.81%. The cardinality is estimated from
+ * the register histogram by the improved estimator of O. Ertl ("New
+ * cardinality estimation algorithms for HyperLogLog sketches", 2017),
+ * which needs no empirical bias tables and has no error bump between
+ * small and large cardinalities.
+ * 
+ * A sketch of few values is kept sparse, as a sorted list of
+ * (register index, value) pairs, and turns dense when the list outgrows
+ * an eighth of the registers. So a sketch of a small app or a rare
+ * dimension costs bytes, not 16KB, in map output and in memory.
+ */
+public class HyperLogLog extends BaseWritable<HyperLogLog> {
+    
+    public static final int P = 14;
+    public static final int M = 1 << P;
+    
+    // register value : 1 + leading zeros of remaining 64 - P bits
+    private static final int Q = 64 - P;
+    
+    private static final int SPARSE_MAX = M / 8;
+    
+    private static final int SEED2 = 0x5bd1e995;
+    
+    private byte[] registers = null;
+    
+    // sparse entries : index << 8 | value, sorted by index
+    private int[] sparse = new int[16];
+    private int sparsesize = 0;
+    
+    public HyperLogLog() {
+    }
+    
+    public void clear() {
+        registers = null;
+        sparsesize = 0;
+    }
+    
+    public boolean isEmpty() {
+        return registers == null && sparsesize == 0;
+    }
+    
+    public void add(String value) {
+        
+        long hash = ((long) FieldHash.hash(value, FieldHash.SEED) << 32)
+                | (FieldHash.hash(value, SEED2) & 0xffffffffL);
+        
+        int index = (int) (hash >>> Q);
+        int rho = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+        
+        update(index, rho);
+    }
+    
+    public void merge(HyperLogLog other) {
+        
+        if (other.registers != null) {
+            toDense();
+            for (int i=0; i<M; i++) {
+                if (other.registers[i] > registers[i]) {
+                    registers[i] = other.registers[i];
+                }
+            }
+        }
+        else {
+            for (int i=0; i<other.sparsesize; i++) {
+                update(other.sparse[i] >>> 8, other.sparse[i] & 0xff);
+            }
+        }
+    }
+    
+    public long cardinality() {
+        
+        // histogram of register values
+        int[] c = new int[Q + 2];
+        if (registers != null) {
+            for (int i=0; i<M; i++) {
+                c[registers[i]]++;
+            }
+        }
+        else {
+            c[0] = M - sparsesize;
+            for (int i=0; i<sparsesize; i++) {
+                c[sparse[i] & 0xff]++;
+            }
+        }
+        
+        if (c[0] == M) {
+            return 0;
+        }
+        
+        double z = M * tau(1.0 - (double) c[Q + 1] / M);
+        for (int k=Q; k>=1; k--) {
+            z = 0.5 * (z + c[k]);
+        }
+        z += M * sigma((double) c[0] / M);
+        
+        // alpha_inf * m^2 / z
+        return Math.round(M / (2.0 * Math.log(2.0)) * M / z);
+    }
+    
+    private void update(int index, int rho) {
+        
+        if (registers != null) {
+            if (rho > registers[index]) {
+                registers[index] = (byte) rho;
+            }
+            return;
+        }
+        
+        // binary search of index in sparse entries
+        int lo = 0, hi = sparsesize - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midindex = sparse[mid] >>> 8;
+            if (midindex < index) {
+                lo = mid + 1;
+            }
+            else if (midindex > index) {
+                hi = mid - 1;
+            }
+            else {
+                if (rho > (sparse[mid] & 0xff)) {
+                    sparse[mid] = (index << 8) | rho;
+                }
+                return;
+            }
+        }
+        
+        if (sparsesize >= SPARSE_MAX) {
+            toDense();
+            update(index, rho);
+            return;
+        }
+        
+        if (sparsesize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.min(sparse.length * 2, SPARSE_MAX));
+        }
+        System.arraycopy(sparse, lo, sparse, lo + 1, sparsesize - lo);
+        sparse[lo] = (index << 8) | rho;
+        sparsesize++;
+    }
+    
+    private void toDense() {
+        
+        if (registers != null) {
+            return;
+        }
+        
+        registers = new byte[M];
+        for (int i=0; i<sparsesize; i++) {
+            registers[sparse[i] >>> 8] = (byte) (sparse[i] & 0xff);
+        }
+        sparsesize = 0;
+    }
+    
+    private static double sigma(double x) {
+        
+        if (x == 1.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        
+        double y = 1.0;
+        double z = x;
+        double prev;
+        do {
+            x *= x;
+            prev = z;
+            z += x * y;
+            y += y;
+        } while (z != prev);
+        
+        return z;
+    }
+    
+    private static double tau(double x) {
+        
+        if (x == 0.0 || x == 1.0) {
+            return 0.0;
+        }
+        
+        double y = 1.0;
+        double z = 1.0 - x;
+        double prev;
+        do {
+            x = Math.sqrt(x);
+            prev = z;
+            y *= 0.5;
+            z -= (1.0 - x) * (1.0 - x) * y;
+        } while (z != prev);
+        
+        return z / 3.0;
+    }
+    
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        
+        clear();
+        
+        if (in.readBoolean()) {
+            registers = new byte[M];
+            in.readFully(registers);
+        }
+        else {
+            sparsesize = WritableUtils.readVInt(in);
+            if (sparse.length < sparsesize) {
+                sparse = new int[sparsesize];
+            }
+            // delta coded entries
+            int prev = 0;
+            for (int i=0; i<sparsesize; i++) {
+                prev += WritableUtils.readVInt(in);
+                sparse[i] = prev;
+            }
+        }
+    }
+    
+    @Override
+    public void write(DataOutput out) throws IOException {
+        
+        if (registers != null) {
+            out.writeBoolean(true);
+            out.write(registers);
+        }
+        else {
+            out.writeBoolean(false);
+            WritableUtils.writeVInt(out, sparsesize);
+            int prev = 0;
+            for (int i=0; i<sparsesize; i++) {
+                WritableUtils.writeVInt(out, sparse[i] - prev);
+                prev = sparse[i];
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.valueOf(cardinality());
+    }
+}
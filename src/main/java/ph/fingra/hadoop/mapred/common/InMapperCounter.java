@@ -0,0 +1,174 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * In-mapper combining of (Text, LongWritable) count jobs.
+ * 
+ * Counts are summed per key in an open-addressing table of String keys and
+ * long counts, instead of writing one (key, 1) record per log and leaving
+ * the sum to the combiner after the spill. The table is flushed to the
+ * context when its estimated size reaches the memory budget, and must be
+ * flushed in cleanup() of the mapper. The combiner is still set, to sum
+ * keys written by several flushes.
+ * 
+ * usage :
+ *   setup()   : counts = InMapperCounter.create(context.getConfiguration());
+ *   map()     : counts.add(appkey, 1, context);
+ *   cleanup() : counts.flush(context);
+ */
+public class InMapperCounter {
+    
+    /*
+     * memory budget of the table in megabytes
+     */
+    public static final String CONF_BUDGET_MB = "inmapper.budget.mb";
+    public static final int DEFAULT_BUDGET_MB = 16;
+    
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    // estimated bytes of a slot (key reference, hash, count)
+    private static final int SLOT_BYTES = 20;
+    // estimated bytes of a key String besides its chars
+    private static final int KEY_OVERHEAD_BYTES = 40;
+    
+    private final long budget;
+    
+    private String[] keys;
+    private int[] hashes;
+    private long[] counts;
+    private int mask;
+    private int size = 0;
+    private long keybytes = 0;
+    
+    private Text out_key = new Text();
+    private LongWritable out_val = new LongWritable(0);
+    
+    public static InMapperCounter create(Configuration conf) {
+        return new InMapperCounter(1024L * 1024L
+                * conf.getInt(CONF_BUDGET_MB, DEFAULT_BUDGET_MB));
+    }
+    
+    public InMapperCounter(long budget) {
+        this.budget = budget;
+        allocate(INITIAL_CAPACITY);
+    }
+    
+    /**
+     * add count of key, flushing the table to context if over budget
+     */
+    public void add(String key, long count,
+            TaskInputOutputContext<?, ?, Text, LongWritable> context)
+            throws IOException, InterruptedException {
+        
+        int hash = FieldHash.hash(key, FieldHash.SEED);
+        int i = hash & mask;
+        while (keys[i] != null) {
+            if (hashes[i] == hash && keys[i].equals(key)) {
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        
+        keys[i] = key;
+        hashes[i] = hash;
+        counts[i] = count;
+        size++;
+        keybytes += KEY_OVERHEAD_BYTES + 2L * key.length();
+        
+        // grow at 3/4 load while in budget, else write out all counts
+        if (size * 4L >= keys.length * 3L) {
+            if (getMemory(keys.length * 2) <= budget) {
+                resize(keys.length * 2);
+            }
+            else {
+                flush(context);
+            }
+        }
+        else if (getMemory(keys.length) > budget) {
+            flush(context);
+        }
+    }
+    
+    /**
+     * write all counts to context and clear the table
+     */
+    public void flush(TaskInputOutputContext<?, ?, Text, LongWritable> context)
+            throws IOException, InterruptedException {
+        
+        if (size == 0) {
+            return;
+        }
+        
+        for (int i=0; i<keys.length; i++) {
+            if (keys[i] != null) {
+                out_key.set(keys[i]);
+                out_val.set(counts[i]);
+                context.write(out_key, out_val);
+            }
+        }
+        
+        Arrays.fill(keys, null);
+        size = 0;
+        keybytes = 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    private long getMemory(int capacity) {
+        return (long) capacity * SLOT_BYTES + keybytes;
+    }
+    
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+    
+    private void resize(int capacity) {
+        
+        String[] oldkeys = keys;
+        int[] oldhashes = hashes;
+        long[] oldcounts = counts;
+        
+        allocate(capacity);
+        
+        for (int j=0; j<oldkeys.length; j++) {
+            if (oldkeys[j] != null) {
+                int i = oldhashes[j] & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldkeys[j];
+                hashes[i] = oldhashes[j];
+                counts[i] = oldcounts[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+import ph.fingra.hadoop.common.ConstantVars;
+
+/**
+ * Manifest based snapshots of the partitioned newuser db.
+ * 
+ * Each merge run writes the partitions it changed once, as immutable
+ * segments {db}/{yyyy}/{MM}/{dd}/{version}, and commits one manifest
+ * {db}/_manifests/manifest-{version} listing the segment of every day of
+ * the db, then switches {db}/_manifests/_current to it. Expired days are
+ * dropped by the same manifest. Older manifests are the backups : rollback
+ * switches to the previous manifest (undoing one whole run), and segments
+ * not listed by any kept manifest are deleted.
+ */
+public class NewuserDbSnapshot {
+    
+    public static final String MANIFEST_DIR = "_manifests";
+    public static final String MANIFEST_PREFIX = "manifest-";
+    public static final String CURRENT_FILE = "_current";
+    
+    private static final String VERSION_FORMAT = "yyyyMMddHHmmssSSS";
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /*
+     * version name of a new manifest, in commit order : commit time, or
+     * next to the newest version when the clock is not ahead of it
+     */
+    public static String newVersion(String dbdir) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        String version = new SimpleDateFormat(VERSION_FORMAT).format(new Date());
+        
+        String latest = getCurrentVersion(dbdir);
+        String[] versions = getVersions(hdfs, dbdir);
+        if (versions.length > 0
+                && (latest == null || versions[versions.length-1].compareTo(latest) > 0)) {
+            latest = versions[versions.length-1];
+        }
+        
+        if (latest != null && version.compareTo(latest) <= 0) {
+            version = String.format("%0" + VERSION_FORMAT.length() + "d",
+                    Long.parseLong(latest) + 1);
+        }
+        
+        return version;
+    }
+    
+    public static boolean hasManifest(String dbdir) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        return hdfs.exists(new Path(new Path(dbdir, MANIFEST_DIR), CURRENT_FILE));
+    }
+    
+    /*
+     * current version of db, null if db has no manifest
+     */
+    public static String getCurrentVersion(String dbdir) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path currentPath = new Path(new Path(dbdir, MANIFEST_DIR), CURRENT_FILE);
+        if (hdfs.exists(currentPath) == false) {
+            return null;
+        }
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                hdfs.open(currentPath), UTF8));
+        String version = reader.readLine();
+        reader.close();
+        
+        return (version != null && version.trim().isEmpty() == false) ? version.trim() : null;
+    }
+    
+    /*
+     * day (yyyyMMdd) -> segment relative to db directory, in day order
+     */
+    public static SortedMap<String, String> readManifest(String dbdir, String version)
+            throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        SortedMap<String, String> manifest = new TreeMap<String, String>();
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                hdfs.open(getManifestPath(dbdir, version)), UTF8));
+        String line = null;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split(ConstantVars.DB_FIELD_SEPERATER_REGX);
+            if (fields.length == 2) {
+                manifest.put(fields[0], fields[1]);
+            }
+        }
+        reader.close();
+        
+        return manifest;
+    }
+    
+    /*
+     * manifest of current version, empty if db has no manifest
+     */
+    public static SortedMap<String, String> readCurrentManifest(String dbdir)
+            throws IOException {
+        
+        String version = getCurrentVersion(dbdir);
+        if (version == null) {
+            return new TreeMap<String, String>();
+        }
+        
+        return readManifest(dbdir, version);
+    }
+    
+    /*
+     * segments of current version, of the days only (all days if null)
+     */
+    public static Path[] getSegmentPaths(String dbdir, Collection<String> days)
+            throws IOException {
+        
+        SortedMap<String, String> manifest = readCurrentManifest(dbdir);
+        
+        Set<Path> segments = new HashSet<Path>();
+        for (Map.Entry<String, String> entry : manifest.entrySet()) {
+            if (days == null || days.contains(entry.getKey())) {
+                segments.add(new Path(dbdir, entry.getValue()));
+            }
+        }
+        
+        Path[] segmentPaths = segments.toArray(new Path[segments.size()]);
+        Arrays.sort(segmentPaths);
+        
+        return segmentPaths;
+    }
+    
+    /*
+     * move partitions {srcdir}/{yyyy}/{MM}/{dd} of the days into dbdir as
+     * segments of a new version, days without partition in srcdir are
+     * removed from the db (days null : partitions of srcdir are whole db),
+     * and dropdays (expired) are removed too. Partitioned db written before
+     * snapshots is moved into segments of the same version, so one merge run
+     * is always one version.
+     */
+    public static String commitPartitions(String srcdir, String dbdir,
+            Collection<String> days, Collection<String> dropdays, int backupcount)
+            throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        String version = newVersion(dbdir);
+        SortedMap<String, String> manifest = null;
+        if (hasManifest(dbdir)) {
+            manifest = readCurrentManifest(dbdir);
+        }
+        else {
+            manifest = migrate(hdfs, dbdir, version);
+        }
+        if (days == null) {
+            // segments of old manifest are deleted with it
+            manifest.clear();
+        }
+        manifest.keySet().removeAll(dropdays);
+        
+        Collection<String> srcdays = days;
+        if (srcdays == null) {
+            srcdays = new HashSet<String>();
+            for (Path partPath : NewuserDbUtil.getPartitionPaths(srcdir, new HashSet<String>())) {
+                srcdays.add(NewuserDbUtil.getPartitionDay(partPath));
+            }
+        }
+        
+        for (String day : srcdays) {
+            
+            String partname = HdfsFileUtil.getDatabasePartitionName(
+                    day.substring(0, 4), day.substring(4, 6), day.substring(6));
+            Path srcPath = new Path(srcdir, partname);
+            
+            manifest.remove(day);
+            if (hdfs.exists(srcPath)) {
+                String segment = partname + "/" + version;
+                Path dstPath = new Path(dbdir, segment);
+                hdfs.mkdirs(dstPath.getParent());
+                rename(hdfs, srcPath, dstPath);
+                manifest.put(day, segment);
+            }
+        }
+        
+        commit(hdfs, dbdir, version, manifest, backupcount);
+        
+        return version;
+    }
+    
+    /*
+     * switch db to the version before current, current manifest is deleted
+     * (null if there is no previous version). New user counts of the days
+     * the undone version changed are deleted from countdir (null if db has
+     * no counts), so they are counted again from the db.
+     */
+    public static String rollback(String dbdir, String countdir, int backupcount)
+            throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        String current = getCurrentVersion(dbdir);
+        String previous = null;
+        for (String version : getVersions(hdfs, dbdir)) {
+            if (current == null || version.compareTo(current) < 0) {
+                previous = version;
+            }
+        }
+        if (previous == null) {
+            return null;
+        }
+        
+        // days whose segment differs between the two versions
+        SortedMap<String, String> undone = readCurrentManifest(dbdir);
+        SortedMap<String, String> restored = readManifest(dbdir, previous);
+        Set<String> changeddays = new HashSet<String>();
+        for (Map.Entry<String, String> entry : undone.entrySet()) {
+            if (entry.getValue().equals(restored.get(entry.getKey())) == false) {
+                changeddays.add(entry.getKey());
+            }
+        }
+        for (String day : restored.keySet()) {
+            if (undone.containsKey(day) == false) {
+                changeddays.add(day);
+            }
+        }
+        
+        switchCurrent(hdfs, dbdir, previous);
+        if (current != null) {
+            hdfs.delete(getManifestPath(dbdir, current), false);
+        }
+        collectGarbage(hdfs, dbdir, backupcount);
+        
+        if (countdir != null) {
+            for (String day : changeddays) {
+                hdfs.delete(new Path(HdfsFileUtil.getDatabasePartitionPath(countdir,
+                        day.substring(0, 4), day.substring(4, 6), day.substring(6))), true);
+            }
+        }
+        
+        return previous;
+    }
+    
+    /*
+     * manifest of partitioned db written before snapshots, moving the parts
+     * of each partition into a segment of version (empty if db has none)
+     */
+    private static SortedMap<String, String> migrate(FileSystem hdfs, String dbdir,
+            String version) throws IOException {
+        
+        SortedMap<String, String> manifest = new TreeMap<String, String>();
+        
+        for (Path partPath : NewuserDbUtil.getPartitionPaths(dbdir, new HashSet<String>())) {
+            
+            FileStatus[] status = hdfs.listStatus(partPath);
+            if (status == null) {
+                continue;
+            }
+            
+            String day = NewuserDbUtil.getPartitionDay(partPath);
+            String segment = HdfsFileUtil.getDatabasePartitionName(
+                    day.substring(0, 4), day.substring(4, 6), day.substring(6))
+                    + "/" + version;
+            Path segmentPath = new Path(dbdir, segment);
+            hdfs.mkdirs(segmentPath);
+            
+            for (Path filePath : FileUtil.stat2Paths(status)) {
+                if (filePath.getName().startsWith(ConstantVars.RESULT_FILE_PREFIX)) {
+                    rename(hdfs, filePath, new Path(segmentPath, filePath.getName()));
+                }
+            }
+            manifest.put(day, segment);
+        }
+        
+        return manifest;
+    }
+    
+    private static void commit(FileSystem hdfs, String dbdir, String version,
+            SortedMap<String, String> manifest, int backupcount) throws IOException {
+        
+        Path manifestPath = getManifestPath(dbdir, version);
+        OutputStream out = hdfs.create(manifestPath, true);
+        for (Map.Entry<String, String> entry : manifest.entrySet()) {
+            out.write((entry.getKey() + ConstantVars.RESULT_FIELD_SEPERATER
+                    + entry.getValue() + "\n").getBytes(UTF8));
+        }
+        out.close();
+        
+        switchCurrent(hdfs, dbdir, version);
+        collectGarbage(hdfs, dbdir, backupcount);
+    }
+    
+    private static void switchCurrent(FileSystem hdfs, String dbdir, String version)
+            throws IOException {
+        
+        Path manifestDir = new Path(dbdir, MANIFEST_DIR);
+        Path currentPath = new Path(manifestDir, CURRENT_FILE);
+        Path tempPath = new Path(manifestDir, CURRENT_FILE + ".tmp");
+        
+        OutputStream out = hdfs.create(tempPath, true);
+        out.write(version.getBytes(UTF8));
+        out.close();
+        
+        hdfs.delete(currentPath, false);
+        rename(hdfs, tempPath, currentPath);
+    }
+    
+    private static void rename(FileSystem hdfs, Path src, Path dst) throws IOException {
+        
+        if (hdfs.rename(src, dst) == false) {
+            throw new IOException("failed to move " + src + " to " + dst);
+        }
+    }
+    
+    /*
+     * keep current and backupcount previous manifests, and delete segments
+     * not listed by any of them
+     */
+    private static void collectGarbage(FileSystem hdfs, String dbdir, int backupcount)
+            throws IOException {
+        
+        String current = getCurrentVersion(dbdir);
+        if (current == null) {
+            return;
+        }
+        
+        // newest first, manifests after current (rolled back) are deleted too
+        Set<String> referenced = new HashSet<String>();
+        String[] versions = getVersions(hdfs, dbdir);
+        int backups = 0;
+        for (int i=versions.length-1; i>=0; i--) {
+            
+            String version = versions[i];
+            boolean keep = false;
+            if (version.equals(current)) {
+                keep = true;
+            }
+            else if (version.compareTo(current) < 0 && backups < backupcount) {
+                keep = true;
+                backups++;
+            }
+            
+            if (keep) {
+                referenced.addAll(readManifest(dbdir, version).values());
+            }
+            else {
+                hdfs.delete(getManifestPath(dbdir, version), false);
+            }
+        }
+        
+        FileStatus[] status = hdfs.globStatus(new Path(dbdir,
+                HdfsFileUtil.DATABASE_PARTITION_GLOB + "/*"));
+        if (status == null) {
+            return;
+        }
+        
+        for (FileStatus stat : status) {
+            Path segmentPath = stat.getPath();
+            String segment = HdfsFileUtil.getDatabasePartitionName(
+                    segmentPath.getParent().getParent().getParent().getName(),
+                    segmentPath.getParent().getParent().getName(),
+                    segmentPath.getParent().getName()) + "/" + segmentPath.getName();
+            if (stat.isDir() && referenced.contains(segment) == false) {
+                hdfs.delete(segmentPath, true);
+                // partition of expired day has no segment left
+                FileStatus[] rest = hdfs.listStatus(segmentPath.getParent());
+                if (rest != null && rest.length == 0) {
+                    hdfs.delete(segmentPath.getParent(), true);
+                }
+            }
+        }
+    }
+    
+    private static String[] getVersions(FileSystem hdfs, String dbdir) throws IOException {
+        
+        FileStatus[] status = hdfs.globStatus(new Path(new Path(dbdir, MANIFEST_DIR),
+                MANIFEST_PREFIX + "*"));
+        if (status == null) {
+            return new String[0];
+        }
+        
+        String[] versions = new String[status.length];
+        for (int i=0; i<status.length; i++) {
+            versions[i] = status[i].getPath().getName().substring(MANIFEST_PREFIX.length());
+        }
+        Arrays.sort(versions);
+        
+        return versions;
+    }
+    
+    private static Path getManifestPath(String dbdir, String version) {
+        
+        return new Path(new Path(dbdir, MANIFEST_DIR), MANIFEST_PREFIX + version);
+    }
+}
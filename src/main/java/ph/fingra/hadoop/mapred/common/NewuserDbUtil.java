@@ -0,0 +1,517 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.util.FormatUtil;
+
+/**
+ * Segment operations of the partitioned newuser db.
+ * 
+ * Each partition {db}/{yyyy}/{MM}/{dd} holds users first seen on the day, as
+ * segments versioned by NewuserDbSnapshot. Delta merge rewrites only
+ * partitions of the days in the merged log, and compaction merges all
+ * partitions into one file per partition.
+ * 
+ * Full merge and compaction also write a sorted key index {db}/_keys, the
+ * (user key, first-seen day) of all users in buckets of the merge
+ * partitioner, each bucket sorted in key order. Join merge reads one bucket
+ * per map task and merges it with the same bucket of users in log.
+ */
+public class NewuserDbUtil {
+    
+    public static final String COMPACT_FILE_NAME = ConstantVars.RESULT_FILE_PREFIX + "00000";
+    
+    /*
+     * bloom filter of user keys in merged log (hidden name, not read as input)
+     */
+    public static final String FILTER_FILE_NAME = "_users.filter";
+    
+    /*
+     * sorted key index : {db}/_keys/bucket-{nnnnn}-{r|m}-{nnnnn}, with the
+     * bucket count (reducer count of the merge) in {db}/_keys/_buckets
+     */
+    public static final String KEY_INDEX_DIR = "_keys";
+    public static final String KEY_INDEX_PREFIX = "bucket-";
+    public static final String KEY_INDEX_BUCKETS_FILE = "_buckets";
+    
+    /*
+     * new users of the target day counted by merge : {merge output}/_newusercount/
+     * {newuser|countrynewuser}/part-*, moved to {count dir}/{yyyy}/{MM}/{dd}
+     */
+    public static final String COUNT_DIR = "_newusercount";
+    public static final String COUNT_NEWUSER = "newuser";
+    public static final String COUNT_COUNTRYNEWUSER = "countrynewuser";
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    // 1% false positive : 9.6 bits per key, 7 hash functions
+    private static final double FILTER_BITS_PER_KEY = 9.6;
+    private static final int FILTER_HASH_COUNT = 7;
+    
+    /*
+     * day (yyyyMMdd) of partition path {db}/{yyyy}/{MM}/{dd}
+     */
+    public static String getPartitionDay(Path partpath) {
+        
+        Path monthPath = partpath.getParent();
+        Path yearPath = monthPath.getParent();
+        
+        return yearPath.getName() + monthPath.getName() + partpath.getName();
+    }
+    
+    /*
+     * days (yyyyMMdd) of transform log files
+     */
+    public static List<String> getLogDays(Path[] logpaths) {
+        
+        List<String> days = new ArrayList<String>();
+        
+        for (Path logpath : logpaths) {
+            String day = FormatUtil.getDateFromLogfile(logpath.getName()).replace("-", "");
+            if (day.isEmpty() == false && days.contains(day) == false) {
+                days.add(day);
+            }
+        }
+        
+        return days;
+    }
+    
+    /*
+     * existing partitions of newuser db, except partitions of skipdays
+     * (segments of current version when db has manifest)
+     */
+    public static Path[] getPartitionPaths(String dbdir, Collection<String> skipdays)
+            throws IOException {
+        
+        if (NewuserDbSnapshot.hasManifest(dbdir)) {
+            List<String> days = new ArrayList<String>(
+                    NewuserDbSnapshot.readCurrentManifest(dbdir).keySet());
+            days.removeAll(skipdays);
+            return NewuserDbSnapshot.getSegmentPaths(dbdir, days);
+        }
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        List<Path> partlist = new ArrayList<Path>();
+        
+        FileStatus[] status = hdfs.globStatus(new Path(dbdir
+                + (dbdir.endsWith("/") ? "" : "/") + HdfsFileUtil.DATABASE_PARTITION_GLOB));
+        
+        if (status != null) {
+            for (FileStatus stat : status) {
+                if (skipdays.contains(getPartitionDay(stat.getPath())) == false) {
+                    partlist.add(stat.getPath());
+                }
+            }
+        }
+        
+        Path[] partpaths = partlist.toArray(new Path[partlist.size()]);
+        Arrays.sort(partpaths);
+        
+        return partpaths;
+    }
+    
+    /*
+     * days of db partitions before cutday (yyyyMMdd), dropped by the commit
+     * of the merge as a whole without reading their rows
+     */
+    public static List<String> getExpiredDays(String dbdir, String cutday)
+            throws IOException {
+        
+        if (NewuserDbSnapshot.hasManifest(dbdir)) {
+            return new ArrayList<String>(
+                    NewuserDbSnapshot.readCurrentManifest(dbdir).headMap(cutday).keySet());
+        }
+        
+        List<String> expired = new ArrayList<String>();
+        for (Path partPath : getPartitionPaths(dbdir, new ArrayList<String>())) {
+            String day = getPartitionDay(partPath);
+            if (day.compareTo(cutday) < 0) {
+                expired.add(day);
+            }
+        }
+        
+        return expired;
+    }
+    
+    /*
+     * concatenate parts of each partition in srcdir into one file of the
+     * same partition in dstdir, compressed by codec
+     */
+    public static void compactPartitions(String srcdir, String dstdir,
+            String codecname) throws IOException {
+        
+        CopyWithinHdfsFile copier = new CopyWithinHdfsFile();
+        
+        for (Path partPath : getPartitionPaths(srcdir, new ArrayList<String>())) {
+            
+            String day = getPartitionDay(partPath);
+            String dstfile = HdfsFileUtil.getDatabasePartitionPath(dstdir,
+                    day.substring(0, 4), day.substring(4, 6), day.substring(6))
+                    + "/" + COMPACT_FILE_NAME + CompressUtil.getExtension(codecname);
+            
+            copier.dirToFile(partPath.toString(), dstfile, codecname);
+        }
+        
+        // key index is already one file per bucket
+        FileSystem hdfs = FileSystem.get(copier.getConf());
+        Path indexPath = new Path(srcdir, KEY_INDEX_DIR);
+        if (hdfs.exists(indexPath)) {
+            hdfs.mkdirs(new Path(dstdir));
+            hdfs.rename(indexPath, new Path(dstdir, KEY_INDEX_DIR));
+        }
+    }
+    
+    /*
+     * MultipleOutputs base name of key index bucket
+     */
+    public static String getKeyIndexName(int bucket) {
+        
+        return KEY_INDEX_DIR + "/" + KEY_INDEX_PREFIX + String.format("%05d", bucket);
+    }
+    
+    /*
+     * bucket of key index file (bucket-nnnnn-...) or of result part in the
+     * same partitioning (part-r-nnnnn), -1 if not a bucket file
+     */
+    public static int getBucketOfFile(String filename) {
+        
+        String[] names = filename.split("-");
+        String number = "";
+        if (filename.startsWith(KEY_INDEX_PREFIX)) {
+            number = names[1];
+        }
+        else if (filename.startsWith(ConstantVars.RESULT_FILE_PREFIX) && names.length > 2) {
+            number = names[2];
+        }
+        
+        // part-r-nnnnn.{codec extension}
+        int pos = number.indexOf('.');
+        if (pos >= 0) {
+            number = number.substring(0, pos);
+        }
+        
+        try {
+            return Integer.parseInt(number);
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /*
+     * bucket count of key index in dbdir, 0 if db has no key index
+     */
+    public static int readKeyIndexBuckets(String dbdir) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path bucketsPath = new Path(new Path(dbdir, KEY_INDEX_DIR), KEY_INDEX_BUCKETS_FILE);
+        if (hdfs.exists(bucketsPath) == false) {
+            return 0;
+        }
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                hdfs.open(bucketsPath), UTF8));
+        String line = reader.readLine();
+        reader.close();
+        
+        try {
+            return (line != null) ? Integer.parseInt(line.trim()) : 0;
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /*
+     * record bucket count of key index written into dbdir
+     */
+    public static void writeKeyIndexBuckets(String dbdir, int buckets) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path bucketsPath = new Path(new Path(dbdir, KEY_INDEX_DIR), KEY_INDEX_BUCKETS_FILE);
+        OutputStream out = hdfs.create(bucketsPath, true);
+        out.write(String.valueOf(buckets).getBytes(UTF8));
+        out.close();
+    }
+    
+    /*
+     * key index file of the bucket, null if the bucket has no user
+     */
+    public static Path getKeyIndexFile(Configuration conf, String dbdir, int bucket)
+            throws IOException {
+        
+        FileSystem hdfs = FileSystem.get(URI.create(dbdir), conf);
+        
+        FileStatus[] status = hdfs.globStatus(new Path(dbdir + "/"
+                + getKeyIndexName(bucket) + "-*"));
+        
+        if (status == null || status.length == 0) {
+            return null;
+        }
+        if (status.length > 1) {
+            throw new IOException("more than one key index file of bucket " + bucket
+                    + " in " + dbdir);
+        }
+        
+        return status[0].getPath();
+    }
+    
+    /*
+     * replace key index of dbdir with key index of srcdir
+     */
+    public static void replaceKeyIndex(String srcdir, String dbdir, int buckets)
+            throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path srcPath = new Path(srcdir, KEY_INDEX_DIR);
+        Path dstPath = new Path(dbdir, KEY_INDEX_DIR);
+        
+        if (hdfs.exists(dstPath)) {
+            hdfs.delete(dstPath, true);
+        }
+        if (hdfs.exists(srcPath)) {
+            hdfs.rename(srcPath, dstPath);
+        }
+        else {
+            hdfs.mkdirs(dstPath);
+        }
+        writeKeyIndexBuckets(dbdir, buckets);
+    }
+    
+    /*
+     * drop key index of dbdir when partitions changed without it
+     */
+    public static void deleteKeyIndex(String dbdir) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path indexPath = new Path(dbdir, KEY_INDEX_DIR);
+        if (hdfs.exists(indexPath)) {
+            hdfs.delete(indexPath, true);
+        }
+    }
+    
+    /*
+     * MultipleOutputs base name of new user counts (newuser, countrynewuser)
+     */
+    public static String getCountName(String countname) {
+        
+        return COUNT_DIR + "/" + countname + "/part";
+    }
+    
+    /*
+     * replace new user counts of the day in countdir with counts in srcdir,
+     * the day directory is made even when there is no new user (counts of
+     * days before cutday (yyyyMMdd) are deleted with their db partitions)
+     */
+    public static void replaceNewuserCounts(String srcdir, String countdir,
+            String year, String month, String day, String cutday) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path srcPath = new Path(srcdir, COUNT_DIR);
+        Path dstPath = new Path(HdfsFileUtil.getDatabasePartitionPath(countdir, year, month, day));
+        
+        if (hdfs.exists(dstPath)) {
+            hdfs.delete(dstPath, true);
+        }
+        if (hdfs.exists(srcPath)) {
+            hdfs.mkdirs(dstPath.getParent());
+            if (hdfs.rename(srcPath, dstPath) == false) {
+                throw new IOException("failed to move new user counts " + srcPath);
+            }
+        }
+        else {
+            hdfs.mkdirs(dstPath);
+        }
+        
+        FileStatus[] status = hdfs.globStatus(new Path(countdir
+                + (countdir.endsWith("/") ? "" : "/") + HdfsFileUtil.DATABASE_PARTITION_GLOB));
+        if (status != null) {
+            for (FileStatus stat : status) {
+                if (getPartitionDay(stat.getPath()).compareTo(cutday) < 0) {
+                    hdfs.delete(stat.getPath(), true);
+                }
+            }
+        }
+    }
+    
+    /*
+     * count parts of the day in countdir, null if merge did not count the day
+     */
+    public static Path[] getNewuserCountPaths(String countdir, String countname,
+            String year, String month, String day) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path dayPath = new Path(HdfsFileUtil.getDatabasePartitionPath(countdir, year, month, day));
+        if (hdfs.exists(dayPath) == false) {
+            return null;
+        }
+        
+        FileStatus[] status = hdfs.globStatus(new Path(new Path(dayPath, countname),
+                ConstantVars.RESULT_FILE_PREFIX + "*"));
+        
+        return (status != null) ? FileUtil.stat2Paths(status) : new Path[0];
+    }
+    
+    /*
+     * bloom filter key of user key fields (appkey, [componentkey,] token)
+     */
+    public static Key getFilterKey(String... fields) {
+        
+        StringBuilder buf = new StringBuilder();
+        for (int i=0; i<fields.length; i++) {
+            if (i > 0) buf.append(ConstantVars.RESULT_FIELD_SEPERATER);
+            buf.append(fields[i]);
+        }
+        
+        return new Key(buf.toString().getBytes(UTF8));
+    }
+    
+    /*
+     * write bloom filter of user keys (first keyfields fields of each row)
+     * in result parts of srcdir into srcdir/FILTER_FILE_NAME
+     */
+    public static Path writeUserFilter(String srcdir, int keyfields, long keycount)
+            throws IOException {
+        
+        return writeUserFilter(srcdir, keyfields, keycount, FILTER_FILE_NAME);
+    }
+    
+    /*
+     * same as above into srcdir/filtername, filters cached by one job need
+     * different names
+     */
+    public static Path writeUserFilter(String srcdir, int keyfields, long keycount,
+            String filtername) throws IOException {
+        
+        Configuration conf = new Configuration();
+        
+        FileSystem hdfs = FileSystem.get(URI.create(srcdir), conf);
+        
+        int vectorsize = (int)Math.min(Integer.MAX_VALUE - 64,
+                Math.max(64, (long)Math.ceil(keycount * FILTER_BITS_PER_KEY)));
+        BloomFilter filter = new BloomFilter(vectorsize, FILTER_HASH_COUNT, Hash.MURMUR_HASH);
+        
+        PathFilter resultFileFilter = new PathFilter() {
+            @Override
+            public boolean accept(Path path) {
+                return path.getName().startsWith(ConstantVars.RESULT_FILE_PREFIX);
+            }
+        };
+        
+        FileStatus[] status = hdfs.listStatus(new Path(srcdir), resultFileFilter);
+        
+        for (Path partPath : FileUtil.stat2Paths(status)) {
+            
+            InputStream in = CompressUtil.openInputStream(hdfs, partPath, conf);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                    UTF8), 64 * 1024);
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(ConstantVars.DB_FIELD_SEPERATER_REGX, keyfields + 1);
+                if (fields.length > keyfields) {
+                    String[] keys = new String[keyfields];
+                    System.arraycopy(fields, 0, keys, 0, keyfields);
+                    filter.add(getFilterKey(keys));
+                }
+            }
+            reader.close();
+        }
+        
+        Path filterPath = new Path(srcdir, filtername);
+        DataOutputStream out = hdfs.create(filterPath, true);
+        filter.write(out);
+        out.close();
+        
+        return filterPath;
+    }
+    
+    /*
+     * read bloom filter of user keys from local copy of distributed cache,
+     * or from hdfs when not cached (local job runner)
+     */
+    public static BloomFilter readUserFilter(Configuration conf, String filterfile)
+            throws IOException {
+        
+        Path readPath = new Path(filterfile);
+        FileSystem fs = FileSystem.get(URI.create(filterfile), conf);
+        
+        Path[] cached = DistributedCache.getLocalCacheFiles(conf);
+        if (cached != null) {
+            for (Path cachedPath : cached) {
+                if (cachedPath.getName().equals(readPath.getName())) {
+                    readPath = cachedPath;
+                    fs = FileSystem.getLocal(conf);
+                    break;
+                }
+            }
+        }
+        
+        BloomFilter filter = new BloomFilter();
+        DataInputStream in = fs.open(readPath);
+        filter.readFields(in);
+        in.close();
+        
+        return filter;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Partition number of map output keys by FieldHash of the partitioning
+ * fields, without building a concatenated String per record.
+ * 
+ * The hash is mapped to [0, numPartitions) by multiply-shift, so the
+ * result is never negative (Math.abs(Integer.MIN_VALUE) problem) and has
+ * no modulo bias.
+ */
+public class PartitionUtil {
+    
+    public static int getPartition(Text key, int numPartitions) {
+        return toPartition(FieldHash.hash(key.getBytes(), 0, key.getLength(),
+                FieldHash.SEED), numPartitions);
+    }
+    
+    public static int getPartition(String field1, int numPartitions) {
+        
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, field1);
+        
+        return toPartition(FieldHash.finish(h, 1), numPartitions);
+    }
+    
+    public static int getPartition(String field1, String field2,
+            int numPartitions) {
+        
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, field1);
+        h = FieldHash.add(h, field2);
+        
+        return toPartition(FieldHash.finish(h, 2), numPartitions);
+    }
+    
+    public static int getPartition(String field1, String field2, String field3,
+            int numPartitions) {
+        
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, field1);
+        h = FieldHash.add(h, field2);
+        h = FieldHash.add(h, field3);
+        
+        return toPartition(FieldHash.finish(h, 3), numPartitions);
+    }
+    
+    /**
+     * map 32 bit hash to [0, numPartitions)
+     */
+    public static int toPartition(int hash, int numPartitions) {
+        return (int) (((hash & 0xffffffffL) * numPartitions) >>> 32);
+    }
+}
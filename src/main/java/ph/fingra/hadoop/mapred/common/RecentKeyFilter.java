@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import org.apache.hadoop.conf.Configuration;
+
+import ph.fingra.hadoop.common.util.LogTimeCodec;
+
+/**
+ * Map-side deduplication of distinct-count map output.
+ * 
+ * Reducers of usersession, hoursession, country, device and the component
+ * equivalents count distinct tokens and sessions, reading only the first
+ * record of each session, but the mapper writes one record per log. A
+ * record whose dedup fields were written recently by the same map task
+ * can be skipped without changing any count.
+ * 
+ * Recent fields are kept in a direct-mapped cache (one slot per hash, a
+ * newer entry replaces the older one), so the memory is bounded and a
+ * forgotten entry is only written again, never lost. Logs of a session
+ * are close together in the transform log, so most repeats hit the cache.
+ * 
+ * usage :
+ *   if (recent.isRecent(out_key.appkey, out_key.token, out_key.session) == false)
+ *       context.write(out_key, out_val);
+ */
+public class RecentKeyFilter {
+    
+    /*
+     * slot count of the cache (rounded up to power of 2), 0 : no dedup
+     */
+    public static final String CONF_CACHE_SIZE = "dedup.cache.size";
+    public static final int DEFAULT_CACHE_SIZE = 65536;
+    
+    // yyyyMMddHH of ConstantVars.LOG_DATE_FORMAT
+    private static final int HOUR_PREFIX_LENGTH = 10;
+    
+    private String[][] slots = null;
+    private int[] hashes = null;
+    private int mask = 0;
+    
+    public static RecentKeyFilter create(Configuration conf) {
+        return new RecentKeyFilter(conf.getInt(CONF_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+    }
+    
+    public RecentKeyFilter(int size) {
+        
+        if (size > 0) {
+            int capacity = 1;
+            while (capacity < size && capacity < (1 << 30)) {
+                capacity <<= 1;
+            }
+            slots = new String[capacity][];
+            hashes = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+    
+    /**
+     * hour (yyyyMMddHH) of valid log time, null if not valid
+     * 
+     * Records of a session in the same hour are interchangeable for the
+     * hour of its first record, as log times sort by their hour prefix.
+     */
+    public static String getHourPrefix(String logtime) {
+        
+        if (LogTimeCodec.isValid(logtime) == false) {
+            return null;
+        }
+        
+        return logtime.substring(0, HOUR_PREFIX_LENGTH);
+    }
+    
+    public boolean isRecent(String field1, String field2, String field3) {
+        
+        if (slots == null || field1 == null || field2 == null || field3 == null) {
+            return false;
+        }
+        
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, field1);
+        h = FieldHash.add(h, field2);
+        h = FieldHash.add(h, field3);
+        h = FieldHash.finish(h, 3);
+        
+        int i = h & mask;
+        String[] slot = slots[i];
+        if (slot != null && hashes[i] == h && slot.length == 3
+                && slot[0].equals(field1) && slot[1].equals(field2)
+                && slot[2].equals(field3)) {
+            return true;
+        }
+        
+        slots[i] = new String[] { field1, field2, field3 };
+        hashes[i] = h;
+        
+        return false;
+    }
+    
+    public boolean isRecent(String field1, String field2, String field3,
+            String field4) {
+        
+        if (slots == null || field1 == null || field2 == null || field3 == null
+                || field4 == null) {
+            return false;
+        }
+        
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, field1);
+        h = FieldHash.add(h, field2);
+        h = FieldHash.add(h, field3);
+        h = FieldHash.add(h, field4);
+        h = FieldHash.finish(h, 4);
+        
+        int i = h & mask;
+        String[] slot = slots[i];
+        if (slot != null && hashes[i] == h && slot.length == 4
+                && slot[0].equals(field1) && slot[1].equals(field2)
+                && slot[2].equals(field3) && slot[3].equals(field4)) {
+            return true;
+        }
+        
+        slots[i] = new String[] { field1, field2, field3, field4 };
+        hashes[i] = h;
+        
+        return false;
+    }
+}
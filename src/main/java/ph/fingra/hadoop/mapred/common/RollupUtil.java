@@ -0,0 +1,243 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.FingraphConfig;
+import ph.fingra.hadoop.common.HfsPathInfo;
+import ph.fingra.hadoop.common.domain.TargetDate;
+import ph.fingra.hadoop.common.util.DateTimeUtil;
+
+/**
+ * Daily partial aggregates for week/month roll-ups.
+ * 
+ * With setting hfs_database_rollup_keep_month > 0, day runs of statistics
+ * that can be merged across days keep their partials in
+ * {rollup_db}/{statistic}/{yyyy}/{MM}/{dd} for that many months : result
+ * files of sums and histograms (pageview, hoursession, sessionlength), or
+ * sketch files of distinct users and sessions (usersession, country,
+ * device run in approximate mode).
+ * 
+ * With -Drollup=true, week and month runs merge the partials of their
+ * days instead of rescanning the transform logs. Distinct counts are
+ * merged from sketches only with -Dapproximate=true. A past day without
+ * transform log adds nothing; if another past day has no partial, the run
+ * falls back to the transform logs.
+ */
+public class RollupUtil {
+    
+    public static final String PAGEVIEW = "pageview";
+    public static final String HOURSESSION = "hoursession";
+    public static final String SESSIONLENGTH = "sessionlength";
+    public static final String USERSESSION = "usersession";
+    public static final String COUNTRY = "country";
+    public static final String DEVICE = "device";
+    
+    public static boolean isRollup(Configuration conf, String mode) {
+        
+        return conf.getBoolean(ConstantVars.DOPTION_ROLLUP, false)
+                && (mode.equals(ConstantVars.RUNMODE_WEEK)
+                        || mode.equals(ConstantVars.RUNMODE_MONTH));
+    }
+    
+    /**
+     * roll-up of distinct counts, merged from sketches of approximate day runs
+     * (exact distinct counts can not be summed across days)
+     */
+    public static boolean isSketchRollup(Configuration conf, String mode) {
+        
+        return isRollup(conf, mode)
+                && conf.getBoolean(ConstantVars.DOPTION_APPROXIMATE, false);
+    }
+    
+    /**
+     * delete the day partial of statistic before a day run, so a run that
+     * writes no new partial (failed, exact or not kept) leaves no stale one
+     * for roll-ups of the week/month
+     */
+    public static void deleteDailyPartial(FingraphConfig config, String statistic,
+            String mode, TargetDate targetdate, Configuration conf) throws IOException {
+        
+        if (mode.equals(ConstantVars.RUNMODE_DAY) == false) {
+            return;
+        }
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        hdfs.delete(new Path(getPartialDir(config, statistic,
+                targetdate.getYear(), targetdate.getMonth(), targetdate.getDay())), true);
+    }
+    
+    /**
+     * keep files of name prefix in output path as the day partial of statistic,
+     * copied if output path is read by later jobs (keepsource) or else moved,
+     * and delete partials older than hfs_database_rollup_keep_month
+     */
+    public static void saveDailyPartial(FingraphConfig config, String statistic,
+            Path outputpath, String prefix, boolean keepsource, TargetDate targetdate,
+            Configuration conf) throws IOException {
+        
+        int keepmonth = config.getSetting().getHfs_database_rollup_keep_month();
+        if (keepmonth <= 0) {
+            return;
+        }
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        Path partialPath = new Path(getPartialDir(config, statistic,
+                targetdate.getYear(), targetdate.getMonth(), targetdate.getDay()));
+        
+        hdfs.delete(partialPath, true);
+        hdfs.mkdirs(partialPath);
+        
+        FileStatus[] status = hdfs.listStatus(outputpath);
+        if (status != null) {
+            for (FileStatus file : status) {
+                if (file.isDir() || file.getPath().getName().startsWith(prefix) == false) {
+                    continue;
+                }
+                Path dstPath = new Path(partialPath, file.getPath().getName());
+                if (keepsource) {
+                    FileUtil.copy(hdfs, file.getPath(), hdfs, dstPath, false, conf);
+                }
+                else if (hdfs.rename(file.getPath(), dstPath) == false) {
+                    throw new IOException("failed to move daily partial " + file.getPath());
+                }
+            }
+        }
+        
+        deleteExpiredPartials(config, statistic, targetdate, keepmonth, conf);
+    }
+    
+    /*
+     * delete day partials of statistic before keepmonth months of target date
+     */
+    private static void deleteExpiredPartials(FingraphConfig config, String statistic,
+            TargetDate targetdate, int keepmonth, Configuration conf) throws IOException {
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        String cutday = DateTimeUtil.addMonths(targetdate.getYear()
+                + targetdate.getMonth() + targetdate.getDay(), 0 - keepmonth, "yyyyMMdd");
+        
+        String statisticdir = getStatisticDir(config, statistic);
+        FileStatus[] status = hdfs.globStatus(new Path(statisticdir + "/"
+                + HdfsFileUtil.DATABASE_PARTITION_GLOB));
+        if (status == null) {
+            return;
+        }
+        
+        for (FileStatus stat : status) {
+            if (NewuserDbUtil.getPartitionDay(stat.getPath()).compareTo(cutday) < 0) {
+                hdfs.delete(stat.getPath(), true);
+            }
+        }
+    }
+    
+    /**
+     * day partials of statistic in the week/month of target date, null if
+     * a past day of the period with transform log has no partial
+     */
+    public static Path[] getDailyPartialPaths(FingraphConfig config, String statistic,
+            String mode, TargetDate targetdate, Configuration conf) throws IOException {
+        
+        FileSystem hdfs = FileSystem.get(conf);
+        
+        List<Path> inputlist = new ArrayList<Path>();
+        
+        for (String tday : getPastDays(mode, targetdate)) {
+            Path partialPath = new Path(getPartialDir(config, statistic,
+                    tday.substring(0, 4), tday.substring(4, 6), tday.substring(6)));
+            if (hdfs.exists(partialPath)) {
+                inputlist.add(partialPath);
+            }
+            else if (HdfsFileUtil.isExistTransformFile(config, tday.substring(0, 4),
+                    tday.substring(4, 6), tday.substring(6))) {
+                return null;
+            }
+            // no log of the day, nothing to merge
+        }
+        
+        if (inputlist.size() <= 0) {
+            return null;
+        }
+        
+        return inputlist.toArray(new Path[inputlist.size()]);
+    }
+    
+    private static String getStatisticDir(FingraphConfig config, String statistic) {
+        
+        HfsPathInfo hfsPath = new HfsPathInfo(config, ConstantVars.RUNMODE_DAY);
+        String rollupdir = hfsPath.getRollup_db();
+        
+        return rollupdir + (rollupdir.endsWith("/") ? "" : "/") + statistic;
+    }
+    
+    private static String getPartialDir(FingraphConfig config, String statistic,
+            String year, String month, String day) {
+        
+        return HdfsFileUtil.getDatabasePartitionPath(getStatisticDir(config, statistic),
+                year, month, day);
+    }
+    
+    /*
+     * days (yyyyMMdd) of the week/month before today
+     */
+    private static List<String> getPastDays(String mode, TargetDate targetdate)
+            throws IOException {
+        
+        List<String> days = new ArrayList<String>();
+        
+        String firstday;
+        int daycount;
+        if (mode.equals(ConstantVars.RUNMODE_WEEK)) {
+            firstday = DateTimeUtil.startDayOfWeek(targetdate.getYear(),
+                    targetdate.getWeek(), "yyyyMMdd");
+            daycount = 7;
+        }
+        else {
+            firstday = DateTimeUtil.startDayOfMonth(targetdate.getYear(),
+                    targetdate.getMonth(), "yyyyMMdd");
+            String lastday = DateTimeUtil.lastDayOfMonth(targetdate.getYear(),
+                    targetdate.getMonth(), "yyyyMMdd");
+            daycount = Integer.parseInt(lastday.substring(6));
+        }
+        
+        int today_intval = Integer.parseInt(DateTimeUtil.getTodayFormatString("yyyyMMdd"));
+        
+        for (int i=0; i < daycount; i++) {
+            String nextday = DateTimeUtil.addDays(firstday, i, "yyyyMMdd");
+            if (Integer.parseInt(nextday) >= today_intval) {
+                // pass if date is today or after
+                continue;
+            }
+            days.add(nextday);
+        }
+        
+        return days;
+    }
+}
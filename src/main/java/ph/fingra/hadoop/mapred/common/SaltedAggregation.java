@@ -0,0 +1,335 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.FingraphConfig;
+import ph.fingra.hadoop.common.ConstantVars.LogValidation;
+
+/**
+ * Salted two-phase aggregation of statistics grouped by appkey.
+ * 
+ * Grouped by appkey, all logs of an app go to one reducer, so the biggest
+ * app bounds the job time. In salted mode, logs of hot apps are partitioned
+ * on (appkey, salt), where the salt is the hash of a field (token, session)
+ * that each counted item lies entirely in. So every reducer counts distinct
+ * items of its salts exactly, and the partial results
+ * "key\tcount[\tcount...]" of the first job are summed per key by the merge
+ * job into the same output as the one phase job.
+ * 
+ * Hot apps are read from the logcount output of the last day run : an app
+ * with more logs than a reducer's fair share (total / reducer count) is
+ * salted over as many reducers as its share takes.
+ */
+public class SaltedAggregation {
+    
+    /*
+     * hot apps of salted mode : "appkey:salts,appkey:salts,..."
+     */
+    public static final String CONF_HOTAPPS = "salted.hotapps";
+    
+    /*
+     * count of summed fields at the end of partial result lines
+     */
+    public static final String CONF_VALUECOUNT = "salted.valuecount";
+    
+    /*
+     * first job output : {output path}_partial
+     */
+    public static final String PARTIAL_SUFFIX = "_partial";
+    
+    /**
+     * find hot apps and their salt count from logcount output (appkey\tcount)
+     */
+    public static Map<String, Integer> findHotApps(FileSystem fs, Path logcountpath,
+            int numreduce, Configuration conf) throws IOException {
+        
+        Map<String, Long> counts = new HashMap<String, Long>();
+        Map<String, Integer> hotapps = new HashMap<String, Integer>();
+        
+        if (numreduce < 2 || fs.exists(logcountpath) == false) {
+            return hotapps;
+        }
+        
+        long total = 0;
+        for (FileStatus status : fs.listStatus(logcountpath)) {
+            if (status.isDir()
+                    || status.getPath().getName().startsWith(ConstantVars.RESULT_FILE_PREFIX) == false) {
+                continue;
+            }
+            
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    CompressUtil.openInputStream(fs, status.getPath(), conf), "UTF-8"));
+            try {
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    int pos = line.lastIndexOf(ConstantVars.RESULT_FIELD_SEPERATER);
+                    if (pos <= 0) {
+                        continue;
+                    }
+                    try {
+                        long count = Long.parseLong(line.substring(pos + 1).trim());
+                        counts.put(line.substring(0, pos), count);
+                        total += count;
+                    }
+                    catch (NumberFormatException ignore) {}
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        
+        if (total <= 0) {
+            return hotapps;
+        }
+        
+        Iterator<Map.Entry<String, Long>> iter = counts.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            
+            // reducers taken by logs of the app
+            double share = (double) entry.getValue() * numreduce / total;
+            if (share > 1.0) {
+                hotapps.put(entry.getKey(), Math.min(numreduce, (int) Math.ceil(share)));
+            }
+        }
+        
+        return hotapps;
+    }
+    
+    public static void setHotApps(Configuration conf, Map<String, Integer> hotapps) {
+        
+        StringBuilder sb = new StringBuilder();
+        Iterator<Map.Entry<String, Integer>> iter = hotapps.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Integer> entry = iter.next();
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(entry.getKey()).append(":").append(entry.getValue());
+        }
+        
+        conf.set(CONF_HOTAPPS, sb.toString());
+    }
+    
+    public static Map<String, Integer> getHotApps(Configuration conf) {
+        
+        Map<String, Integer> hotapps = new HashMap<String, Integer>();
+        
+        for (String item : conf.get(CONF_HOTAPPS, "").split(",")) {
+            int pos = item.lastIndexOf(':');
+            if (pos <= 0) {
+                continue;
+            }
+            try {
+                hotapps.put(item.substring(0, pos),
+                        Integer.parseInt(item.substring(pos + 1)));
+            }
+            catch (NumberFormatException ignore) {}
+        }
+        
+        return hotapps;
+    }
+    
+    public static boolean isSalted(Configuration conf) {
+        return conf.get(CONF_HOTAPPS, "").isEmpty() == false;
+    }
+    
+    /**
+     * partition of appkey, spread over consecutive partitions by salt field
+     * if the app is hot
+     */
+    public static int getPartition(String appkey, String saltfield,
+            Map<String, Integer> hotapps, int numPartitions) {
+        
+        int partition = PartitionUtil.getPartition(appkey, numPartitions);
+        
+        Integer salts = hotapps.get(appkey);
+        if (salts == null || salts.intValue() < 2) {
+            return partition;
+        }
+        
+        int salt = PartitionUtil.toPartition(FieldHash.hash(saltfield, FieldHash.SEED),
+                salts.intValue());
+        
+        return (partition + salt) % numPartitions;
+    }
+    
+    /**
+     * merge job : sum last valuecount fields of partial results per key
+     */
+    public static Job createMergeJob(Configuration conf, Path inputpath,
+            Path outputpath, int valuecount, int numreduce,
+            FingraphConfig finconfig, String jobname, Class<?> jarclass)
+            throws IOException {
+        
+        return createMergeJob(conf, new Path[] { inputpath }, outputpath,
+                valuecount, numreduce, finconfig, jobname, jarclass);
+    }
+    
+    public static Job createMergeJob(Configuration conf, Path[] inputpaths,
+            Path outputpath, int valuecount, int numreduce,
+            FingraphConfig finconfig, String jobname, Class<?> jarclass)
+            throws IOException {
+        
+        conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
+        conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        conf.setInt(CONF_VALUECOUNT, valuecount);
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        
+        Job job = new Job(conf);
+        job.setJobName(jobname);
+        
+        job.setJarByClass(jarclass);
+        
+        for (int i=0; i<inputpaths.length; i++) {
+            FileInputFormat.addInputPath(job, inputpaths[i]);
+        }
+        FileOutputFormat.setOutputPath(job, outputpath);
+        
+        job.setMapperClass(PartialMapper.class);
+        job.setCombinerClass(PartialReducer.class);
+        job.setReducerClass(PartialReducer.class);
+        
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        
+        job.setPartitionerClass(PartialPartitioner.class);
+        
+        job.setNumReduceTasks(numreduce);
+        
+        return job;
+    }
+    
+    static class PartialMapper
+        extends Mapper<LongWritable, Text, Text, Text> {
+        
+        private boolean verbose = false;
+        private boolean counter = false;
+        private int valuecount = 1;
+        
+        private Text out_key = new Text();
+        private Text out_val = new Text();
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            verbose = context.getConfiguration().getBoolean("verbose", false);
+            counter = context.getConfiguration().getBoolean("counter", false);
+            valuecount = context.getConfiguration().getInt(CONF_VALUECOUNT, 1);
+        }
+        
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            
+            // key fields end at valuecount-th separator from the end
+            String line = value.toString();
+            int pos = line.length();
+            for (int i=0; i<valuecount && pos>0; i++) {
+                pos = line.lastIndexOf(ConstantVars.RESULT_FIELD_SEPERATER, pos - 1);
+            }
+            
+            if (pos <= 0) {
+                if (verbose)
+                    System.err.println("Ignoring corrupt input: " + value);
+                if (counter)
+                    context.getCounter(LogValidation.MALFORMED).increment(1);
+                return;
+            }
+            
+            out_key.set(line.substring(0, pos));
+            out_val.set(line.substring(pos + 1));
+            
+            context.write(out_key, out_val);
+        }
+    }
+    
+    static class PartialReducer
+        extends Reducer<Text, Text, Text, Text> {
+        
+        private int valuecount = 1;
+        
+        private Text out_val = new Text();
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            valuecount = context.getConfiguration().getInt(CONF_VALUECOUNT, 1);
+        }
+        
+        @Override
+        protected void reduce(Text key, Iterable<Text> values,
+                Context context) throws IOException, InterruptedException {
+            
+            long[] sums = new long[valuecount];
+            for (Text cur_val : values) {
+                String[] fields = cur_val.toString().split(
+                        ConstantVars.RESULT_FIELD_SEPERATER);
+                for (int i=0; i<valuecount && i<fields.length; i++) {
+                    try {
+                        sums[i] += Long.parseLong(fields[i].trim());
+                    }
+                    catch (NumberFormatException ignore) {}
+                }
+            }
+            
+            StringBuilder sb = new StringBuilder();
+            for (int i=0; i<valuecount; i++) {
+                if (i > 0) {
+                    sb.append(ConstantVars.RESULT_FIELD_SEPERATER);
+                }
+                sb.append(sums[i]);
+            }
+            
+            out_val.set(sb.toString());
+            
+            context.write(key, out_val);
+        }
+    }
+    
+    private static class PartialPartitioner
+        extends Partitioner<Text, Text> {
+        @Override
+        public int getPartition(Text key, Text value,
+                int numPartitions) {
+            return PartitionUtil.getPartition(key, numPartitions);
+        }
+    }
+}
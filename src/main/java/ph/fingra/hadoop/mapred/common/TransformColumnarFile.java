@@ -0,0 +1,363 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
+
+public class TransformColumnarFile {
+    
+    /**
+     * *** Fingra.ph columnar transform log Information ***
+     * 
+     * file    - MAGIC, VERSION, block..., footer
+     * block   - int row count, int byte length of each column (Column order),
+     *           bytes of each column
+     * footer  - int block count, long offset of each block,
+     *           long offset of footer, MAGIC
+     * 
+     * dimension column - vint dictionary size, writeUTF of each distinct value
+     *                    of the block, vint dictionary index of each row
+     * time column      - CompactWritableUtil log time of each row
+     *                    (vlong epoch seconds)
+     * cmd column       - CompactWritableUtil cmd of each row
+     *                    (1 byte CommandType ordinal)
+     * 
+     * Every block can be decoded by itself. A reader seeks over the columns
+     * it was not asked for, and a split reads the blocks starting in it.
+     */
+    
+    public static final int MAGIC = 0x46475443;     // "FGTC"
+    public static final byte VERSION = 1;
+    
+    // named output of PreTransform, files are "columnar-r-nnnnn"
+    public static final String NAMED_OUTPUT = "columnar";
+    public static final String EXTENSION = ".col";
+    
+    public static final String BLOCK_ROWS = "transform.columnar.block.rows";
+    public static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+    
+    private static final int TRAILER_LENGTH = 8 + 4;
+    
+    public enum Column {
+        CMD, APPKEY, COMPONENTKEY, SESSION, TOKEN, UTCTIME, LOCALTIME,
+        COUNTRY, LANGUAGE, DEVICE, OSVERSION, RESOLUTION, APPVERSION;
+        
+        boolean isDimension() {
+            return this != CMD && this != UTCTIME && this != LOCALTIME;
+        }
+    }
+    
+    private static final Column[] COLUMNS = Column.values();
+    
+    public static boolean isColumnarFile(String filename) {
+        return filename.startsWith(NAMED_OUTPUT);
+    }
+    
+    private static String getValue(TransformRecord record, Column column) {
+        
+        switch (column) {
+        case CMD:           return record.cmd;
+        case APPKEY:        return record.appkey;
+        case COMPONENTKEY:  return record.componentkey;
+        case SESSION:       return record.session;
+        case TOKEN:         return record.token;
+        case UTCTIME:       return record.utctime;
+        case LOCALTIME:     return record.localtime;
+        case COUNTRY:       return record.country;
+        case LANGUAGE:      return record.language;
+        case DEVICE:        return record.device;
+        case OSVERSION:     return record.osversion;
+        case RESOLUTION:    return record.resolution;
+        default:            return record.appversion;
+        }
+    }
+    
+    private static void setValue(TransformRecord record, Column column, String value) {
+        
+        switch (column) {
+        case CMD:           record.cmd = value; break;
+        case APPKEY:        record.appkey = value; break;
+        case COMPONENTKEY:  record.componentkey = value; break;
+        case SESSION:       record.session = value; break;
+        case TOKEN:         record.token = value; break;
+        case UTCTIME:       record.utctime = value; break;
+        case LOCALTIME:     record.localtime = value; break;
+        case COUNTRY:       record.country = value; break;
+        case LANGUAGE:      record.language = value; break;
+        case DEVICE:        record.device = value; break;
+        case OSVERSION:     record.osversion = value; break;
+        case RESOLUTION:    record.resolution = value; break;
+        default:            record.appversion = value; break;
+        }
+    }
+    
+    /**
+     * writes rows of TransformRecord into blocks of blockrows rows
+     */
+    public static class Writer {
+        
+        private FSDataOutputStream out;
+        private int blockrows;
+        
+        private int rows = 0;
+        private DataOutputBuffer[] values = new DataOutputBuffer[COLUMNS.length];
+        private DataOutputBuffer[] dictionaries = new DataOutputBuffer[COLUMNS.length];
+        private List<Map<String, Integer>> indexes = new ArrayList<Map<String, Integer>>();
+        private List<Long> offsets = new ArrayList<Long>();
+        
+        public Writer(FSDataOutputStream out, int blockrows) throws IOException {
+            
+            this.out = out;
+            this.blockrows = (blockrows > 0) ? blockrows : DEFAULT_BLOCK_ROWS;
+            
+            for (Column column : COLUMNS) {
+                values[column.ordinal()] = new DataOutputBuffer();
+                if (column.isDimension()) {
+                    dictionaries[column.ordinal()] = new DataOutputBuffer();
+                    indexes.add(new HashMap<String, Integer>());
+                }
+                else {
+                    indexes.add(null);
+                }
+            }
+            
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+        
+        public void append(TransformRecord record) throws IOException {
+            
+            for (Column column : COLUMNS) {
+                int i = column.ordinal();
+                String value = getValue(record, column);
+                
+                if (column.isDimension()) {
+                    Map<String, Integer> index = indexes.get(i);
+                    Integer id = index.get(value);
+                    if (id == null) {
+                        id = index.size();
+                        index.put(value, id);
+                        dictionaries[i].writeUTF(value);
+                    }
+                    WritableUtils.writeVInt(values[i], id);
+                }
+                else if (column == Column.CMD) {
+                    CompactWritableUtil.writeCmd(values[i], value);
+                }
+                else {
+                    CompactWritableUtil.writeLogTime(values[i], value);
+                }
+            }
+            
+            if (++rows >= blockrows) {
+                flushBlock();
+            }
+        }
+        
+        private void flushBlock() throws IOException {
+            
+            if (rows == 0) {
+                return;
+            }
+            
+            offsets.add(out.getPos());
+            
+            out.writeInt(rows);
+            for (Column column : COLUMNS) {
+                int i = column.ordinal();
+                int length = values[i].getLength();
+                if (column.isDimension()) {
+                    length += WritableUtils.getVIntSize(indexes.get(i).size())
+                            + dictionaries[i].getLength();
+                }
+                out.writeInt(length);
+            }
+            for (Column column : COLUMNS) {
+                int i = column.ordinal();
+                if (column.isDimension()) {
+                    WritableUtils.writeVInt(out, indexes.get(i).size());
+                    out.write(dictionaries[i].getData(), 0, dictionaries[i].getLength());
+                    dictionaries[i].reset();
+                    indexes.get(i).clear();
+                }
+                out.write(values[i].getData(), 0, values[i].getLength());
+                values[i].reset();
+            }
+            
+            rows = 0;
+        }
+        
+        public void close() throws IOException {
+            
+            flushBlock();
+            
+            long footer = out.getPos();
+            out.writeInt(offsets.size());
+            for (Long offset : offsets) {
+                out.writeLong(offset);
+            }
+            out.writeLong(footer);
+            out.writeInt(MAGIC);
+            
+            out.close();
+        }
+    }
+    
+    /**
+     * reads rows of the blocks starting in [start, end) of a file,
+     * decoding given columns only
+     */
+    public static class Reader {
+        
+        private FSDataInputStream in;
+        private boolean[] projected = new boolean[COLUMNS.length];
+        
+        private List<Long> blocks = new ArrayList<Long>();
+        private int nextblock = 0;
+        private int rows = 0;
+        
+        private byte[][] data = new byte[COLUMNS.length][];
+        private DataInputBuffer[] values = new DataInputBuffer[COLUMNS.length];
+        private String[][] dictionaries = new String[COLUMNS.length][];
+        
+        public Reader(FSDataInputStream in, long filelength, long start, long end,
+                Column[] columns) throws IOException {
+            
+            this.in = in;
+            for (Column column : columns) {
+                projected[column.ordinal()] = true;
+            }
+            for (Column column : COLUMNS) {
+                data[column.ordinal()] = new byte[0];
+                values[column.ordinal()] = new DataInputBuffer();
+            }
+            
+            in.seek(0);
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("not a columnar transform log of version " + VERSION);
+            }
+            
+            in.seek(filelength - TRAILER_LENGTH);
+            long footer = in.readLong();
+            if (in.readInt() != MAGIC) {
+                throw new IOException("columnar transform log without footer");
+            }
+            
+            in.seek(footer);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                if (offset >= start && offset < end) {
+                    blocks.add(offset);
+                }
+            }
+        }
+        
+        /**
+         * next row into record, false at the end of the blocks
+         */
+        public boolean next(TransformRecord record) throws IOException {
+            
+            while (rows == 0) {
+                if (nextblock >= blocks.size()) {
+                    return false;
+                }
+                readBlock(blocks.get(nextblock++));
+            }
+            
+            for (Column column : COLUMNS) {
+                int i = column.ordinal();
+                if (projected[i] == false) {
+                    continue;
+                }
+                
+                if (column.isDimension()) {
+                    setValue(record, column,
+                            dictionaries[i][WritableUtils.readVInt(values[i])]);
+                }
+                else if (column == Column.CMD) {
+                    setValue(record, column, CompactWritableUtil.readCmd(values[i]));
+                }
+                else {
+                    setValue(record, column, CompactWritableUtil.readLogTime(values[i]));
+                }
+            }
+            rows--;
+            
+            return true;
+        }
+        
+        private void readBlock(long offset) throws IOException {
+            
+            in.seek(offset);
+            int blockrows = in.readInt();
+            int[] lengths = new int[COLUMNS.length];
+            for (Column column : COLUMNS) {
+                lengths[column.ordinal()] = in.readInt();
+            }
+            
+            long position = offset + 4 + 4 * COLUMNS.length;
+            for (Column column : COLUMNS) {
+                int i = column.ordinal();
+                if (projected[i]) {
+                    // columns not asked for are never read
+                    if (data[i].length < lengths[i]) {
+                        data[i] = new byte[lengths[i]];
+                    }
+                    in.seek(position);
+                    in.readFully(data[i], 0, lengths[i]);
+                    values[i].reset(data[i], 0, lengths[i]);
+                    
+                    if (column.isDimension()) {
+                        String[] dictionary = new String[WritableUtils.readVInt(values[i])];
+                        for (int d = 0; d < dictionary.length; d++) {
+                            dictionary[d] = values[i].readUTF();
+                        }
+                        dictionaries[i] = dictionary;
+                    }
+                }
+                position += lengths[i];
+            }
+            
+            rows = blockrows;
+        }
+        
+        public float getProgress() {
+            
+            if (blocks.size() == 0) {
+                return 1.0f;
+            }
+            return Math.min(1.0f, (float) nextblock / blocks.size());
+        }
+        
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
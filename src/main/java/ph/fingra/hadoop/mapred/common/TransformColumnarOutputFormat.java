@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
+
+/**
+ * Output format writing TransformRecord as columnar transform log
+ * (see TransformColumnarFile), read by TransformInputFormat.
+ */
+public class TransformColumnarOutputFormat
+    extends FileOutputFormat<NullWritable, TransformRecord> {
+    
+    @Override
+    public RecordWriter<NullWritable, TransformRecord> getRecordWriter(
+            TaskAttemptContext context) throws IOException, InterruptedException {
+        
+        Configuration conf = context.getConfiguration();
+        Path file = getDefaultWorkFile(context, "");
+        FileSystem fs = file.getFileSystem(conf);
+        
+        final TransformColumnarFile.Writer writer = new TransformColumnarFile.Writer(
+                fs.create(file, false), conf.getInt(TransformColumnarFile.BLOCK_ROWS,
+                        TransformColumnarFile.DEFAULT_BLOCK_ROWS));
+        
+        return new RecordWriter<NullWritable, TransformRecord>() {
+            @Override
+            public void write(NullWritable key, TransformRecord value)
+                    throws IOException, InterruptedException {
+                writer.append(value);
+            }
+            @Override
+            public void close(TaskAttemptContext context)
+                    throws IOException, InterruptedException {
+                writer.close();
+            }
+        };
+    }
+}
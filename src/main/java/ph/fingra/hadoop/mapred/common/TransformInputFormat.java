@@ -0,0 +1,215 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+
+import ph.fingra.hadoop.mapred.common.TransformColumnarFile.Column;
+import ph.fingra.hadoop.mapred.parse.TransformLogParser;
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
+
+/**
+ * Input format delivering transform log rows as TransformRecord.
+ * 
+ * Columnar transform log (TransformColumnarFile) is decoded for the columns
+ * set by setColumns only, so the mapper neither reads nor parses the other
+ * fields. Text transform log of days written before columnar output is
+ * parsed line by line, and malformed lines are skipped and counted in the
+ * LogValidation counters.
+ */
+public class TransformInputFormat extends FileInputFormat<NullWritable, TransformRecord> {
+    
+    private static final String COLUMNS = "transform.input.columns";
+    
+    /**
+     * use TransformInputFormat as input format of job reading given columns
+     */
+    public static void setInputFormat(Job job, Column... columns) {
+        
+        job.setInputFormatClass(TransformInputFormat.class);
+        
+        StringBuilder names = new StringBuilder();
+        for (Column column : columns) {
+            if (names.length() > 0) names.append(",");
+            names.append(column.name());
+        }
+        job.getConfiguration().set(COLUMNS, names.toString());
+    }
+    
+    public static Column[] getColumns(Configuration conf) {
+        
+        String[] names = conf.getStrings(COLUMNS);
+        if (names == null || names.length == 0) {
+            return Column.values();
+        }
+        
+        Column[] columns = new Column[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = Column.valueOf(names[i].trim());
+        }
+        return columns;
+    }
+    
+    @Override
+    public RecordReader<NullWritable, TransformRecord> createRecordReader(InputSplit split,
+            TaskAttemptContext context) throws IOException {
+        
+        if (TransformColumnarFile.isColumnarFile(((FileSplit)split).getPath().getName())) {
+            return new ColumnarRecordReader();
+        }
+        return new TextRecordReader();
+    }
+    
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        
+        if (TransformColumnarFile.isColumnarFile(file.getName())) {
+            return true;
+        }
+        CompressionCodec codec =
+                new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        if (codec == null) {
+            return true;
+        }
+        return codec instanceof SplittableCompressionCodec;
+    }
+    
+    /**
+     * reads blocks of columnar transform log starting in the split
+     */
+    public static class ColumnarRecordReader
+        extends RecordReader<NullWritable, TransformRecord> {
+        
+        private TransformColumnarFile.Reader reader;
+        private TransformRecord record = new TransformRecord();
+        
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context)
+                throws IOException, InterruptedException {
+            
+            FileSplit filesplit = (FileSplit) split;
+            Configuration conf = context.getConfiguration();
+            FileSystem fs = filesplit.getPath().getFileSystem(conf);
+            long filelength = fs.getFileStatus(filesplit.getPath()).getLen();
+            
+            reader = new TransformColumnarFile.Reader(fs.open(filesplit.getPath()),
+                    filelength, filesplit.getStart(),
+                    filesplit.getStart() + filesplit.getLength(), getColumns(conf));
+        }
+        
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            return reader.next(record);
+        }
+        
+        @Override
+        public NullWritable getCurrentKey() throws IOException, InterruptedException {
+            return NullWritable.get();
+        }
+        
+        @Override
+        public TransformRecord getCurrentValue() throws IOException, InterruptedException {
+            return record;
+        }
+        
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return reader.getProgress();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+    
+    /**
+     * reads lines of text transform log with LineRecordReader
+     */
+    public static class TextRecordReader
+        extends RecordReader<NullWritable, TransformRecord> {
+        
+        private LineRecordReader reader = new LineRecordReader();
+        private TransformLogParser parser = new TransformLogParser();
+        private TaskInputOutputContext<?, ?, ?, ?> counters = null;
+        
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context)
+                throws IOException, InterruptedException {
+            reader.initialize(split, context);
+            // the task passes its mapper context, which holds the counters
+            if (context instanceof TaskInputOutputContext) {
+                counters = (TaskInputOutputContext<?, ?, ?, ?>) context;
+            }
+        }
+        
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            
+            while (reader.nextKeyValue()) {
+                parser.parse(reader.getCurrentValue());
+                if (parser.hasError() == false) {
+                    return true;
+                }
+                // dropped line counted by its error level (MALFORMED/WASTE)
+                if (counters != null) {
+                    counters.getCounter(parser.getErrorLevel()).increment(1);
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public NullWritable getCurrentKey() throws IOException, InterruptedException {
+            return NullWritable.get();
+        }
+        
+        @Override
+        public TransformRecord getCurrentValue() throws IOException, InterruptedException {
+            return parser.getRecord();
+        }
+        
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return reader.getProgress();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ * Text input format reading each file in one split.
+ * 
+ * Used for sorted bucket files, where a map task has to see the whole
+ * bucket in order (map-side merge join with newuser db key index).
+ */
+public class WholeTextInputFormat extends TextInputFormat {
+    
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return false;
+    }
+}
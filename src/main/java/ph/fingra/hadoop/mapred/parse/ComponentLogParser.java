@@ -25,8 +25,8 @@ import ph.fingra.hadoop.common.ConstantVars.LogValidation;
 import ph.fingra.hadoop.common.ConstantVars.ParseError;
 import ph.fingra.hadoop.common.SdkFieldInfo;
 import ph.fingra.hadoop.common.SdkFieldInfo.ComponentFieldIndex;
-import ph.fingra.hadoop.common.util.DateTimeUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.common.util.LogTimeCodec;
 
 public class ComponentLogParser {
     
@@ -37,6 +37,8 @@ public class ComponentLogParser {
         COMPONENTKEY_PATTERN = Pattern.compile(ConstantVars.COMPONENTKEY_PATTERN_REGEX);
     }
     
+    private static final byte[] CMD_COMPONENT_BYTES = LogFieldTokenizer.getBytes(ConstantVars.CMD_COMPONENT);
+    
     private String cmd;
     private String appkey;
     private String componentkey;
@@ -55,7 +57,11 @@ public class ComponentLogParser {
     private int parse_error;
     private LogValidation error_level;
     
+    // byte level tokenizer, fields of null value are decoded on demand
+    private LogFieldTokenizer tokenizer;
+    
     public ComponentLogParser() {
+        this.tokenizer = new LogFieldTokenizer(SdkFieldInfo.ComponentFieldCount);
         this.raised_error = false;
         this.parse_error = ParseError.NONE;
         this.error_level = LogValidation.CLEAN;
@@ -65,10 +71,130 @@ public class ComponentLogParser {
         if (record == null)
             parse("");
         else
-            parse(record.toString());
+            parse(record.getBytes(), record.getLength());
     }
     
-    private void parse(String record) {
+    private void parse(byte[] record, int length) {
+        
+        // initialize
+        this.cmd = "";
+        this.appkey = "";
+        this.componentkey = "";
+        this.session = "";
+        this.utctime = "";
+        this.localtime = "";
+        this.token = "";
+        this.country = "";
+        this.language = "";
+        this.device = "";
+        this.osversion = "";
+        this.resolution = "";
+        this.appversion = "";
+        
+        this.raised_error = false;
+        this.parse_error = ParseError.NONE;
+        this.error_level = LogValidation.CLEAN;
+        
+        if (LogFieldTokenizer.isBlank(record, length)) {
+            this.raised_error = true;
+            this.parse_error = ParseError.EMPTYLINE;
+            this.error_level = LogValidation.WASTE;
+            return;
+        }
+        
+        // log split without decoding
+        if (this.tokenizer.tokenize(record, length) < SdkFieldInfo.ComponentFieldCount) {
+            this.raised_error = true;
+            this.parse_error = ParseError.ERRORFIELDCOUNT;
+            this.error_level = LogValidation.WASTE;
+            return;
+        }
+        
+        if (this.tokenizer.equalsBytes(ComponentFieldIndex.CMD, CMD_COMPONENT_BYTES)) {
+            this.cmd = ConstantVars.CMD_COMPONENT;
+        }
+        else {
+            // error-level : MALFORMED
+            // cmd is kept as is, no "NULL" => "" mapping
+            this.cmd = this.tokenizer.isNull(ComponentFieldIndex.CMD)
+                    ? ConstantVars.LOG_NULL : this.tokenizer.getString(ComponentFieldIndex.CMD);
+            this.raised_error = true;
+            this.parse_error = ParseError.ERRORCMD;
+            this.error_level = LogValidation.MALFORMED;
+            return;
+        }
+        
+        // only fields needed for validation are decoded here,
+        // session/time/token/dimensions are decoded by getter
+        this.appkey = this.tokenizer.getString(ComponentFieldIndex.APPKEY);
+        this.componentkey = this.tokenizer.getString(ComponentFieldIndex.COMPONENTKEY);
+        this.session = null;
+        this.utctime = null;
+        this.localtime = null;
+        this.token = null;
+        this.country = null;
+        this.language = null;
+        this.device = null;
+        this.osversion = null;
+        this.resolution = null;
+        this.appversion = null;
+        
+        // appkey error, error-level : MALFORMED
+        if (this.appkey.isEmpty() || !isValidAppkey(this.appkey)) {
+            this.raised_error = true;
+            this.parse_error = ParseError.ERRORAPPKEY;
+            this.error_level = LogValidation.MALFORMED;
+            return;
+        }
+        
+        // componentkey error, error-level : MALFORMED
+        if (this.componentkey.isEmpty() || !isValidComponentkey(this.componentkey)) {
+            this.raised_error = true;
+            this.parse_error = ParseError.ERRORCOMPONENTKEY;
+            this.error_level = LogValidation.MALFORMED;
+            return;
+        }
+        
+        // session/utctime/localtime/token error, error-level : MALFORMED
+        if (this.tokenizer.isNullOrEmpty(ComponentFieldIndex.SESSION)) {
+            this.raised_error = true;
+            this.parse_error = ParseError.ERRORSESSION;
+            this.error_level = LogValidation.MALFORMED;
+            return;
+        }
+        if (!isValidTime(ComponentFieldIndex.UTCTIME) || !isValidTime(ComponentFieldIndex.LOCALTIME)) {
+            this.raised_error = true;
+            this.parse_error = ParseError.ERRORTIME;
+            this.error_level = LogValidation.MALFORMED;
+            return;
+        }
+        if (this.tokenizer.isNullOrEmpty(ComponentFieldIndex.TOKEN)) {
+            this.raised_error = true;
+            this.parse_error = ParseError.ERRORTOKEN;
+            this.error_level = LogValidation.MALFORMED;
+            return;
+        }
+        
+        // country/language/device/osversion/resolution/appversion error, error-level : WELLFORMED
+        if (this.tokenizer.isNullOrEmpty(ComponentFieldIndex.COUNTRY)
+                || this.tokenizer.isNullOrEmpty(ComponentFieldIndex.LANGUAGE)
+                || this.tokenizer.isNullOrEmpty(ComponentFieldIndex.DEVICE)
+                || this.tokenizer.isNullOrEmpty(ComponentFieldIndex.OSVERSION)
+                || this.tokenizer.isNullOrEmpty(ComponentFieldIndex.RESOLUTION)
+                || this.tokenizer.isNullOrEmpty(ComponentFieldIndex.APPVERSION)) {
+            this.raised_error = false;
+            this.error_level = LogValidation.WELLFORMED;
+        }
+        else {
+            this.raised_error = false;
+            this.error_level = LogValidation.CLEAN;
+        }
+        
+        return;
+    }
+    
+    // regex split path, kept for main() and as reference of parse(Text) in test
+    void parse(String record) {
         
         // initialize
         this.cmd = "";
@@ -217,7 +343,11 @@ public class ComponentLogParser {
         return COMPONENTKEY_PATTERN.matcher(src).matches();
     }
     public boolean isValidTime(String src) {
-        return DateTimeUtil.isValidDate(src, ConstantVars.LOG_DATE_FORMAT);
+        return LogTimeCodec.isValid(src);
+    }
+    private boolean isValidTime(int idx) {
+        return LogTimeCodec.isValid(this.tokenizer.getBytes(),
+                this.tokenizer.getStart(idx), this.tokenizer.getLength(idx));
     }
     public boolean isValidNumber(String src) {
         return FormatUtil.isValidNumber(src);
@@ -233,48 +363,68 @@ public class ComponentLogParser {
         return this.componentkey;
     }
     public String getSession() {
+        if (this.session == null)
+            this.session = this.tokenizer.getString(ComponentFieldIndex.SESSION);
         return this.session;
     }
     public String getUtctime() {
+        if (this.utctime == null)
+            this.utctime = this.tokenizer.getString(ComponentFieldIndex.UTCTIME);
         return this.utctime;
     }
     public String getLocaltime() {
+        if (this.localtime == null)
+            this.localtime = this.tokenizer.getString(ComponentFieldIndex.LOCALTIME);
         return this.localtime;
     }
     public String getToken() {
+        if (this.token == null)
+            this.token = this.tokenizer.getString(ComponentFieldIndex.TOKEN);
         return this.token;
     }
     public String getCountry() {
+        if (this.country == null)
+            this.country = this.tokenizer.getDimension(ComponentFieldIndex.COUNTRY);
         if (this.country.isEmpty())
             return "UNKNOWN";
         this.country = this.country.toUpperCase();
         return this.country;
     }
     public String getLanguage() {
+        if (this.language == null)
+            this.language = this.tokenizer.getDimension(ComponentFieldIndex.LANGUAGE);
         if (this.language.isEmpty())
             return "unknown";
         this.language = this.language.toLowerCase();
         return this.language;
     }
     public String getDevice() {
+        if (this.device == null)
+            this.device = this.tokenizer.getDimension(ComponentFieldIndex.DEVICE);
         if (this.device.isEmpty())
             return "UNKNOWN";
         this.device = this.device.toUpperCase();
         return this.device;
     }
     public String getOsversion() {
+        if (this.osversion == null)
+            this.osversion = this.tokenizer.getDimension(ComponentFieldIndex.OSVERSION);
         if (this.osversion.isEmpty())
             return "unknown";
         this.osversion = this.osversion.toLowerCase();
         return this.osversion;
     }
     public String getResolution() {
+        if (this.resolution == null)
+            this.resolution = this.tokenizer.getDimension(ComponentFieldIndex.RESOLUTION);
         if (this.resolution.isEmpty())
             return "UNKNOWN";
         this.resolution = this.resolution.toUpperCase();
         return this.resolution;
     }
     public String getAppversion() {
+        if (this.appversion == null)
+            this.appversion = this.tokenizer.getDimension(ComponentFieldIndex.APPVERSION);
         if (this.appversion.isEmpty())
             return "unknown";
         this.appversion = this.appversion.toLowerCase();
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parse;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.io.Text;
+
+import ph.fingra.hadoop.common.ConstantVars;
+
+/**
+ * Byte level "||" tokenizer over a raw Text buffer.
+ * 
+ * Fields are kept as offset/length slices of the original utf-8 bytes and
+ * decoded to String only when requested. Splitting follows
+ * String.split(LOG_FIELD_SEPERATER_REGX, limit) : the last field takes the
+ * rest of the line and trailing empty fields are kept.
+ */
+public class LogFieldTokenizer {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private static final byte SEPERATER = '|';
+    private static final byte[] NULL_BYTES = getBytes(ConstantVars.LOG_NULL);
+    
+    private final int limit;
+    private final int[] starts;
+    private final int[] lengths;
+    
+    private byte[] bytes;
+    private int count;
+    
+    public LogFieldTokenizer(int limit) {
+        this.limit = limit;
+        this.starts = new int[limit];
+        this.lengths = new int[limit];
+        this.bytes = null;
+        this.count = 0;
+    }
+    
+    /**
+     * Split record bytes and return number of fields found (at most limit).
+     * The record buffer is referenced, not copied, so the slices are valid
+     * until the Text is reused by the record reader.
+     */
+    public int tokenize(Text record) {
+        return tokenize(record.getBytes(), record.getLength());
+    }
+    
+    public int tokenize(byte[] src, int length) {
+        
+        this.bytes = src;
+        this.count = 0;
+        
+        int start = 0;
+        int i = 0;
+        while (this.count < this.limit - 1 && i < length - 1) {
+            if (src[i] == SEPERATER && src[i+1] == SEPERATER) {
+                this.starts[this.count] = start;
+                this.lengths[this.count] = i - start;
+                this.count++;
+                i += 2;
+                start = i;
+            }
+            else {
+                i++;
+            }
+        }
+        this.starts[this.count] = start;
+        this.lengths[this.count] = length - start;
+        this.count++;
+        
+        return this.count;
+    }
+    
+    public int getCount() {
+        return this.count;
+    }
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+    public int getStart(int idx) {
+        return this.starts[idx];
+    }
+    public int getLength(int idx) {
+        return this.lengths[idx];
+    }
+    
+    /**
+     * true if field is empty or "NULL" string (log servlet null value)
+     */
+    public boolean isNullOrEmpty(int idx) {
+        return this.lengths[idx] == 0 || isNull(idx);
+    }
+    
+    public boolean isNull(int idx) {
+        return equalsBytes(idx, NULL_BYTES);
+    }
+    
+    public boolean equalsBytes(int idx, byte[] other) {
+        
+        if (this.lengths[idx] != other.length)
+            return false;
+        
+        int start = this.starts[idx];
+        for (int i = 0; i < other.length; i++) {
+            if (this.bytes[start+i] != other[i])
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * decode field, "NULL" string => "" string
+     */
+    public String getString(int idx) {
+        if (isNullOrEmpty(idx))
+            return "";
+        return decode(this.starts[idx], this.lengths[idx]);
+    }
+    
+    /**
+     * decode dimension field, "NULL" string => "" string, "|" -> "/"
+     */
+    public String getDimension(int idx) {
+        if (isNullOrEmpty(idx))
+            return "";
+        return decode(this.starts[idx], this.lengths[idx]).replace('|', '/');
+    }
+    
+    private String decode(int start, int length) {
+        try {
+            return Text.decode(this.bytes, start, length, true);
+        }
+        catch (CharacterCodingException e) {
+            // not reached : malformed input is replaced
+            return "";
+        }
+    }
+    
+    /**
+     * same as String.trim().isEmpty() on the decoded record
+     */
+    public static boolean isBlank(byte[] src, int length) {
+        for (int i = 0; i < length; i++) {
+            if ((src[i] & 0xff) > ' ')
+                return false;
+        }
+        return true;
+    }
+    
+    public static byte[] getBytes(String src) {
+        return src.getBytes(UTF8);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parse;
+
+import org.apache.hadoop.io.Text;
+
+import ph.fingra.hadoop.common.ConstantVars.LogParserType;
+import ph.fingra.hadoop.common.ConstantVars.LogValidation;
+import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
+
+/**
+ * Parser of transform log line (CommonLog or ComponentLog) into TransformRecord
+ */
+public class TransformLogParser {
+    
+    private CommonLogParser commonparser = new CommonLogParser();
+    private ComponentLogParser compoparser = new ComponentLogParser();
+    
+    private TransformRecord record = new TransformRecord();
+    
+    private boolean raised_error;
+    private LogValidation error_level;
+    
+    public TransformLogParser() {
+        this.raised_error = false;
+        this.error_level = LogValidation.CLEAN;
+    }
+    
+    public void parse(Text line) {
+        
+        LogParserType logtype = (line == null) ? LogParserType.InvalidLog
+                : FormatUtil.getLogParserType(line.getBytes(), line.getLength());
+        
+        if (logtype.equals(LogParserType.CommonLog)) {
+            
+            // CommonLog : STARTSESS/PAGEVIEW/ENDSESS
+            commonparser.parse(line);
+            this.raised_error = commonparser.hasError();
+            this.error_level = commonparser.getErrorLevel();
+            if (this.raised_error == false) {
+                record.set(commonparser.getCmd(), commonparser.getAppkey(), "",
+                        commonparser.getSession(), commonparser.getToken(),
+                        commonparser.getUtctime(), commonparser.getLocaltime(),
+                        commonparser.getCountry(), commonparser.getLanguage(),
+                        commonparser.getDevice(), commonparser.getOsversion(),
+                        commonparser.getResolution(), commonparser.getAppversion());
+            }
+        }
+        else if (logtype.equals(LogParserType.ComponentLog)) {
+            
+            // ComponentLog : COMPONENT
+            compoparser.parse(line);
+            this.raised_error = compoparser.hasError();
+            this.error_level = compoparser.getErrorLevel();
+            if (this.raised_error == false) {
+                record.set(compoparser.getCmd(), compoparser.getAppkey(),
+                        compoparser.getComponentkey(), compoparser.getSession(),
+                        compoparser.getToken(), compoparser.getUtctime(),
+                        compoparser.getLocaltime(), compoparser.getCountry(),
+                        compoparser.getLanguage(), compoparser.getDevice(),
+                        compoparser.getOsversion(), compoparser.getResolution(),
+                        compoparser.getAppversion());
+            }
+        }
+        else {
+            this.raised_error = true;
+            this.error_level = LogValidation.MALFORMED;
+        }
+    }
+    
+    public boolean hasError() {
+        return this.raised_error;
+    }
+    public LogValidation getErrorLevel() {
+        return this.error_level;
+    }
+    public TransformRecord getRecord() {
+        return this.record;
+    }
+}
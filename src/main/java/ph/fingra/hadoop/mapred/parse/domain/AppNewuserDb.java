@@ -21,6 +21,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import ph.fingra.hadoop.mapred.common.BaseWritable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
 
 public class AppNewuserDb extends BaseWritable<AppNewuserDb> {
     
@@ -66,12 +67,12 @@ public class AppNewuserDb extends BaseWritable<AppNewuserDb> {
         
         this.appkey = in.readUTF();
         this.token = in.readUTF();
-        this.year = in.readUTF();
-        this.month = in.readUTF();
-        this.day = in.readUTF();
-        this.week = in.readUTF();
-        this.utctime = in.readUTF();
-        this.localtime = in.readUTF();
+        this.year = CompactWritableUtil.readDatePart(in, 4);
+        this.month = CompactWritableUtil.readDatePart(in, 2);
+        this.day = CompactWritableUtil.readDatePart(in, 2);
+        this.week = CompactWritableUtil.readDatePart(in, 2);
+        this.utctime = CompactWritableUtil.readLogTime(in);
+        this.localtime = CompactWritableUtil.readLogTime(in);
         this.country = in.readUTF();
         this.language = in.readUTF();
         this.device = in.readUTF();
@@ -85,12 +86,12 @@ public class AppNewuserDb extends BaseWritable<AppNewuserDb> {
         
         out.writeUTF(this.appkey);
         out.writeUTF(this.token);
-        out.writeUTF(this.year);
-        out.writeUTF(this.month);
-        out.writeUTF(this.day);
-        out.writeUTF(this.week);
-        out.writeUTF(this.utctime);
-        out.writeUTF(this.localtime);
+        CompactWritableUtil.writeDatePart(out, this.year, 4);
+        CompactWritableUtil.writeDatePart(out, this.month, 2);
+        CompactWritableUtil.writeDatePart(out, this.day, 2);
+        CompactWritableUtil.writeDatePart(out, this.week, 2);
+        CompactWritableUtil.writeLogTime(out, this.utctime);
+        CompactWritableUtil.writeLogTime(out, this.localtime);
         out.writeUTF(this.country);
         out.writeUTF(this.language);
         out.writeUTF(this.device);
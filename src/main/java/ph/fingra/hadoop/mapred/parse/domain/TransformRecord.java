@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parse.domain;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ph.fingra.hadoop.mapred.common.BaseWritable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
+
+/**
+ * One row of transform log (STARTSESS/PAGEVIEW/ENDSESS/COMPONENT),
+ * componentkey is empty for rows other than COMPONENT.
+ * 
+ * Read by TransformInputFormat, fields of columns not asked for are empty.
+ */
+public class TransformRecord extends BaseWritable<TransformRecord> {
+    
+    public String cmd = "";
+    public String appkey = "";
+    public String componentkey = "";
+    public String session = "";
+    public String token = "";
+    public String utctime = "";
+    public String localtime = "";
+    public String country = "";
+    public String language = "";
+    public String device = "";
+    public String osversion = "";
+    public String resolution = "";
+    public String appversion = "";
+    
+    public void set(String cmd, String appkey, String componentkey,
+            String session, String token, String utctime, String localtime,
+            String country, String language, String device, String osversion,
+            String resolution, String appversion) {
+        
+        this.cmd = cmd;
+        this.appkey = appkey;
+        this.componentkey = componentkey;
+        this.session = session;
+        this.token = token;
+        this.utctime = utctime;
+        this.localtime = localtime;
+        this.country = country;
+        this.language = language;
+        this.device = device;
+        this.osversion = osversion;
+        this.resolution = resolution;
+        this.appversion = appversion;
+    }
+    
+    public void clear() {
+        
+        set("", "", "", "", "", "", "", "", "", "", "", "", "");
+    }
+    
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        
+        this.cmd = CompactWritableUtil.readCmd(in);
+        this.appkey = in.readUTF();
+        this.componentkey = in.readUTF();
+        this.session = in.readUTF();
+        this.token = in.readUTF();
+        this.utctime = CompactWritableUtil.readLogTime(in);
+        this.localtime = CompactWritableUtil.readLogTime(in);
+        this.country = in.readUTF();
+        this.language = in.readUTF();
+        this.device = in.readUTF();
+        this.osversion = in.readUTF();
+        this.resolution = in.readUTF();
+        this.appversion = in.readUTF();
+    }
+    
+    @Override
+    public void write(DataOutput out) throws IOException {
+        
+        CompactWritableUtil.writeCmd(out, this.cmd);
+        out.writeUTF(this.appkey);
+        out.writeUTF(this.componentkey);
+        out.writeUTF(this.session);
+        out.writeUTF(this.token);
+        CompactWritableUtil.writeLogTime(out, this.utctime);
+        CompactWritableUtil.writeLogTime(out, this.localtime);
+        out.writeUTF(this.country);
+        out.writeUTF(this.language);
+        out.writeUTF(this.device);
+        out.writeUTF(this.osversion);
+        out.writeUTF(this.resolution);
+        out.writeUTF(this.appversion);
+    }
+    
+    /**
+     * staic method for deserialize
+     * 
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static TransformRecord read(DataInput in) throws IOException {
+        
+        TransformRecord l = new TransformRecord();
+        l.readFields(in);
+        return l;
+    }
+}
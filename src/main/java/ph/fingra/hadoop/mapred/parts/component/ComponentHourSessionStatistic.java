@@ -30,7 +30,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -52,8 +51,13 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.common.util.LogTimeCodec;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RecentKeyFilter;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
 import ph.fingra.hadoop.mapred.parts.component.domain.ComponentHourSessionEntity;
 import ph.fingra.hadoop.mapred.parts.component.domain.ComponentHourSessionKey;
@@ -155,6 +159,7 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "component/componenthoursession job";
@@ -196,10 +201,13 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
         private ComponentHourSessionKey out_key = new ComponentHourSessionKey();
         private ComponentHourSessionEntity out_val = new ComponentHourSessionEntity();
         
+        private RecentKeyFilter recent = null;
+        
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            recent = RecentKeyFilter.create(context.getConfiguration());
         }
         
         @Override
@@ -207,7 +215,7 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -226,7 +234,10 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
                             compoparser.getSession(), compoparser.getLocaltime());
                     out_val.set(compoparser.getSession(), compoparser.getLocaltime());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.componentkey,
+                            out_key.session, RecentKeyFilter.getHourPrefix(out_key.localtime)) == false) {
+                        context.write(out_key, out_val);
+                    }
                 }
                 else {
                     if (verbose)
@@ -251,10 +262,6 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
         private Text out_key = new Text();
         private LongWritable out_val = new LongWritable(0);
         
-        private int LTIME_LENGTH = ConstantVars.LOG_DATE_FORMAT.length();
-        private int HOUR_INDEX = 8;
-        private int HOUR_LENGTH = 2;
-        
         @Override
         protected void reduce(ComponentHourSessionKey key, Iterable<ComponentHourSessionEntity> values,
                 Context context) throws IOException, InterruptedException {
@@ -269,11 +276,9 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
                 // - and order by appkey/componentkey/session/localtime
                 
                 if (prev_session.equals(cur_val.session) == false) {
-                    String localtime_hour = "";
-                    if (cur_val.localtime.length()==LTIME_LENGTH) {
-                        localtime_hour = cur_val.localtime.substring(HOUR_INDEX, HOUR_INDEX+HOUR_LENGTH);
-                        
-                        item.addItem(Integer.parseInt(localtime_hour), 1l);
+                    int localtime_hour = LogTimeCodec.getHour(cur_val.localtime);
+                    if (localtime_hour >= 0) {
+                        item.addItem(localtime_hour, 1l);
                     }
                 }
                 
@@ -301,14 +306,14 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
         @Override
         public int getPartition(ComponentHourSessionKey key, ComponentHourSessionEntity value,
                 int numPartitions) {
-            return Math.abs((key.appkey+key.componentkey).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, key.componentkey, numPartitions);
         }
     }
     
     private static class ComponentHourSessionSortComparator
-        extends WritableComparator {
+        extends ComponentHourSessionKey.Comparator {
         protected ComponentHourSessionSortComparator() {
-            super(ComponentHourSessionKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -324,9 +329,14 @@ public class ComponentHourSessionStatistic extends Configured implements Tool {
     }
     
     private static class ComponentHourSessionGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected ComponentHourSessionGroupComparator() {
-            super(ComponentHourSessionKey.class, true);
+            super(ComponentHourSessionKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey/componentkey
+            return compareUTFFields(b1, s1, b2, s2, 2);
         }
         @SuppressWarnings("rawtypes")
         @Override
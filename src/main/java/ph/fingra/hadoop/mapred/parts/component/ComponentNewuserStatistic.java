@@ -45,8 +45,10 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
 import ph.fingra.hadoop.mapred.parse.ComponentNewuserDbParser;
 
 public class ComponentNewuserStatistic extends Configured implements Tool {
@@ -91,9 +93,10 @@ public class ComponentNewuserStatistic extends Configured implements Tool {
                 + " , [target date] " + targetDate.getFulldate()
                 + " , [reducer count] " + opt_numreduce);
         
-        // get this job's input path - origin log file, component newuser db file
+        // get this job's input path - origin log file, component newuser db partitions of target period
         inputPaths = HdfsFileUtil.getComponentNewuserInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay());
+                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                targetDate.getWeek());
         
         // get this job's output path
         HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
@@ -107,10 +110,20 @@ public class ComponentNewuserStatistic extends Configured implements Tool {
             fs.delete(deletePath, true);
         }
         
-        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig, targetDate);
+        int status = 0;
         
-        int status = job.waitForCompletion(true) ? 0 : 1;
+        if (inputPaths.length > 0) {
+            Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
+                    fingraphConfig, targetDate);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+        }
+        else {
+            // no component newuser db partition in target period, empty output
+            WorkLogger.log(ComponentNewuserStatistic.class.getSimpleName()
+                    + " : no component newuser db partition in target period");
+            fs.mkdirs(outputPath);
+        }
         
         // copy to local result paths
         LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
@@ -126,6 +139,7 @@ public class ComponentNewuserStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         conf.set("runmode", targetdate.getRunmode());
         conf.set("year", targetdate.getYear());
         conf.set("month", targetdate.getMonth());
@@ -288,7 +302,7 @@ public class ComponentNewuserStatistic extends Configured implements Tool {
         @Override
         public int getPartition(Text key, LongWritable value,
                 int numPartitions) {
-            return Math.abs(key.hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key, numPartitions);
         }
     }
     
@@ -27,7 +27,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -49,8 +48,12 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RecentKeyFilter;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
 import ph.fingra.hadoop.mapred.parts.component.domain.ComponentUserSessionEntity;
 import ph.fingra.hadoop.mapred.parts.component.domain.ComponentUserSessionKey;
@@ -132,6 +135,7 @@ public class ComponentUserSessionStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "component/componentusersession job";
@@ -173,10 +177,13 @@ public class ComponentUserSessionStatistic extends Configured implements Tool {
         private ComponentUserSessionKey out_key = new ComponentUserSessionKey();
         private ComponentUserSessionEntity out_val = new ComponentUserSessionEntity();
         
+        private RecentKeyFilter recent = null;
+        
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            recent = RecentKeyFilter.create(context.getConfiguration());
         }
         
         @Override
@@ -184,7 +191,7 @@ public class ComponentUserSessionStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -203,7 +210,10 @@ public class ComponentUserSessionStatistic extends Configured implements Tool {
                             compoparser.getToken(), compoparser.getSession());
                     out_val.set(compoparser.getToken(), compoparser.getSession());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.componentkey,
+                            out_key.token, out_key.session) == false) {
+                        context.write(out_key, out_val);
+                    }
                 }
                 else {
                     if (verbose)
@@ -267,14 +277,14 @@ public class ComponentUserSessionStatistic extends Configured implements Tool {
         @Override
         public int getPartition(ComponentUserSessionKey key, ComponentUserSessionEntity value,
                 int numPartitions) {
-            return Math.abs((key.appkey+key.componentkey).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, key.componentkey, numPartitions);
         }
     }
     
     private static class ComponentUserSessionSortComparator
-        extends WritableComparator {
+        extends ComponentUserSessionKey.Comparator {
         protected ComponentUserSessionSortComparator() {
-            super(ComponentUserSessionKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -290,9 +300,14 @@ public class ComponentUserSessionStatistic extends Configured implements Tool {
     }
     
     private static class ComponentUserSessionGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected ComponentUserSessionGroupComparator() {
-            super(ComponentUserSessionKey.class, true);
+            super(ComponentUserSessionKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey/componentkey
+            return compareUTFFields(b1, s1, b2, s2, 2);
         }
         @SuppressWarnings("rawtypes")
         @Override
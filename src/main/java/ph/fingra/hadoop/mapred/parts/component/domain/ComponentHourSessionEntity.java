@@ -21,6 +21,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import ph.fingra.hadoop.mapred.common.BaseWritable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
 
 public class ComponentHourSessionEntity
     extends BaseWritable<ComponentHourSessionEntity> {
@@ -38,14 +39,14 @@ public class ComponentHourSessionEntity
     public void readFields(DataInput in) throws IOException {
         
         this.session = in.readUTF();
-        this.localtime = in.readUTF();
+        this.localtime = CompactWritableUtil.readLogTime(in);
     }
     
     @Override
     public void write(DataOutput out) throws IOException {
         
         out.writeUTF(this.session);
-        out.writeUTF(this.localtime);
+        CompactWritableUtil.writeLogTime(out, this.localtime);
     }
     
     /**
@@ -20,9 +20,12 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.hadoop.io.WritableComparator;
 
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
 import ph.fingra.hadoop.mapred.common.BaseWritableComparable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
+import ph.fingra.hadoop.mapred.common.FieldHash;
 
 public class ComponentHourSessionKey
     extends BaseWritableComparable<ComponentHourSessionKey> {
@@ -47,7 +50,7 @@ public class ComponentHourSessionKey
         this.appkey = in.readUTF();
         this.componentkey = in.readUTF();
         this.session = in.readUTF();
-        this.localtime = in.readUTF();
+        this.localtime = CompactWritableUtil.readLogTime(in);
     }
     
     @Override
@@ -56,7 +59,7 @@ public class ComponentHourSessionKey
         out.writeUTF(this.appkey);
         out.writeUTF(this.componentkey);
         out.writeUTF(this.session);
-        out.writeUTF(this.localtime);
+        CompactWritableUtil.writeLogTime(out, this.localtime);
     }
     
     @Override
@@ -75,6 +78,69 @@ public class ComponentHourSessionKey
     @Override
     public int hashCode() {
         
-        return HashCodeBuilder.reflectionHashCode(this);
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, this.appkey);
+        h = FieldHash.add(h, this.componentkey);
+        h = FieldHash.add(h, this.session);
+        h = FieldHash.add(h, this.localtime);
+        
+        return FieldHash.finish(h, 4);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        
+        if (this == obj) return true;
+        if (!(obj instanceof ComponentHourSessionKey)) return false;
+        
+        ComponentHourSessionKey o = (ComponentHourSessionKey) obj;
+        return this.appkey.equals(o.appkey)
+                && this.componentkey.equals(o.componentkey)
+                && this.session.equals(o.session)
+                && this.localtime.equals(o.localtime);
+    }
+    
+    @Override
+    public String toString() {
+        
+        StringBuilder buf = new StringBuilder();
+        buf.append(this.appkey)
+                .append(',').append(this.componentkey)
+                .append(',').append(this.session)
+                .append(',').append(this.localtime);
+        
+        return buf.toString();
+    }
+    
+    /**
+     * raw comparator in compareTo order, registered as default comparator
+     */
+    public static class Comparator extends BaseRawComparator {
+        
+        public Comparator() {
+            super(ComponentHourSessionKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int ret = 0;
+            
+            // appkey/componentkey/session
+            ret = compareUTFFields(b1, s1, b2, s2, 3);
+            if (ret != 0) return ret;
+            for (int i = 0; i < 3; i++) {
+                s1 = skipUTF(b1, s1);
+                s2 = skipUTF(b2, s2);
+            }
+            
+            // localtime
+            ret = CompactWritableUtil.compareLogTime(b1, s1, b2, s2);
+            
+            return ret;
+        }
+    }
+    
+    static {
+        WritableComparator.define(ComponentHourSessionKey.class, new Comparator());
     }
 }
@@ -27,7 +27,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -48,8 +47,14 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
+import ph.fingra.hadoop.mapred.common.DistinctSketch;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RecentKeyFilter;
+import ph.fingra.hadoop.mapred.common.RollupUtil;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
 import ph.fingra.hadoop.mapred.parts.distribution.domain.CountryEntity;
@@ -97,10 +102,28 @@ public class CountryStatistic extends Configured implements Tool {
                 + " , [target date] " + targetDate.getFulldate()
                 + " , [reducer count] " + opt_numreduce);
         
+        // week/month roll-up : merge daily partials instead of transform log
+        Path[] rollupPaths = null;
+        if (RollupUtil.isSketchRollup(conf, opt_mode)) {
+            rollupPaths = RollupUtil.getDailyPartialPaths(fingraphConfig,
+                    RollupUtil.COUNTRY, opt_mode, targetDate, conf);
+            if (rollupPaths == null) {
+                WorkLogger.log(CountryStatistic.class.getSimpleName()
+                        + " : daily partials not complete, read transform log");
+            }
+        }
+        else if (RollupUtil.isRollup(conf, opt_mode)) {
+            // sketches are approximate, never merged into exact counts
+            WorkLogger.warn(CountryStatistic.class.getSimpleName()
+                    + " : roll-up of distinct counts needs -Dapproximate=true, read transform log");
+        }
+        
         // get this job's input path - transform log file
-        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
-                targetDate.getHour(), targetDate.getWeek());
+        if (rollupPaths == null) {
+            inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                    targetDate.getHour(), targetDate.getWeek());
+        }
         
         // get this job's output path
         HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
@@ -113,12 +136,29 @@ public class CountryStatistic extends Configured implements Tool {
         for (Path deletePath : deletePaths) {
             fs.delete(deletePath, true);
         }
-        
-        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig);
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.COUNTRY, opt_mode,
+                targetDate, conf);
+        
+        Job job = null;
+        if (rollupPaths != null) {
+            job = DistinctSketch.createRollupJob(conf, rollupPaths, outputPath,
+                    opt_numreduce, fingraphConfig, "distribute/country rollup job",
+                    CountryStatistic.class);
+        }
+        else {
+            job = createJob(conf, inputPaths, outputPath, opt_numreduce,
+                    fingraphConfig);
+        }
         
         int status = job.waitForCompletion(true) ? 0 : 1;
         
+        // keep daily partial for week/month roll-up
+        if (status == 0 && opt_mode.equals(ConstantVars.RUNMODE_DAY)
+                && conf.getBoolean(ConstantVars.DOPTION_APPROXIMATE, false)) {
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.COUNTRY, outputPath,
+                    DistinctSketch.NAMED_OUTPUT, false, targetDate, conf);
+        }
+        
         // copy to local result paths
         LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
         CopyToLocalFile copier = new CopyToLocalFile();
@@ -132,6 +172,7 @@ public class CountryStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "distribute/country job";
@@ -144,18 +185,25 @@ public class CountryStatistic extends Configured implements Tool {
         }
         FileOutputFormat.setOutputPath(job, outputpath);
         
-        job.setMapperClass(CountryMapper.class);
-        job.setReducerClass(CountryReducer.class);
-        
-        job.setMapOutputKeyClass(CountryKey.class);
-        job.setMapOutputValueClass(CountryEntity.class);
-        
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
-        
-        job.setPartitionerClass(CountryPartitioner.class);
-        job.setSortComparatorClass(CountrySortComparator.class);
-        job.setGroupingComparatorClass(CountryGroupComparator.class);
+        if (conf.getBoolean(ConstantVars.DOPTION_APPROXIMATE, false)) {
+            // hyperloglog sketches per appkey/country instead of sorted logs
+            job.setMapperClass(CountrySketchMapper.class);
+            DistinctSketch.setupJob(job);
+        }
+        else {
+            job.setMapperClass(CountryMapper.class);
+            job.setReducerClass(CountryReducer.class);
+            
+            job.setMapOutputKeyClass(CountryKey.class);
+            job.setMapOutputValueClass(CountryEntity.class);
+            
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(Text.class);
+            
+            job.setPartitionerClass(CountryPartitioner.class);
+            job.setSortComparatorClass(CountrySortComparator.class);
+            job.setGroupingComparatorClass(CountryGroupComparator.class);
+        }
         
         job.setNumReduceTasks(numreduce);
         
@@ -174,10 +222,13 @@ public class CountryStatistic extends Configured implements Tool {
         private CountryKey out_key = new CountryKey();
         private CountryEntity out_val = new CountryEntity();
         
+        private RecentKeyFilter recent = null;
+        
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            recent = RecentKeyFilter.create(context.getConfiguration());
         }
         
         @Override
@@ -185,7 +236,7 @@ public class CountryStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -198,7 +249,10 @@ public class CountryStatistic extends Configured implements Tool {
                     out_val.set(commonparser.getToken(), commonparser.getSession(),
                             commonparser.getCmd());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.country, out_key.token,
+                            out_key.session) == false) {
+                        context.write(out_key, out_val);
+                    }
                 }
                 else {
                     if (verbose)
@@ -219,7 +273,10 @@ public class CountryStatistic extends Configured implements Tool {
                     out_val.set(compoparser.getToken(), compoparser.getSession(),
                             compoparser.getCmd());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.country, out_key.token,
+                            out_key.session) == false) {
+                        context.write(out_key, out_val);
+                    }
                 }
                 else {
                     if (verbose)
@@ -238,6 +295,82 @@ public class CountryStatistic extends Configured implements Tool {
         }
     }
     
+    static class CountrySketchMapper
+        extends Mapper<LongWritable, Text, Text, DistinctSketch> {
+        
+        private boolean verbose = false;
+        private boolean counter = false;
+        
+        private CommonLogParser commonparser = new CommonLogParser();
+        private ComponentLogParser compoparser = new ComponentLogParser();
+        
+        private DistinctSketch.Collector sketches = null;
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            verbose = context.getConfiguration().getBoolean("verbose", false);
+            counter = context.getConfiguration().getBoolean("counter", false);
+            sketches = new DistinctSketch.Collector(context.getConfiguration());
+        }
+        
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            
+            // logtype check
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
+            
+            if (logtype.equals(LogParserType.CommonLog)) {
+                
+                // CommonLog : STARTSESS/PAGEVIEW/ENDSESS
+                commonparser.parse(value);
+                if (commonparser.hasError() == false) {
+                    
+                    sketches.add(commonparser.getAppkey() + ConstantVars.RESULT_FIELD_SEPERATER
+                            + commonparser.getCountry(),
+                            commonparser.getToken(), commonparser.getSession(), context);
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(commonparser.getErrorLevel()).increment(1);
+            }
+            else if (logtype.equals(LogParserType.ComponentLog)) {
+                
+                // ComponentLog : COMPONENT
+                compoparser.parse(value);
+                if (compoparser.hasError() == false) {
+                    
+                    sketches.add(compoparser.getAppkey() + ConstantVars.RESULT_FIELD_SEPERATER
+                            + compoparser.getCountry(),
+                            compoparser.getToken(), compoparser.getSession(), context);
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(compoparser.getErrorLevel()).increment(1);
+            }
+            else {
+                if (verbose)
+                    System.err.println("Ignoring corrupt input: " + value);
+                if (counter)
+                    context.getCounter(LogValidation.MALFORMED).increment(1);
+            }
+        }
+        
+        @Override
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            sketches.flush(context);
+        }
+    }
+    
     static class CountryReducer
         extends Reducer<CountryKey, CountryEntity, Text, Text> {
         
@@ -283,14 +416,14 @@ public class CountryStatistic extends Configured implements Tool {
         @Override
         public int getPartition(CountryKey key, CountryEntity value,
                 int numPartitions) {
-            return Math.abs((key.appkey+key.country).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, key.country, numPartitions);
         }
     }
     
     private static class CountrySortComparator
-        extends WritableComparator {
+        extends CountryKey.Comparator {
         protected CountrySortComparator() {
-            super(CountryKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -306,9 +439,14 @@ public class CountryStatistic extends Configured implements Tool {
     }
     
     private static class CountryGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected CountryGroupComparator() {
-            super(CountryKey.class, true);
+            super(CountryKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey/country
+            return compareUTFFields(b1, s1, b2, s2, 2);
         }
         @SuppressWarnings("rawtypes")
         @Override
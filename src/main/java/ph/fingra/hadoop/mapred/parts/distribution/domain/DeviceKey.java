@@ -20,9 +20,11 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.hadoop.io.WritableComparator;
 
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
 import ph.fingra.hadoop.mapred.common.BaseWritableComparable;
+import ph.fingra.hadoop.mapred.common.FieldHash;
 
 public class DeviceKey extends BaseWritableComparable<DeviceKey> {
     
@@ -73,6 +75,57 @@ public class DeviceKey extends BaseWritableComparable<DeviceKey> {
     @Override
     public int hashCode() {
         
-        return HashCodeBuilder.reflectionHashCode(this);
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, this.appkey);
+        h = FieldHash.add(h, this.device);
+        h = FieldHash.add(h, this.token);
+        h = FieldHash.add(h, this.session);
+        
+        return FieldHash.finish(h, 4);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        
+        if (this == obj) return true;
+        if (!(obj instanceof DeviceKey)) return false;
+        
+        DeviceKey o = (DeviceKey) obj;
+        return this.appkey.equals(o.appkey)
+                && this.device.equals(o.device)
+                && this.token.equals(o.token)
+                && this.session.equals(o.session);
+    }
+    
+    @Override
+    public String toString() {
+        
+        StringBuilder buf = new StringBuilder();
+        buf.append(this.appkey)
+                .append(',').append(this.device)
+                .append(',').append(this.token)
+                .append(',').append(this.session);
+        
+        return buf.toString();
+    }
+    
+    /**
+     * raw comparator in compareTo order, registered as default comparator
+     */
+    public static class Comparator extends BaseRawComparator {
+        
+        public Comparator() {
+            super(DeviceKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // appkey/device/token/session
+            return compareUTFFields(b1, s1, b2, s2, 4);
+        }
+    }
+    
+    static {
+        WritableComparator.define(DeviceKey.class, new Comparator());
     }
 }
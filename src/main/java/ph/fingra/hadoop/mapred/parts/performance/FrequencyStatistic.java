@@ -27,7 +27,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -48,8 +47,12 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.InMapperCounter;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
 import ph.fingra.hadoop.mapred.parse.TokenfreqParser;
@@ -167,6 +170,7 @@ public class FrequencyStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "perform/tokenfreq job";
@@ -178,6 +182,7 @@ public class FrequencyStatistic extends Configured implements Tool {
             FileInputFormat.addInputPath(job, inputpaths[i]);
         }
         FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_intermediate_codec());
         
         job.setMapperClass(TokenfreqMapper.class);
         job.setReducerClass(TokenfreqReducer.class);
@@ -202,6 +207,7 @@ public class FrequencyStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "perform/frequency job";
@@ -252,7 +258,7 @@ public class FrequencyStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -343,14 +349,14 @@ public class FrequencyStatistic extends Configured implements Tool {
         @Override
         public int getPartition(TokenfreqKey key, TokenfreqEntity value,
                 int numPartitions) {
-            return Math.abs((key.appkey+key.token).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, key.token, numPartitions);
         }
     }
     
     private static class TokenfreqSortComparator
-        extends WritableComparator {
+        extends TokenfreqKey.Comparator {
         protected TokenfreqSortComparator() {
-            super(TokenfreqKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -366,9 +372,14 @@ public class FrequencyStatistic extends Configured implements Tool {
     }
     
     private static class TokenfreqGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected TokenfreqGroupComparator() {
-            super(TokenfreqKey.class, true);
+            super(TokenfreqKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey/token
+            return compareUTFFields(b1, s1, b2, s2, 2);
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -392,13 +403,13 @@ public class FrequencyStatistic extends Configured implements Tool {
         
         TokenfreqParser resultparser = new TokenfreqParser();
         
-        private Text out_key = new Text();
-        private LongWritable out_val = new LongWritable(1);
+        private InMapperCounter counts = null;
         
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            counts = InMapperCounter.create(context.getConfiguration());
         }
         
         @Override
@@ -408,10 +419,8 @@ public class FrequencyStatistic extends Configured implements Tool {
             resultparser.parse(value);
             if (resultparser.hasError() == false) {
                 
-                out_key.set(resultparser.getAppkey() + ConstantVars.RESULT_FIELD_SEPERATER
-                        + String.valueOf(resultparser.getSessioncount()));
-                
-                context.write(out_key, out_val);
+                counts.add(resultparser.getAppkey() + ConstantVars.RESULT_FIELD_SEPERATER
+                        + String.valueOf(resultparser.getSessioncount()), 1, context);
             }
             else {
                 if (verbose)
@@ -421,6 +430,12 @@ public class FrequencyStatistic extends Configured implements Tool {
             if (counter)
                 context.getCounter(resultparser.getErrorLevel()).increment(1);
         }
+        
+        @Override
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            counts.flush(context);
+        }
     }
     
     static class FrequencyReducer
@@ -450,7 +465,7 @@ public class FrequencyStatistic extends Configured implements Tool {
         @Override
         public int getPartition(Text key, LongWritable value,
                 int numPartitions) {
-            return Math.abs(key.hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key, numPartitions);
         }
     }
     
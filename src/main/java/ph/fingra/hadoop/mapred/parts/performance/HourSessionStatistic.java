@@ -23,14 +23,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -51,10 +52,20 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.common.util.LogTimeCodec;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RecentKeyFilter;
+import ph.fingra.hadoop.mapred.common.RollupUtil;
+import ph.fingra.hadoop.mapred.common.SaltedAggregation;
+import ph.fingra.hadoop.mapred.common.TransformColumnarFile.Column;
+import ph.fingra.hadoop.mapred.common.TransformInputFormat;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
 import ph.fingra.hadoop.mapred.parts.performance.domain.HourSessionEntity;
 import ph.fingra.hadoop.mapred.parts.performance.domain.HourSessionKey;
 
@@ -86,6 +97,7 @@ public class HourSessionStatistic extends Configured implements Tool {
         String opt_mode = "";
         String opt_target = "";
         int opt_numreduce = 0;
+        boolean opt_salted = false;
         
         FingraphConfig fingraphConfig = new FingraphConfig();
         TargetDate targetDate = null;
@@ -98,6 +110,7 @@ public class HourSessionStatistic extends Configured implements Tool {
         opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
         opt_target = conf.get(ConstantVars.DOPTION_TARGETDATE, "");
         opt_numreduce = conf.getInt(ConstantVars.DOPTION_NUMREDUCE, 0);
+        opt_salted = conf.getBoolean(ConstantVars.DOPTION_SALTED, false);
         
         // runmode & targetdate check
         if (ArgsOptionUtil.checkRunmode(opt_mode)==false) {
@@ -120,27 +133,99 @@ public class HourSessionStatistic extends Configured implements Tool {
                 + " , [target date] " + targetDate.getFulldate()
                 + " , [reducer count] " + opt_numreduce);
         
+        // week/month roll-up : merge daily partials instead of transform log
+        Path[] rollupPaths = null;
+        if (RollupUtil.isRollup(conf, opt_mode)) {
+            rollupPaths = RollupUtil.getDailyPartialPaths(fingraphConfig,
+                    RollupUtil.HOURSESSION, opt_mode, targetDate, conf);
+            if (rollupPaths == null) {
+                WorkLogger.log(HourSessionStatistic.class.getSimpleName()
+                        + " : daily partials not complete, read transform log");
+            }
+        }
+        
         // get this job's input path - transform log file
-        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
-                targetDate.getHour(), targetDate.getWeek());
+        if (rollupPaths == null) {
+            if (fingraphConfig.getSetting().isTransform_columnar()) {
+                inputPaths = HdfsFileUtil.getColumnarTransformInputPaths(fingraphConfig, opt_mode,
+                        targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                        targetDate.getHour(), targetDate.getWeek());
+            }
+            else {
+                inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                        targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                        targetDate.getHour(), targetDate.getWeek());
+            }
+        }
         
         // get this job's output path
         HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
         outputPath = new Path(hfsPath.getHoursession());
+        Path partialPath = new Path(outputPath.toString() + SaltedAggregation.PARTIAL_SUFFIX);
         
         // delete previous output path if is exist
         FileSystem fs = FileSystem.get(conf);
         List<Path> deletePaths = new ArrayList<Path>();
         deletePaths.add(outputPath);
+        deletePaths.add(partialPath);
         for (Path deletePath : deletePaths) {
             fs.delete(deletePath, true);
         }
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.HOURSESSION, opt_mode,
+                targetDate, conf);
+        
+        // hot apps of salted mode from logcount output of day run
+        Map<String, Integer> hotapps = null;
+        if (opt_salted && rollupPaths == null) {
+            HfsPathInfo dayPath = new HfsPathInfo(fingraphConfig, ConstantVars.RUNMODE_DAY);
+            hotapps = SaltedAggregation.findHotApps(fs, new Path(dayPath.getLogcount()),
+                    opt_numreduce, conf);
+            WorkLogger.log(HourSessionStatistic.class.getSimpleName()
+                    + " : [salted apps] " + hotapps);
+        }
         
-        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig);
+        int status = 0;
+        if (rollupPaths != null) {
+            
+            Job job = SaltedAggregation.createMergeJob(conf, rollupPaths, outputPath, 1,
+                    opt_numreduce, fingraphConfig, "perform/hoursession rollup job",
+                    HourSessionStatistic.class);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+        }
+        else if (hotapps == null || hotapps.isEmpty()) {
+            
+            Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
+                    fingraphConfig);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+        }
+        else {
+            
+            // partial counts by appkey/salt, then sum of partials by appkey/hour
+            SaltedAggregation.setHotApps(conf, hotapps);
+            
+            Job job = createJob(conf, inputPaths, partialPath, opt_numreduce,
+                    fingraphConfig);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+            
+            if (status == 0) {
+                Job mergeJob = SaltedAggregation.createMergeJob(conf, partialPath,
+                        outputPath, 1, opt_numreduce, fingraphConfig,
+                        "perform/hoursession merge job", HourSessionStatistic.class);
+                
+                status = mergeJob.waitForCompletion(true) ? 0 : 1;
+            }
+            
+            fs.delete(partialPath, true);
+        }
         
-        int status = job.waitForCompletion(true) ? 0 : 1;
+        // keep daily partial for week/month roll-up
+        if (status == 0 && opt_mode.equals(ConstantVars.RUNMODE_DAY)) {
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.HOURSESSION, outputPath,
+                    ConstantVars.RESULT_FILE_PREFIX, true, targetDate, conf);
+        }
         
         // copy to local result paths
         LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
@@ -155,6 +240,7 @@ public class HourSessionStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "perform/hoursession job";
@@ -167,7 +253,15 @@ public class HourSessionStatistic extends Configured implements Tool {
         }
         FileOutputFormat.setOutputPath(job, outputpath);
         
-        job.setMapperClass(HourSessionMapper.class);
+        if (finconfig.getSetting().isTransform_columnar()) {
+            // typed rows of appkey/session/localtime/cmd columns only
+            TransformInputFormat.setInputFormat(job, Column.APPKEY, Column.SESSION,
+                    Column.LOCALTIME, Column.CMD);
+            job.setMapperClass(HourSessionRecordMapper.class);
+        }
+        else {
+            job.setMapperClass(HourSessionMapper.class);
+        }
         job.setReducerClass(HourSessionReducer.class);
         
         job.setMapOutputKeyClass(HourSessionKey.class);
@@ -176,7 +270,13 @@ public class HourSessionStatistic extends Configured implements Tool {
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(LongWritable.class);
         
-        job.setPartitionerClass(HourSessionPartitioner.class);
+        if (SaltedAggregation.isSalted(conf)) {
+            // logs of hot apps spread over reducers by session
+            job.setPartitionerClass(HourSessionSaltedPartitioner.class);
+        }
+        else {
+            job.setPartitionerClass(HourSessionPartitioner.class);
+        }
         job.setSortComparatorClass(HourSessionSortComparator.class);
         job.setGroupingComparatorClass(HourSessionGroupComparator.class);
         
@@ -197,10 +297,13 @@ public class HourSessionStatistic extends Configured implements Tool {
         private HourSessionKey out_key = new HourSessionKey();
         private HourSessionEntity out_val = new HourSessionEntity();
         
+        private RecentKeyFilter recent = null;
+        
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            recent = RecentKeyFilter.create(context.getConfiguration());
         }
         
         @Override
@@ -208,7 +311,7 @@ public class HourSessionStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -221,7 +324,10 @@ public class HourSessionStatistic extends Configured implements Tool {
                     out_val.set(commonparser.getSession(), commonparser.getLocaltime(),
                             commonparser.getCmd());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.session,
+                            RecentKeyFilter.getHourPrefix(out_key.localtime)) == false) {
+                        context.write(out_key, out_val);
+                    }
                 }
                 else {
                     if (verbose)
@@ -242,7 +348,10 @@ public class HourSessionStatistic extends Configured implements Tool {
                     out_val.set(compoparser.getSession(), compoparser.getLocaltime(),
                             compoparser.getCmd());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.session,
+                            RecentKeyFilter.getHourPrefix(out_key.localtime)) == false) {
+                        context.write(out_key, out_val);
+                    }
                 }
                 else {
                     if (verbose)
@@ -261,16 +370,40 @@ public class HourSessionStatistic extends Configured implements Tool {
         }
     }
     
+    static class HourSessionRecordMapper
+        extends Mapper<NullWritable, TransformRecord, HourSessionKey, HourSessionEntity> {
+        
+        private HourSessionKey out_key = new HourSessionKey();
+        private HourSessionEntity out_val = new HourSessionEntity();
+        
+        private RecentKeyFilter recent = null;
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            recent = RecentKeyFilter.create(context.getConfiguration());
+        }
+        
+        @Override
+        protected void map(NullWritable key, TransformRecord value, Context context)
+                throws IOException, InterruptedException {
+            
+            // rows are already validated by TransformInputFormat
+            out_key.set(value.appkey, value.session, value.localtime);
+            out_val.set(value.session, value.localtime, value.cmd);
+            
+            if (recent.isRecent(out_key.appkey, out_key.session,
+                    RecentKeyFilter.getHourPrefix(out_key.localtime)) == false) {
+                context.write(out_key, out_val);
+            }
+        }
+    }
+    
     static class HourSessionReducer
         extends Reducer<HourSessionKey, HourSessionEntity, Text, LongWritable> {
         
         private Text out_key = new Text();
         private LongWritable out_val = new LongWritable(0);
         
-        private int LTIME_LENGTH = ConstantVars.LOG_DATE_FORMAT.length();
-        private int HOUR_INDEX = 8;
-        private int HOUR_LENGTH = 2;
-        
         @Override
         protected void reduce(HourSessionKey key, Iterable<HourSessionEntity> values,
                 Context context) throws IOException, InterruptedException {
@@ -285,11 +418,9 @@ public class HourSessionStatistic extends Configured implements Tool {
                 // - and order by appkey/session/localtime
                 
                 if (prev_session.equals(cur_val.session) == false) {
-                    String localtime_hour = "";
-                    if (cur_val.localtime.length()==LTIME_LENGTH) {
-                        localtime_hour = cur_val.localtime.substring(HOUR_INDEX, HOUR_INDEX+HOUR_LENGTH);
-                        
-                        item.addItem(Integer.parseInt(localtime_hour), 1l);
+                    int localtime_hour = LogTimeCodec.getHour(cur_val.localtime);
+                    if (localtime_hour >= 0) {
+                        item.addItem(localtime_hour, 1l);
                     }
                 }
                 
@@ -316,14 +447,38 @@ public class HourSessionStatistic extends Configured implements Tool {
         @Override
         public int getPartition(HourSessionKey key, HourSessionEntity value,
                 int numPartitions) {
-            return Math.abs((key.appkey).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, numPartitions);
+        }
+    }
+    
+    private static class HourSessionSaltedPartitioner
+        extends Partitioner<HourSessionKey, HourSessionEntity> implements Configurable {
+        
+        private Configuration conf = null;
+        private Map<String, Integer> hotapps = null;
+        
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            this.hotapps = SaltedAggregation.getHotApps(conf);
+        }
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+        @Override
+        public int getPartition(HourSessionKey key, HourSessionEntity value,
+                int numPartitions) {
+            // all logs of a session in the same salt : session counts are exact
+            return SaltedAggregation.getPartition(key.appkey, key.session, hotapps,
+                    numPartitions);
         }
     }
     
     private static class HourSessionSortComparator
-        extends WritableComparator {
+        extends HourSessionKey.Comparator {
         protected HourSessionSortComparator() {
-            super(HourSessionKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -339,9 +494,14 @@ public class HourSessionStatistic extends Configured implements Tool {
     }
     
     private static class HourSessionGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected HourSessionGroupComparator() {
-            super(HourSessionKey.class, true);
+            super(HourSessionKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey
+            return compareUTFFields(b1, s1, b2, s2, 1);
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -45,8 +45,11 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.NewuserDbUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
 import ph.fingra.hadoop.mapred.parse.AppNewuserDbParser;
 
 public class NewuserStatistic extends Configured implements Tool {
@@ -64,6 +67,9 @@ public class NewuserStatistic extends Configured implements Tool {
         Configuration conf = getConf();
         Path[] inputPaths = null;
         Path outputPath = null;
+        Path[] countPaths = null;
+        Path[] countryPaths = null;
+        Path countryOutputPath = null;
         
         // get -D optional value
         opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
@@ -91,30 +97,95 @@ public class NewuserStatistic extends Configured implements Tool {
                 + " , [target date] " + targetDate.getFulldate()
                 + " , [reducer count] " + opt_numreduce);
         
-        // get this job's input path - origin log file, app newuser db file
-        inputPaths = HdfsFileUtil.getAppNewuserInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay());
+        HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
+        
+        // get this job's input path - new users of target day counted by AppNewuserMerge
+        if (opt_mode.equals(ConstantVars.RUNMODE_DAY)) {
+            countPaths = NewuserDbUtil.getNewuserCountPaths(hfsPath.getAppnewusercount(),
+                    NewuserDbUtil.COUNT_NEWUSER, targetDate.getYear(), targetDate.getMonth(),
+                    targetDate.getDay());
+            countryPaths = NewuserDbUtil.getNewuserCountPaths(hfsPath.getAppnewusercount(),
+                    NewuserDbUtil.COUNT_COUNTRYNEWUSER, targetDate.getYear(), targetDate.getMonth(),
+                    targetDate.getDay());
+        }
+        // counted day without new user has no count parts
+        boolean counted = (countPaths != null);
+        
+        // get this job's input path - app newuser db partitions of target period
+        if (counted == false) {
+            inputPaths = HdfsFileUtil.getAppNewuserInputPaths(fingraphConfig, opt_mode,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                    targetDate.getWeek());
+        }
         
         // get this job's output path
-        HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
         outputPath = new Path(hfsPath.getNewuser());
+        countryOutputPath = new Path(hfsPath.getCountrynewuser());
         
         // delete previous output path if is exist
         FileSystem fs = FileSystem.get(conf);
         List<Path> deletePaths = new ArrayList<Path>();
         deletePaths.add(outputPath);
+        deletePaths.add(countryOutputPath);
         for (Path deletePath : deletePaths) {
             fs.delete(deletePath, true);
         }
         
-        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig, targetDate);
+        LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
+        CopyToLocalFile copier = new CopyToLocalFile();
         
-        int status = job.waitForCompletion(true) ? 0 : 1;
+        int status = 0;
+        
+        if (counted) {
+            
+            WorkLogger.log(NewuserStatistic.class.getSimpleName()
+                    + " : sum new user counts of merge, without db scan");
+            
+            // 1) new users by appkey
+            if (countPaths.length > 0) {
+                Job job = createJobCount(conf, countPaths, outputPath, opt_numreduce,
+                        fingraphConfig, "perform/newuser-count job");
+                
+                status = job.waitForCompletion(true) ? 0 : 1;
+            }
+            else {
+                fs.mkdirs(outputPath);
+            }
+            
+            copier.dirToFile(outputPath.toString(), lfsPath.getNewuser());
+            
+            // 2) new users by appkey/country
+            if (status == 0) {
+                if (countryPaths != null && countryPaths.length > 0) {
+                    Job job = createJobCount(conf, countryPaths, countryOutputPath, opt_numreduce,
+                            fingraphConfig, "distribute/countrynewuser-count job");
+                    
+                    status = job.waitForCompletion(true) ? 0 : 1;
+                }
+                else {
+                    fs.mkdirs(countryOutputPath);
+                }
+                
+                copier.dirToFile(countryOutputPath.toString(), lfsPath.getCountrynewuser());
+            }
+            
+            return status;
+        }
+        
+        if (inputPaths.length > 0) {
+            Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
+                    fingraphConfig, targetDate);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+        }
+        else {
+            // no app newuser db partition in target period, empty output
+            WorkLogger.log(NewuserStatistic.class.getSimpleName()
+                    + " : no app newuser db partition in target period");
+            fs.mkdirs(outputPath);
+        }
         
         // copy to local result paths
-        LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
-        CopyToLocalFile copier = new CopyToLocalFile();
         copier.dirToFile(outputPath.toString(), lfsPath.getNewuser());
         
         return status;
@@ -126,6 +197,7 @@ public class NewuserStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         conf.set("runmode", targetdate.getRunmode());
         conf.set("year", targetdate.getYear());
         conf.set("month", targetdate.getMonth());
@@ -160,6 +232,43 @@ public class NewuserStatistic extends Configured implements Tool {
         return job;
     }
     
+    /*
+     * sum of partial new user counts written by AppNewuserMerge tasks
+     */
+    public Job createJobCount(Configuration conf, Path[] inputpaths, Path outputpath,
+            int numreduce, FingraphConfig finconfig, String jobname) throws IOException {
+        
+        conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
+        conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        
+        Job job = new Job(conf);
+        job.setJobName(jobname);
+        
+        job.setJarByClass(NewuserStatistic.class);
+        
+        for (int i=0; i<inputpaths.length; i++) {
+            FileInputFormat.addInputPath(job, inputpaths[i]);
+        }
+        FileOutputFormat.setOutputPath(job, outputpath);
+        
+        job.setMapperClass(NewuserCountMapper.class);
+        job.setCombinerClass(NewuserReducer.class);
+        job.setReducerClass(NewuserReducer.class);
+        
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(LongWritable.class);
+        
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(LongWritable.class);
+        
+        job.setPartitionerClass(NewuserPartitioner.class);
+        
+        job.setNumReduceTasks(numreduce);
+        
+        return job;
+    }
+    
     static class NewuserMapper
         extends Mapper<LongWritable, Text, Text, LongWritable> {
         
@@ -258,6 +367,44 @@ public class NewuserStatistic extends Configured implements Tool {
         }
     }
     
+    static class NewuserCountMapper
+        extends Mapper<LongWritable, Text, Text, LongWritable> {
+        
+        private boolean verbose = false;
+        
+        private Text out_key = new Text();
+        private LongWritable out_val = new LongWritable(0);
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            verbose = context.getConfiguration().getBoolean("verbose", false);
+        }
+        
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            
+            // {appkey[, country]}, count
+            String line = value.toString();
+            int pos = line.lastIndexOf(ConstantVars.RESULT_FIELD_SEPERATER);
+            try {
+                out_val.set(Long.parseLong(line.substring(pos + 1)));
+            }
+            catch (NumberFormatException e) {
+                pos = -1;
+            }
+            if (pos <= 0) {
+                if (verbose)
+                    System.err.println("Ignoring corrupt input: " + value);
+                return;
+            }
+            
+            out_key.set(line.substring(0, pos));
+            
+            context.write(out_key, out_val);
+        }
+    }
+    
     static class NewuserReducer
         extends Reducer<Text, LongWritable, Text, LongWritable> {
         
@@ -285,7 +432,7 @@ public class NewuserStatistic extends Configured implements Tool {
         @Override
         public int getPartition(Text key, LongWritable value,
                 int numPartitions) {
-            return Math.abs(key.hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key, numPartitions);
         }
     }
     
@@ -47,8 +47,13 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.InMapperCounter;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RollupUtil;
+import ph.fingra.hadoop.mapred.common.SaltedAggregation;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 
 public class PageviewStatistic extends Configured implements Tool {
@@ -93,10 +98,23 @@ public class PageviewStatistic extends Configured implements Tool {
                 + " , [target date] " + targetDate.getFulldate()
                 + " , [reducer count] " + opt_numreduce);
         
+        // week/month roll-up : merge daily partials instead of transform log
+        Path[] rollupPaths = null;
+        if (RollupUtil.isRollup(conf, opt_mode)) {
+            rollupPaths = RollupUtil.getDailyPartialPaths(fingraphConfig,
+                    RollupUtil.PAGEVIEW, opt_mode, targetDate, conf);
+            if (rollupPaths == null) {
+                WorkLogger.log(PageviewStatistic.class.getSimpleName()
+                        + " : daily partials not complete, read transform log");
+            }
+        }
+        
         // get this job's input path - transform log file
-        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
-                targetDate.getHour(), targetDate.getWeek());
+        if (rollupPaths == null) {
+            inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                    targetDate.getHour(), targetDate.getWeek());
+        }
         
         // get this job's output path
         HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
@@ -109,12 +127,28 @@ public class PageviewStatistic extends Configured implements Tool {
         for (Path deletePath : deletePaths) {
             fs.delete(deletePath, true);
         }
-        
-        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig);
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.PAGEVIEW, opt_mode,
+                targetDate, conf);
+        
+        Job job = null;
+        if (rollupPaths != null) {
+            job = SaltedAggregation.createMergeJob(conf, rollupPaths, outputPath, 1,
+                    opt_numreduce, fingraphConfig, "perform/pageview rollup job",
+                    PageviewStatistic.class);
+        }
+        else {
+            job = createJob(conf, inputPaths, outputPath, opt_numreduce,
+                    fingraphConfig);
+        }
         
         int status = job.waitForCompletion(true) ? 0 : 1;
         
+        // keep daily partial for week/month roll-up
+        if (status == 0 && opt_mode.equals(ConstantVars.RUNMODE_DAY)) {
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.PAGEVIEW, outputPath,
+                    ConstantVars.RESULT_FILE_PREFIX, true, targetDate, conf);
+        }
+        
         // copy to local result paths
         LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
         CopyToLocalFile copier = new CopyToLocalFile();
@@ -128,6 +162,7 @@ public class PageviewStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "perform/pageview job";
@@ -165,13 +200,13 @@ public class PageviewStatistic extends Configured implements Tool {
         
         private CommonLogParser commonparser = new CommonLogParser();
         
-        private Text out_key = new Text();
-        private LongWritable out_val = new LongWritable(1);
+        private InMapperCounter counts = null;
         
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            counts = InMapperCounter.create(context.getConfiguration());
         }
         
         @Override
@@ -179,7 +214,7 @@ public class PageviewStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -193,9 +228,7 @@ public class PageviewStatistic extends Configured implements Tool {
                     
                     if (commonparser.getCmd().equals(ConstantVars.CMD_STARTSESS)
                             || commonparser.getCmd().equals(ConstantVars.CMD_PAGEVIEW)) {
-                        out_key.set(commonparser.getAppkey());
-                        
-                        context.write(out_key, out_val);
+                        counts.add(commonparser.getAppkey(), 1, context);
                     }
                 }
                 else {
@@ -220,6 +253,12 @@ public class PageviewStatistic extends Configured implements Tool {
                     context.getCounter(LogValidation.MALFORMED).increment(1);
             }
         }
+        
+        @Override
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            counts.flush(context);
+        }
     }
     
     static class PageviewReducer
@@ -249,7 +288,7 @@ public class PageviewStatistic extends Configured implements Tool {
         @Override
         public int getPartition(Text key, LongWritable value,
                 int numPartitions) {
-            return Math.abs(key.hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key, numPartitions);
         }
     }
     
@@ -0,0 +1,710 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parts.performance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.FingraphConfig;
+import ph.fingra.hadoop.common.HfsPathInfo;
+import ph.fingra.hadoop.common.LfsPathInfo;
+import ph.fingra.hadoop.common.ConstantVars.LogParserType;
+import ph.fingra.hadoop.common.ConstantVars.LogValidation;
+import ph.fingra.hadoop.common.domain.TargetDate;
+import ph.fingra.hadoop.common.logger.ErrorLogger;
+import ph.fingra.hadoop.common.logger.WorkLogger;
+import ph.fingra.hadoop.common.util.ArgsOptionUtil;
+import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.common.util.LogTimeCodec;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
+import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
+import ph.fingra.hadoop.mapred.common.FieldHash;
+import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RollupUtil;
+import ph.fingra.hadoop.mapred.parse.CommonLogParser;
+import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
+import ph.fingra.hadoop.mapred.parts.performance.domain.PerformanceKey;
+
+/**
+ * Fused mode of PerformanceDriver.
+ * 
+ * One scan of the transform log produces usersession, tokenfreq,
+ * hoursession, sesstime and pageview with tagged map output keys
+ * (PerformanceKey) and MultipleOutputs. The small second step jobs of
+ * frequency (from tokenfreq) and sessionlength (from sesstime), and the
+ * newuser job (which reads the app newuser db, not the transform log),
+ * run after it. Every result path is the same as the single jobs.
+ */
+public class PerformanceStatistic extends Configured implements Tool {
+    
+    // named outputs of fused job, also sub directory names of fused output
+    private static final String NAMED_USERSESSION = "usersession";
+    private static final String NAMED_TOKENFREQ = "tokenfreq";
+    private static final String NAMED_HOURSESSION = "hoursession";
+    private static final String NAMED_SESSTIME = "sesstime";
+    private static final String NAMED_PAGEVIEW = "pageview";
+    
+    @Override
+    public int run(String[] args) throws Exception {
+        
+        String opt_mode = "";
+        String opt_target = "";
+        int opt_numreduce = 0;
+        
+        FingraphConfig fingraphConfig = new FingraphConfig();
+        TargetDate targetDate = null;
+        
+        Configuration conf = getConf();
+        Path[] inputPaths = null;
+        Path[] newuserInputPaths = null;
+        Path outputPath_fused = null;
+        
+        // get -D optional value
+        opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
+        opt_target = conf.get(ConstantVars.DOPTION_TARGETDATE, "");
+        opt_numreduce = conf.getInt(ConstantVars.DOPTION_NUMREDUCE, 0);
+        
+        // runmode & targetdate check
+        if (ArgsOptionUtil.checkRunmode(opt_mode)==false) {
+            throw new Exception("option value of -Drunmode is not correct");
+        }
+        if (opt_target.isEmpty()==false) {
+            if (ArgsOptionUtil.checkTargetDateByMode(opt_mode, opt_target)==false) {
+                throw new Exception("option value of -Dtargetdate is not correct");
+            }
+        }
+        else {
+            opt_target = ArgsOptionUtil.getDefaultTargetDateByMode(opt_mode);
+        }
+        
+        // get TargetDate info from opt_target
+        targetDate = ArgsOptionUtil.getTargetDate(opt_mode, opt_target);
+        
+        WorkLogger.log(PerformanceStatistic.class.getSimpleName()
+                + " : [run mode] " + opt_mode
+                + " , [target date] " + targetDate.getFulldate()
+                + " , [reducer count] " + opt_numreduce);
+        
+        // get this job's input path - transform log file, app newuser db partitions
+        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                targetDate.getHour(), targetDate.getWeek());
+        newuserInputPaths = HdfsFileUtil.getAppNewuserInputPaths(fingraphConfig, opt_mode,
+                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                targetDate.getWeek());
+        
+        // get this job's output path
+        HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
+        outputPath_fused = new Path(hfsPath.getFused());
+        Path outputPath_usersession = new Path(hfsPath.getUsersession());
+        Path outputPath_tokenfreq = new Path(hfsPath.getTokenfreq());
+        Path outputPath_frequency = new Path(hfsPath.getFrequency());
+        Path outputPath_hoursession = new Path(hfsPath.getHoursession());
+        Path outputPath_sesstime = new Path(hfsPath.getSesstime());
+        Path outputPath_sessionlength = new Path(hfsPath.getSessionlength());
+        Path outputPath_pageview = new Path(hfsPath.getPageview());
+        Path outputPath_newuser = new Path(hfsPath.getNewuser());
+        
+        // delete previous output path if is exist
+        FileSystem fs = FileSystem.get(conf);
+        List<Path> deletePaths = new ArrayList<Path>();
+        deletePaths.add(outputPath_fused);
+        deletePaths.add(outputPath_usersession);
+        deletePaths.add(outputPath_tokenfreq);
+        deletePaths.add(outputPath_frequency);
+        deletePaths.add(outputPath_hoursession);
+        deletePaths.add(outputPath_sesstime);
+        deletePaths.add(outputPath_sessionlength);
+        deletePaths.add(outputPath_pageview);
+        deletePaths.add(outputPath_newuser);
+        for (Path deletePath : deletePaths) {
+            fs.delete(deletePath, true);
+        }
+        // daily partials of the single jobs, usersession is exact here (no sketch)
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.USERSESSION, opt_mode,
+                targetDate, conf);
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.HOURSESSION, opt_mode,
+                targetDate, conf);
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.SESSIONLENGTH, opt_mode,
+                targetDate, conf);
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.PAGEVIEW, opt_mode,
+                targetDate, conf);
+        
+        Job jobFused = createJobFused(conf, inputPaths, outputPath_fused,
+                opt_numreduce, fingraphConfig);
+        
+        int status = jobFused.waitForCompletion(true) ? 0 : 1;
+        if (status != 0) {
+            return status;
+        }
+        
+        // move named outputs to the result paths of single jobs
+        moveNamedOutput(fs, outputPath_fused, NAMED_USERSESSION, outputPath_usersession);
+        moveNamedOutput(fs, outputPath_fused, NAMED_TOKENFREQ, outputPath_tokenfreq);
+        moveNamedOutput(fs, outputPath_fused, NAMED_HOURSESSION, outputPath_hoursession);
+        moveNamedOutput(fs, outputPath_fused, NAMED_SESSTIME, outputPath_sesstime);
+        moveNamedOutput(fs, outputPath_fused, NAMED_PAGEVIEW, outputPath_pageview);
+        fs.delete(outputPath_fused, true);
+        
+        // keep daily partials for week/month roll-up, like the single jobs
+        if (opt_mode.equals(ConstantVars.RUNMODE_DAY)) {
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.HOURSESSION,
+                    outputPath_hoursession, ConstantVars.RESULT_FILE_PREFIX, true,
+                    targetDate, conf);
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.PAGEVIEW,
+                    outputPath_pageview, ConstantVars.RESULT_FILE_PREFIX, true,
+                    targetDate, conf);
+        }
+        
+        // second step jobs read small intermediate results only
+        Job jobFrequency = new FrequencyStatistic().createJobFinal(conf,
+                outputPath_tokenfreq, outputPath_frequency, opt_numreduce, fingraphConfig);
+        
+        status = jobFrequency.waitForCompletion(true) ? 0 : 1;
+        
+        Job jobSessionlength = new SessionLengthStatistic().createJobFinal(conf,
+                outputPath_sesstime, outputPath_sessionlength, opt_numreduce, fingraphConfig);
+        
+        boolean sessionlengthDone = jobSessionlength.waitForCompletion(true);
+        status |= sessionlengthDone ? 0 : 1;
+        
+        if (sessionlengthDone && opt_mode.equals(ConstantVars.RUNMODE_DAY)) {
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.SESSIONLENGTH,
+                    outputPath_sessionlength, ConstantVars.RESULT_FILE_PREFIX, true,
+                    targetDate, conf);
+        }
+        
+        if (newuserInputPaths.length > 0) {
+            Job jobNewuser = new NewuserStatistic().createJob(conf, newuserInputPaths,
+                    outputPath_newuser, opt_numreduce, fingraphConfig, targetDate);
+            
+            status |= jobNewuser.waitForCompletion(true) ? 0 : 1;
+        }
+        else {
+            // no app newuser db partition in target period, empty output
+            fs.mkdirs(outputPath_newuser);
+        }
+        
+        // copy to local result paths
+        LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
+        CopyToLocalFile copier = new CopyToLocalFile();
+        copier.dirToFile(outputPath_newuser.toString(), lfsPath.getNewuser());
+        copier.dirToFile(outputPath_usersession.toString(), lfsPath.getUsersession());
+        copier.dirToFile(outputPath_frequency.toString(), lfsPath.getFrequency());
+        copier.dirToFile(outputPath_hoursession.toString(), lfsPath.getHoursession());
+        copier.dirToFile(outputPath_sessionlength.toString(), lfsPath.getSessionlength());
+        copier.dirToFile(outputPath_pageview.toString(), lfsPath.getPageview());
+        
+        return status;
+    }
+    
+    private void moveNamedOutput(FileSystem fs, Path fusedpath, String named,
+            Path resultpath) throws IOException {
+        
+        Path namedPath = new Path(fusedpath, named);
+        if (fs.exists(namedPath)) {
+            fs.rename(namedPath, resultpath);
+        }
+        else {
+            // no record of this statistic, same as empty output of single job
+            fs.mkdirs(resultpath);
+        }
+    }
+    
+    public Job createJobFused(Configuration conf, Path[] inputpaths, Path outputpath,
+            int numreduce, FingraphConfig finconfig) throws IOException {
+        
+        conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
+        conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        
+        Job job = new Job(conf);
+        String jobName = "perform/fused job";
+        job.setJobName(jobName);
+        
+        job.setJarByClass(PerformanceStatistic.class);
+        
+        for (int i=0; i<inputpaths.length; i++) {
+            FileInputFormat.addInputPath(job, inputpaths[i]);
+        }
+        FileOutputFormat.setOutputPath(job, outputpath);
+        
+        job.setMapperClass(PerformanceMapper.class);
+        job.setCombinerClass(PerformanceCombiner.class);
+        job.setReducerClass(PerformanceReducer.class);
+        
+        job.setMapOutputKeyClass(PerformanceKey.class);
+        job.setMapOutputValueClass(LongWritable.class);
+        
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(LongWritable.class);
+        
+        // only named outputs are written, no empty default part files
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        MultipleOutputs.addNamedOutput(job, NAMED_USERSESSION,
+                TextOutputFormat.class, Text.class, Text.class);
+        MultipleOutputs.addNamedOutput(job, NAMED_TOKENFREQ,
+                TextOutputFormat.class, Text.class, LongWritable.class);
+        MultipleOutputs.addNamedOutput(job, NAMED_HOURSESSION,
+                TextOutputFormat.class, Text.class, LongWritable.class);
+        MultipleOutputs.addNamedOutput(job, NAMED_SESSTIME,
+                TextOutputFormat.class, Text.class, LongWritable.class);
+        MultipleOutputs.addNamedOutput(job, NAMED_PAGEVIEW,
+                TextOutputFormat.class, Text.class, LongWritable.class);
+        
+        job.setPartitionerClass(PerformancePartitioner.class);
+        job.setSortComparatorClass(PerformanceSortComparator.class);
+        job.setGroupingComparatorClass(PerformanceGroupComparator.class);
+        
+        job.setNumReduceTasks(numreduce);
+        
+        return job;
+    }
+    
+    static class PerformanceMapper
+        extends Mapper<LongWritable, Text, PerformanceKey, LongWritable> {
+        
+        private boolean verbose = false;
+        private boolean counter = false;
+        
+        private CommonLogParser commonparser = new CommonLogParser();
+        private ComponentLogParser compoparser = new ComponentLogParser();
+        
+        private PerformanceKey out_key = new PerformanceKey();
+        private LongWritable out_val = new LongWritable(1);
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            verbose = context.getConfiguration().getBoolean("verbose", false);
+            counter = context.getConfiguration().getBoolean("counter", false);
+        }
+        
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            
+            // logtype check
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
+            
+            if (logtype.equals(LogParserType.CommonLog)) {
+                
+                // CommonLog : STARTSESS/PAGEVIEW/ENDSESS
+                commonparser.parse(value);
+                if (commonparser.hasError() == false) {
+                    
+                    writeSessionKeys(context, commonparser.getAppkey(),
+                            commonparser.getToken(), commonparser.getSession(),
+                            commonparser.getLocaltime(), commonparser.getUtctime());
+                    
+                    /*
+                     * Let the STARTSESS signal considered to be called PAGEVIEW
+                     */
+                    
+                    if (commonparser.getCmd().equals(ConstantVars.CMD_STARTSESS)
+                            || commonparser.getCmd().equals(ConstantVars.CMD_PAGEVIEW)) {
+                        out_key.set(PerformanceKey.TAG_PAGEVIEW,
+                                commonparser.getAppkey(), "", "");
+                        
+                        context.write(out_key, out_val);
+                    }
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(commonparser.getErrorLevel()).increment(1);
+            }
+            else if (logtype.equals(LogParserType.ComponentLog)) {
+                
+                // ComponentLog : COMPONENT
+                compoparser.parse(value);
+                if (compoparser.hasError() == false) {
+                    
+                    writeSessionKeys(context, compoparser.getAppkey(),
+                            compoparser.getToken(), compoparser.getSession(),
+                            compoparser.getLocaltime(), compoparser.getUtctime());
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(compoparser.getErrorLevel()).increment(1);
+            }
+            else {
+                if (verbose)
+                    System.err.println("Ignoring corrupt input: " + value);
+                if (counter)
+                    context.getCounter(LogValidation.MALFORMED).increment(1);
+            }
+        }
+        
+        private void writeSessionKeys(Context context, String appkey,
+                String token, String session, String localtime, String utctime)
+                throws IOException, InterruptedException {
+            
+            out_key.set(PerformanceKey.TAG_USERSESSION, appkey, token, session);
+            context.write(out_key, out_val);
+            
+            out_key.set(PerformanceKey.TAG_TOKENFREQ, appkey, token, session);
+            context.write(out_key, out_val);
+            
+            out_key.set(PerformanceKey.TAG_HOURSESSION, appkey, session, localtime);
+            context.write(out_key, out_val);
+            
+            out_key.set(PerformanceKey.TAG_SESSTIME, appkey, session, utctime);
+            context.write(out_key, out_val);
+        }
+    }
+    
+    static class PerformanceCombiner
+        extends Reducer<PerformanceKey, LongWritable, PerformanceKey, LongWritable> {
+        
+        private PerformanceKey out_key = new PerformanceKey();
+        private LongWritable out_val = new LongWritable(0);
+        
+        @Override
+        protected void reduce(PerformanceKey key, Iterable<LongWritable> values,
+                Context context) throws IOException, InterruptedException {
+            
+            // values :
+            // - grouped by tag and group fields of tag
+            // - key follows the current value, so one record per distinct key
+            //   is written (reducers count distinct keys, pageview sums values)
+            
+            long sum = 0;
+            boolean first = true;
+            for (LongWritable cur_val : values) {
+                
+                if (first == false && out_key.equals(key) == false) {
+                    out_val.set(sum);
+                    context.write(out_key, out_val);
+                    sum = 0;
+                }
+                
+                out_key.set(key);
+                sum += cur_val.get();
+                first = false;
+            }
+            
+            out_val.set(sum);
+            context.write(out_key, out_val);
+        }
+    }
+    
+    static class PerformanceReducer
+        extends Reducer<PerformanceKey, LongWritable, Text, LongWritable> {
+        
+        private MultipleOutputs<Text, LongWritable> mos = null;
+        
+        private Text out_key = new Text();
+        private Text out_text = new Text();
+        private LongWritable out_val = new LongWritable(0);
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            mos = new MultipleOutputs<Text, LongWritable>(context);
+        }
+        
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            mos.close();
+        }
+        
+        @Override
+        protected void reduce(PerformanceKey key, Iterable<LongWritable> values,
+                Context context) throws IOException, InterruptedException {
+            
+            // values :
+            // - grouped by tag and group fields of tag
+            // - key follows the current value in appkey/field1/field2 order
+            
+            switch (key.tag) {
+                case PerformanceKey.TAG_USERSESSION:
+                    reduceUserSession(key, values);
+                    break;
+                case PerformanceKey.TAG_TOKENFREQ:
+                    reduceTokenfreq(key, values);
+                    break;
+                case PerformanceKey.TAG_HOURSESSION:
+                    reduceHourSession(key, values);
+                    break;
+                case PerformanceKey.TAG_SESSTIME:
+                    reduceSesstime(key, values);
+                    break;
+                case PerformanceKey.TAG_PAGEVIEW:
+                    reducePageview(key, values);
+                    break;
+            }
+        }
+        
+        private void reduceUserSession(PerformanceKey key, Iterable<LongWritable> values)
+                throws IOException, InterruptedException {
+            
+            long user_count = 0;
+            long session_count = 0;
+            String prev_token = "";
+            String prev_session = "";
+            for (@SuppressWarnings("unused") LongWritable cur_val : values) {
+                
+                if (prev_token.equals(key.field1) == false) {
+                    user_count += 1l;
+                }
+                if (prev_session.equals(key.field2) == false) {
+                    session_count += 1l;
+                }
+                
+                prev_token = key.field1;
+                prev_session = key.field2;
+            }
+            
+            out_key.set(key.appkey);
+            out_text.set(String.valueOf(user_count) + ConstantVars.RESULT_FIELD_SEPERATER
+                    + String.valueOf(session_count));
+            
+            mos.write(NAMED_USERSESSION, out_key, out_text, NAMED_USERSESSION + "/part");
+        }
+        
+        private void reduceTokenfreq(PerformanceKey key, Iterable<LongWritable> values)
+                throws IOException, InterruptedException {
+            
+            long session_count = 0;
+            String prev_session = "";
+            for (@SuppressWarnings("unused") LongWritable cur_val : values) {
+                
+                if (prev_session.equals(key.field2) == false) {
+                    session_count += 1l;
+                }
+                
+                prev_session = key.field2;
+            }
+            
+            out_key.set(key.appkey + ConstantVars.RESULT_FIELD_SEPERATER
+                    + key.field1);
+            out_val.set(session_count);
+            
+            mos.write(NAMED_TOKENFREQ, out_key, out_val, NAMED_TOKENFREQ + "/part");
+        }
+        
+        private void reduceHourSession(PerformanceKey key, Iterable<LongWritable> values)
+                throws IOException, InterruptedException {
+            
+            long[] session_counts = new long[24];
+            
+            String prev_session = "";
+            for (@SuppressWarnings("unused") LongWritable cur_val : values) {
+                
+                if (prev_session.equals(key.field1) == false) {
+                    int localtime_hour = LogTimeCodec.getHour(key.field2);
+                    if (localtime_hour >= 0 && localtime_hour < 24) {
+                        session_counts[localtime_hour] += 1l;
+                    }
+                }
+                
+                prev_session = key.field1;
+            }
+            
+            for (int hour=0; hour<24; hour++) {
+                if (session_counts[hour] == 0) {
+                    continue;
+                }
+                
+                out_key.set(key.appkey + ConstantVars.RESULT_FIELD_SEPERATER
+                        + ((hour<10) ? "0":"") + String.valueOf(hour));
+                out_val.set(session_counts[hour]);
+                
+                mos.write(NAMED_HOURSESSION, out_key, out_val, NAMED_HOURSESSION + "/part");
+            }
+        }
+        
+        private void reduceSesstime(PerformanceKey key, Iterable<LongWritable> values)
+                throws IOException, InterruptedException {
+            
+            String first_utctime = "";
+            String last_utctime = "";
+            for (@SuppressWarnings("unused") LongWritable cur_val : values) {
+                
+                if (first_utctime.isEmpty()) {
+                    first_utctime = key.field2;
+                }
+                last_utctime = key.field2;
+            }
+            
+            long session_length = 0;
+            if (first_utctime.isEmpty()==false
+                    && last_utctime.isEmpty()==false) {
+                session_length = LogTimeCodec.secondsBetween(first_utctime,
+                        last_utctime);
+            }
+            
+            if (session_length > 0) {
+                
+                out_key.set(key.appkey + ConstantVars.RESULT_FIELD_SEPERATER
+                        + key.field1);
+                out_val.set(session_length);
+                
+                mos.write(NAMED_SESSTIME, out_key, out_val, NAMED_SESSTIME + "/part");
+            }
+        }
+        
+        private void reducePageview(PerformanceKey key, Iterable<LongWritable> values)
+                throws IOException, InterruptedException {
+            
+            long sum = 0;
+            for (LongWritable cur_val : values) {
+                sum += cur_val.get();
+            }
+            
+            out_key.set(key.appkey);
+            out_val.set(sum);
+            
+            mos.write(NAMED_PAGEVIEW, out_key, out_val, NAMED_PAGEVIEW + "/part");
+        }
+    }
+    
+    private static class PerformancePartitioner
+        extends Partitioner<PerformanceKey, LongWritable> {
+        @Override
+        public int getPartition(PerformanceKey key, LongWritable value,
+                int numPartitions) {
+            
+            // partitioned by tag and group fields of tag
+            int h = FieldHash.SEED;
+            h = FieldHash.add(h, key.tag);
+            h = FieldHash.add(h, key.appkey);
+            if (PerformanceKey.getGroupFieldCount(key.tag) > 1)
+                h = FieldHash.add(h, key.field1);
+            
+            return PartitionUtil.toPartition(FieldHash.finish(h, 3), numPartitions);
+        }
+    }
+    
+    private static class PerformanceSortComparator
+        extends PerformanceKey.Comparator {
+        protected PerformanceSortComparator() {
+            super();
+        }
+        @SuppressWarnings("rawtypes")
+        @Override
+        public int compare(WritableComparable w1, WritableComparable w2) {
+            PerformanceKey k1 = (PerformanceKey) w1;
+            PerformanceKey k2 = (PerformanceKey) w2;
+            
+            // ordered by PerformanceKey compareTo
+            int ret = k1.compareTo(k2);
+            
+            return ret;
+        }
+    }
+    
+    private static class PerformanceGroupComparator
+        extends BaseRawComparator {
+        protected PerformanceGroupComparator() {
+            super(PerformanceKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by tag and group fields of tag
+            int tag1 = b1[s1];
+            int tag2 = b2[s2];
+            if (tag1 != tag2) return (tag1 < tag2) ? -1 : 1;
+            
+            return compareUTFFields(b1, s1 + 1, b2, s2 + 1,
+                    PerformanceKey.getGroupFieldCount(tag1));
+        }
+        @SuppressWarnings("rawtypes")
+        @Override
+        public int compare(WritableComparable w1, WritableComparable w2) {
+            PerformanceKey k1 = (PerformanceKey) w1;
+            PerformanceKey k2 = (PerformanceKey) w2;
+            
+            // grouped by tag and group fields of tag
+            int ret = (k1.tag < k2.tag) ? -1 : ((k1.tag == k2.tag) ? 0 : 1); if (ret != 0) return ret;
+            ret = k1.appkey.compareTo(k2.appkey); if (ret != 0) return ret;
+            if (PerformanceKey.getGroupFieldCount(k1.tag) > 1)
+                ret = k1.field1.compareTo(k2.field1);
+            
+            return ret;
+        }
+    }
+    
+    /**
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        
+        long start_time=0, end_time=0;
+        int exitCode = 0;
+        
+        start_time = System.currentTimeMillis();
+        
+        WorkLogger.log(PerformanceStatistic.class.getSimpleName()
+                + " : Start mapreduce job");
+        
+        try {
+            exitCode = ToolRunner.run(new PerformanceStatistic(), args);
+            
+            WorkLogger.log(PerformanceStatistic.class.getSimpleName()
+                    + " : End mapreduce job");
+        }
+        catch (Exception e) {
+            ErrorLogger.log(PerformanceStatistic.class.getSimpleName()
+                    + " : Error : " + e.getMessage());
+            WorkLogger.log(PerformanceStatistic.class.getSimpleName()
+                    + " : Failed mapreduce job");
+        }
+        
+        end_time = System.currentTimeMillis();
+        
+        try {
+            FingraphConfig config = new FingraphConfig();
+            if (config.getDebug().isDebug_show_spenttime())
+                WorkLogger.log("DEBUG - run times : "
+                        + FormatUtil.getDurationFromMillitimes(end_time - start_time));
+        }
+        catch (IOException ignore) {}
+        
+        System.exit(exitCode);
+    }
+}
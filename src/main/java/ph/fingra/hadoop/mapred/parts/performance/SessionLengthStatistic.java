@@ -26,9 +26,9 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -48,12 +48,21 @@ import ph.fingra.hadoop.common.domain.TargetDate;
 import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
-import ph.fingra.hadoop.common.util.DateTimeUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.common.util.LogTimeCodec;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.InMapperCounter;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RollupUtil;
+import ph.fingra.hadoop.mapred.common.SaltedAggregation;
+import ph.fingra.hadoop.mapred.common.TransformColumnarFile.Column;
+import ph.fingra.hadoop.mapred.common.TransformInputFormat;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
 import ph.fingra.hadoop.mapred.parse.SesstimeParser;
 import ph.fingra.hadoop.mapred.parts.performance.domain.SesstimeEntity;
 import ph.fingra.hadoop.mapred.parts.performance.domain.SesstimeKey;
@@ -101,10 +110,30 @@ public class SessionLengthStatistic extends Configured implements Tool {
                 + " , [target date] " + targetDate.getFulldate()
                 + " , [reducer count] " + opt_numreduce);
         
+        // week/month roll-up : merge daily partials instead of transform log
+        Path[] rollupPaths = null;
+        if (RollupUtil.isRollup(conf, opt_mode)) {
+            rollupPaths = RollupUtil.getDailyPartialPaths(fingraphConfig,
+                    RollupUtil.SESSIONLENGTH, opt_mode, targetDate, conf);
+            if (rollupPaths == null) {
+                WorkLogger.log(SessionLengthStatistic.class.getSimpleName()
+                        + " : daily partials not complete, read transform log");
+            }
+        }
+        
         // get this job's input path - transform log file
-        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
-                targetDate.getHour(), targetDate.getWeek());
+        if (rollupPaths == null) {
+            if (fingraphConfig.getSetting().isTransform_columnar()) {
+                inputPaths = HdfsFileUtil.getColumnarTransformInputPaths(fingraphConfig, opt_mode,
+                        targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                        targetDate.getHour(), targetDate.getWeek());
+            }
+            else {
+                inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                        targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                        targetDate.getHour(), targetDate.getWeek());
+            }
+        }
         
         // get this job's output path
         HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
@@ -119,16 +148,37 @@ public class SessionLengthStatistic extends Configured implements Tool {
         for (Path deletePath : deletePaths) {
             fs.delete(deletePath, true);
         }
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.SESSIONLENGTH, opt_mode,
+                targetDate, conf);
         
-        Job jobIntermediate = createJobIntermediate(conf, inputPaths, outputPath_intermediate,
-                opt_numreduce, fingraphConfig);
-        
-        int status = jobIntermediate.waitForCompletion(true) ? 0 : 1;
-        
-        Job jobFinal = createJobFinal(conf, outputPath_intermediate, outputPath_final,
-                opt_numreduce, fingraphConfig);
+        int status = 0;
+        if (rollupPaths != null) {
+            
+            // session length histograms of days summed per appkey/length
+            Job jobRollup = SaltedAggregation.createMergeJob(conf, rollupPaths,
+                    outputPath_final, 1, opt_numreduce, fingraphConfig,
+                    "perform/sessionlength rollup job", SessionLengthStatistic.class);
+            
+            status = jobRollup.waitForCompletion(true) ? 0 : 1;
+        }
+        else {
+            
+            Job jobIntermediate = createJobIntermediate(conf, inputPaths, outputPath_intermediate,
+                    opt_numreduce, fingraphConfig);
+            
+            status = jobIntermediate.waitForCompletion(true) ? 0 : 1;
+            
+            Job jobFinal = createJobFinal(conf, outputPath_intermediate, outputPath_final,
+                    opt_numreduce, fingraphConfig);
+            
+            status = jobFinal.waitForCompletion(true) ? 0 : 1;
+        }
         
-        status = jobFinal.waitForCompletion(true) ? 0 : 1;
+        // keep daily partial for week/month roll-up
+        if (status == 0 && opt_mode.equals(ConstantVars.RUNMODE_DAY)) {
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.SESSIONLENGTH, outputPath_final,
+                    ConstantVars.RESULT_FILE_PREFIX, true, targetDate, conf);
+        }
         
         
         /*
@@ -169,6 +219,7 @@ public class SessionLengthStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "perform/sesstime job";
@@ -180,8 +231,17 @@ public class SessionLengthStatistic extends Configured implements Tool {
             FileInputFormat.addInputPath(job, inputpaths[i]);
         }
         FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_intermediate_codec());
         
-        job.setMapperClass(SesstimeMapper.class);
+        if (finconfig.getSetting().isTransform_columnar()) {
+            // typed rows of appkey/session/utctime/cmd columns only
+            TransformInputFormat.setInputFormat(job, Column.APPKEY, Column.SESSION,
+                    Column.UTCTIME, Column.CMD);
+            job.setMapperClass(SesstimeRecordMapper.class);
+        }
+        else {
+            job.setMapperClass(SesstimeMapper.class);
+        }
         job.setReducerClass(SesstimeReducer.class);
         
         job.setMapOutputKeyClass(SesstimeKey.class);
@@ -204,6 +264,7 @@ public class SessionLengthStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "perform/sessionlength job";
@@ -254,7 +315,7 @@ public class SessionLengthStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -307,6 +368,24 @@ public class SessionLengthStatistic extends Configured implements Tool {
         }
     }
     
+    static class SesstimeRecordMapper
+        extends Mapper<NullWritable, TransformRecord, SesstimeKey, SesstimeEntity> {
+        
+        private SesstimeKey out_key = new SesstimeKey();
+        private SesstimeEntity out_val = new SesstimeEntity();
+        
+        @Override
+        protected void map(NullWritable key, TransformRecord value, Context context)
+                throws IOException, InterruptedException {
+            
+            // rows are already validated by TransformInputFormat
+            out_key.set(value.appkey, value.session, value.utctime);
+            out_val.set(value.session, value.utctime, value.cmd);
+            
+            context.write(out_key, out_val);
+        }
+    }
+    
     static class SesstimeReducer
     extends Reducer<SesstimeKey, SesstimeEntity, Text, LongWritable> {
         
@@ -339,11 +418,8 @@ public class SessionLengthStatistic extends Configured implements Tool {
             long session_length = 0;
             if (first_utctime.isEmpty()==false
                     && last_utctime.isEmpty()==false) {
-                try {
-                    session_length = DateTimeUtil.secondsBetween(first_utctime,
-                            last_utctime, ConstantVars.LOG_DATE_FORMAT);
-                }
-                catch (IOException ignore) {}
+                session_length = LogTimeCodec.secondsBetween(first_utctime,
+                        last_utctime);
             }
             
             if (session_length > 0) {
@@ -362,14 +438,14 @@ public class SessionLengthStatistic extends Configured implements Tool {
         @Override
         public int getPartition(SesstimeKey key, SesstimeEntity value,
                 int numPartitions) {
-            return Math.abs((key.appkey+key.session).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, key.session, numPartitions);
         }
     }
     
     private static class SesstimeSortComparator
-        extends WritableComparator {
+        extends SesstimeKey.Comparator {
         protected SesstimeSortComparator() {
-            super(SesstimeKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -385,9 +461,14 @@ public class SessionLengthStatistic extends Configured implements Tool {
     }
     
     private static class SesstimeGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected SesstimeGroupComparator() {
-            super(SesstimeKey.class, true);
+            super(SesstimeKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey/session
+            return compareUTFFields(b1, s1, b2, s2, 2);
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -411,13 +492,13 @@ public class SessionLengthStatistic extends Configured implements Tool {
         
         SesstimeParser resultparser = new SesstimeParser();
         
-        private Text out_key = new Text();
-        private LongWritable out_val = new LongWritable(1);
+        private InMapperCounter counts = null;
         
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            counts = InMapperCounter.create(context.getConfiguration());
         }
         
         @Override
@@ -427,10 +508,8 @@ public class SessionLengthStatistic extends Configured implements Tool {
             resultparser.parse(value);
             if (resultparser.hasError() == false) {
                 
-                out_key.set(resultparser.getAppkey() + ConstantVars.RESULT_FIELD_SEPERATER
-                        + resultparser.getSessionlength());
-                
-                context.write(out_key, out_val);
+                counts.add(resultparser.getAppkey() + ConstantVars.RESULT_FIELD_SEPERATER
+                        + resultparser.getSessionlength(), 1, context);
             }
             else {
                 if (verbose)
@@ -440,6 +519,12 @@ public class SessionLengthStatistic extends Configured implements Tool {
             if (counter)
                 context.getCounter(resultparser.getErrorLevel()).increment(1);
         }
+        
+        @Override
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            counts.flush(context);
+        }
     }
     
     static class SecondsessReducer
@@ -469,7 +554,7 @@ public class SessionLengthStatistic extends Configured implements Tool {
         @Override
         public int getPartition(Text key, LongWritable value,
                 int numPartitions) {
-            return Math.abs(key.hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key, numPartitions);
         }
     }
     
@@ -19,7 +19,9 @@ package ph.fingra.hadoop.mapred.parts.performance;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
@@ -27,7 +29,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -48,8 +49,15 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
+import ph.fingra.hadoop.mapred.common.DistinctSketch;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.RecentKeyFilter;
+import ph.fingra.hadoop.mapred.common.RollupUtil;
+import ph.fingra.hadoop.mapred.common.SaltedAggregation;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
 import ph.fingra.hadoop.mapred.parts.performance.domain.UserSessionEntity;
@@ -63,6 +71,7 @@ public class UserSessionStatistic extends Configured implements Tool {
         String opt_mode = "";
         String opt_target = "";
         int opt_numreduce = 0;
+        boolean opt_salted = false;
         
         FingraphConfig fingraphConfig = new FingraphConfig();
         TargetDate targetDate = null;
@@ -75,6 +84,7 @@ public class UserSessionStatistic extends Configured implements Tool {
         opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
         opt_target = conf.get(ConstantVars.DOPTION_TARGETDATE, "");
         opt_numreduce = conf.getInt(ConstantVars.DOPTION_NUMREDUCE, 0);
+        opt_salted = conf.getBoolean(ConstantVars.DOPTION_SALTED, false);
         
         // runmode & targetdate check
         if (ArgsOptionUtil.checkRunmode(opt_mode)==false) {
@@ -97,27 +107,100 @@ public class UserSessionStatistic extends Configured implements Tool {
                 + " , [target date] " + targetDate.getFulldate()
                 + " , [reducer count] " + opt_numreduce);
         
+        // week/month roll-up : merge daily partials instead of transform log
+        Path[] rollupPaths = null;
+        if (RollupUtil.isSketchRollup(conf, opt_mode)) {
+            rollupPaths = RollupUtil.getDailyPartialPaths(fingraphConfig,
+                    RollupUtil.USERSESSION, opt_mode, targetDate, conf);
+            if (rollupPaths == null) {
+                WorkLogger.log(UserSessionStatistic.class.getSimpleName()
+                        + " : daily partials not complete, read transform log");
+            }
+        }
+        else if (RollupUtil.isRollup(conf, opt_mode)) {
+            // sketches are approximate, never merged into exact counts
+            WorkLogger.warn(UserSessionStatistic.class.getSimpleName()
+                    + " : roll-up of distinct counts needs -Dapproximate=true, read transform log");
+        }
+        
         // get this job's input path - transform log file
-        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
-                targetDate.getHour(), targetDate.getWeek());
+        if (rollupPaths == null) {
+            inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                    targetDate.getHour(), targetDate.getWeek());
+        }
         
         // get this job's output path
         HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
         outputPath = new Path(hfsPath.getUsersession());
+        Path partialPath = new Path(outputPath.toString() + SaltedAggregation.PARTIAL_SUFFIX);
         
         // delete previous output path if is exist
         FileSystem fs = FileSystem.get(conf);
         List<Path> deletePaths = new ArrayList<Path>();
         deletePaths.add(outputPath);
+        deletePaths.add(partialPath);
         for (Path deletePath : deletePaths) {
             fs.delete(deletePath, true);
         }
+        RollupUtil.deleteDailyPartial(fingraphConfig, RollupUtil.USERSESSION, opt_mode,
+                targetDate, conf);
+        
+        // hot apps of salted mode from logcount output of day run
+        // (sketches of approximate mode have no hot spot, not salted)
+        Map<String, Integer> hotapps = null;
+        if (opt_salted && rollupPaths == null
+                && conf.getBoolean(ConstantVars.DOPTION_APPROXIMATE, false) == false) {
+            HfsPathInfo dayPath = new HfsPathInfo(fingraphConfig, ConstantVars.RUNMODE_DAY);
+            hotapps = SaltedAggregation.findHotApps(fs, new Path(dayPath.getLogcount()),
+                    opt_numreduce, conf);
+            WorkLogger.log(UserSessionStatistic.class.getSimpleName()
+                    + " : [salted apps] " + hotapps);
+        }
         
-        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig);
+        int status = 0;
+        if (rollupPaths != null) {
+            
+            Job job = DistinctSketch.createRollupJob(conf, rollupPaths, outputPath,
+                    opt_numreduce, fingraphConfig, "perform/usersession rollup job",
+                    UserSessionStatistic.class);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+        }
+        else if (hotapps == null || hotapps.isEmpty()) {
+            
+            Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
+                    fingraphConfig);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+        }
+        else {
+            
+            // partial counts by appkey/salt, then sum of partials by appkey
+            SaltedAggregation.setHotApps(conf, hotapps);
+            
+            Job job = createJob(conf, inputPaths, partialPath, opt_numreduce,
+                    fingraphConfig);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+            
+            if (status == 0) {
+                Job mergeJob = SaltedAggregation.createMergeJob(conf, partialPath,
+                        outputPath, 2, opt_numreduce, fingraphConfig,
+                        "perform/usersession merge job", UserSessionStatistic.class);
+                
+                status = mergeJob.waitForCompletion(true) ? 0 : 1;
+            }
+            
+            fs.delete(partialPath, true);
+        }
         
-        int status = job.waitForCompletion(true) ? 0 : 1;
+        // keep daily partial for week/month roll-up
+        if (status == 0 && opt_mode.equals(ConstantVars.RUNMODE_DAY)
+                && conf.getBoolean(ConstantVars.DOPTION_APPROXIMATE, false)) {
+            RollupUtil.saveDailyPartial(fingraphConfig, RollupUtil.USERSESSION, outputPath,
+                    DistinctSketch.NAMED_OUTPUT, false, targetDate, conf);
+        }
         
         // copy to local result paths
         LfsPathInfo lfsPath = new LfsPathInfo(fingraphConfig, targetDate);
@@ -132,6 +215,7 @@ public class UserSessionStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "perform/usersession job";
@@ -144,18 +228,31 @@ public class UserSessionStatistic extends Configured implements Tool {
         }
         FileOutputFormat.setOutputPath(job, outputpath);
         
-        job.setMapperClass(UserSessionMapper.class);
-        job.setReducerClass(UserSessionReducer.class);
-        
-        job.setMapOutputKeyClass(UserSessionKey.class);
-        job.setMapOutputValueClass(UserSessionEntity.class);
-        
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
-        
-        job.setPartitionerClass(UserSessionPartitioner.class);
-        job.setSortComparatorClass(UserSessionSortComparator.class);
-        job.setGroupingComparatorClass(UserSessionGroupComparator.class);
+        if (conf.getBoolean(ConstantVars.DOPTION_APPROXIMATE, false)) {
+            // hyperloglog sketches per appkey instead of sorted logs
+            job.setMapperClass(UserSessionSketchMapper.class);
+            DistinctSketch.setupJob(job);
+        }
+        else {
+            job.setMapperClass(UserSessionMapper.class);
+            job.setReducerClass(UserSessionReducer.class);
+            
+            job.setMapOutputKeyClass(UserSessionKey.class);
+            job.setMapOutputValueClass(UserSessionEntity.class);
+            
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(Text.class);
+            
+            if (SaltedAggregation.isSalted(conf)) {
+                // logs of hot apps spread over reducers by token
+                job.setPartitionerClass(UserSessionSaltedPartitioner.class);
+            }
+            else {
+                job.setPartitionerClass(UserSessionPartitioner.class);
+            }
+            job.setSortComparatorClass(UserSessionSortComparator.class);
+            job.setGroupingComparatorClass(UserSessionGroupComparator.class);
+        }
         
         job.setNumReduceTasks(numreduce);
         
@@ -174,10 +271,13 @@ public class UserSessionStatistic extends Configured implements Tool {
         private UserSessionKey out_key = new UserSessionKey();
         private UserSessionEntity out_val = new UserSessionEntity();
         
+        private RecentKeyFilter recent = null;
+        
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            recent = RecentKeyFilter.create(context.getConfiguration());
         }
         
         @Override
@@ -185,7 +285,7 @@ public class UserSessionStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -198,7 +298,10 @@ public class UserSessionStatistic extends Configured implements Tool {
                     out_val.set(commonparser.getToken(), commonparser.getSession(),
                             commonparser.getCmd());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.token,
+                            out_key.session) == false) {
+                        context.write(out_key, out_val);
+                    }
                 }
                 else {
                     if (verbose)
@@ -219,7 +322,78 @@ public class UserSessionStatistic extends Configured implements Tool {
                     out_val.set(compoparser.getToken(), compoparser.getSession(),
                             compoparser.getCmd());
                     
-                    context.write(out_key, out_val);
+                    if (recent.isRecent(out_key.appkey, out_key.token,
+                            out_key.session) == false) {
+                        context.write(out_key, out_val);
+                    }
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(compoparser.getErrorLevel()).increment(1);
+            }
+            else {
+                if (verbose)
+                    System.err.println("Ignoring corrupt input: " + value);
+                if (counter)
+                    context.getCounter(LogValidation.MALFORMED).increment(1);
+            }
+        }
+    }
+    
+    static class UserSessionSketchMapper
+        extends Mapper<LongWritable, Text, Text, DistinctSketch> {
+        
+        private boolean verbose = false;
+        private boolean counter = false;
+        
+        private CommonLogParser commonparser = new CommonLogParser();
+        private ComponentLogParser compoparser = new ComponentLogParser();
+        
+        private DistinctSketch.Collector sketches = null;
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            verbose = context.getConfiguration().getBoolean("verbose", false);
+            counter = context.getConfiguration().getBoolean("counter", false);
+            sketches = new DistinctSketch.Collector(context.getConfiguration());
+        }
+        
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            
+            // logtype check
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
+            
+            if (logtype.equals(LogParserType.CommonLog)) {
+                
+                // CommonLog : STARTSESS/PAGEVIEW/ENDSESS
+                commonparser.parse(value);
+                if (commonparser.hasError() == false) {
+                    
+                    sketches.add(commonparser.getAppkey(),
+                            commonparser.getToken(), commonparser.getSession(), context);
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(commonparser.getErrorLevel()).increment(1);
+            }
+            else if (logtype.equals(LogParserType.ComponentLog)) {
+                
+                // ComponentLog : COMPONENT
+                compoparser.parse(value);
+                if (compoparser.hasError() == false) {
+                    
+                    sketches.add(compoparser.getAppkey(),
+                            compoparser.getToken(), compoparser.getSession(), context);
                 }
                 else {
                     if (verbose)
@@ -236,6 +410,12 @@ public class UserSessionStatistic extends Configured implements Tool {
                     context.getCounter(LogValidation.MALFORMED).increment(1);
             }
         }
+        
+        @Override
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            sketches.flush(context);
+        }
     }
     
     static class UserSessionReducer
@@ -282,14 +462,38 @@ public class UserSessionStatistic extends Configured implements Tool {
         @Override
         public int getPartition(UserSessionKey key, UserSessionEntity value,
                 int numPartitions) {
-            return Math.abs((key.appkey).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, numPartitions);
+        }
+    }
+    
+    private static class UserSessionSaltedPartitioner
+        extends Partitioner<UserSessionKey, UserSessionEntity> implements Configurable {
+        
+        private Configuration conf = null;
+        private Map<String, Integer> hotapps = null;
+        
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            this.hotapps = SaltedAggregation.getHotApps(conf);
+        }
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+        @Override
+        public int getPartition(UserSessionKey key, UserSessionEntity value,
+                int numPartitions) {
+            // all sessions of a token in the same salt : user counts are exact
+            return SaltedAggregation.getPartition(key.appkey, key.token, hotapps,
+                    numPartitions);
         }
     }
     
     private static class UserSessionSortComparator
-        extends WritableComparator {
+        extends UserSessionKey.Comparator {
         protected UserSessionSortComparator() {
-            super(UserSessionKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -305,9 +509,14 @@ public class UserSessionStatistic extends Configured implements Tool {
     }
     
     private static class UserSessionGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected UserSessionGroupComparator() {
-            super(UserSessionKey.class, true);
+            super(UserSessionKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey
+            return compareUTFFields(b1, s1, b2, s2, 1);
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -21,6 +21,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import ph.fingra.hadoop.mapred.common.BaseWritable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
 
 public class HourSessionEntity extends BaseWritable<HourSessionEntity> {
     
@@ -39,16 +40,16 @@ public class HourSessionEntity extends BaseWritable<HourSessionEntity> {
     public void readFields(DataInput in) throws IOException {
         
         this.session = in.readUTF();
-        this.localtime = in.readUTF();
-        this.cmd = in.readUTF();
+        this.localtime = CompactWritableUtil.readLogTime(in);
+        this.cmd = CompactWritableUtil.readCmd(in);
     }
     
     @Override
     public void write(DataOutput out) throws IOException {
         
         out.writeUTF(this.session);
-        out.writeUTF(this.localtime);
-        out.writeUTF(this.cmd);
+        CompactWritableUtil.writeLogTime(out, this.localtime);
+        CompactWritableUtil.writeCmd(out, this.cmd);
     }
     
     /**
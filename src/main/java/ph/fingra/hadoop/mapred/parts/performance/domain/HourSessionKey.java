@@ -20,9 +20,12 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.hadoop.io.WritableComparator;
 
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
 import ph.fingra.hadoop.mapred.common.BaseWritableComparable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
+import ph.fingra.hadoop.mapred.common.FieldHash;
 
 public class HourSessionKey extends BaseWritableComparable<HourSessionKey> {
     
@@ -42,7 +45,7 @@ public class HourSessionKey extends BaseWritableComparable<HourSessionKey> {
         
         this.appkey = in.readUTF();
         this.session = in.readUTF();
-        this.localtime = in.readUTF();
+        this.localtime = CompactWritableUtil.readLogTime(in);
     }
     
     @Override
@@ -50,7 +53,7 @@ public class HourSessionKey extends BaseWritableComparable<HourSessionKey> {
         
         out.writeUTF(this.appkey);
         out.writeUTF(this.session);
-        out.writeUTF(this.localtime);
+        CompactWritableUtil.writeLogTime(out, this.localtime);
     }
     
     @Override
@@ -68,6 +71,66 @@ public class HourSessionKey extends BaseWritableComparable<HourSessionKey> {
     @Override
     public int hashCode() {
         
-        return HashCodeBuilder.reflectionHashCode(this);
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, this.appkey);
+        h = FieldHash.add(h, this.session);
+        h = FieldHash.add(h, this.localtime);
+        
+        return FieldHash.finish(h, 3);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        
+        if (this == obj) return true;
+        if (!(obj instanceof HourSessionKey)) return false;
+        
+        HourSessionKey o = (HourSessionKey) obj;
+        return this.appkey.equals(o.appkey)
+                && this.session.equals(o.session)
+                && this.localtime.equals(o.localtime);
+    }
+    
+    @Override
+    public String toString() {
+        
+        StringBuilder buf = new StringBuilder();
+        buf.append(this.appkey)
+                .append(',').append(this.session)
+                .append(',').append(this.localtime);
+        
+        return buf.toString();
+    }
+    
+    /**
+     * raw comparator in compareTo order, registered as default comparator
+     */
+    public static class Comparator extends BaseRawComparator {
+        
+        public Comparator() {
+            super(HourSessionKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int ret = 0;
+            
+            // appkey/session
+            ret = compareUTFFields(b1, s1, b2, s2, 2);
+            if (ret != 0) return ret;
+            for (int i = 0; i < 2; i++) {
+                s1 = skipUTF(b1, s1);
+                s2 = skipUTF(b2, s2);
+            }
+            
+            // localtime
+            ret = CompactWritableUtil.compareLogTime(b1, s1, b2, s2);
+            
+            return ret;
+        }
+    }
+    
+    static {
+        WritableComparator.define(HourSessionKey.class, new Comparator());
     }
 }
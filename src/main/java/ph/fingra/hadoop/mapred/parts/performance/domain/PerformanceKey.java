@@ -0,0 +1,197 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parts.performance.domain;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparator;
+
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.BaseWritableComparable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
+import ph.fingra.hadoop.mapred.common.FieldHash;
+
+/**
+ * Tagged map output key of the fused performance job.
+ * 
+ * tag           field1    field2      grouped by
+ * USERSESSION   token     session     appkey
+ * TOKENFREQ     token     session     appkey/token
+ * HOURSESSION   session   localtime   appkey
+ * SESSTIME      session   utctime     appkey/session
+ * PAGEVIEW      ""        ""          appkey
+ * 
+ * Keys are ordered by tag first, so every statistic is a separate range
+ * of the sorted reducer input.
+ */
+public class PerformanceKey extends BaseWritableComparable<PerformanceKey> {
+    
+    public static final int TAG_USERSESSION = 0;
+    public static final int TAG_TOKENFREQ = 1;
+    public static final int TAG_HOURSESSION = 2;
+    public static final int TAG_SESSTIME = 3;
+    public static final int TAG_PAGEVIEW = 4;
+    
+    public int tag = TAG_USERSESSION;
+    public String appkey = "";
+    public String field1 = "";
+    public String field2 = "";
+    
+    public void set(int tag, String appkey, String field1, String field2) {
+        
+        this.tag = tag;
+        this.appkey = appkey;
+        this.field1 = field1;
+        this.field2 = field2;
+    }
+    
+    public void set(PerformanceKey src) {
+        set(src.tag, src.appkey, src.field1, src.field2);
+    }
+    
+    /**
+     * count of leading fields (appkey, field1) a reduce group shares
+     */
+    public static int getGroupFieldCount(int tag) {
+        return (tag == TAG_TOKENFREQ || tag == TAG_SESSTIME) ? 2 : 1;
+    }
+    
+    /**
+     * whether field2 is a log time (yyyyMMddHHmmss)
+     */
+    public static boolean hasLogTime(int tag) {
+        return (tag == TAG_HOURSESSION || tag == TAG_SESSTIME);
+    }
+    
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        
+        this.tag = in.readByte();
+        this.appkey = in.readUTF();
+        this.field1 = in.readUTF();
+        if (hasLogTime(this.tag))
+            this.field2 = CompactWritableUtil.readLogTime(in);
+        else
+            this.field2 = in.readUTF();
+    }
+    
+    @Override
+    public void write(DataOutput out) throws IOException {
+        
+        out.writeByte(this.tag);
+        out.writeUTF(this.appkey);
+        out.writeUTF(this.field1);
+        if (hasLogTime(this.tag))
+            CompactWritableUtil.writeLogTime(out, this.field2);
+        else
+            out.writeUTF(this.field2);
+    }
+    
+    @Override
+    public int compareTo(PerformanceKey o) {
+        
+        int ret = 0;
+        
+        ret = (this.tag < o.tag) ? -1 : ((this.tag == o.tag) ? 0 : 1); if (ret != 0) return ret;
+        ret = this.appkey.compareTo(o.appkey); if (ret != 0) return ret;
+        ret = this.field1.compareTo(o.field1); if (ret != 0) return ret;
+        ret = this.field2.compareTo(o.field2);
+        
+        return ret;
+    }
+    
+    @Override
+    public int hashCode() {
+        
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, this.tag);
+        h = FieldHash.add(h, this.appkey);
+        h = FieldHash.add(h, this.field1);
+        h = FieldHash.add(h, this.field2);
+        
+        return FieldHash.finish(h, 4);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        
+        if (this == obj) return true;
+        if (!(obj instanceof PerformanceKey)) return false;
+        
+        PerformanceKey o = (PerformanceKey) obj;
+        return this.tag == o.tag
+                && this.appkey.equals(o.appkey)
+                && this.field1.equals(o.field1)
+                && this.field2.equals(o.field2);
+    }
+    
+    @Override
+    public String toString() {
+        
+        StringBuilder buf = new StringBuilder();
+        buf.append(this.tag)
+                .append(',').append(this.appkey)
+                .append(',').append(this.field1)
+                .append(',').append(this.field2);
+        
+        return buf.toString();
+    }
+    
+    /**
+     * raw comparator in compareTo order, registered as default comparator
+     */
+    public static class Comparator extends BaseRawComparator {
+        
+        public Comparator() {
+            super(PerformanceKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int ret = 0;
+            
+            // tag
+            int tag1 = b1[s1];
+            int tag2 = b2[s2];
+            if (tag1 != tag2) return (tag1 < tag2) ? -1 : 1;
+            s1++;
+            s2++;
+            
+            // appkey/field1
+            ret = compareUTFFields(b1, s1, b2, s2, 2);
+            if (ret != 0) return ret;
+            for (int i = 0; i < 2; i++) {
+                s1 = skipUTF(b1, s1);
+                s2 = skipUTF(b2, s2);
+            }
+            
+            // field2
+            if (hasLogTime(tag1))
+                ret = CompactWritableUtil.compareLogTime(b1, s1, b2, s2);
+            else
+                ret = compareUTF(b1, s1, b2, s2);
+            
+            return ret;
+        }
+    }
+    
+    static {
+        WritableComparator.define(PerformanceKey.class, new Comparator());
+    }
+}
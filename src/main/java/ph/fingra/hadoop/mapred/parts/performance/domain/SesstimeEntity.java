@@ -21,6 +21,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import ph.fingra.hadoop.mapred.common.BaseWritable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
 
 public class SesstimeEntity extends BaseWritable<SesstimeEntity> {
     
@@ -39,16 +40,16 @@ public class SesstimeEntity extends BaseWritable<SesstimeEntity> {
     public void readFields(DataInput in) throws IOException {
         
         this.session = in.readUTF();
-        this.utctime = in.readUTF();
-        this.cmd = in.readUTF();
+        this.utctime = CompactWritableUtil.readLogTime(in);
+        this.cmd = CompactWritableUtil.readCmd(in);
     }
     
     @Override
     public void write(DataOutput out) throws IOException {
         
         out.writeUTF(this.session);
-        out.writeUTF(this.utctime);
-        out.writeUTF(this.cmd);
+        CompactWritableUtil.writeLogTime(out, this.utctime);
+        CompactWritableUtil.writeCmd(out, this.cmd);
     }
     
     /**
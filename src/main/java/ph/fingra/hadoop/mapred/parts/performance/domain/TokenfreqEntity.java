@@ -21,6 +21,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import ph.fingra.hadoop.mapred.common.BaseWritable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
 
 public class TokenfreqEntity extends BaseWritable<TokenfreqEntity> {
     
@@ -40,7 +41,7 @@ public class TokenfreqEntity extends BaseWritable<TokenfreqEntity> {
         
         this.token = in.readUTF();
         this.session = in.readUTF();
-        this.cmd = in.readUTF();
+        this.cmd = CompactWritableUtil.readCmd(in);
     }
     
     @Override
@@ -48,7 +49,7 @@ public class TokenfreqEntity extends BaseWritable<TokenfreqEntity> {
         
         out.writeUTF(this.token);
         out.writeUTF(this.session);
-        out.writeUTF(this.cmd);
+        CompactWritableUtil.writeCmd(out, this.cmd);
     }
     
     /**
@@ -17,14 +17,16 @@
 package ph.fingra.hadoop.mapred.parts.prerole;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.conf.Configured;
-import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -33,8 +35,11 @@ import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.bloom.BloomFilter;
 
 import ph.fingra.hadoop.common.ConstantVars;
 import ph.fingra.hadoop.common.FingraphConfig;
@@ -45,120 +50,130 @@ import ph.fingra.hadoop.common.ConstantVars.LogValidation;
 import ph.fingra.hadoop.common.domain.TargetDate;
 import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
-import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.DateTimeUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
-import ph.fingra.hadoop.mapred.common.CopyWithinHdfsFile;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.NewuserDbUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.WholeTextInputFormat;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentNewuserDbParser;
 import ph.fingra.hadoop.mapred.parse.domain.ComponentNewuserDb;
 import ph.fingra.hadoop.mapred.parts.prerole.domain.ComponentNewuserKey;
 
-public class ComponentNewuserMerge extends Configured implements Tool {
+public class ComponentNewuserMerge extends NewuserMergeDriver {
+    
+    public ComponentNewuserMerge() {
+        super("component", 3);
+    }
     
     @Override
-    public int run(String[] args) throws Exception {
-        
-        String opt_mode = "";
-        String opt_target = "";
-        int opt_numreduce = 0;
-        
-        FingraphConfig fingraphConfig = new FingraphConfig();
-        TargetDate targetDate = null;
-        TargetDate cutDate = null;
-        
-        Configuration conf = getConf();
-        Path[] inputPaths = null;
-        Path outputPath = null;
-        Path dbPath = null;
-        String dbfilename = null;
-        
-        // get -D optional value
-        opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
-        opt_target = conf.get(ConstantVars.DOPTION_TARGETDATE, "");
-        opt_numreduce = conf.getInt(ConstantVars.DOPTION_NUMREDUCE, 0);
-        
-        // runmode & targetdate check
-        if (ArgsOptionUtil.checkRunmode(opt_mode)==false) {
-            throw new Exception("option value of -Drunmode is not correct");
-        }
-        if (opt_target.isEmpty()==false) {
-            if (ArgsOptionUtil.checkTargetDateByMode(opt_mode, opt_target)==false) {
-                throw new Exception("option value of -Dtargetdate is not correct");
-            }
-        }
-        else {
-            opt_target = ArgsOptionUtil.getDefaultTargetDateByMode(opt_mode);
-        }
+    protected String getDbDir(HfsPathInfo hfspath) {
+        return hfspath.getComponent_newuser_db();
+    }
+    
+    @Override
+    protected String getMergePath(HfsPathInfo hfspath) {
+        return hfspath.getComponentnewusermerge();
+    }
+    
+    @Override
+    protected String getCountDir(HfsPathInfo hfspath) {
+        return null;
+    }
+    
+    @Override
+    protected String getDbFileName() {
+        return ConstantVars.COMPONENT_NEWUSER_DB_FNAME;
+    }
+    
+    @Override
+    protected int getKeepMonth(FingraphConfig finconfig) {
+        return finconfig.getSetting().getHfs_database_componentnewuser_keep_month();
+    }
+    
+    @Override
+    protected int getBackupCount(FingraphConfig finconfig) {
+        return finconfig.getSetting().getHfs_database_componentnewuser_backup_count();
+    }
+    
+    @Override
+    public Job createJob(Configuration conf, Path[] inputpaths, Path outputpath,
+            int numreduce, FingraphConfig finconfig, Path[] dbpaths, String dbpath,
+            TargetDate cutdate, String dbmode, List<String> logdays, String countday,
+            Path filterpath)
+            throws IOException {
         
-        // get TargetDate info from opt_target
-        targetDate = ArgsOptionUtil.getTargetDate(opt_mode, opt_target);
+        // new users of component are not counted, countday is always empty
+        conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
+        conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        conf.set("dbpath", dbpath);
+        conf.set("dbmode", dbmode);
+        conf.setStrings("logdays", logdays.toArray(new String[logdays.size()]));
+        conf.set("cutyear", cutdate.getYear());
+        conf.set("cutmonth", cutdate.getMonth());
+        conf.set("cutday", cutdate.getDay());
+        conf.setBoolean("candidate", false);
+        conf.set("candidatepath", (filterpath != null) ? filterpath.getParent().toString() : "");
+        conf.set("filterpath", (filterpath != null) ? filterpath.toString() : "");
         
-        // get the most out of date stored in component_newuser_db
-        int period = 0 - fingraphConfig.getSetting().getHfs_database_componentnewuser_keep_month();
-        String cutdate = DateTimeUtil.addMonths(
-                targetDate.getYear()+"-"+targetDate.getMonth()+"-"+targetDate.getDay(),
-                period, "yyyy-MM-dd");
-        cutDate = ArgsOptionUtil.getTargetDate(ConstantVars.RUNMODE_DAY, cutdate);
+        Job job = new Job(conf);
+        String jobName = "merge/componentnewusermerge job";
+        job.setJobName(jobName);
         
-        WorkLogger.log(ComponentNewuserMerge.class.getSimpleName()
-                + " : [run mode] " + opt_mode
-                + " , [target date] " + targetDate.getFulldate()
-                + " , [reducer count] " + opt_numreduce);
-        
-        // get this job's input path - transform log file
-        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
-                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
-                targetDate.getHour(), targetDate.getWeek());
-        
-        // get this job's output path
-        HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
-        outputPath = new Path(hfsPath.getComponentnewusermerge());
-        if (HdfsFileUtil.isExistFile(hfsPath.getComponent_newuser_db()) == true) {
-            dbPath = new Path(hfsPath.getComponent_newuser_db());
+        if (filterpath != null) {
+            DistributedCache.addCacheFile(filterpath.toUri(), job.getConfiguration());
+        }
+        
+        job.setJarByClass(ComponentNewuserMerge.class);
+        
+        for (int i=0; i<inputpaths.length; i++) {
+            FileInputFormat.addInputPath(job, inputpaths[i]);
         }
-        dbfilename = hfsPath.getComponent_newuser_db();
-        
-        // delete previous output path if is exist
-        FileSystem fs = FileSystem.get(conf);
-        List<Path> deletePaths = new ArrayList<Path>();
-        deletePaths.add(outputPath);
-        for (Path deletePath : deletePaths) {
-            fs.delete(deletePath, true);
+        for (int i=0; i<dbpaths.length; i++) {
+            FileInputFormat.addInputPath(job, dbpaths[i]);
         }
+        FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.checkSplittable(finconfig.getCompress().getCompress_database_codec(),
+                "newuser db");
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_database_codec());
+        // db partitions are written by MultipleOutputs only
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
         
-        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig, dbPath, dbfilename, cutDate);
+        job.setMapperClass(ComponentNewuserMapper.class);
+        job.setCombinerClass(ComponentNewuserCombiner.class);
+        job.setReducerClass(ComponentNewuserReducer.class);
         
-        int status = job.waitForCompletion(true) ? 0 : 1;
+        job.setMapOutputKeyClass(ComponentNewuserKey.class);
+        job.setMapOutputValueClass(ComponentNewuserDb.class);
         
-        // copy to hdfs database paths & backup
-        HdfsFileUtil.deleteNBackupFile(hfsPath.getDATABASE_root(),
-                hfsPath.getComponent_newuser_db(),
-                fingraphConfig.getSetting().getHfs_database_componentnewuser_backup_count(),
-                targetDate.getYear()+targetDate.getMonth()+targetDate.getDay(),
-                ConstantVars.COMPONENT_NEWUSER_DB_FNAME);
-        CopyWithinHdfsFile copier = new CopyWithinHdfsFile();
-        copier.dirToFile(outputPath.toString(), hfsPath.getComponent_newuser_db());
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        
+        job.setPartitionerClass(ComponentNewuserPartitioner.class);
+        
+        job.setNumReduceTasks(numreduce);
         
-        return status;
+        return job;
     }
     
-    public Job createJob(Configuration conf, Path[] inputpaths, Path outputpath,
-            int numreduce, FingraphConfig finconfig, Path dbpath, String dbfilename,
-            TargetDate cutdate)
-            throws IOException {
+    /*
+     * earliest record of each user in log, written as newuser db rows
+     */
+    @Override
+    public Job createJobCandidate(Configuration conf, Path[] inputpaths, Path outputpath,
+            int numreduce, FingraphConfig finconfig) throws IOException {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
-        conf.set("dbfilename", dbfilename);
-        conf.set("cutyear", cutdate.getYear());
-        conf.set("cutmonth", cutdate.getMonth());
-        conf.set("cutday", cutdate.getDay());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        conf.set("dbpath", "");
+        conf.setBoolean("candidate", true);
         
         Job job = new Job(conf);
-        String jobName = "merge/componentnewusermerge job";
+        String jobName = "merge/componentnewusermerge-candidate job";
         job.setJobName(jobName);
         
         job.setJarByClass(ComponentNewuserMerge.class);
@@ -166,10 +181,8 @@ public class ComponentNewuserMerge extends Configured implements Tool {
         for (int i=0; i<inputpaths.length; i++) {
             FileInputFormat.addInputPath(job, inputpaths[i]);
         }
-        if (dbpath != null) {
-            FileInputFormat.addInputPath(job, dbpath);
-        }
         FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_intermediate_codec());
         
         job.setMapperClass(ComponentNewuserMapper.class);
         job.setCombinerClass(ComponentNewuserCombiner.class);
@@ -188,14 +201,61 @@ public class ComponentNewuserMerge extends Configured implements Tool {
         return job;
     }
     
+    /*
+     * map-only merge join of user buckets in candidatepath with key index of db
+     */
+    @Override
+    public Job createJobJoin(Configuration conf, Path candidatepath, Path outputpath,
+            FingraphConfig finconfig, String dbpath, TargetDate cutdate,
+            List<String> logdays, String countday) throws IOException {
+        
+        conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
+        conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        conf.setInt("keyfields", 3);
+        conf.set("dbpath", dbpath);
+        conf.setStrings("logdays", logdays.toArray(new String[logdays.size()]));
+        conf.set("countday", countday);
+        conf.set("cutyear", cutdate.getYear());
+        conf.set("cutmonth", cutdate.getMonth());
+        conf.set("cutday", cutdate.getDay());
+        
+        Job job = new Job(conf);
+        String jobName = "merge/componentnewusermerge-join job";
+        job.setJobName(jobName);
+        
+        job.setJarByClass(ComponentNewuserMerge.class);
+        
+        // each bucket is read whole and in order
+        FileInputFormat.addInputPath(job, new Path(candidatepath,
+                ConstantVars.RESULT_FILE_PREFIX + "*"));
+        job.setInputFormatClass(WholeTextInputFormat.class);
+        FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_database_codec());
+        // db partitions and key index are written by MultipleOutputs only
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        
+        job.setMapperClass(NewuserJoinMapper.class);
+        
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        
+        job.setNumReduceTasks(0);
+        
+        return job;
+    }
+    
     static class ComponentNewuserMapper
         extends Mapper<LongWritable, Text, ComponentNewuserKey, ComponentNewuserDb> {
         
         private boolean verbose = false;
         private boolean counter = false;
-        private String dbfilename = "";
+        private String dbpath = "";
         private String opt_cut_date = "";
         private String in_file_name = "";
+        private boolean in_file_db = false;
+        private boolean in_file_legacy = false;
+        private boolean in_file_candidate = false;
+        private BloomFilter userfilter = null;
         private String in_file_year = "";
         private String in_file_month = "";
         private String in_file_day = "";
@@ -211,10 +271,9 @@ public class ComponentNewuserMerge extends Configured implements Tool {
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
-            dbfilename = context.getConfiguration().get("dbfilename");
-            if (dbfilename.lastIndexOf("/") > -1) {
-                dbfilename = dbfilename.substring(dbfilename.lastIndexOf("/")+1);
-            }
+            dbpath = context.getConfiguration().get("dbpath", "");
+            String candidatepath = context.getConfiguration().get("candidatepath", "");
+            String filterpath = context.getConfiguration().get("filterpath", "");
             String cutyear = context.getConfiguration().get("cutyear", "");
             String cutmonth = context.getConfiguration().get("cutmonth", "");
             String cutday = context.getConfiguration().get("cutday", "");
@@ -223,7 +282,19 @@ public class ComponentNewuserMerge extends Configured implements Tool {
                 opt_cut_date = cutyear+cutmonth+cutday;
             }
             
-            in_file_name = ((FileSplit)context.getInputSplit()).getPath().getName();
+            Path in_file_path = ((FileSplit)context.getInputSplit()).getPath();
+            in_file_name = in_file_path.getName();
+            // db partition file under db directory, or old single db file
+            in_file_db = dbpath.isEmpty() == false
+                    && (in_file_path.toString().equals(dbpath)
+                            || in_file_path.toString().startsWith(dbpath + "/"));
+            in_file_legacy = in_file_db && in_file_path.toString().equals(dbpath);
+            // users of log merged in delta mode, written as db rows
+            in_file_candidate = candidatepath.isEmpty() == false
+                    && in_file_path.toString().startsWith(candidatepath + "/");
+            if (in_file_db && filterpath.isEmpty() == false) {
+                userfilter = NewuserDbUtil.readUserFilter(context.getConfiguration(), filterpath);
+            }
             String file_date = FormatUtil.getDateFromLogfile(in_file_name);
             if (file_date.isEmpty() == false) {
                 in_file_year = file_date.substring(0, 4);
@@ -238,17 +309,30 @@ public class ComponentNewuserMerge extends Configured implements Tool {
         protected void map(LongWritable key, Text value, Context context)
                 throws IOException, InterruptedException {
             
-            if (in_file_name.equals(dbfilename)) {
+            if (in_file_db || in_file_candidate) {
                 // db file
                 
                 dbparser.parse(value);
                 if (dbparser.hasError() == false) {
                     
+                    /*
+                     * db row of user not in log can not change the merge result,
+                     * drop it unless bloom filter of users in log may contain it
+                     */
+                    if (userfilter != null && userfilter.membershipTest(
+                            NewuserDbUtil.getFilterKey(dbparser.getAppkey(),
+                                    dbparser.getComponentkey(), dbparser.getToken())) == false) {
+                        if (counter)
+                            context.getCounter(DataUsable.USELESS).increment(1);
+                        return;
+                    }
+                    
                     /*
                      * ignore newuser db data when it has exceeded the number of
                      * months of storage in fingraphoss-config.xml
+                     * (old single db file only, expired partitions are dropped)
                      */
-                    if (opt_cut_date.isEmpty()==false) {
+                    if (in_file_legacy && opt_cut_date.isEmpty()==false) {
                         
                         String dbdate = dbparser.getYear()+dbparser.getMonth()+dbparser.getDay();
                         if (Integer.parseInt(opt_cut_date) > Integer.parseInt(dbdate)) {
@@ -284,7 +368,7 @@ public class ComponentNewuserMerge extends Configured implements Tool {
                 // log file
                 
                 // logtype check
-                LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+                LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
                 
                 if (logtype.equals(LogParserType.CommonLog)) {
                     
@@ -367,6 +451,33 @@ public class ComponentNewuserMerge extends Configured implements Tool {
         
         private Text out_key = new Text();
         private Text out_val = new Text();
+        private MultipleOutputs<Text, Text> mos;
+        private boolean deltamode = false;
+        private boolean candidate = false;
+        private boolean keyindex = false;
+        private int bucket = 0;
+        private Text index_val = new Text();
+        private Set<String> logdays = new HashSet<String>();
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            mos = new MultipleOutputs<Text, Text>(context);
+            deltamode = context.getConfiguration().get("dbmode", "").equals(
+                    ConstantVars.DBMODE_DELTA);
+            candidate = context.getConfiguration().getBoolean("candidate", false);
+            // full merge and compaction write whole db, with key index bucket of this reducer
+            keyindex = candidate == false && deltamode == false;
+            bucket = context.getTaskAttemptID().getTaskID().getId();
+            String[] days = context.getConfiguration().getStrings("logdays");
+            if (days != null) {
+                logdays.addAll(Arrays.asList(days));
+            }
+        }
+        
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            mos.close();
+        }
         
         @Override
         protected void reduce(ComponentNewuserKey key, Iterable<ComponentNewuserDb> values,
@@ -393,6 +504,15 @@ public class ComponentNewuserMerge extends Configured implements Tool {
                 }
             }
             
+            /*
+             * delta merge writes only users first seen in the log days,
+             * users already in db partitions of other days are not new
+             */
+            if (deltamode && logdays.contains(earliest_val.year + earliest_val.month
+                    + earliest_val.day) == false) {
+                return;
+            }
+            
             out_key.set(key.appkey + ConstantVars.RESULT_FIELD_SEPERATER
                     + key.componentkey + ConstantVars.RESULT_FIELD_SEPERATER
                     + key.token);
@@ -410,7 +530,19 @@ public class ComponentNewuserMerge extends Configured implements Tool {
                     + earliest_val.resolution + ConstantVars.RESULT_FIELD_SEPERATER
                     + earliest_val.appversion);
             
-            context.write(out_key, out_val);
+            if (candidate) {
+                // users of log to merge with db in delta mode
+                context.write(out_key, out_val);
+            }
+            else {
+                // write into the partition of first-seen date
+                mos.write(out_key, out_val, HdfsFileUtil.getDatabasePartitionName(
+                        earliest_val.year, earliest_val.month, earliest_val.day) + "/part");
+                if (keyindex) {
+                    index_val.set(earliest_val.year + earliest_val.month + earliest_val.day);
+                    mos.write(out_key, index_val, NewuserDbUtil.getKeyIndexName(bucket));
+                }
+            }
         }
     }
     
@@ -419,7 +551,7 @@ public class ComponentNewuserMerge extends Configured implements Tool {
         @Override
         public int getPartition(ComponentNewuserKey key, ComponentNewuserDb value,
                 int numPartitions) {
-            return Math.abs(key.hashCode() * 127) % numPartitions;
+            return PartitionUtil.toPartition(key.hashCode(), numPartitions);
         }
     }
     
@@ -46,8 +46,12 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.CombineTextInputFormat;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyToLocalFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.InMapperCounter;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
 
@@ -135,6 +139,7 @@ public class LogCountStatistic extends Configured implements Tool {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
         
         Job job = new Job(conf);
         String jobName = "prerole/logcount job";
@@ -145,6 +150,11 @@ public class LogCountStatistic extends Configured implements Tool {
         for (int i=0; i<inputpaths.length; i++) {
             FileInputFormat.addInputPath(job, inputpaths[i]);
         }
+        if (finconfig.getSetting().getOrigin_input_split_mb() > 0) {
+            // pack small sdk log files into splits of origin_input_split_mb
+            CombineTextInputFormat.setInputFormat(job, CombineTextInputFormat.MEGABYTES
+                    * finconfig.getSetting().getOrigin_input_split_mb());
+        }
         FileOutputFormat.setOutputPath(job, outputpath);
         
         job.setMapperClass(LogCountMapper.class);
@@ -173,13 +183,13 @@ public class LogCountStatistic extends Configured implements Tool {
         private CommonLogParser commonparser = new CommonLogParser();
         private ComponentLogParser compoparser = new ComponentLogParser();
         
-        private Text out_key = new Text();
-        private LongWritable out_val = new LongWritable(1);
+        private InMapperCounter counts = null;
         
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            counts = InMapperCounter.create(context.getConfiguration());
         }
         
         @Override
@@ -187,7 +197,7 @@ public class LogCountStatistic extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -195,9 +205,7 @@ public class LogCountStatistic extends Configured implements Tool {
                 commonparser.parse(value);
                 if (commonparser.hasError() == false) {
                     
-                    out_key.set(commonparser.getAppkey());
-                    
-                    context.write(out_key, out_val);
+                    counts.add(commonparser.getAppkey(), 1, context);
                 }
                 else {
                     if (verbose)
@@ -213,9 +221,7 @@ public class LogCountStatistic extends Configured implements Tool {
                 compoparser.parse(value);
                 if (compoparser.hasError() == false) {
                     
-                    out_key.set(compoparser.getAppkey());
-                    
-                    context.write(out_key, out_val);
+                    counts.add(compoparser.getAppkey(), 1, context);
                 }
                 else {
                     if (verbose)
@@ -232,6 +238,12 @@ public class LogCountStatistic extends Configured implements Tool {
                     context.getCounter(LogValidation.MALFORMED).increment(1);
             }
         }
+        
+        @Override
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            counts.flush(context);
+        }
     }
     
     private static class LogCountReducer
@@ -261,7 +273,7 @@ public class LogCountStatistic extends Configured implements Tool {
         @Override
         public int getPartition(Text key, LongWritable value,
                 int numPartitions) {
-            return Math.abs(key.hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key, numPartitions);
         }
     }
     
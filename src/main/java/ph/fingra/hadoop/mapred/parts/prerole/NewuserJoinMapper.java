@@ -0,0 +1,275 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parts.prerole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.ConstantVars.DataUsable;
+import ph.fingra.hadoop.common.ConstantVars.LogValidation;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
+import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.NewuserDbUtil;
+
+/**
+ * Map-side merge join of users in log with the sorted key index of newuser db.
+ * 
+ * Input is one bucket (part-r-nnnnn) of users in log with earliest record,
+ * written as newuser db rows by the candidate job with the same partitioner
+ * and bucket count as the key index, so it is sorted in the same key order
+ * as key index bucket nnnnn. Both are read once in order : user in log not
+ * in key index (or first seen later) is written into the db partition of
+ * its first-seen date, and the merged key index is written as the new bucket.
+ * 
+ * configuration : keyfields (user key fields of db row), dbpath (db directory),
+ * cutyear/cutmonth/cutday (expire date), logdays (yyyyMMdd of merged log),
+ * countday (yyyyMMdd to count new users by appkey and by appkey/country, optional)
+ */
+public class NewuserJoinMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+    
+    private boolean verbose = false;
+    private boolean counter = false;
+    private int keyfields = 0;
+    private String opt_cut_date = "";
+    private Set<String> logdays = new HashSet<String>();
+    private int bucket = -1;
+    private String countday = "";
+    private Map<String, Long> newusers = new HashMap<String, Long>();
+    private Map<String, Long> countrynewusers = new HashMap<String, Long>();
+    
+    private BufferedReader indexreader = null;
+    private String[] index_row = null;
+    
+    private MultipleOutputs<NullWritable, Text> mos;
+    private Text out_val = new Text();
+    
+    protected void setup(Context context)
+            throws IOException, InterruptedException {
+        verbose = context.getConfiguration().getBoolean("verbose", false);
+        counter = context.getConfiguration().getBoolean("counter", false);
+        keyfields = context.getConfiguration().getInt("keyfields", 0);
+        String dbpath = context.getConfiguration().get("dbpath", "");
+        String cutyear = context.getConfiguration().get("cutyear", "");
+        String cutmonth = context.getConfiguration().get("cutmonth", "");
+        String cutday = context.getConfiguration().get("cutday", "");
+        if (cutyear.isEmpty()==false && cutmonth.isEmpty()==false
+                && cutday.isEmpty()==false) {
+            opt_cut_date = cutyear+cutmonth+cutday;
+        }
+        countday = context.getConfiguration().get("countday", "");
+        String[] days = context.getConfiguration().getStrings("logdays");
+        if (days != null) {
+            logdays.addAll(Arrays.asList(days));
+        }
+        
+        Path in_file_path = ((FileSplit)context.getInputSplit()).getPath();
+        bucket = NewuserDbUtil.getBucketOfFile(in_file_path.getName());
+        if (bucket < 0) {
+            throw new IOException("not a bucket file : " + in_file_path);
+        }
+        
+        Path indexPath = NewuserDbUtil.getKeyIndexFile(context.getConfiguration(),
+                dbpath, bucket);
+        if (indexPath != null) {
+            FileSystem fs = indexPath.getFileSystem(context.getConfiguration());
+            indexreader = new BufferedReader(new InputStreamReader(
+                    CompressUtil.openInputStream(fs, indexPath, context.getConfiguration()),
+                    "UTF-8"), 64 * 1024);
+        }
+        index_row = nextIndexRow(context);
+        
+        mos = new MultipleOutputs<NullWritable, Text>(context);
+    }
+    
+    protected void cleanup(Context context)
+            throws IOException, InterruptedException {
+        
+        // rest of key index, users not in log
+        while (index_row != null) {
+            keepIndexRow(index_row, context);
+            index_row = nextIndexRow(context);
+        }
+        if (indexreader != null) {
+            indexreader.close();
+        }
+        
+        // new users of count day by appkey, and by appkey/country
+        for (Map.Entry<String, Long> entry : newusers.entrySet()) {
+            out_val.set(entry.getKey() + ConstantVars.RESULT_FIELD_SEPERATER + entry.getValue());
+            mos.write(NullWritable.get(), out_val, NewuserDbUtil.getCountName(
+                    NewuserDbUtil.COUNT_NEWUSER));
+        }
+        for (Map.Entry<String, Long> entry : countrynewusers.entrySet()) {
+            out_val.set(entry.getKey() + ConstantVars.RESULT_FIELD_SEPERATER + entry.getValue());
+            mos.write(NullWritable.get(), out_val, NewuserDbUtil.getCountName(
+                    NewuserDbUtil.COUNT_COUNTRYNEWUSER));
+        }
+        
+        mos.close();
+    }
+    
+    @Override
+    protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+        
+        String[] fields = value.toString().split(ConstantVars.DB_FIELD_SEPERATER_REGX, -1);
+        if (fields.length < keyfields + 3) {
+            if (verbose)
+                System.err.println("Ignoring corrupt input: " + value);
+            if (counter)
+                context.getCounter(LogValidation.MALFORMED).increment(1);
+            return;
+        }
+        String year = fields[keyfields];
+        String month = fields[keyfields+1];
+        String day = fields[keyfields+2];
+        
+        // key index rows before the user are users not in log
+        while (index_row != null && compareKey(index_row, fields) < 0) {
+            keepIndexRow(index_row, context);
+            index_row = nextIndexRow(context);
+        }
+        
+        boolean known = false;
+        if (index_row != null && compareKey(index_row, fields) == 0) {
+            // user first seen before the log day is not new
+            String index_day = index_row[keyfields];
+            if (isValidDay(index_day) && index_day.compareTo(year+month+day) <= 0) {
+                known = true;
+                writeIndexRow(index_row, index_day);
+            }
+            else if (counter) {
+                context.getCounter(DataUsable.EXPIRED).increment(1);
+            }
+            index_row = nextIndexRow(context);
+        }
+        
+        if (known) {
+            if (counter)
+                context.getCounter(DataUsable.USELESS).increment(1);
+            return;
+        }
+        
+        // new user, write into the partition of first-seen date
+        mos.write(NullWritable.get(), value,
+                HdfsFileUtil.getDatabasePartitionName(year, month, day) + "/part");
+        writeIndexRow(fields, year+month+day);
+        
+        // country is 7th field after user key (year, month, day, week, utctime, localtime)
+        if (countday.equals(year+month+day) && fields.length > keyfields + 6) {
+            addCount(newusers, fields[0]);
+            addCount(countrynewusers, fields[0] + ConstantVars.RESULT_FIELD_SEPERATER
+                    + fields[keyfields+6]);
+        }
+        
+        if (counter)
+            context.getCounter(DataUsable.USE).increment(1);
+    }
+    
+    /*
+     * next row (user key fields, first-seen yyyyMMdd) of key index bucket
+     */
+    private String[] nextIndexRow(Context context) throws IOException {
+        
+        if (indexreader == null) {
+            return null;
+        }
+        
+        String line = null;
+        while ((line = indexreader.readLine()) != null) {
+            String[] fields = line.split(ConstantVars.DB_FIELD_SEPERATER_REGX, -1);
+            if (fields.length == keyfields + 1) {
+                return fields;
+            }
+            if (verbose)
+                System.err.println("Ignoring corrupt key index: " + line);
+        }
+        
+        return null;
+    }
+    
+    /*
+     * key index row of user not in log is kept unless expired, or first
+     * seen on log days (partitions of log days are merged again from log)
+     */
+    private void keepIndexRow(String[] row, Context context)
+            throws IOException, InterruptedException {
+        
+        if (isValidDay(row[keyfields])) {
+            writeIndexRow(row, row[keyfields]);
+        }
+        else if (counter) {
+            context.getCounter(DataUsable.EXPIRED).increment(1);
+        }
+    }
+    
+    private void addCount(Map<String, Long> counts, String key) {
+        
+        Long count = counts.get(key);
+        counts.put(key, (count != null) ? count + 1 : 1L);
+    }
+    
+    private boolean isValidDay(String day) {
+        
+        if (opt_cut_date.isEmpty()==false && opt_cut_date.compareTo(day) > 0) {
+            return false;
+        }
+        return logdays.contains(day) == false;
+    }
+    
+    private void writeIndexRow(String[] fields, String day)
+            throws IOException, InterruptedException {
+        
+        StringBuilder buf = new StringBuilder();
+        for (int i=0; i<keyfields; i++) {
+            buf.append(fields[i]).append(ConstantVars.RESULT_FIELD_SEPERATER);
+        }
+        buf.append(day);
+        
+        out_val.set(buf.toString());
+        mos.write(NullWritable.get(), out_val, NewuserDbUtil.getKeyIndexName(bucket));
+    }
+    
+    /*
+     * user key order of AppNewuserKey/ComponentNewuserKey, compared field by field
+     */
+    private int compareKey(String[] a, String[] b) {
+        
+        int ret = 0;
+        for (int i=0; i<keyfields; i++) {
+            ret = a[i].compareTo(b[i]); if (ret != 0) return ret;
+        }
+        
+        return ret;
+    }
+}
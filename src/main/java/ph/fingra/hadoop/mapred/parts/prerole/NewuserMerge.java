@@ -0,0 +1,780 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parts.prerole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.bloom.BloomFilter;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.ConstantVars.DataUsable;
+import ph.fingra.hadoop.common.ConstantVars.LogParserType;
+import ph.fingra.hadoop.common.ConstantVars.LogValidation;
+import ph.fingra.hadoop.common.FingraphConfig;
+import ph.fingra.hadoop.common.HfsPathInfo;
+import ph.fingra.hadoop.common.domain.TargetDate;
+import ph.fingra.hadoop.common.logger.ErrorLogger;
+import ph.fingra.hadoop.common.logger.WorkLogger;
+import ph.fingra.hadoop.common.util.DateTimeUtil;
+import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
+import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.NewuserDbSnapshot;
+import ph.fingra.hadoop.mapred.common.NewuserDbUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.parse.AppNewuserDbParser;
+import ph.fingra.hadoop.mapred.parse.CommonLogParser;
+import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
+import ph.fingra.hadoop.mapred.parse.ComponentNewuserDbParser;
+import ph.fingra.hadoop.mapred.parse.domain.ComponentNewuserDb;
+import ph.fingra.hadoop.mapred.parts.prerole.domain.NewuserMergeKey;
+
+/**
+ * Delta merge of app and component newuser db with one scan of transform log.
+ * 
+ * Users of both db are keys of one job tagged by db (NewuserMergeKey), and
+ * each db is written by its own named output (app/..., component/...), so
+ * the log is read and parsed once instead of once by AppNewuserMerge and
+ * once by ComponentNewuserMerge. Expiry, snapshots and new user counts are
+ * the same as in the two merges. Other db modes, and db not partitioned yet,
+ * run the two merges one after the other.
+ */
+public class NewuserMerge extends Configured implements Tool {
+    
+    private static final String APP_FILTER_NAME = "_app" + NewuserDbUtil.FILTER_FILE_NAME;
+    private static final String COMPONENT_FILTER_NAME = "_component" + NewuserDbUtil.FILTER_FILE_NAME;
+    
+    private enum MergeCandidate {
+        APP, COMPONENT
+    }
+    
+    @Override
+    public int run(String[] args) throws Exception {
+        
+        String opt_mode = "";
+        int opt_numreduce = 0;
+        String opt_dbmode = "";
+        
+        FingraphConfig fingraphConfig = new FingraphConfig();
+        TargetDate targetDate = null;
+        
+        Configuration conf = getConf();
+        Path[] inputPaths = null;
+        Path outputPath = null;
+        Path candidatePath = null;
+        Path[] appDbPaths = null;
+        Path[] componentDbPaths = null;
+        String appDbDir = null;
+        String componentDbDir = null;
+        List<String> logDays = null;
+        
+        // get -D optional value
+        opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
+        opt_numreduce = conf.getInt(ConstantVars.DOPTION_NUMREDUCE, 0);
+        opt_dbmode = conf.get(ConstantVars.DOPTION_DBMODE, ConstantVars.DBMODE_DELTA);
+        
+        // runmode & targetdate check, get TargetDate info
+        targetDate = NewuserMergeDriver.getTargetDate(conf);
+        
+        WorkLogger.log(NewuserMerge.class.getSimpleName()
+                + " : [run mode] " + opt_mode
+                + " , [target date] " + targetDate.getFulldate()
+                + " , [reducer count] " + opt_numreduce);
+        
+        // NewuserMerge's run mode restriction (partitions of db hold whole days)
+        if (opt_mode.equals(ConstantVars.RUNMODE_DAY)==false) {
+            WorkLogger.warn(NewuserMerge.class.getSimpleName()
+                    + " : this class can operate only day mode");
+            return 0;
+        }
+        
+        HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
+        appDbDir = hfsPath.getApp_newuser_db();
+        componentDbDir = hfsPath.getComponent_newuser_db();
+        
+        // other db modes, or first merge of db not partitioned, merge each db by itself
+        if (opt_dbmode.equals(ConstantVars.DBMODE_DELTA) == false
+                || HdfsFileUtil.isPartitionedDatabase(appDbDir) == false
+                || HdfsFileUtil.isPartitionedDatabase(componentDbDir) == false) {
+            
+            WorkLogger.log(NewuserMerge.class.getSimpleName()
+                    + " : merge app and component newuser db separately");
+            
+            int status = ToolRunner.run(new Configuration(conf), new AppNewuserMerge(), args);
+            if (status == 0) {
+                status = ToolRunner.run(new Configuration(conf), new ComponentNewuserMerge(), args);
+            }
+            return status;
+        }
+        
+        int appBackupCount = fingraphConfig.getSetting().getHfs_database_appnewuser_backup_count();
+        int componentBackupCount = fingraphConfig.getSetting().getHfs_database_componentnewuser_backup_count();
+        
+        // expired partitions are dropped as a whole by the commit, without reading their rows
+        TargetDate appCutDate = NewuserMergeDriver.getCutDate(targetDate,
+                fingraphConfig.getSetting().getHfs_database_appnewuser_keep_month());
+        TargetDate componentCutDate = NewuserMergeDriver.getCutDate(targetDate,
+                fingraphConfig.getSetting().getHfs_database_componentnewuser_keep_month());
+        List<String> appExpiredDays = NewuserDbUtil.getExpiredDays(appDbDir,
+                appCutDate.getYear()+appCutDate.getMonth()+appCutDate.getDay());
+        List<String> componentExpiredDays = NewuserDbUtil.getExpiredDays(componentDbDir,
+                componentCutDate.getYear()+componentCutDate.getMonth()+componentCutDate.getDay());
+        WorkLogger.log(NewuserMerge.class.getSimpleName()
+                + " : [expired partitions] "
+                + (appExpiredDays.size() + componentExpiredDays.size()));
+        
+        // get this job's input path - transform log file
+        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                targetDate.getHour(), targetDate.getWeek());
+        
+        // get this job's input path - db partitions except log days merged again from log
+        logDays = NewuserDbUtil.getLogDays(inputPaths);
+        List<String> appSkipDays = new ArrayList<String>(appExpiredDays);
+        appSkipDays.addAll(logDays);
+        List<String> componentSkipDays = new ArrayList<String>(componentExpiredDays);
+        componentSkipDays.addAll(logDays);
+        appDbPaths = NewuserDbUtil.getPartitionPaths(appDbDir, appSkipDays);
+        componentDbPaths = NewuserDbUtil.getPartitionPaths(componentDbDir, componentSkipDays);
+        
+        // new users of target day are counted for NewuserStatistic in day mode
+        String countDay = "";
+        if (opt_mode.equals(ConstantVars.RUNMODE_DAY)) {
+            countDay = targetDate.getYear() + targetDate.getMonth() + targetDate.getDay();
+        }
+        
+        // get this job's output path
+        outputPath = new Path(hfsPath.getNewusermerge());
+        candidatePath = new Path(hfsPath.getNewusermerge() + "_candidate");
+        
+        // delete previous output path if is exist
+        FileSystem fs = FileSystem.get(conf);
+        List<Path> deletePaths = new ArrayList<Path>();
+        deletePaths.add(outputPath);
+        deletePaths.add(candidatePath);
+        for (Path deletePath : deletePaths) {
+            fs.delete(deletePath, true);
+        }
+        
+        // 1) users of log with earliest record, for both db
+        Job job = createJobCandidate(conf, inputPaths, candidatePath, opt_numreduce,
+                fingraphConfig);
+        
+        int status = job.waitForCompletion(true) ? 0 : 1;
+        
+        if (status == 0) {
+            
+            // 2) merge with db rows passing bloom filters of users in log
+            long appcount = job.getCounters().findCounter(MergeCandidate.APP).getValue();
+            long componentcount = job.getCounters().findCounter(MergeCandidate.COMPONENT).getValue();
+            Path appFilterPath = NewuserDbUtil.writeUserFilter(
+                    new Path(candidatePath, NewuserMergeKey.TAG_APP).toString(),
+                    2, appcount, APP_FILTER_NAME);
+            Path componentFilterPath = NewuserDbUtil.writeUserFilter(
+                    new Path(candidatePath, NewuserMergeKey.TAG_COMPONENT).toString(),
+                    3, componentcount, COMPONENT_FILTER_NAME);
+            
+            job = createJob(conf, fs.makeQualified(candidatePath), outputPath, opt_numreduce, fingraphConfig,
+                    appDbPaths, componentDbPaths,
+                    fs.makeQualified(new Path(appDbDir)).toString(),
+                    fs.makeQualified(new Path(componentDbDir)).toString(),
+                    logDays, countDay,
+                    fs.makeQualified(appFilterPath), fs.makeQualified(componentFilterPath));
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+        }
+        
+        // new version of both db with partitions of log days
+        if (status == 0) {
+            
+            String appOutput = new Path(outputPath, NewuserMergeKey.TAG_APP).toString();
+            String componentOutput = new Path(outputPath, NewuserMergeKey.TAG_COMPONENT).toString();
+            
+            NewuserDbSnapshot.commitPartitions(appOutput, appDbDir, logDays, appExpiredDays,
+                    appBackupCount);
+            // counts are published only with the db version they count
+            NewuserMergeDriver.replaceNewuserCounts(new Path(appOutput),
+                    hfsPath.getAppnewusercount(), countDay, appCutDate);
+            NewuserDbSnapshot.commitPartitions(componentOutput, componentDbDir, logDays,
+                    componentExpiredDays, componentBackupCount);
+            
+            // new users of log are not in key index, join waits for next compaction
+            NewuserDbUtil.deleteKeyIndex(appDbDir);
+            NewuserDbUtil.deleteKeyIndex(componentDbDir);
+        }
+        
+        return status;
+    }
+    
+    public Job createJob(Configuration conf, Path candidatepath, Path outputpath,
+            int numreduce, FingraphConfig finconfig, Path[] appdbpaths,
+            Path[] componentdbpaths, String appdbpath, String componentdbpath,
+            List<String> logdays, String countday, Path appfilterpath,
+            Path componentfilterpath) throws IOException {
+        
+        conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
+        conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        conf.set("appdbpath", appdbpath);
+        conf.set("componentdbpath", componentdbpath);
+        conf.set("candidatepath", candidatepath.toString());
+        conf.set("appfilterpath", appfilterpath.toString());
+        conf.set("componentfilterpath", componentfilterpath.toString());
+        conf.setStrings("logdays", logdays.toArray(new String[logdays.size()]));
+        conf.set("countday", countday);
+        conf.setBoolean("candidate", false);
+        
+        Job job = new Job(conf);
+        String jobName = "merge/newusermerge job";
+        job.setJobName(jobName);
+        
+        DistributedCache.addCacheFile(appfilterpath.toUri(), job.getConfiguration());
+        DistributedCache.addCacheFile(componentfilterpath.toUri(), job.getConfiguration());
+        
+        job.setJarByClass(NewuserMerge.class);
+        
+        FileInputFormat.addInputPath(job, new Path(candidatepath, NewuserMergeKey.TAG_APP));
+        FileInputFormat.addInputPath(job, new Path(candidatepath, NewuserMergeKey.TAG_COMPONENT));
+        for (int i=0; i<appdbpaths.length; i++) {
+            FileInputFormat.addInputPath(job, appdbpaths[i]);
+        }
+        for (int i=0; i<componentdbpaths.length; i++) {
+            FileInputFormat.addInputPath(job, componentdbpaths[i]);
+        }
+        FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.checkSplittable(finconfig.getCompress().getCompress_database_codec(),
+                "newuser db");
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_database_codec());
+        // db partitions are written by MultipleOutputs only
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        
+        job.setMapperClass(NewuserMergeMapper.class);
+        job.setCombinerClass(NewuserMergeCombiner.class);
+        job.setReducerClass(NewuserMergeReducer.class);
+        
+        job.setMapOutputKeyClass(NewuserMergeKey.class);
+        job.setMapOutputValueClass(ComponentNewuserDb.class);
+        
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        
+        job.setPartitionerClass(NewuserMergePartitioner.class);
+        
+        job.setNumReduceTasks(numreduce);
+        
+        return job;
+    }
+    
+    /*
+     * earliest record of each user in log for both db, written as db rows
+     * into candidatepath/app and candidatepath/component
+     */
+    public Job createJobCandidate(Configuration conf, Path[] inputpaths, Path outputpath,
+            int numreduce, FingraphConfig finconfig) throws IOException {
+        
+        conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
+        conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        conf.set("appdbpath", "");
+        conf.set("componentdbpath", "");
+        conf.set("candidatepath", "");
+        conf.setBoolean("candidate", true);
+        
+        Job job = new Job(conf);
+        String jobName = "merge/newusermerge-candidate job";
+        job.setJobName(jobName);
+        
+        job.setJarByClass(NewuserMerge.class);
+        
+        for (int i=0; i<inputpaths.length; i++) {
+            FileInputFormat.addInputPath(job, inputpaths[i]);
+        }
+        FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_intermediate_codec());
+        // candidates of each db are written by MultipleOutputs only
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        
+        job.setMapperClass(NewuserMergeMapper.class);
+        job.setCombinerClass(NewuserMergeCombiner.class);
+        job.setReducerClass(NewuserMergeReducer.class);
+        
+        job.setMapOutputKeyClass(NewuserMergeKey.class);
+        job.setMapOutputValueClass(ComponentNewuserDb.class);
+        
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        
+        job.setPartitionerClass(NewuserMergePartitioner.class);
+        
+        job.setNumReduceTasks(numreduce);
+        
+        return job;
+    }
+    
+    static class NewuserMergeMapper
+        extends Mapper<LongWritable, Text, NewuserMergeKey, ComponentNewuserDb> {
+        
+        private boolean verbose = false;
+        private boolean counter = false;
+        private String in_file_name = "";
+        private String in_file_tag = "";
+        private boolean in_file_db = false;
+        private BloomFilter userfilter = null;
+        private String in_file_year = "";
+        private String in_file_month = "";
+        private String in_file_day = "";
+        private String in_file_week = "";
+        
+        private AppNewuserDbParser appdbparser = new AppNewuserDbParser();
+        private ComponentNewuserDbParser compodbparser = new ComponentNewuserDbParser();
+        private CommonLogParser commonparser = new CommonLogParser();
+        private ComponentLogParser compoparser = new ComponentLogParser();
+        
+        private NewuserMergeKey out_key = new NewuserMergeKey();
+        private ComponentNewuserDb out_val = new ComponentNewuserDb();
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            verbose = context.getConfiguration().getBoolean("verbose", false);
+            counter = context.getConfiguration().getBoolean("counter", false);
+            String appdbpath = context.getConfiguration().get("appdbpath", "");
+            String componentdbpath = context.getConfiguration().get("componentdbpath", "");
+            String candidatepath = context.getConfiguration().get("candidatepath", "");
+            
+            Path in_file_path = ((FileSplit)context.getInputSplit()).getPath();
+            in_file_name = in_file_path.getName();
+            String in_file = in_file_path.toString();
+            
+            // db partition of app/component newuser db, or users of log written as db rows
+            if (appdbpath.isEmpty() == false && in_file.startsWith(appdbpath + "/")) {
+                in_file_tag = NewuserMergeKey.TAG_APP;
+                in_file_db = true;
+            }
+            else if (componentdbpath.isEmpty() == false
+                    && in_file.startsWith(componentdbpath + "/")) {
+                in_file_tag = NewuserMergeKey.TAG_COMPONENT;
+                in_file_db = true;
+            }
+            else if (candidatepath.isEmpty() == false && in_file.startsWith(
+                    candidatepath + "/" + NewuserMergeKey.TAG_APP + "/")) {
+                in_file_tag = NewuserMergeKey.TAG_APP;
+            }
+            else if (candidatepath.isEmpty() == false && in_file.startsWith(
+                    candidatepath + "/" + NewuserMergeKey.TAG_COMPONENT + "/")) {
+                in_file_tag = NewuserMergeKey.TAG_COMPONENT;
+            }
+            if (in_file_db) {
+                String filterpath = context.getConfiguration().get(
+                        in_file_tag.equals(NewuserMergeKey.TAG_APP)
+                                ? "appfilterpath" : "componentfilterpath", "");
+                if (filterpath.isEmpty() == false) {
+                    userfilter = NewuserDbUtil.readUserFilter(context.getConfiguration(),
+                            filterpath);
+                }
+            }
+            
+            String file_date = FormatUtil.getDateFromLogfile(in_file_name);
+            if (file_date.isEmpty() == false) {
+                in_file_year = file_date.substring(0, 4);
+                in_file_month = file_date.substring(5, 7);
+                in_file_day = file_date.substring(8);
+                int week = DateTimeUtil.getWeekOfYearByDay(in_file_year, in_file_month, in_file_day);
+                in_file_week = (week < 10 ? "0"+week : String.valueOf(week));
+            }
+        }
+        
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            
+            if (in_file_tag.equals(NewuserMergeKey.TAG_APP)) {
+                // app newuser db file
+                
+                appdbparser.parse(value);
+                if (appdbparser.hasError() == false) {
+                    
+                    // db row of user not in log can not change the merge result
+                    if (userfilter != null && userfilter.membershipTest(NewuserDbUtil.getFilterKey(
+                            appdbparser.getAppkey(), appdbparser.getToken())) == false) {
+                        if (counter)
+                            context.getCounter(DataUsable.USELESS).increment(1);
+                        return;
+                    }
+                    
+                    out_key.set(NewuserMergeKey.TAG_APP, appdbparser.getAppkey(), "",
+                            appdbparser.getToken());
+                    
+                    out_val.set(appdbparser.getAppkey(), "", appdbparser.getToken(),
+                            appdbparser.getYear(), appdbparser.getMonth(), appdbparser.getDay(),
+                            appdbparser.getWeek(), appdbparser.getUtctime(), appdbparser.getLocaltime(),
+                            appdbparser.getCountry(), appdbparser.getLanguage(), appdbparser.getDevice(),
+                            appdbparser.getOsversion(), appdbparser.getResolution(),
+                            appdbparser.getAppversion());
+                    
+                    context.write(out_key, out_val);
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(appdbparser.getErrorLevel()).increment(1);
+            }
+            else if (in_file_tag.equals(NewuserMergeKey.TAG_COMPONENT)) {
+                // component newuser db file
+                
+                compodbparser.parse(value);
+                if (compodbparser.hasError() == false) {
+                    
+                    // db row of user not in log can not change the merge result
+                    if (userfilter != null && userfilter.membershipTest(NewuserDbUtil.getFilterKey(
+                            compodbparser.getAppkey(), compodbparser.getComponentkey(),
+                            compodbparser.getToken())) == false) {
+                        if (counter)
+                            context.getCounter(DataUsable.USELESS).increment(1);
+                        return;
+                    }
+                    
+                    out_key.set(NewuserMergeKey.TAG_COMPONENT, compodbparser.getAppkey(),
+                            compodbparser.getComponentkey(), compodbparser.getToken());
+                    
+                    out_val.set(compodbparser.getAppkey(), compodbparser.getComponentkey(),
+                            compodbparser.getToken(), compodbparser.getYear(), compodbparser.getMonth(),
+                            compodbparser.getDay(), compodbparser.getWeek(), compodbparser.getUtctime(),
+                            compodbparser.getLocaltime(), compodbparser.getCountry(),
+                            compodbparser.getLanguage(), compodbparser.getDevice(),
+                            compodbparser.getOsversion(), compodbparser.getResolution(),
+                            compodbparser.getAppversion());
+                    
+                    context.write(out_key, out_val);
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                }
+                
+                if (counter)
+                    context.getCounter(compodbparser.getErrorLevel()).increment(1);
+            }
+            else {
+                // log file
+                
+                // logtype check
+                LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
+                
+                if (logtype.equals(LogParserType.CommonLog)) {
+                    
+                    // CommonLog : STARTSESS/PAGEVIEW/ENDSESS, app newuser db only
+                    commonparser.parse(value);
+                    if (commonparser.hasError() == false) {
+                        
+                        out_key.set(NewuserMergeKey.TAG_APP, commonparser.getAppkey(), "",
+                                commonparser.getToken());
+                        
+                        out_val.set(commonparser.getAppkey(), "", commonparser.getToken(),
+                                in_file_year, in_file_month, in_file_day, in_file_week,
+                                commonparser.getUtctime(), commonparser.getLocaltime(), commonparser.getCountry(),
+                                commonparser.getLanguage(), commonparser.getDevice(), commonparser.getOsversion(),
+                                commonparser.getResolution(), commonparser.getAppversion());
+                        
+                        context.write(out_key, out_val);
+                    }
+                    else {
+                        if (verbose)
+                            System.err.println("Ignoring corrupt input: " + value);
+                    }
+                    
+                    if (counter)
+                        context.getCounter(commonparser.getErrorLevel()).increment(1);
+                }
+                else if (logtype.equals(LogParserType.ComponentLog)) {
+                    
+                    // ComponentLog : COMPONENT, both app and component newuser db
+                    compoparser.parse(value);
+                    if (compoparser.hasError() == false) {
+                        
+                        out_key.set(NewuserMergeKey.TAG_APP, compoparser.getAppkey(), "",
+                                compoparser.getToken());
+                        
+                        out_val.set(compoparser.getAppkey(), "", compoparser.getToken(),
+                                in_file_year, in_file_month, in_file_day, in_file_week,
+                                compoparser.getUtctime(), compoparser.getLocaltime(), compoparser.getCountry(),
+                                compoparser.getLanguage(), compoparser.getDevice(), compoparser.getOsversion(),
+                                compoparser.getResolution(), compoparser.getAppversion());
+                        
+                        context.write(out_key, out_val);
+                        
+                        out_key.set(NewuserMergeKey.TAG_COMPONENT, compoparser.getAppkey(),
+                                compoparser.getComponentkey(), compoparser.getToken());
+                        
+                        out_val.componentkey = compoparser.getComponentkey();
+                        
+                        context.write(out_key, out_val);
+                    }
+                    else {
+                        if (verbose)
+                            System.err.println("Ignoring corrupt input: " + value);
+                    }
+                    
+                    if (counter)
+                        context.getCounter(compoparser.getErrorLevel()).increment(1);
+                }
+                else {
+                    if (verbose)
+                        System.err.println("Ignoring corrupt input: " + value);
+                    if (counter)
+                        context.getCounter(LogValidation.MALFORMED).increment(1);
+                }
+            }
+        }
+    }
+    
+    static class NewuserMergeCombiner
+        extends Reducer<NewuserMergeKey, ComponentNewuserDb, NewuserMergeKey, ComponentNewuserDb> {
+        
+        @Override
+        protected void reduce(NewuserMergeKey key, Iterable<ComponentNewuserDb> values,
+                Context context) throws IOException, InterruptedException {
+            
+            ComponentNewuserDb earliest_val = new ComponentNewuserDb();
+            String earliest_datetime = "";
+            String cur_datetime = "";
+            
+            boolean isfirst = true;
+            for (ComponentNewuserDb cur_val : values) {
+                
+                if (isfirst) {
+                    earliest_val.copy(cur_val);
+                    earliest_datetime = cur_val.utctime;
+                    isfirst = false;
+                }
+                else {
+                    cur_datetime = cur_val.utctime;
+                    if (earliest_datetime.compareTo(cur_datetime) > 0) {
+                        earliest_val.copy(cur_val);
+                        earliest_datetime = cur_datetime;
+                    }
+                }
+            }
+            
+            context.write(key, earliest_val);
+        }
+    }
+    
+    static class NewuserMergeReducer
+        extends Reducer<NewuserMergeKey, ComponentNewuserDb, Text, Text> {
+        
+        private Text out_key = new Text();
+        private Text out_val = new Text();
+        private MultipleOutputs<Text, Text> mos;
+        private boolean candidate = false;
+        private Set<String> logdays = new HashSet<String>();
+        private String countday = "";
+        private Map<String, Long> newusers = new HashMap<String, Long>();
+        private Map<String, Long> countrynewusers = new HashMap<String, Long>();
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            mos = new MultipleOutputs<Text, Text>(context);
+            candidate = context.getConfiguration().getBoolean("candidate", false);
+            countday = context.getConfiguration().get("countday", "");
+            String[] days = context.getConfiguration().getStrings("logdays");
+            if (days != null) {
+                logdays.addAll(Arrays.asList(days));
+            }
+        }
+        
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            
+            // new users of count day by appkey, and by appkey/country (app newuser db)
+            for (Map.Entry<String, Long> entry : newusers.entrySet()) {
+                out_key.set(entry.getKey());
+                out_val.set(String.valueOf(entry.getValue()));
+                mos.write(out_key, out_val, NewuserMergeKey.TAG_APP + "/"
+                        + NewuserDbUtil.getCountName(NewuserDbUtil.COUNT_NEWUSER));
+            }
+            for (Map.Entry<String, Long> entry : countrynewusers.entrySet()) {
+                out_key.set(entry.getKey());
+                out_val.set(String.valueOf(entry.getValue()));
+                mos.write(out_key, out_val, NewuserMergeKey.TAG_APP + "/"
+                        + NewuserDbUtil.getCountName(NewuserDbUtil.COUNT_COUNTRYNEWUSER));
+            }
+            
+            mos.close();
+        }
+        
+        @Override
+        protected void reduce(NewuserMergeKey key, Iterable<ComponentNewuserDb> values,
+                Context context) throws IOException, InterruptedException {
+            
+            ComponentNewuserDb earliest_val = new ComponentNewuserDb();
+            String earliest_datetime = "";
+            String cur_datetime = "";
+            
+            boolean isfirst = true;
+            for (ComponentNewuserDb cur_val : values) {
+                
+                if (isfirst) {
+                    earliest_val.copy(cur_val);
+                    earliest_datetime = cur_val.utctime;
+                    isfirst = false;
+                }
+                else {
+                    cur_datetime = cur_val.utctime;
+                    if (earliest_datetime.compareTo(cur_datetime) > 0) {
+                        earliest_val.copy(cur_val);
+                        earliest_datetime = cur_datetime;
+                    }
+                }
+            }
+            
+            boolean appdb = key.dbtag.equals(NewuserMergeKey.TAG_APP);
+            String earliest_day = earliest_val.year + earliest_val.month + earliest_val.day;
+            
+            /*
+             * delta merge writes only users first seen in the log days,
+             * users already in db partitions of other days are not new
+             */
+            if (candidate == false && logdays.contains(earliest_day) == false) {
+                return;
+            }
+            
+            if (appdb) {
+                out_key.set(key.appkey + ConstantVars.RESULT_FIELD_SEPERATER
+                        + key.token);
+            }
+            else {
+                out_key.set(key.appkey + ConstantVars.RESULT_FIELD_SEPERATER
+                        + key.componentkey + ConstantVars.RESULT_FIELD_SEPERATER
+                        + key.token);
+            }
+            
+            out_val.set(earliest_val.year + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.month + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.day + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.week + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.utctime + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.localtime + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.country + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.language + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.device + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.osversion + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.resolution + ConstantVars.RESULT_FIELD_SEPERATER
+                    + earliest_val.appversion);
+            
+            if (candidate) {
+                // users of log to merge with db, into named output of the db
+                mos.write(out_key, out_val, key.dbtag + "/part");
+                context.getCounter(appdb ? MergeCandidate.APP : MergeCandidate.COMPONENT)
+                        .increment(1);
+            }
+            else {
+                // write into the partition of first-seen date in named output of the db
+                mos.write(out_key, out_val, key.dbtag + "/" + HdfsFileUtil.getDatabasePartitionName(
+                        earliest_val.year, earliest_val.month, earliest_val.day) + "/part");
+                if (appdb && countday.equals(earliest_day)) {
+                    addCount(newusers, key.appkey);
+                    addCount(countrynewusers, key.appkey + ConstantVars.RESULT_FIELD_SEPERATER
+                            + earliest_val.country);
+                }
+            }
+        }
+    }
+    
+    private static void addCount(Map<String, Long> counts, String key) {
+        
+        Long count = counts.get(key);
+        counts.put(key, (count != null) ? count + 1 : 1L);
+    }
+    
+    private static class NewuserMergePartitioner
+        extends Partitioner<NewuserMergeKey, ComponentNewuserDb> {
+        @Override
+        public int getPartition(NewuserMergeKey key, ComponentNewuserDb value,
+                int numPartitions) {
+            return PartitionUtil.toPartition(key.hashCode(), numPartitions);
+        }
+    }
+    
+    /**
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        
+        long start_time=0, end_time=0;
+        int exitCode = 0;
+        
+        start_time = System.currentTimeMillis();
+        
+        WorkLogger.log(NewuserMerge.class.getSimpleName()
+                + " : Start mapreduce job");
+        
+        try {
+            exitCode = ToolRunner.run(new NewuserMerge(), args);
+            
+            WorkLogger.log(NewuserMerge.class.getSimpleName()
+                    + " : End mapreduce job");
+        }
+        catch (Exception e) {
+            ErrorLogger.log(NewuserMerge.class.getSimpleName()
+                    + " : Error : " + e.getMessage());
+            WorkLogger.log(NewuserMerge.class.getSimpleName()
+                    + " : Failed mapreduce job");
+        }
+        
+        end_time = System.currentTimeMillis();
+        
+        try {
+            FingraphConfig config = new FingraphConfig();
+            if (config.getDebug().isDebug_show_spenttime())
+                WorkLogger.log("DEBUG - run times : "
+                        + FormatUtil.getDurationFromMillitimes(end_time - start_time));
+        }
+        catch (IOException ignore) {}
+        
+        System.exit(exitCode);
+    }
+}
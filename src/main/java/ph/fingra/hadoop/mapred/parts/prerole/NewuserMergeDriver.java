@@ -0,0 +1,411 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parts.prerole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.Tool;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.FingraphConfig;
+import ph.fingra.hadoop.common.HfsPathInfo;
+import ph.fingra.hadoop.common.domain.TargetDate;
+import ph.fingra.hadoop.common.logger.WorkLogger;
+import ph.fingra.hadoop.common.util.ArgsOptionUtil;
+import ph.fingra.hadoop.common.util.DateTimeUtil;
+import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.NewuserDbSnapshot;
+import ph.fingra.hadoop.mapred.common.NewuserDbUtil;
+
+/**
+ * Driver of the newuser db merge, shared by AppNewuserMerge and
+ * ComponentNewuserMerge.
+ * 
+ * The two merges differ only in the user key (appkey, [componentkey,]
+ * token), the db and count directories and the classes of their jobs, so
+ * db modes, expiry, snapshots and new user counts are run here.
+ * 
+ * Key index : full and compact merges write a sorted key index of the db,
+ * and join merges update it with the new users they add. Delta merges do
+ * not, so they delete the index, and join mode runs as delta until the db
+ * is compacted (or fully merged) again.
+ */
+public abstract class NewuserMergeDriver extends Configured implements Tool {
+    
+    private static final String TASK_COUNTER_GROUP = "org.apache.hadoop.mapred.Task$Counter";
+    private static final String REDUCE_OUTPUT_RECORDS = "REDUCE_OUTPUT_RECORDS";
+    
+    private final String dbname;
+    private final int keyfields;
+    
+    /*
+     * dbname : name of db in logs (app, component),
+     * keyfields : count of user key fields leading each db row
+     */
+    protected NewuserMergeDriver(String dbname, int keyfields) {
+        this.dbname = dbname;
+        this.keyfields = keyfields;
+    }
+    
+    protected abstract String getDbDir(HfsPathInfo hfspath);
+    
+    protected abstract String getMergePath(HfsPathInfo hfspath);
+    
+    /*
+     * directory of new user counts of the day, null if not counted
+     */
+    protected abstract String getCountDir(HfsPathInfo hfspath);
+    
+    /*
+     * file name of old single db file
+     */
+    protected abstract String getDbFileName();
+    
+    protected abstract int getKeepMonth(FingraphConfig finconfig);
+    
+    protected abstract int getBackupCount(FingraphConfig finconfig);
+    
+    public abstract Job createJob(Configuration conf, Path[] inputpaths, Path outputpath,
+            int numreduce, FingraphConfig finconfig, Path[] dbpaths, String dbpath,
+            TargetDate cutdate, String dbmode, List<String> logdays, String countday,
+            Path filterpath) throws IOException;
+    
+    public abstract Job createJobCandidate(Configuration conf, Path[] inputpaths,
+            Path outputpath, int numreduce, FingraphConfig finconfig) throws IOException;
+    
+    public abstract Job createJobJoin(Configuration conf, Path candidatepath,
+            Path outputpath, FingraphConfig finconfig, String dbpath, TargetDate cutdate,
+            List<String> logdays, String countday) throws IOException;
+    
+    @Override
+    public int run(String[] args) throws Exception {
+        
+        String opt_mode = "";
+        int opt_numreduce = 0;
+        String opt_dbmode = "";
+        
+        FingraphConfig fingraphConfig = new FingraphConfig();
+        TargetDate targetDate = null;
+        TargetDate cutDate = null;
+        
+        Configuration conf = getConf();
+        Path[] inputPaths = null;
+        Path outputPath = null;
+        Path compactPath = null;
+        Path candidatePath = null;
+        Path[] dbPaths = null;
+        String dbPath = null;
+        String dbDir = null;
+        String countDir = null;
+        List<String> logDays = null;
+        
+        String logName = getClass().getSimpleName();
+        
+        // get -D optional value
+        opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
+        opt_numreduce = conf.getInt(ConstantVars.DOPTION_NUMREDUCE, 0);
+        opt_dbmode = conf.get(ConstantVars.DOPTION_DBMODE, ConstantVars.DBMODE_DELTA);
+        
+        // runmode & targetdate check, get TargetDate info
+        targetDate = getTargetDate(conf);
+        if (opt_dbmode.equals(ConstantVars.DBMODE_DELTA)==false
+                && opt_dbmode.equals(ConstantVars.DBMODE_FULL)==false
+                && opt_dbmode.equals(ConstantVars.DBMODE_COMPACT)==false
+                && opt_dbmode.equals(ConstantVars.DBMODE_JOIN)==false
+                && opt_dbmode.equals(ConstantVars.DBMODE_ROLLBACK)==false) {
+            throw new Exception("option value of -Ddbmode is not correct");
+        }
+        
+        // get the most out of date stored in newuser db
+        cutDate = getCutDate(targetDate, getKeepMonth(fingraphConfig));
+        
+        WorkLogger.log(logName
+                + " : [run mode] " + opt_mode
+                + " , [target date] " + targetDate.getFulldate()
+                + " , [reducer count] " + opt_numreduce);
+        
+        // newuser merge's run mode restriction (partitions of db hold whole days)
+        if (opt_mode.equals(ConstantVars.RUNMODE_DAY)==false) {
+            WorkLogger.warn(logName
+                    + " : this class can operate only day mode");
+            return 0;
+        }
+        
+        // get this job's input path - transform log file
+        inputPaths = HdfsFileUtil.getTransformInputPaths(fingraphConfig, opt_mode,
+                targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                targetDate.getHour(), targetDate.getWeek());
+        
+        // get this job's output path
+        HfsPathInfo hfsPath = new HfsPathInfo(fingraphConfig, opt_mode);
+        outputPath = new Path(getMergePath(hfsPath));
+        compactPath = new Path(getMergePath(hfsPath) + "_compact");
+        candidatePath = new Path(getMergePath(hfsPath) + "_candidate");
+        dbDir = getDbDir(hfsPath);
+        countDir = getCountDir(hfsPath);
+        
+        int backupCount = getBackupCount(fingraphConfig);
+        
+        // switch db to previous snapshot, key index is rebuilt by next compaction
+        if (opt_dbmode.equals(ConstantVars.DBMODE_ROLLBACK)) {
+            String version = NewuserDbSnapshot.rollback(dbDir, countDir, backupCount);
+            if (version == null) {
+                WorkLogger.log(logName + " : no previous snapshot of db to roll back");
+                return 1;
+            }
+            NewuserDbUtil.deleteKeyIndex(dbDir);
+            WorkLogger.log(logName + " : [rollback to] " + version);
+            return 0;
+        }
+        
+        // delta/join merge appends partitions to partitioned db, so merge fully at first
+        if ((opt_dbmode.equals(ConstantVars.DBMODE_DELTA)
+                    || opt_dbmode.equals(ConstantVars.DBMODE_JOIN))
+                && HdfsFileUtil.isPartitionedDatabase(dbDir) == false) {
+            opt_dbmode = ConstantVars.DBMODE_FULL;
+        }
+        // join merge needs key index written by full merge or compaction
+        int buckets = 0;
+        if (opt_dbmode.equals(ConstantVars.DBMODE_JOIN)) {
+            buckets = NewuserDbUtil.readKeyIndexBuckets(dbDir);
+            if (buckets <= 0) {
+                WorkLogger.log(logName + " : no key index of db (deleted by delta merge"
+                        + " or rollback), merge in delta mode until db is compacted");
+                opt_dbmode = ConstantVars.DBMODE_DELTA;
+            }
+        }
+        
+        // expired partitions are dropped as a whole by the commit, without reading their rows
+        List<String> expiredDays = new ArrayList<String>();
+        if (HdfsFileUtil.isPartitionedDatabase(dbDir)) {
+            expiredDays = NewuserDbUtil.getExpiredDays(dbDir,
+                    cutDate.getYear()+cutDate.getMonth()+cutDate.getDay());
+            WorkLogger.log(logName + " : [expired partitions] " + expiredDays.size());
+        }
+        
+        // get this job's input path - newuser db (partitions or old single file)
+        logDays = NewuserDbUtil.getLogDays(inputPaths);
+        if (opt_dbmode.equals(ConstantVars.DBMODE_DELTA)) {
+            // partitions of log days are merged again from log
+            List<String> skipDays = new ArrayList<String>(expiredDays);
+            skipDays.addAll(logDays);
+            dbPaths = NewuserDbUtil.getPartitionPaths(dbDir, skipDays);
+        }
+        else if (HdfsFileUtil.isPartitionedDatabase(dbDir)) {
+            dbPaths = NewuserDbUtil.getPartitionPaths(dbDir, expiredDays);
+        }
+        else {
+            dbPaths = HdfsFileUtil.getDatabaseInputPaths(fingraphConfig, dbDir);
+        }
+        if (opt_dbmode.equals(ConstantVars.DBMODE_COMPACT)) {
+            if (dbPaths.length <= 0) {
+                WorkLogger.log(logName + " : no " + this.dbname + " newuser db to compact");
+                return 0;
+            }
+            inputPaths = new Path[0];
+        }
+        dbPath = HdfsFileUtil.findDatabase(fingraphConfig, dbDir);
+        
+        WorkLogger.log(logName + " : [db mode] " + opt_dbmode);
+        
+        // new users of target day are counted for NewuserStatistic in day mode
+        String countDay = "";
+        if (countDir != null && opt_mode.equals(ConstantVars.RUNMODE_DAY)
+                && opt_dbmode.equals(ConstantVars.DBMODE_COMPACT) == false) {
+            countDay = targetDate.getYear() + targetDate.getMonth() + targetDate.getDay();
+        }
+        
+        // delete previous output path if is exist
+        FileSystem fs = FileSystem.get(conf);
+        List<Path> deletePaths = new ArrayList<Path>();
+        deletePaths.add(outputPath);
+        deletePaths.add(compactPath);
+        deletePaths.add(candidatePath);
+        for (Path deletePath : deletePaths) {
+            fs.delete(deletePath, true);
+        }
+        
+        int status = 0;
+        
+        if (opt_dbmode.equals(ConstantVars.DBMODE_DELTA)) {
+            
+            // 1) users of log with earliest record
+            Job job = createJobCandidate(conf, inputPaths, candidatePath, opt_numreduce,
+                    fingraphConfig);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+            
+            if (status == 0) {
+                
+                // 2) merge with db rows passing bloom filter of users in log
+                long usercount = job.getCounters().findCounter(
+                        TASK_COUNTER_GROUP, REDUCE_OUTPUT_RECORDS).getValue();
+                Path filterPath = NewuserDbUtil.writeUserFilter(candidatePath.toString(),
+                        this.keyfields, usercount);
+                
+                job = createJob(conf, new Path[] { candidatePath }, outputPath, opt_numreduce,
+                        fingraphConfig, dbPaths,
+                        (dbPath != null) ? fs.makeQualified(new Path(dbPath)).toString() : "",
+                        cutDate, opt_dbmode, logDays, countDay, fs.makeQualified(filterPath));
+                
+                status = job.waitForCompletion(true) ? 0 : 1;
+            }
+            
+            // replace partitions of log days only
+            if (status == 0) {
+                NewuserDbSnapshot.commitPartitions(outputPath.toString(), dbDir, logDays,
+                        expiredDays, backupCount);
+                // counts are published only with the db version they count
+                replaceNewuserCounts(outputPath, countDir, countDay, cutDate);
+                // new users of log are not in key index, join waits for next compaction
+                if (NewuserDbUtil.readKeyIndexBuckets(dbDir) > 0) {
+                    WorkLogger.log(logName + " : key index of db is deleted by delta merge,"
+                            + " compact db before join merge");
+                }
+                NewuserDbUtil.deleteKeyIndex(dbDir);
+            }
+            
+            return status;
+        }
+        
+        if (opt_dbmode.equals(ConstantVars.DBMODE_JOIN)) {
+            
+            // 1) users of log with earliest record, in the buckets of key index
+            Job job = createJobCandidate(conf, inputPaths, candidatePath, buckets,
+                    fingraphConfig);
+            
+            status = job.waitForCompletion(true) ? 0 : 1;
+            
+            if (status == 0) {
+                
+                // 2) map-side merge join of each bucket with key index bucket
+                job = createJobJoin(conf, candidatePath, outputPath, fingraphConfig,
+                        fs.makeQualified(new Path(dbDir)).toString(), cutDate, logDays, countDay);
+                
+                status = job.waitForCompletion(true) ? 0 : 1;
+            }
+            
+            // replace partitions of log days and key index
+            if (status == 0) {
+                NewuserDbSnapshot.commitPartitions(outputPath.toString(), dbDir, logDays,
+                        expiredDays, backupCount);
+                replaceNewuserCounts(outputPath, countDir, countDay, cutDate);
+                NewuserDbUtil.replaceKeyIndex(outputPath.toString(), dbDir, buckets);
+            }
+            
+            return status;
+        }
+        
+        Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
+                fingraphConfig, dbPaths,
+                (dbPath != null) ? fs.makeQualified(new Path(dbPath)).toString() : "",
+                cutDate, opt_dbmode, logDays, countDay, null);
+        
+        status = job.waitForCompletion(true) ? 0 : 1;
+        
+        if (status == 0) {
+            Path newdbPath = outputPath;
+            if (opt_dbmode.equals(ConstantVars.DBMODE_COMPACT)) {
+                // one file per partition
+                NewuserDbUtil.compactPartitions(outputPath.toString(), compactPath.toString(),
+                        fingraphConfig.getCompress().getCompress_database_codec());
+                newdbPath = compactPath;
+            }
+            
+            // backup old single db file, db partitions are versioned by snapshots
+            if (dbPath != null && HdfsFileUtil.isPartitionedDatabase(dbDir) == false) {
+                HdfsFileUtil.deleteNBackupFile(hfsPath.getDATABASE_root(), dbPath,
+                        backupCount,
+                        targetDate.getYear()+targetDate.getMonth()+targetDate.getDay(),
+                        getDbFileName());
+            }
+            
+            // new version of db with merged partitions
+            NewuserDbSnapshot.commitPartitions(newdbPath.toString(), dbDir, null,
+                    expiredDays, backupCount);
+            // counts are published only with the db version they count
+            replaceNewuserCounts(outputPath, countDir, countDay, cutDate);
+            if (job.getNumReduceTasks() > 0) {
+                NewuserDbUtil.replaceKeyIndex(newdbPath.toString(), dbDir,
+                        job.getNumReduceTasks());
+            }
+            else {
+                NewuserDbUtil.deleteKeyIndex(dbDir);
+            }
+        }
+        
+        return status;
+    }
+    
+    /*
+     * target date of -Drunmode and -Dtargetdate
+     */
+    static TargetDate getTargetDate(Configuration conf) throws Exception {
+        
+        String opt_mode = conf.get(ConstantVars.DOPTION_RUNMODE, "");
+        String opt_target = conf.get(ConstantVars.DOPTION_TARGETDATE, "");
+        
+        // runmode & targetdate check
+        if (ArgsOptionUtil.checkRunmode(opt_mode)==false) {
+            throw new Exception("option value of -Drunmode is not correct");
+        }
+        if (opt_target.isEmpty()==false) {
+            if (ArgsOptionUtil.checkTargetDateByMode(opt_mode, opt_target)==false) {
+                throw new Exception("option value of -Dtargetdate is not correct");
+            }
+        }
+        else {
+            opt_target = ArgsOptionUtil.getDefaultTargetDateByMode(opt_mode);
+        }
+        
+        return ArgsOptionUtil.getTargetDate(opt_mode, opt_target);
+    }
+    
+    /*
+     * the most out of date stored in newuser db
+     */
+    static TargetDate getCutDate(TargetDate targetdate, int keepmonth) throws Exception {
+        
+        String cutdate = DateTimeUtil.addMonths(
+                targetdate.getYear()+"-"+targetdate.getMonth()+"-"+targetdate.getDay(),
+                0 - keepmonth, "yyyy-MM-dd");
+        
+        return ArgsOptionUtil.getTargetDate(ConstantVars.RUNMODE_DAY, cutdate);
+    }
+    
+    /*
+     * move new user counts of countday in merge output to countdir
+     */
+    static void replaceNewuserCounts(Path outputpath, String countdir, String countday,
+            TargetDate cutdate) throws IOException {
+        
+        if (countday.isEmpty()) {
+            return;
+        }
+        
+        NewuserDbUtil.replaceNewuserCounts(outputpath.toString(), countdir,
+                countday.substring(0, 4), countday.substring(4, 6), countday.substring(6),
+                cutdate.getYear()+cutdate.getMonth()+cutdate.getDay());
+    }
+}
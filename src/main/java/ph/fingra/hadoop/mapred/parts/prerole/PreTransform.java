@@ -28,19 +28,20 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
 import ph.fingra.hadoop.common.ConstantVars;
 import ph.fingra.hadoop.common.FingraphConfig;
 import ph.fingra.hadoop.common.HfsPathInfo;
+import ph.fingra.hadoop.common.ConstantVars.DataUsable;
 import ph.fingra.hadoop.common.ConstantVars.LogParserType;
 import ph.fingra.hadoop.common.ConstantVars.LogValidation;
 import ph.fingra.hadoop.common.domain.TargetDate;
@@ -48,10 +49,18 @@ import ph.fingra.hadoop.common.logger.ErrorLogger;
 import ph.fingra.hadoop.common.logger.WorkLogger;
 import ph.fingra.hadoop.common.util.ArgsOptionUtil;
 import ph.fingra.hadoop.common.util.FormatUtil;
+import ph.fingra.hadoop.common.util.LogTimeCodec;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.CombineTextInputFormat;
+import ph.fingra.hadoop.mapred.common.CompressUtil;
 import ph.fingra.hadoop.mapred.common.CopyWithinHdfsFile;
 import ph.fingra.hadoop.mapred.common.HdfsFileUtil;
+import ph.fingra.hadoop.mapred.common.PartitionUtil;
+import ph.fingra.hadoop.mapred.common.TransformColumnarFile;
+import ph.fingra.hadoop.mapred.common.TransformColumnarOutputFormat;
 import ph.fingra.hadoop.mapred.parse.CommonLogParser;
 import ph.fingra.hadoop.mapred.parse.ComponentLogParser;
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
 import ph.fingra.hadoop.mapred.parts.prerole.domain.TransformContainer;
 import ph.fingra.hadoop.mapred.parts.prerole.domain.TransformKey;
 
@@ -98,11 +107,13 @@ public class PreTransform extends Configured implements Tool {
                 + " , [reducer count] " + opt_numreduce);
         
         // PreTransform's run mode restriction
-        if (opt_mode.equals(ConstantVars.RUNMODE_DAY)==false) {
+        if (opt_mode.equals(ConstantVars.RUNMODE_DAY)==false
+                && opt_mode.equals(ConstantVars.RUNMODE_HOUR)==false) {
             WorkLogger.warn(PreTransform.class.getSimpleName()
-                    + " : this class can operate only day mode");
+                    + " : this class can operate only day or hour mode");
             return 0;
         }
+        boolean hourmode = opt_mode.equals(ConstantVars.RUNMODE_HOUR);
         
         // get this job's input path - original log file
         inputPaths = HdfsFileUtil.getOriginInputPaths(fingraphConfig, opt_mode,
@@ -121,29 +132,60 @@ public class PreTransform extends Configured implements Tool {
             fs.delete(deletePath, true);
         }
         
+        // hour mode keeps rows of the target hour only, from origin log of the day
         Job job = createJob(conf, inputPaths, outputPath, opt_numreduce,
-                fingraphConfig);
+                fingraphConfig, hourmode ? targetDate.getHour() : "");
         
         int status = job.waitForCompletion(true) ? 0 : 1;
         
-        // delete origin log file if delete option is on
-        if (fingraphConfig.getSetting().isDelete_origin_file()) {
+        // delete origin log file if delete option is on (origin log of the day
+        // is still written while hour mode runs)
+        if (hourmode == false && fingraphConfig.getSetting().isDelete_origin_file()) {
             HdfsFileUtil.deleteOriginFiles(fingraphConfig,
                     targetDate.getYear(), targetDate.getMonth(), targetDate.getDay());
         }
         // copy to hdfs log paths
         CopyWithinHdfsFile copier = new CopyWithinHdfsFile();
-        copier.dirToFile(outputPath.toString(), HdfsFileUtil.getSaveTransformFilePath(
-                fingraphConfig, targetDate.getYear(), targetDate.getMonth(), targetDate.getDay()));
+        CompressUtil.checkSplittable(fingraphConfig.getCompress().getCompress_transform_codec(),
+                "transform log");
+        String savePath = null;
+        String saveColumnarPath = null;
+        if (hourmode) {
+            savePath = HdfsFileUtil.getSaveTransformHourFilePath(fingraphConfig,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                    targetDate.getHour());
+            saveColumnarPath = HdfsFileUtil.getSaveColumnarTransformHourPath(fingraphConfig,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay(),
+                    targetDate.getHour());
+        }
+        else {
+            savePath = HdfsFileUtil.getSaveTransformFilePath(fingraphConfig,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay());
+            saveColumnarPath = HdfsFileUtil.getSaveColumnarTransformPath(fingraphConfig,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay());
+        }
+        copier.dirToFile(outputPath.toString(), savePath,
+                fingraphConfig.getCompress().getCompress_transform_codec());
+        // move columnar transform log beside, or delete one of previous run
+        HdfsFileUtil.replaceColumnarTransform(outputPath.toString(), saveColumnarPath);
+        
+        // hour partitions of the day are replaced by the transform log of the day
+        if (hourmode == false && status == 0) {
+            HdfsFileUtil.deleteTransformHourFiles(fingraphConfig,
+                    targetDate.getYear(), targetDate.getMonth(), targetDate.getDay());
+        }
         
         return status;
     }
     
     public Job createJob(Configuration conf, Path[] inputpaths, Path outputpath,
-            int numreduce, FingraphConfig finconfig) throws IOException {
+            int numreduce, FingraphConfig finconfig, String hour) throws IOException {
         
         conf.setBoolean("verbose", finconfig.getDebug().isDebug_show_verbose());
         conf.setBoolean("counter", finconfig.getDebug().isDebug_show_counter());
+        CompressUtil.setMapOutputCompress(conf, finconfig);
+        conf.setBoolean("columnar", finconfig.getSetting().isTransform_columnar());
+        conf.set("hour", hour);
         
         Job job = new Job(conf);
         String jobName = "prerole/pretransform job";
@@ -154,7 +196,19 @@ public class PreTransform extends Configured implements Tool {
         for (int i=0; i<inputpaths.length; i++) {
             FileInputFormat.addInputPath(job, inputpaths[i]);
         }
+        if (finconfig.getSetting().getOrigin_input_split_mb() > 0) {
+            // pack small sdk log files into splits of origin_input_split_mb
+            CombineTextInputFormat.setInputFormat(job, CombineTextInputFormat.MEGABYTES
+                    * finconfig.getSetting().getOrigin_input_split_mb());
+        }
         FileOutputFormat.setOutputPath(job, outputpath);
+        CompressUtil.setOutputCompress(job, finconfig.getCompress().getCompress_intermediate_codec());
+        if (finconfig.getSetting().isTransform_columnar()) {
+            // columnar transform log of the same rows, for TransformInputFormat
+            MultipleOutputs.addNamedOutput(job, TransformColumnarFile.NAMED_OUTPUT,
+                    TransformColumnarOutputFormat.class, NullWritable.class,
+                    TransformRecord.class);
+        }
         
         job.setMapperClass(PreTransformMapper.class);
         job.setReducerClass(PreTransformReducer.class);
@@ -179,18 +233,35 @@ public class PreTransform extends Configured implements Tool {
         
         private boolean verbose = false;
         private boolean counter = false;
+        private int hour = -1;
         
         private CommonLogParser commonparser = new CommonLogParser();
         private ComponentLogParser compoparser = new ComponentLogParser();
         
         private TransformKey out_key = new TransformKey();
         private TransformContainer out_val = new TransformContainer();
-        private StringBuilder buf = new StringBuilder("");
         
         protected void setup(Context context)
                 throws IOException, InterruptedException {
             verbose = context.getConfiguration().getBoolean("verbose", false);
             counter = context.getConfiguration().getBoolean("counter", false);
+            String target_hour = context.getConfiguration().get("hour", "");
+            if (target_hour.isEmpty() == false) {
+                hour = Integer.parseInt(target_hour);
+            }
+        }
+        
+        /*
+         * row of other hour than target hour in hour mode
+         */
+        private boolean isOtherHour(String utctime, Context context) {
+            
+            if (hour >= 0 && LogTimeCodec.getHour(utctime) != hour) {
+                if (counter)
+                    context.getCounter(DataUsable.USELESS).increment(1);
+                return true;
+            }
+            return false;
         }
         
         @Override
@@ -198,7 +269,7 @@ public class PreTransform extends Configured implements Tool {
                 throws IOException, InterruptedException {
             
             // logtype check
-            LogParserType logtype = FormatUtil.getLogParserType(value.toString());
+            LogParserType logtype = FormatUtil.getLogParserType(value.getBytes(), value.getLength());
             
             if (logtype.equals(LogParserType.CommonLog)) {
                 
@@ -211,40 +282,22 @@ public class PreTransform extends Configured implements Tool {
                 commonparser.parse(value);
                 if (commonparser.hasError() == false) {
                     
-                    String format_str = "";
-                    if (commonparser.getCmd().equals(ConstantVars.CMD_STARTSESS)) {
-                        format_str = FormatUtil.getStartLogString(buf,
-                                commonparser.getAppkey(), commonparser.getSession(),
-                                commonparser.getUtctime(), commonparser.getLocaltime(),
-                                commonparser.getToken(), commonparser.getCountry(),
-                                commonparser.getLanguage(), commonparser.getDevice(),
-                                commonparser.getOsversion(), commonparser.getResolution(),
-                                commonparser.getAppversion());
-                    }
-                    else if (commonparser.getCmd().equals(ConstantVars.CMD_PAGEVIEW)) {
-                        format_str = FormatUtil.getPageviewLogString(buf,
-                                commonparser.getAppkey(), commonparser.getSession(),
-                                commonparser.getUtctime(), commonparser.getLocaltime(),
-                                commonparser.getToken(), commonparser.getCountry(),
-                                commonparser.getLanguage(), commonparser.getDevice(),
-                                commonparser.getOsversion(), commonparser.getResolution(),
-                                commonparser.getAppversion());
-                    }
-                    else if (commonparser.getCmd().equals(ConstantVars.CMD_ENDSESS)) {
-                        format_str = FormatUtil.getEndLogString(buf,
-                                commonparser.getAppkey(), commonparser.getSession(),
-                                commonparser.getUtctime(), commonparser.getLocaltime(),
-                                commonparser.getToken(), commonparser.getCountry(),
-                                commonparser.getLanguage(), commonparser.getDevice(),
-                                commonparser.getOsversion(), commonparser.getResolution(),
-                                commonparser.getAppversion());
+                    if (isOtherHour(commonparser.getUtctime(), context)) {
+                        return;
                     }
                     
-                    if (format_str.isEmpty()==false) {
+                    if (commonparser.getCmd().equals(ConstantVars.CMD_STARTSESS)
+                            || commonparser.getCmd().equals(ConstantVars.CMD_PAGEVIEW)
+                            || commonparser.getCmd().equals(ConstantVars.CMD_ENDSESS)) {
                         out_key.set(commonparser.getAppkey(), commonparser.getToken(),
                                 commonparser.getSession(), commonparser.getCmd(),
                                 commonparser.getUtctime());
-                        out_val.set(commonparser.getCmd(), format_str);
+                        out_val.set(commonparser.getCmd(), commonparser.getAppkey(), "",
+                                commonparser.getSession(), commonparser.getToken(),
+                                commonparser.getUtctime(), commonparser.getLocaltime(),
+                                commonparser.getCountry(), commonparser.getLanguage(),
+                                commonparser.getDevice(), commonparser.getOsversion(),
+                                commonparser.getResolution(), commonparser.getAppversion());
                         
                         context.write(out_key, out_val);
                     }
@@ -263,22 +316,21 @@ public class PreTransform extends Configured implements Tool {
                 compoparser.parse(value);
                 if (compoparser.hasError() == false) {
                     
-                    String format_str = "";
-                    if (compoparser.getCmd().equals(ConstantVars.CMD_COMPONENT)) {
-                        format_str = FormatUtil.getComponentLogString(buf,
-                                compoparser.getAppkey(), compoparser.getComponentkey(),
-                                compoparser.getSession(), compoparser.getUtctime(),
-                                compoparser.getLocaltime(), compoparser.getToken(),
-                                compoparser.getCountry(), compoparser.getLanguage(),
-                                compoparser.getDevice(), compoparser.getOsversion(),
-                                compoparser.getResolution(), compoparser.getAppversion());
+                    if (isOtherHour(compoparser.getUtctime(), context)) {
+                        return;
                     }
                     
-                    if (format_str.isEmpty()==false) {
+                    if (compoparser.getCmd().equals(ConstantVars.CMD_COMPONENT)) {
                         out_key.set(compoparser.getAppkey(), compoparser.getToken(),
                                 compoparser.getSession(), compoparser.getCmd(),
                                 compoparser.getUtctime());
-                        out_val.set(compoparser.getCmd(), format_str);
+                        out_val.set(compoparser.getCmd(), compoparser.getAppkey(),
+                                compoparser.getComponentkey(), compoparser.getSession(),
+                                compoparser.getToken(), compoparser.getUtctime(),
+                                compoparser.getLocaltime(), compoparser.getCountry(),
+                                compoparser.getLanguage(), compoparser.getDevice(),
+                                compoparser.getOsversion(), compoparser.getResolution(),
+                                compoparser.getAppversion());
                         
                         context.write(out_key, out_val);
                     }
@@ -304,6 +356,70 @@ public class PreTransform extends Configured implements Tool {
         extends Reducer<TransformKey, TransformContainer, NullWritable, Text> {
         
         private Text out_val = new Text();
+        private boolean columnar = false;
+        private MultipleOutputs<NullWritable, Text> mos;
+        private TransformRecord record = new TransformRecord();
+        private TransformContainer last_end = new TransformContainer();
+        private StringBuilder buf = new StringBuilder("");
+        
+        protected void setup(Context context)
+                throws IOException, InterruptedException {
+            columnar = context.getConfiguration().getBoolean("columnar", false);
+            if (columnar) {
+                mos = new MultipleOutputs<NullWritable, Text>(context);
+            }
+        }
+        
+        protected void cleanup(Context context)
+                throws IOException, InterruptedException {
+            if (columnar) {
+                mos.close();
+            }
+        }
+        
+        private String getLogString(TransformContainer val) {
+            
+            if (val.cmd.equals(ConstantVars.CMD_STARTSESS)) {
+                return FormatUtil.getStartLogString(buf, val.appkey, val.session,
+                        val.utctime, val.localtime, val.token, val.country,
+                        val.language, val.device, val.osversion, val.resolution,
+                        val.appversion);
+            }
+            else if (val.cmd.equals(ConstantVars.CMD_PAGEVIEW)) {
+                return FormatUtil.getPageviewLogString(buf, val.appkey, val.session,
+                        val.utctime, val.localtime, val.token, val.country,
+                        val.language, val.device, val.osversion, val.resolution,
+                        val.appversion);
+            }
+            else if (val.cmd.equals(ConstantVars.CMD_ENDSESS)) {
+                return FormatUtil.getEndLogString(buf, val.appkey, val.session,
+                        val.utctime, val.localtime, val.token, val.country,
+                        val.language, val.device, val.osversion, val.resolution,
+                        val.appversion);
+            }
+            else {
+                return FormatUtil.getComponentLogString(buf, val.appkey,
+                        val.componentkey, val.session, val.utctime, val.localtime,
+                        val.token, val.country, val.language, val.device,
+                        val.osversion, val.resolution, val.appversion);
+            }
+        }
+        
+        private void write(Context context, TransformContainer val)
+                throws IOException, InterruptedException {
+            
+            out_val.set(getLogString(val));
+            context.write(NullWritable.get(), out_val);
+            
+            if (columnar) {
+                // same fields as the text line, no parsing back of it
+                record.set(val.cmd, val.appkey, val.componentkey, val.session,
+                        val.token, val.utctime, val.localtime, val.country,
+                        val.language, val.device, val.osversion, val.resolution,
+                        val.appversion);
+                mos.write(TransformColumnarFile.NAMED_OUTPUT, NullWritable.get(), record);
+            }
+        }
         
         @Override
         protected void reduce(TransformKey key, Iterable<TransformContainer> values,
@@ -314,24 +430,22 @@ public class PreTransform extends Configured implements Tool {
             // - and order by appkey/token/session/cmd/utctime
             
             boolean has_end = false;
-            String last_end = "";
             for (TransformContainer val : values) {
                 
                 if (val.cmd.equals(ConstantVars.CMD_STARTSESS)
                         || val.cmd.equals(ConstantVars.CMD_PAGEVIEW)
                         || val.cmd.equals(ConstantVars.CMD_COMPONENT)) {
-                    out_val.set(val.logline);
-                    context.write(NullWritable.get(), out_val);
+                    write(context, val);
                 }
                 else if (val.cmd.equals(ConstantVars.CMD_ENDSESS)) {
+                    // value object is reused by the iterator
                     has_end = true;
-                    last_end = val.logline;
+                    last_end.set(val);
                 }
             }
             
             if (has_end) {
-                out_val.set(last_end);
-                context.write(NullWritable.get(), out_val);
+                write(context, last_end);
             }
         }
     }
@@ -341,14 +455,14 @@ public class PreTransform extends Configured implements Tool {
         @Override
         public int getPartition(TransformKey key, TransformContainer value,
                 int numPartitions) {
-            return Math.abs((key.appkey+key.token+key.session).hashCode() * 127) % numPartitions;
+            return PartitionUtil.getPartition(key.appkey, key.token, key.session, numPartitions);
         }
     }
     
     private static class PreTransformSortComparator
-        extends WritableComparator {
+        extends TransformKey.Comparator {
         protected PreTransformSortComparator() {
-            super(TransformKey.class, true);
+            super();
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -364,9 +478,14 @@ public class PreTransform extends Configured implements Tool {
     }
     
     private static class PreTransformGroupComparator
-        extends WritableComparator {
+        extends BaseRawComparator {
         protected PreTransformGroupComparator() {
-            super(TransformKey.class, true);
+            super(TransformKey.class);
+        }
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // grouped by appkey/token/session
+            return compareUTFFields(b1, s1, b2, s2, 3);
         }
         @SuppressWarnings("rawtypes")
         @Override
@@ -20,9 +20,11 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.hadoop.io.WritableComparator;
 
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
 import ph.fingra.hadoop.mapred.common.BaseWritableComparable;
+import ph.fingra.hadoop.mapred.common.FieldHash;
 
 public class ComponentNewuserKey extends BaseWritableComparable<ComponentNewuserKey> {
     
@@ -68,6 +70,54 @@ public class ComponentNewuserKey extends BaseWritableComparable<ComponentNewuser
     @Override
     public int hashCode() {
         
-        return HashCodeBuilder.reflectionHashCode(this);
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, this.appkey);
+        h = FieldHash.add(h, this.componentkey);
+        h = FieldHash.add(h, this.token);
+        
+        return FieldHash.finish(h, 3);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        
+        if (this == obj) return true;
+        if (!(obj instanceof ComponentNewuserKey)) return false;
+        
+        ComponentNewuserKey o = (ComponentNewuserKey) obj;
+        return this.appkey.equals(o.appkey)
+                && this.componentkey.equals(o.componentkey)
+                && this.token.equals(o.token);
+    }
+    
+    @Override
+    public String toString() {
+        
+        StringBuilder buf = new StringBuilder();
+        buf.append(this.appkey)
+                .append(',').append(this.componentkey)
+                .append(',').append(this.token);
+        
+        return buf.toString();
+    }
+    
+    /**
+     * raw comparator in compareTo order, registered as default comparator
+     */
+    public static class Comparator extends BaseRawComparator {
+        
+        public Comparator() {
+            super(ComponentNewuserKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // appkey/componentkey/token
+            return compareUTFFields(b1, s1, b2, s2, 3);
+        }
+    }
+    
+    static {
+        WritableComparator.define(ComponentNewuserKey.class, new Comparator());
     }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.parts.prerole.domain;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparator;
+
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
+import ph.fingra.hadoop.mapred.common.BaseWritableComparable;
+import ph.fingra.hadoop.mapred.common.FieldHash;
+
+/**
+ * user key of app and component newuser db merged in one job, tagged by db
+ * (componentkey is empty for app newuser db)
+ */
+public class NewuserMergeKey extends BaseWritableComparable<NewuserMergeKey> {
+    
+    public static final String TAG_APP = "app";
+    public static final String TAG_COMPONENT = "component";
+    
+    public String dbtag = "";
+    public String appkey = "";
+    public String componentkey = "";
+    public String token = "";
+    
+    public void set(String dbtag, String appkey, String compokey, String token) {
+        
+        this.dbtag = dbtag;
+        this.appkey = appkey;
+        this.componentkey = compokey;
+        this.token = token;
+    }
+    
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        
+        this.dbtag = in.readUTF();
+        this.appkey = in.readUTF();
+        this.componentkey = in.readUTF();
+        this.token = in.readUTF();
+    }
+    
+    @Override
+    public void write(DataOutput out) throws IOException {
+        
+        out.writeUTF(this.dbtag);
+        out.writeUTF(this.appkey);
+        out.writeUTF(this.componentkey);
+        out.writeUTF(this.token);
+    }
+    
+    @Override
+    public int compareTo(NewuserMergeKey o) {
+        
+        int ret = 0;
+        
+        ret = this.dbtag.compareTo(o.dbtag); if (ret != 0) return ret;
+        ret = this.appkey.compareTo(o.appkey); if (ret != 0) return ret;
+        ret = this.componentkey.compareTo(o.componentkey); if (ret != 0) return ret;
+        ret = this.token.compareTo(o.token);
+        
+        return ret;
+    }
+    
+    @Override
+    public int hashCode() {
+        
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, this.dbtag);
+        h = FieldHash.add(h, this.appkey);
+        h = FieldHash.add(h, this.componentkey);
+        h = FieldHash.add(h, this.token);
+        
+        return FieldHash.finish(h, 4);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        
+        if (this == obj) return true;
+        if (!(obj instanceof NewuserMergeKey)) return false;
+        
+        NewuserMergeKey o = (NewuserMergeKey) obj;
+        return this.dbtag.equals(o.dbtag)
+                && this.appkey.equals(o.appkey)
+                && this.componentkey.equals(o.componentkey)
+                && this.token.equals(o.token);
+    }
+    
+    @Override
+    public String toString() {
+        
+        StringBuilder buf = new StringBuilder();
+        buf.append(this.dbtag)
+                .append(',').append(this.appkey)
+                .append(',').append(this.componentkey)
+                .append(',').append(this.token);
+        
+        return buf.toString();
+    }
+    
+    /**
+     * raw comparator in compareTo order, registered as default comparator
+     */
+    public static class Comparator extends BaseRawComparator {
+        
+        public Comparator() {
+            super(NewuserMergeKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // dbtag/appkey/componentkey/token
+            return compareUTFFields(b1, s1, b2, s2, 4);
+        }
+    }
+    
+    static {
+        WritableComparator.define(NewuserMergeKey.class, new Comparator());
+    }
+}
@@ -21,30 +21,90 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import ph.fingra.hadoop.mapred.common.BaseWritable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
 
+/**
+ * Fields of one transform log row, the reducer formats the text log line
+ * and the columnar TransformRecord from the same fields.
+ */
 public class TransformContainer extends BaseWritable<TransformContainer> {
     
     public String cmd = "";
-    public String logline = "";
+    public String appkey = "";
+    public String componentkey = "";
+    public String session = "";
+    public String token = "";
+    public String utctime = "";
+    public String localtime = "";
+    public String country = "";
+    public String language = "";
+    public String device = "";
+    public String osversion = "";
+    public String resolution = "";
+    public String appversion = "";
     
-    public void set(String cmd, String log) {
+    public void set(String cmd, String appkey, String componentkey,
+            String session, String token, String utctime, String localtime,
+            String country, String language, String device, String osversion,
+            String resolution, String appversion) {
         
         this.cmd = cmd;
-        this.logline = log;
+        this.appkey = appkey;
+        this.componentkey = componentkey;
+        this.session = session;
+        this.token = token;
+        this.utctime = utctime;
+        this.localtime = localtime;
+        this.country = country;
+        this.language = language;
+        this.device = device;
+        this.osversion = osversion;
+        this.resolution = resolution;
+        this.appversion = appversion;
+    }
+    
+    public void set(TransformContainer other) {
+        
+        set(other.cmd, other.appkey, other.componentkey, other.session,
+                other.token, other.utctime, other.localtime, other.country,
+                other.language, other.device, other.osversion, other.resolution,
+                other.appversion);
     }
     
     @Override
     public void readFields(DataInput in) throws IOException {
         
-        this.cmd = in.readUTF();
-        this.logline = in.readUTF();
+        this.cmd = CompactWritableUtil.readCmd(in);
+        this.appkey = in.readUTF();
+        this.componentkey = in.readUTF();
+        this.session = in.readUTF();
+        this.token = in.readUTF();
+        this.utctime = CompactWritableUtil.readLogTime(in);
+        this.localtime = CompactWritableUtil.readLogTime(in);
+        this.country = in.readUTF();
+        this.language = in.readUTF();
+        this.device = in.readUTF();
+        this.osversion = in.readUTF();
+        this.resolution = in.readUTF();
+        this.appversion = in.readUTF();
     }
     
     @Override
     public void write(DataOutput out) throws IOException {
         
-        out.writeUTF(this.cmd);
-        out.writeUTF(this.logline);
+        CompactWritableUtil.writeCmd(out, this.cmd);
+        out.writeUTF(this.appkey);
+        out.writeUTF(this.componentkey);
+        out.writeUTF(this.session);
+        out.writeUTF(this.token);
+        CompactWritableUtil.writeLogTime(out, this.utctime);
+        CompactWritableUtil.writeLogTime(out, this.localtime);
+        out.writeUTF(this.country);
+        out.writeUTF(this.language);
+        out.writeUTF(this.device);
+        out.writeUTF(this.osversion);
+        out.writeUTF(this.resolution);
+        out.writeUTF(this.appversion);
     }
     
     /**
@@ -20,10 +20,13 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.hadoop.io.WritableComparator;
 
 import ph.fingra.hadoop.common.ConstantVars.CommandType;
+import ph.fingra.hadoop.mapred.common.BaseRawComparator;
 import ph.fingra.hadoop.mapred.common.BaseWritableComparable;
+import ph.fingra.hadoop.mapred.common.CompactWritableUtil;
+import ph.fingra.hadoop.mapred.common.FieldHash;
 
 public class TransformKey extends BaseWritableComparable<TransformKey> {
     
@@ -48,8 +51,8 @@ public class TransformKey extends BaseWritableComparable<TransformKey> {
         this.appkey = in.readUTF();
         this.token = in.readUTF();
         this.session = in.readUTF();
-        this.cmd = in.readUTF();
-        this.utctime = in.readUTF();
+        this.cmd = CompactWritableUtil.readCmd(in);
+        this.utctime = CompactWritableUtil.readLogTime(in);
     }
     
     @Override
@@ -58,8 +61,8 @@ public class TransformKey extends BaseWritableComparable<TransformKey> {
         out.writeUTF(this.appkey);
         out.writeUTF(this.token);
         out.writeUTF(this.session);
-        out.writeUTF(this.cmd);
-        out.writeUTF(this.utctime);
+        CompactWritableUtil.writeCmd(out, this.cmd);
+        CompactWritableUtil.writeLogTime(out, this.utctime);
     }
     
     @Override
@@ -81,6 +84,80 @@ public class TransformKey extends BaseWritableComparable<TransformKey> {
     @Override
     public int hashCode() {
         
-        return HashCodeBuilder.reflectionHashCode(this);
+        int h = FieldHash.SEED;
+        h = FieldHash.add(h, this.appkey);
+        h = FieldHash.add(h, this.token);
+        h = FieldHash.add(h, this.session);
+        h = FieldHash.add(h, this.cmd);
+        h = FieldHash.add(h, this.utctime);
+        
+        return FieldHash.finish(h, 5);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        
+        if (this == obj) return true;
+        if (!(obj instanceof TransformKey)) return false;
+        
+        TransformKey o = (TransformKey) obj;
+        return this.appkey.equals(o.appkey)
+                && this.token.equals(o.token)
+                && this.session.equals(o.session)
+                && this.cmd.equals(o.cmd)
+                && this.utctime.equals(o.utctime);
+    }
+    
+    @Override
+    public String toString() {
+        
+        StringBuilder buf = new StringBuilder();
+        buf.append(this.appkey)
+                .append(',').append(this.token)
+                .append(',').append(this.session)
+                .append(',').append(this.cmd)
+                .append(',').append(this.utctime);
+        
+        return buf.toString();
+    }
+    
+    /**
+     * raw comparator in compareTo order, registered as default comparator
+     */
+    public static class Comparator extends BaseRawComparator {
+        
+        public Comparator() {
+            super(TransformKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int ret = 0;
+            
+            // appkey/token/session
+            ret = compareUTFFields(b1, s1, b2, s2, 3);
+            if (ret != 0) return ret;
+            for (int i = 0; i < 3; i++) {
+                s1 = skipUTF(b1, s1);
+                s2 = skipUTF(b2, s2);
+            }
+            
+            // cmd by CommandType ordinal
+            int cmd1 = CompactWritableUtil.getCmdOrdinal(b1, s1);
+            int cmd2 = CompactWritableUtil.getCmdOrdinal(b2, s2);
+            ret = (cmd1 == cmd2) ? 0:((cmd1 < cmd2) ? -1:1);
+            if (ret != 0) return ret;
+            s1 = CompactWritableUtil.skipCmd(b1, s1);
+            s2 = CompactWritableUtil.skipCmd(b2, s2);
+            
+            // utctime
+            ret = CompactWritableUtil.compareLogTime(b1, s1, b2, s2);
+            
+            return ret;
+        }
+    }
+    
+    static {
+        WritableComparator.define(TransformKey.class, new Comparator());
     }
 }
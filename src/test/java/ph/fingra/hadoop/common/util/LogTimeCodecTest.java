@@ -0,0 +1,75 @@
+package ph.fingra.hadoop.common.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class LogTimeCodecTest extends TestCase {
+    
+    public LogTimeCodecTest(String method) {
+        super(method);
+    }
+    
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new LogTimeCodecTest("testIsValid"));
+        suite.addTest(new LogTimeCodecTest("testEpochSeconds"));
+        suite.addTest(new LogTimeCodecTest("testSecondsBetween"));
+        suite.addTest(new LogTimeCodecTest("testFormat"));
+        return suite;
+    }
+    
+    public void testIsValid() {
+        assertTrue(LogTimeCodec.isValid("20140417061757"));
+        assertTrue(LogTimeCodec.isValid("20141301000000"));
+        assertFalse(LogTimeCodec.isValid(""));
+        assertFalse(LogTimeCodec.isValid("NULL"));
+        assertFalse(LogTimeCodec.isValid("2014041706175"));
+        assertFalse(LogTimeCodec.isValid("2014-04-170617"));
+        
+        byte[] bytes = "xx20140417061757xx".getBytes();
+        assertTrue(LogTimeCodec.isValid(bytes, 2, 14));
+        assertFalse(LogTimeCodec.isValid(bytes, 1, 14));
+    }
+    
+    public void testEpochSeconds() throws Exception {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss", Locale.UK);
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        
+        String[] times = { "19700101000000", "20000229235959", "20140417061757",
+                "20141231235959", "19691231235959", "21000301000000",
+                "20141301000000", "20140230000000", "20140400000000",
+                "20140101246000" };
+        for (String time : times) {
+            assertEquals(time, formatter.parse(time).getTime() / 1000,
+                    LogTimeCodec.toEpochSeconds(time));
+        }
+        assertEquals(LogTimeCodec.INVALID, LogTimeCodec.toEpochSeconds("NULL"));
+    }
+    
+    public void testSecondsBetween() {
+        assertEquals(20, LogTimeCodec.secondsBetween("20140417061757", "20140417061817"));
+        assertEquals(86400, LogTimeCodec.secondsBetween("20140228120000", "20140301120000"));
+        assertEquals(LogTimeCodec.INVALID, LogTimeCodec.secondsBetween("", "20140301120000"));
+        assertEquals(6, LogTimeCodec.getHour("20140417061757"));
+        assertEquals(-1, LogTimeCodec.getHour("2014041706"));
+    }
+    
+    public void testFormat() {
+        String[] times = { "19700101000000", "20000229235959", "20140417061757",
+                "20141231235959", "21000301000000", "99991231235959" };
+        for (String time : times) {
+            assertTrue(time, LogTimeCodec.isCanonical(time));
+            assertEquals(time, LogTimeCodec.format(LogTimeCodec.toEpochSeconds(time)));
+        }
+        assertFalse(LogTimeCodec.isCanonical("20141301000000"));
+        assertFalse(LogTimeCodec.isCanonical("20140229000000"));
+        assertFalse(LogTimeCodec.isCanonical("20140417240000"));
+        assertEquals("20150101000000", LogTimeCodec.format(LogTimeCodec.toEpochSeconds("20141301000000")));
+    }
+    
+}
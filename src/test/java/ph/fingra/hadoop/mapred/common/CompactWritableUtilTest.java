@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.mapred.parse.domain.AppNewuserDb;
+import ph.fingra.hadoop.mapred.parts.performance.domain.HourSessionEntity;
+
+public class CompactWritableUtilTest extends TestCase {
+    
+    private static final String[] TIMES = { "20140417061757", "19700101000000",
+            "99991231235959", "20141301000000", "19691231235959",
+            "2014041706175", "NULL", "", "\uac00\ub098" };
+    
+    private static final String[] CMDS = { ConstantVars.CMD_STARTSESS,
+            ConstantVars.CMD_PAGEVIEW, ConstantVars.CMD_COMPONENT,
+            ConstantVars.CMD_ENDSESS, "unknown", "" };
+    
+    private static final String TOKEN = "5f0c9a7e-1b2d-4c3e-8f4a-6b7c8d9e0f1a";
+    
+    public CompactWritableUtilTest(String method) {
+        super(method);
+    }
+    
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new CompactWritableUtilTest("testLogTime"));
+        suite.addTest(new CompactWritableUtilTest("testCmd"));
+        suite.addTest(new CompactWritableUtilTest("testDatePart"));
+        suite.addTest(new CompactWritableUtilTest("testEntity"));
+        return suite;
+    }
+    
+    public void testLogTime() throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        for (String time : TIMES) {
+            out.reset();
+            CompactWritableUtil.writeLogTime(out, time);
+            out.writeByte(0x55);
+            
+            assertEquals(time, time, CompactWritableUtil.readLogTime(input(out)));
+            assertEquals(time, out.getLength() - 1,
+                    CompactWritableUtil.skipLogTime(out.getData(), 0));
+        }
+        
+        // canonical time : vlong epoch seconds instead of 16 bytes writeUTF
+        out.reset();
+        CompactWritableUtil.writeLogTime(out, "20140417061757");
+        assertEquals(5, out.getLength());
+        out.reset();
+        CompactWritableUtil.writeLogTime(out, "19700101000000");
+        assertEquals(1, out.getLength());
+        
+        // not canonical : marker byte + writeUTF
+        out.reset();
+        CompactWritableUtil.writeLogTime(out, "20141301000000");
+        assertEquals(1 + utfSize("20141301000000"), out.getLength());
+    }
+    
+    public void testCmd() throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        for (String cmd : CMDS) {
+            out.reset();
+            CompactWritableUtil.writeCmd(out, cmd);
+            out.writeByte(0x55);
+            
+            assertEquals(cmd, cmd, CompactWritableUtil.readCmd(input(out)));
+            assertEquals(cmd, out.getLength() - 1,
+                    CompactWritableUtil.skipCmd(out.getData(), 0));
+        }
+        
+        out.reset();
+        CompactWritableUtil.writeCmd(out, ConstantVars.CMD_PAGEVIEW);
+        assertEquals(1, out.getLength());
+        assertEquals(ConstantVars.CommandType.getOrdinalByCmd(ConstantVars.CMD_PAGEVIEW),
+                CompactWritableUtil.getCmdOrdinal(out.getData(), 0));
+        
+        out.reset();
+        CompactWritableUtil.writeCmd(out, "unknown");
+        try {
+            CompactWritableUtil.getCmdOrdinal(out.getData(), 0);
+            fail("unknown cmd has no ordinal");
+        }
+        catch (IllegalArgumentException e) {
+            // expected, same as CommandType.getOrdinalByCmd
+        }
+    }
+    
+    public void testDatePart() throws IOException {
+        String[][] parts = { { "2014", "4" }, { "0000", "4" }, { "9999", "4" },
+                { "04", "2" }, { "00", "2" }, { "53", "2" }, { "4", "2" },
+                { "004", "2" }, { "0a", "2" }, { "-1", "2" }, { "", "2" } };
+        DataOutputBuffer out = new DataOutputBuffer();
+        for (String[] part : parts) {
+            int width = Integer.parseInt(part[1]);
+            out.reset();
+            CompactWritableUtil.writeDatePart(out, part[0], width);
+            assertEquals(part[0], part[0],
+                    CompactWritableUtil.readDatePart(input(out), width));
+        }
+        
+        out.reset();
+        CompactWritableUtil.writeDatePart(out, "2014", 4);
+        assertEquals(3, out.getLength());
+        out.reset();
+        CompactWritableUtil.writeDatePart(out, "04", 2);
+        assertEquals(1, out.getLength());
+    }
+    
+    public void testEntity() throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        
+        HourSessionEntity hour = new HourSessionEntity();
+        hour.set(TOKEN, "20140417061757", ConstantVars.CMD_PAGEVIEW);
+        hour.write(out);
+        HourSessionEntity hour2 = new HourSessionEntity();
+        hour2.readFields(input(out));
+        assertEquals(hour.session, hour2.session);
+        assertEquals(hour.localtime, hour2.localtime);
+        assertEquals(hour.cmd, hour2.cmd);
+        
+        int utf = utfSize(TOKEN) + utfSize("20140417061757")
+                + utfSize(ConstantVars.CMD_PAGEVIEW);
+        assertEquals(utfSize(TOKEN) + 5 + 1, out.getLength());
+        assertTrue(out.getLength() + " of " + utf, out.getLength() * 10 < utf * 7);
+        
+        out.reset();
+        AppNewuserDb db = new AppNewuserDb();
+        db.set("appkey0001", TOKEN, "2014", "04", "17", "16",
+                "20140417061757", "20140417151757", "KR", "ko", "SHV-E250S",
+                "4.3", "720*1280", "1.0.2");
+        db.write(out);
+        AppNewuserDb db2 = new AppNewuserDb();
+        db2.readFields(input(out));
+        assertEquals(db.appkey, db2.appkey);
+        assertEquals(db.token, db2.token);
+        assertEquals(db.year, db2.year);
+        assertEquals(db.month, db2.month);
+        assertEquals(db.day, db2.day);
+        assertEquals(db.week, db2.week);
+        assertEquals(db.utctime, db2.utctime);
+        assertEquals(db.localtime, db2.localtime);
+        assertEquals(db.country, db2.country);
+        assertEquals(db.language, db2.language);
+        assertEquals(db.device, db2.device);
+        assertEquals(db.osversion, db2.osversion);
+        assertEquals(db.resolution, db2.resolution);
+        assertEquals(db.appversion, db2.appversion);
+        
+        // date parts and times : 4 + 2*3 digits and 2*14 digits as writeUTF
+        // against 3 + 1*3 + 2*5 bytes, less than a third
+        int fixed = utfSize("2014") + 3 * utfSize("04") + 2 * utfSize("20140417061757");
+        int rest = utfSize(db.appkey) + utfSize(db.token) + utfSize(db.country)
+                + utfSize(db.language) + utfSize(db.device) + utfSize(db.osversion)
+                + utfSize(db.resolution) + utfSize(db.appversion);
+        assertEquals(rest + 16, out.getLength());
+        assertTrue(16 * 3 < fixed);
+    }
+    
+    private static DataInputStream input(DataOutputBuffer out) {
+        return new DataInputStream(new ByteArrayInputStream(out.getData(), 0, out.getLength()));
+    }
+    
+    private static int utfSize(String str) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        out.writeUTF(str);
+        return out.getLength();
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+
+public class HyperLogLogTest extends TestCase {
+    
+    // standard error of 2^14 registers
+    private static final double STD_ERROR = 1.04 / Math.sqrt(HyperLogLog.M);
+    
+    private static final String TOKEN = "5f0c9a7e-1b2d-4c3e-8f4a-";
+    
+    public HyperLogLogTest(String method) {
+        super(method);
+    }
+    
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new HyperLogLogTest("testErrorBound"));
+        suite.addTest(new HyperLogLogTest("testDuplicates"));
+        suite.addTest(new HyperLogLogTest("testSparseToDense"));
+        suite.addTest(new HyperLogLogTest("testMergeIsUnion"));
+        suite.addTest(new HyperLogLogTest("testWritable"));
+        suite.addTest(new HyperLogLogTest("testDistinctSketch"));
+        return suite;
+    }
+    
+    public void testErrorBound() {
+        assertEquals(0, new HyperLogLog().cardinality());
+        
+        // small sketches are nearly exact
+        int[] small = { 1, 2, 10, 100, 1000 };
+        for (int n : small) {
+            long estimate = sketch("s", 0, n).cardinality();
+            assertTrue(n + " : " + estimate, Math.abs(estimate - n) <= Math.max(1, n / 100));
+        }
+        
+        // rms relative error of 10 sketches near the standard error,
+        // and no sketch beyond 4 standard errors
+        int[] large = { 10000, 100000, 1000000 };
+        for (int n : large) {
+            int trials = (n >= 1000000) ? 3 : 10;
+            double sumsquare = 0.0;
+            for (int t = 0; t < trials; t++) {
+                long estimate = sketch("t" + t + "-", 0, n).cardinality();
+                double error = (double) (estimate - n) / n;
+                assertTrue(n + " : " + estimate, Math.abs(error) < 4 * STD_ERROR);
+                sumsquare += error * error;
+            }
+            double rms = Math.sqrt(sumsquare / trials);
+            assertTrue(n + " : rms " + rms, rms < 2 * STD_ERROR);
+        }
+    }
+    
+    public void testDuplicates() {
+        HyperLogLog once = sketch("d", 0, 5000);
+        HyperLogLog twice = sketch("d", 0, 5000);
+        for (int i = 0; i < 5000; i++) {
+            twice.add(TOKEN + "d" + i);
+        }
+        assertEquals(once.cardinality(), twice.cardinality());
+    }
+    
+    public void testSparseToDense() throws IOException {
+        HyperLogLog hll = new HyperLogLog();
+        
+        // sparse : a few bytes per value, far less than the registers
+        int n = 0;
+        for (; n < 100; n++) {
+            hll.add(TOKEN + n);
+        }
+        int sparsebytes = serialize(hll).getLength();
+        assertTrue(String.valueOf(sparsebytes), sparsebytes < 5 * 100);
+        
+        // turns dense once entries outgrow an eighth of the registers
+        int promoted = -1;
+        long before = hll.cardinality();
+        for (; n < 2 * HyperLogLog.M / 8; n++) {
+            hll.add(TOKEN + n);
+            if (serialize(hll).getLength() == 1 + HyperLogLog.M) {
+                promoted = n;
+                break;
+            }
+            before = hll.cardinality();
+        }
+        assertTrue("sketch never turned dense", promoted > 0);
+        assertTrue(String.valueOf(promoted), promoted >= HyperLogLog.M / 8);
+        
+        // the estimate goes on smoothly across the promotion
+        long after = hll.cardinality();
+        assertTrue(before + " -> " + after, after >= before && after - before <= 2);
+        assertTrue(String.valueOf(after),
+                Math.abs(after - (promoted + 1)) < 4 * STD_ERROR * (promoted + 1));
+        
+        // dense sketch gives the same estimate as a sparse one of the same values
+        HyperLogLog dense = sketch("p", 0, 10000);
+        HyperLogLog merged = sketch("q", 0, 10);
+        merged.merge(dense);
+        HyperLogLog sparse = sketch("q", 0, 10);
+        for (int i = 0; i < 10000; i++) {
+            sparse.add(TOKEN + "p" + i);
+        }
+        assertEquals(sparse.cardinality(), merged.cardinality());
+    }
+    
+    public void testMergeIsUnion() throws IOException {
+        // overlapping ranges of sparse/sparse, sparse/dense and dense/dense sketches
+        int[][] ranges = { { 0, 50, 30, 120 }, { 0, 40, 0, 40 },
+                { 0, 200, 100, 20000 }, { 0, 30000, 10000, 50000 } };
+        for (int[] r : ranges) {
+            HyperLogLog a = sketch("m", r[0], r[1]);
+            HyperLogLog b = sketch("m", r[2], r[3]);
+            HyperLogLog union = sketch("m", Math.min(r[0], r[2]), Math.max(r[1], r[3]));
+            
+            HyperLogLog ab = sketch("m", r[0], r[1]);
+            ab.merge(b);
+            HyperLogLog ba = sketch("m", r[2], r[3]);
+            ba.merge(a);
+            
+            String message = Arrays.toString(r);
+            assertEquals(message, union.cardinality(), ab.cardinality());
+            assertEquals(message, union.cardinality(), ba.cardinality());
+            assertSameBytes(message, ab, ba);
+            
+            // merge of the same values again changes nothing
+            ab.merge(a);
+            ab.merge(b);
+            assertEquals(message, union.cardinality(), ab.cardinality());
+        }
+        
+        // merge of empty sketch
+        HyperLogLog a = sketch("e", 0, 500);
+        long estimate = a.cardinality();
+        a.merge(new HyperLogLog());
+        assertEquals(estimate, a.cardinality());
+        HyperLogLog empty = new HyperLogLog();
+        empty.merge(a);
+        assertEquals(estimate, empty.cardinality());
+    }
+    
+    public void testWritable() throws IOException {
+        int[] counts = { 0, 1, 300, 50000 };
+        for (int n : counts) {
+            HyperLogLog hll = sketch("w", 0, n);
+            DataOutputBuffer out = serialize(hll);
+            
+            HyperLogLog read = new HyperLogLog();
+            read.readFields(input(out));
+            assertEquals(String.valueOf(n), hll.cardinality(), read.cardinality());
+            assertSameBytes(String.valueOf(n), hll, read);
+            
+            // instance of other values is reused, as by the reduce value iterator
+            HyperLogLog reused = sketch("x", 0, 70000 - n);
+            reused.readFields(input(out));
+            assertEquals(String.valueOf(n), hll.cardinality(), reused.cardinality());
+            assertSameBytes(String.valueOf(n), hll, reused);
+            
+            // read sketch goes on adding like the original
+            hll.add(TOKEN + "more");
+            reused.add(TOKEN + "more");
+            assertSameBytes(String.valueOf(n), hll, reused);
+        }
+    }
+    
+    public void testDistinctSketch() throws IOException {
+        DistinctSketch sketch = new DistinctSketch();
+        for (int i = 0; i < 3000; i++) {
+            // 3000 sessions of 300 users
+            sketch.add(TOKEN + (i % 300), "session" + i);
+        }
+        DistinctSketch other = new DistinctSketch();
+        for (int i = 2000; i < 4000; i++) {
+            other.add(TOKEN + (i % 400), "session" + i);
+        }
+        sketch.merge(other);
+        
+        DataOutputBuffer out = serialize(sketch);
+        DistinctSketch read = new DistinctSketch();
+        read.readFields(input(out));
+        
+        assertEquals(sketch.users.cardinality(), read.users.cardinality());
+        assertEquals(sketch.sessions.cardinality(), read.sessions.cardinality());
+        assertTrue(String.valueOf(read.users.cardinality()),
+                Math.abs(read.users.cardinality() - 400) <= 4);
+        assertTrue(String.valueOf(read.sessions.cardinality()),
+                Math.abs(read.sessions.cardinality() - 4000) < 4 * STD_ERROR * 4000);
+    }
+    
+    private static HyperLogLog sketch(String prefix, int from, int to) {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = from; i < to; i++) {
+            hll.add(TOKEN + prefix + i);
+        }
+        return hll;
+    }
+    
+    private static DataOutputBuffer serialize(Writable writable) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        writable.write(out);
+        return out;
+    }
+    
+    private static DataInputBuffer input(DataOutputBuffer out) {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        return in;
+    }
+    
+    private static void assertSameBytes(String message, Writable expected,
+            Writable actual) throws IOException {
+        DataOutputBuffer e = serialize(expected);
+        DataOutputBuffer a = serialize(actual);
+        assertEquals(message, e.getLength(), a.getLength());
+        assertTrue(message, Arrays.equals(Arrays.copyOf(e.getData(), e.getLength()),
+                Arrays.copyOf(a.getData(), a.getLength())));
+    }
+}
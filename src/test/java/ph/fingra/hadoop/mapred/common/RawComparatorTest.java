@@ -0,0 +1,294 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.mapred.parts.component.domain.ComponentHourSessionKey;
+import ph.fingra.hadoop.mapred.parts.component.domain.ComponentTokenfreqKey;
+import ph.fingra.hadoop.mapred.parts.component.domain.ComponentUserSessionKey;
+import ph.fingra.hadoop.mapred.parts.distribution.domain.CountryKey;
+import ph.fingra.hadoop.mapred.parts.distribution.domain.DeviceKey;
+import ph.fingra.hadoop.mapred.parts.performance.domain.HourSessionKey;
+import ph.fingra.hadoop.mapred.parts.performance.domain.PerformanceKey;
+import ph.fingra.hadoop.mapred.parts.performance.domain.SesstimeKey;
+import ph.fingra.hadoop.mapred.parts.performance.domain.TokenfreqKey;
+import ph.fingra.hadoop.mapred.parts.performance.domain.UserSessionKey;
+import ph.fingra.hadoop.mapred.parts.prerole.domain.AppNewuserKey;
+import ph.fingra.hadoop.mapred.parts.prerole.domain.ComponentNewuserKey;
+import ph.fingra.hadoop.mapred.parts.prerole.domain.NewuserMergeKey;
+import ph.fingra.hadoop.mapred.parts.prerole.domain.TransformKey;
+
+/**
+ * Raw comparator of every composite key must give the same order as
+ * compareTo of the deserialized keys.
+ */
+public class RawComparatorTest extends TestCase {
+    
+    private static final int PAIRS = 3000;
+    
+    // equal prefixes of different length, non-ascii (2 byte, 3 byte and
+    // surrogate pair in modified utf-8) and chars above the surrogates
+    private static final String[] STRS = { "", "a", "ab", "abc", "abd",
+            "ab\u00e9", "\u00e9", "\uac00", "\uac00\ub098", "\uac00\ub098\ub2e4",
+            "\ud83d\ude00", "\ud83d\ude01", "\uffe0", "\u007f", "B" };
+    
+    // canonical, not canonical and invalid log times
+    private static final String[] TIMES = { "20140417061757", "20140417061758",
+            "20140417061857", "20141231235959", "19700101000000", "20141301000000",
+            "2014041706175", "201404170617570", "NULL", "", "\uac00" };
+    
+    private static final String[] CMDS = { ConstantVars.CMD_STARTSESS,
+            ConstantVars.CMD_PAGEVIEW, ConstantVars.CMD_COMPONENT,
+            ConstantVars.CMD_ENDSESS };
+    
+    private Random random = new Random(20140417L);
+    
+    public RawComparatorTest(String method) {
+        super(method);
+    }
+    
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new RawComparatorTest("testCompareUTF"));
+        suite.addTest(new RawComparatorTest("testAppNewuserKey"));
+        suite.addTest(new RawComparatorTest("testComponentNewuserKey"));
+        suite.addTest(new RawComparatorTest("testNewuserMergeKey"));
+        suite.addTest(new RawComparatorTest("testTransformKey"));
+        suite.addTest(new RawComparatorTest("testUserSessionKey"));
+        suite.addTest(new RawComparatorTest("testTokenfreqKey"));
+        suite.addTest(new RawComparatorTest("testHourSessionKey"));
+        suite.addTest(new RawComparatorTest("testSesstimeKey"));
+        suite.addTest(new RawComparatorTest("testPerformanceKey"));
+        suite.addTest(new RawComparatorTest("testComponentUserSessionKey"));
+        suite.addTest(new RawComparatorTest("testComponentTokenfreqKey"));
+        suite.addTest(new RawComparatorTest("testComponentHourSessionKey"));
+        suite.addTest(new RawComparatorTest("testCountryKey"));
+        suite.addTest(new RawComparatorTest("testDeviceKey"));
+        return suite;
+    }
+    
+    public void testCompareUTF() throws IOException {
+        for (String s1 : STRS) {
+            for (String s2 : STRS) {
+                DataOutputBuffer out1 = new DataOutputBuffer();
+                DataOutputBuffer out2 = new DataOutputBuffer();
+                out1.writeUTF(s1);
+                out2.writeUTF(s2);
+                assertEquals(s1 + " : " + s2, Integer.signum(s1.compareTo(s2)),
+                        Integer.signum(BaseRawComparator.compareUTF(
+                                out1.getData(), 0, out2.getData(), 0)));
+            }
+        }
+    }
+    
+    public void testAppNewuserKey() throws IOException {
+        AppNewuserKey k1 = new AppNewuserKey();
+        AppNewuserKey k2 = new AppNewuserKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str());
+            k2.set(str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testComponentNewuserKey() throws IOException {
+        ComponentNewuserKey k1 = new ComponentNewuserKey();
+        ComponentNewuserKey k2 = new ComponentNewuserKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str());
+            k2.set(str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testNewuserMergeKey() throws IOException {
+        NewuserMergeKey k1 = new NewuserMergeKey();
+        NewuserMergeKey k2 = new NewuserMergeKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(dbtag(), str(), str(), str());
+            k2.set(dbtag(), str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testTransformKey() throws IOException {
+        TransformKey k1 = new TransformKey();
+        TransformKey k2 = new TransformKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str(), cmd(), time());
+            k2.set(str(), str(), str(), cmd(), time());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testUserSessionKey() throws IOException {
+        UserSessionKey k1 = new UserSessionKey();
+        UserSessionKey k2 = new UserSessionKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str());
+            k2.set(str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testTokenfreqKey() throws IOException {
+        TokenfreqKey k1 = new TokenfreqKey();
+        TokenfreqKey k2 = new TokenfreqKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str());
+            k2.set(str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testHourSessionKey() throws IOException {
+        HourSessionKey k1 = new HourSessionKey();
+        HourSessionKey k2 = new HourSessionKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), time());
+            k2.set(str(), str(), time());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testSesstimeKey() throws IOException {
+        SesstimeKey k1 = new SesstimeKey();
+        SesstimeKey k2 = new SesstimeKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), time());
+            k2.set(str(), str(), time());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testPerformanceKey() throws IOException {
+        PerformanceKey k1 = new PerformanceKey();
+        PerformanceKey k2 = new PerformanceKey();
+        for (int i = 0; i < PAIRS; i++) {
+            int tag1 = this.random.nextInt(PerformanceKey.TAG_PAGEVIEW + 1);
+            int tag2 = (i % 2 == 0) ? tag1 : this.random.nextInt(PerformanceKey.TAG_PAGEVIEW + 1);
+            k1.set(tag1, str(), str(), PerformanceKey.hasLogTime(tag1) ? time() : str());
+            k2.set(tag2, str(), str(), PerformanceKey.hasLogTime(tag2) ? time() : str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testComponentUserSessionKey() throws IOException {
+        ComponentUserSessionKey k1 = new ComponentUserSessionKey();
+        ComponentUserSessionKey k2 = new ComponentUserSessionKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str(), str());
+            k2.set(str(), str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testComponentTokenfreqKey() throws IOException {
+        ComponentTokenfreqKey k1 = new ComponentTokenfreqKey();
+        ComponentTokenfreqKey k2 = new ComponentTokenfreqKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str(), str());
+            k2.set(str(), str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testComponentHourSessionKey() throws IOException {
+        ComponentHourSessionKey k1 = new ComponentHourSessionKey();
+        ComponentHourSessionKey k2 = new ComponentHourSessionKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str(), time());
+            k2.set(str(), str(), str(), time());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testCountryKey() throws IOException {
+        CountryKey k1 = new CountryKey();
+        CountryKey k2 = new CountryKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str(), str());
+            k2.set(str(), str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    public void testDeviceKey() throws IOException {
+        DeviceKey k1 = new DeviceKey();
+        DeviceKey k2 = new DeviceKey();
+        for (int i = 0; i < PAIRS; i++) {
+            k1.set(str(), str(), str(), str());
+            k2.set(str(), str(), str(), str());
+            assertSameOrder(k1, k2);
+        }
+    }
+    
+    /**
+     * serialize both keys at different offsets and check the registered raw
+     * comparator against compareTo in both directions
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void assertSameOrder(WritableComparable k1, WritableComparable k2)
+            throws IOException {
+        
+        WritableComparator comparator = WritableComparator.get(k1.getClass());
+        assertTrue(k1.getClass().getName(), comparator instanceof BaseRawComparator);
+        
+        DataOutputBuffer out1 = new DataOutputBuffer();
+        DataOutputBuffer out2 = new DataOutputBuffer();
+        out1.writeByte(0x7f);
+        k1.write(out1);
+        out2.writeShort(0x7f7f);
+        k2.write(out2);
+        
+        int expected = Integer.signum(k1.compareTo(k2));
+        String message = k1 + " : " + k2;
+        assertEquals(message, expected, Integer.signum(comparator.compare(
+                out1.getData(), 1, out1.getLength() - 1,
+                out2.getData(), 2, out2.getLength() - 2)));
+        assertEquals(message, -expected, Integer.signum(comparator.compare(
+                out2.getData(), 2, out2.getLength() - 2,
+                out1.getData(), 1, out1.getLength() - 1)));
+    }
+    
+    private String str() {
+        return STRS[this.random.nextInt(STRS.length)];
+    }
+    
+    private String time() {
+        return TIMES[this.random.nextInt(TIMES.length)];
+    }
+    
+    private String cmd() {
+        return CMDS[this.random.nextInt(CMDS.length)];
+    }
+    
+    private String dbtag() {
+        return this.random.nextBoolean() ? NewuserMergeKey.TAG_APP : NewuserMergeKey.TAG_COMPONENT;
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2014 tgrape Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ph.fingra.hadoop.mapred.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.mapred.common.TransformColumnarFile.Column;
+import ph.fingra.hadoop.mapred.parse.domain.TransformRecord;
+
+public class TransformColumnarFileTest extends TestCase {
+    
+    private static final String[] CMDS = { ConstantVars.CMD_STARTSESS,
+            ConstantVars.CMD_PAGEVIEW, ConstantVars.CMD_COMPONENT,
+            ConstantVars.CMD_ENDSESS };
+    
+    private static final String[] COUNTRIES = { "KR", "US", "JP", "\uad6d\uac00" };
+    
+    private static final int ROWS = 1000;
+    private static final int BLOCK_ROWS = 64;
+    
+    public TransformColumnarFileTest(String method) {
+        super(method);
+    }
+    
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new TransformColumnarFileTest("testRoundTrip"));
+        suite.addTest(new TransformColumnarFileTest("testProjection"));
+        suite.addTest(new TransformColumnarFileTest("testBlockDictionary"));
+        suite.addTest(new TransformColumnarFileTest("testSplits"));
+        return suite;
+    }
+    
+    public void testRoundTrip() throws IOException {
+        List<TransformRecord> rows = createRows(ROWS);
+        byte[] file = write(rows, BLOCK_ROWS);
+        
+        List<TransformRecord> read = read(file, 0, file.length, Column.values());
+        assertEquals(rows.size(), read.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertSameRecord("row " + i, rows.get(i), read.get(i));
+        }
+        
+        // empty file has a footer of no blocks
+        file = write(new ArrayList<TransformRecord>(), BLOCK_ROWS);
+        assertEquals(0, read(file, 0, file.length, Column.values()).size());
+    }
+    
+    public void testProjection() throws IOException {
+        List<TransformRecord> rows = createRows(ROWS);
+        byte[] file = write(rows, BLOCK_ROWS);
+        
+        List<TransformRecord> read = read(file, 0, file.length,
+                new Column[] { Column.APPKEY, Column.UTCTIME, Column.CMD });
+        assertEquals(rows.size(), read.size());
+        for (int i = 0; i < rows.size(); i++) {
+            TransformRecord expected = rows.get(i);
+            TransformRecord actual = read.get(i);
+            assertEquals(expected.appkey, actual.appkey);
+            assertEquals(expected.utctime, actual.utctime);
+            assertEquals(expected.cmd, actual.cmd);
+            
+            // columns not asked for are left untouched
+            assertEquals("", actual.session);
+            assertEquals("", actual.token);
+            assertEquals("", actual.localtime);
+            assertEquals("", actual.country);
+            assertEquals("", actual.appversion);
+        }
+    }
+    
+    public void testBlockDictionary() throws IOException {
+        // block 1 sees KR only, block 2 US only, block 3 KR again
+        List<TransformRecord> rows = createRows(3 * BLOCK_ROWS);
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).country = (i / BLOCK_ROWS == 1) ? "US" : "KR";
+        }
+        byte[] file = write(rows, BLOCK_ROWS);
+        
+        // block header : MAGIC(4), VERSION(1), row count, byte length of each column
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(file, 5,
+                file.length - 5));
+        assertEquals(BLOCK_ROWS, in.readInt());
+        int[] lengths = new int[Column.values().length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = in.readInt();
+        }
+        // dictionary of one value (vint size, writeUTF) and a vint index of each row
+        assertEquals(1 + (2 + 2) + BLOCK_ROWS, lengths[Column.COUNTRY.ordinal()]);
+        
+        List<TransformRecord> read = read(file, 0, file.length,
+                new Column[] { Column.COUNTRY });
+        assertEquals(rows.size(), read.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals("row " + i, rows.get(i).country, read.get(i).country);
+        }
+    }
+    
+    public void testSplits() throws IOException {
+        List<TransformRecord> rows = createRows(ROWS);
+        byte[] file = write(rows, BLOCK_ROWS);
+        
+        // every block is read once by the split it starts in, wherever splits cut
+        long[][] cuts = { { 0, file.length / 2, file.length },
+                { 0, 1, 7, file.length / 3, 2 * file.length / 3, file.length },
+                { 0, file.length - 1, file.length } };
+        for (long[] cut : cuts) {
+            List<TransformRecord> read = new ArrayList<TransformRecord>();
+            for (int i = 0; i + 1 < cut.length; i++) {
+                read.addAll(read(file, cut[i], cut[i + 1], Column.values()));
+            }
+            assertEquals(rows.size(), read.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertSameRecord("row " + i, rows.get(i), read.get(i));
+            }
+        }
+        
+        // split starting mid-file begins at the next block boundary
+        long mid = file.length / 2;
+        List<TransformRecord> tail = read(file, mid, file.length, Column.values());
+        assertTrue(tail.size() > 0 && tail.size() < rows.size());
+        assertEquals(0, (rows.size() - tail.size()) % BLOCK_ROWS);
+        assertSameRecord("first row of split", rows.get(rows.size() - tail.size()),
+                tail.get(0));
+    }
+    
+    private static List<TransformRecord> createRows(int count) {
+        Random random = new Random(17);
+        List<TransformRecord> rows = new ArrayList<TransformRecord>();
+        for (int i = 0; i < count; i++) {
+            String cmd = CMDS[random.nextInt(CMDS.length)];
+            TransformRecord record = new TransformRecord();
+            record.set(cmd, "app" + random.nextInt(5),
+                    cmd.equals(ConstantVars.CMD_COMPONENT) ? "compo" + random.nextInt(20) : "",
+                    "session" + random.nextInt(200), "token" + random.nextInt(100),
+                    String.format("201404%02d%02d%02d%02d", 1 + random.nextInt(30),
+                            random.nextInt(24), random.nextInt(60), random.nextInt(60)),
+                    (i % 50 == 0) ? "NULL" : "20140417061757",
+                    COUNTRIES[random.nextInt(COUNTRIES.length)], "ko", "SHV-E250S",
+                    "4.1.2", "720*1280", "1." + random.nextInt(3));
+            rows.add(record);
+        }
+        return rows;
+    }
+    
+    private static byte[] write(List<TransformRecord> rows, int blockrows)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TransformColumnarFile.Writer writer = new TransformColumnarFile.Writer(
+                new FSDataOutputStream(bytes, null), blockrows);
+        for (TransformRecord row : rows) {
+            writer.append(row);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+    
+    private static List<TransformRecord> read(byte[] file, long start, long end,
+            Column[] columns) throws IOException {
+        TransformColumnarFile.Reader reader = new TransformColumnarFile.Reader(
+                new FSDataInputStream(new SeekableBytes(file)), file.length, start, end,
+                columns);
+        List<TransformRecord> rows = new ArrayList<TransformRecord>();
+        TransformRecord record = new TransformRecord();
+        while (reader.next(record)) {
+            rows.add(record);
+            record = new TransformRecord();
+        }
+        reader.close();
+        return rows;
+    }
+    
+    private static void assertSameRecord(String message, TransformRecord expected,
+            TransformRecord actual) {
+        assertEquals(message, expected.cmd, actual.cmd);
+        assertEquals(message, expected.appkey, actual.appkey);
+        assertEquals(message, expected.componentkey, actual.componentkey);
+        assertEquals(message, expected.session, actual.session);
+        assertEquals(message, expected.token, actual.token);
+        assertEquals(message, expected.utctime, actual.utctime);
+        assertEquals(message, expected.localtime, actual.localtime);
+        assertEquals(message, expected.country, actual.country);
+        assertEquals(message, expected.language, actual.language);
+        assertEquals(message, expected.device, actual.device);
+        assertEquals(message, expected.osversion, actual.osversion);
+        assertEquals(message, expected.resolution, actual.resolution);
+        assertEquals(message, expected.appversion, actual.appversion);
+    }
+    
+    /**
+     * file bytes in memory, for FSDataInputStream
+     */
+    private static class SeekableBytes extends ByteArrayInputStream
+        implements Seekable, PositionedReadable {
+        
+        public SeekableBytes(byte[] data) {
+            super(data);
+        }
+        
+        @Override
+        public void seek(long pos) throws IOException {
+            if (pos > count) {
+                throw new EOFException("seek past end of file : " + pos);
+            }
+            this.pos = (int) pos;
+        }
+        
+        @Override
+        public long getPos() throws IOException {
+            return pos;
+        }
+        
+        @Override
+        public boolean seekToNewSource(long targetPos) throws IOException {
+            return false;
+        }
+        
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length)
+                throws IOException {
+            if (position >= count) {
+                return -1;
+            }
+            int n = Math.min(length, count - (int) position);
+            System.arraycopy(buf, (int) position, buffer, offset, n);
+            return n;
+        }
+        
+        @Override
+        public void readFully(long position, byte[] buffer, int offset, int length)
+                throws IOException {
+            if (read(position, buffer, offset, length) < length) {
+                throw new EOFException("read past end of file : " + position);
+            }
+        }
+        
+        @Override
+        public void readFully(long position, byte[] buffer) throws IOException {
+            readFully(position, buffer, 0, buffer.length);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ph.fingra.hadoop.mapred.parse;
+
+import org.apache.hadoop.io.Text;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import ph.fingra.hadoop.common.ConstantVars;
+import ph.fingra.hadoop.common.SdkFieldInfo;
+
+public class LogFieldTokenizerTest extends TestCase {
+    
+    private static final String COMMON_LOG =
+            "STARTSESS||fin278318||a03ab4b9-93d6-47d8-8159-3ddf7c3a878a||20140417061757||20140417151757"
+            + "||00000000-101c-4612-ffff-ffff9a3181c8||KR||ko||IM-A870L||4.1.2||720X1184||1.0";
+    private static final String COMPONENT_LOG =
+            "EVENT||fin278318||evt196318||a03ab4b9-93d6-47d8-8159-3ddf7c3a878a||20140417061808||20140417151808"
+            + "||00000000-101c-4612-ffff-ffff9a3181c8||KR||ko||IM-A870L||4.1.2||720X1184||1.0";
+    
+    // empty fields, "NULL", trailing "||", "|" inside a dimension, multibyte utf-8
+    private static final String[] COMMON_LOGS = {
+        COMMON_LOG,
+        COMMON_LOG.replace("||KR||ko||", "||||||"),
+        COMMON_LOG.replace("||KR||ko||", "||NULL||NULL||"),
+        COMMON_LOG.replace("||1.0", "||"),
+        COMMON_LOG.replace("||1.0", "||1.0||"),
+        COMMON_LOG.replace("||1.0", "||1.0||||extra"),
+        COMMON_LOG.replace("||IM-A870L||", "||IM|A870L||"),
+        COMMON_LOG.replace("||IM-A870L||", "||IM|||A870L||"),
+        COMMON_LOG.replace("||IM-A870L||", "||IM-A870L|||"),
+        COMMON_LOG.replace("||IM-A870L||", "||\uac24\ub7ed\uc2dc|\u30ce\u30fc\u30c8\ud83d\udcf1||"),
+        COMMON_LOG.replace("||ko||", "||\u0444\u0440||"),
+        COMMON_LOG.replace("||a03ab4b9-93d6-47d8-8159-3ddf7c3a878a||", "||||"),
+        COMMON_LOG.replace("||a03ab4b9-93d6-47d8-8159-3ddf7c3a878a||", "||NULL||"),
+        COMMON_LOG.replace("||20140417061757||", "||||"),
+        COMMON_LOG.replace("||00000000-101c-4612-ffff-ffff9a3181c8||", "||NULL||"),
+        COMMON_LOG.replace("fin278318", "fin-278318"),
+        COMMON_LOG.replace("STARTSESS", "NULL"),
+        COMMON_LOG.replace("STARTSESS", "STARTSESSION"),
+        COMMON_LOG.replace("STARTSESS", "PAGEVIEW"),
+        COMMON_LOG.replace("STARTSESS", "ENDSESS"),
+        COMMON_LOG.substring(0, COMMON_LOG.lastIndexOf("||")),
+        "STARTSESS||||||||||||||||||||||",
+        "||||||||||||||||||||||",
+        "",
+        "  \t ",
+    };
+    
+    private static final String[] COMPONENT_LOGS = {
+        COMPONENT_LOG,
+        COMPONENT_LOG.replace("||KR||ko||", "||||||"),
+        COMPONENT_LOG.replace("||KR||ko||", "||NULL||NULL||"),
+        COMPONENT_LOG.replace("||1.0", "||"),
+        COMPONENT_LOG.replace("||1.0", "||1.0||"),
+        COMPONENT_LOG.replace("||IM-A870L||", "||IM|A870L||"),
+        COMPONENT_LOG.replace("||IM-A870L||", "||\uac24\ub7ed\uc2dc|\u30ce\u30fc\u30c8\ud83d\udcf1||"),
+        COMPONENT_LOG.replace("||evt196318||", "||||"),
+        COMPONENT_LOG.replace("||evt196318||", "||evt|196318||"),
+        COMPONENT_LOG.replace("||evt196318||", "||\uc774\ubca4\ud2b8||"),
+        COMPONENT_LOG.replace("EVENT", "NULL"),
+        COMPONENT_LOG.replace("EVENT", "STARTSESS"),
+        COMPONENT_LOG.substring(0, COMPONENT_LOG.lastIndexOf("||")),
+        "EVENT||||||||||||||||||||||||",
+        "",
+    };
+    
+    public LogFieldTokenizerTest(String method) {
+        super(method);
+    }
+    
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new LogFieldTokenizerTest("testTokenize"));
+        suite.addTest(new LogFieldTokenizerTest("testFieldValue"));
+        suite.addTest(new LogFieldTokenizerTest("testIsBlank"));
+        suite.addTest(new LogFieldTokenizerTest("testCommonLogParser"));
+        suite.addTest(new LogFieldTokenizerTest("testComponentLogParser"));
+        return suite;
+    }
+    
+    public void testTokenize() throws Exception {
+        String[] lines = { "", "a", "||", "a||", "||a", "a||||b", "a|||b", "a||||||",
+                "a|b||c", "|||", "||||", "a||b||c||d||e", "\uac00||\ud83d\ude00||\u00e9" };
+        for (int limit = 1; limit <= 4; limit++) {
+            LogFieldTokenizer tokenizer = new LogFieldTokenizer(limit);
+            for (String line : lines) {
+                String[] fields = line.split(ConstantVars.LOG_FIELD_SEPERATER_REGX, limit);
+                Text record = new Text(line);
+                assertEquals(line, fields.length, tokenizer.tokenize(record));
+                assertEquals(line, fields.length, tokenizer.getCount());
+                for (int i = 0; i < fields.length; i++) {
+                    String field = new String(record.getBytes(), tokenizer.getStart(i),
+                            tokenizer.getLength(i), "UTF-8");
+                    assertEquals(line + " [" + i + "]", fields[i], field);
+                }
+            }
+        }
+    }
+    
+    public void testFieldValue() {
+        LogFieldTokenizer tokenizer = new LogFieldTokenizer(SdkFieldInfo.CommonFieldCount);
+        for (String line : COMMON_LOGS) {
+            String[] fields = line.split(ConstantVars.LOG_FIELD_SEPERATER_REGX, SdkFieldInfo.CommonFieldCount);
+            Text record = new Text(line);
+            tokenizer.tokenize(record.getBytes(), record.getLength());
+            for (int i = 0; i < fields.length; i++) {
+                String value = fields[i].equals(ConstantVars.LOG_NULL) ? "" : fields[i];
+                assertEquals(line + " [" + i + "]", value.isEmpty(), tokenizer.isNullOrEmpty(i));
+                assertEquals(line + " [" + i + "]", value, tokenizer.getString(i));
+                assertEquals(line + " [" + i + "]", value.replaceAll("\\|", "/"), tokenizer.getDimension(i));
+            }
+        }
+    }
+    
+    public void testIsBlank() {
+        String[] lines = { "", " ", " \t\r\n", "\u0000\u001f", " a ", "\u00a0", "\uac00" };
+        for (String line : lines) {
+            Text record = new Text(line);
+            assertEquals(line, line.trim().isEmpty(),
+                    LogFieldTokenizer.isBlank(record.getBytes(), record.getLength()));
+        }
+    }
+    
+    public void testCommonLogParser() {
+        CommonLogParser expected = new CommonLogParser();
+        CommonLogParser actual = new CommonLogParser();
+        for (String line : COMMON_LOGS) {
+            expected.parse(line);
+            actual.parse(new Text(line));
+            assertEquals(line, expected.hasError(), actual.hasError());
+            assertEquals(line, expected.getParseError(), actual.getParseError());
+            assertEquals(line, expected.getErrorLevel(), actual.getErrorLevel());
+            assertEquals(line, expected.getCmd(), actual.getCmd());
+            assertEquals(line, expected.getAppkey(), actual.getAppkey());
+            if (expected.hasError())
+                continue;
+            assertEquals(line, expected.getSession(), actual.getSession());
+            assertEquals(line, expected.getUtctime(), actual.getUtctime());
+            assertEquals(line, expected.getLocaltime(), actual.getLocaltime());
+            assertEquals(line, expected.getToken(), actual.getToken());
+            assertEquals(line, expected.getCountry(), actual.getCountry());
+            assertEquals(line, expected.getLanguage(), actual.getLanguage());
+            assertEquals(line, expected.getDevice(), actual.getDevice());
+            assertEquals(line, expected.getOsversion(), actual.getOsversion());
+            assertEquals(line, expected.getResolution(), actual.getResolution());
+            assertEquals(line, expected.getAppversion(), actual.getAppversion());
+        }
+    }
+    
+    public void testComponentLogParser() {
+        ComponentLogParser expected = new ComponentLogParser();
+        ComponentLogParser actual = new ComponentLogParser();
+        for (String line : COMPONENT_LOGS) {
+            expected.parse(line);
+            actual.parse(new Text(line));
+            assertEquals(line, expected.hasError(), actual.hasError());
+            assertEquals(line, expected.getParseError(), actual.getParseError());
+            assertEquals(line, expected.getErrorLevel(), actual.getErrorLevel());
+            assertEquals(line, expected.getCmd(), actual.getCmd());
+            assertEquals(line, expected.getAppkey(), actual.getAppkey());
+            if (expected.hasError())
+                continue;
+            assertEquals(line, expected.getComponentkey(), actual.getComponentkey());
+            assertEquals(line, expected.getSession(), actual.getSession());
+            assertEquals(line, expected.getUtctime(), actual.getUtctime());
+            assertEquals(line, expected.getLocaltime(), actual.getLocaltime());
+            assertEquals(line, expected.getToken(), actual.getToken());
+            assertEquals(line, expected.getCountry(), actual.getCountry());
+            assertEquals(line, expected.getLanguage(), actual.getLanguage());
+            assertEquals(line, expected.getDevice(), actual.getDevice());
+            assertEquals(line, expected.getOsversion(), actual.getOsversion());
+            assertEquals(line, expected.getResolution(), actual.getResolution());
+            assertEquals(line, expected.getAppversion(), actual.getAppversion());
+        }
+    }
+    
+}